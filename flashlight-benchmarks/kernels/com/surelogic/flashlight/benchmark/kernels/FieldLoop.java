@@ -0,0 +1,25 @@
+package com.surelogic.flashlight.benchmark.kernels;
+
+import com.surelogic.flashlight.benchmark.Kernel;
+
+/**
+ * Reads and writes instance fields in a tight loop. This is the common case
+ * the field access hot path of the store has to handle.
+ */
+public class FieldLoop implements Kernel {
+
+  private static final int ITERATIONS = 1000;
+
+  private int f_value;
+  private long f_sum;
+  private long f_total;
+
+  public long run() {
+    for (int i = 0; i < ITERATIONS; i++) {
+      f_value = i;
+      f_sum += f_value;
+      f_total += f_sum;
+    }
+    return f_total;
+  }
+}
@@ -0,0 +1,30 @@
+package com.surelogic.flashlight.benchmark.kernels;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.surelogic.flashlight.benchmark.Kernel;
+
+/**
+ * Increments a counter while holding a {@link ReentrantLock}. Run by several
+ * threads, the lock is handed from thread to thread.
+ */
+public class LockHandoff implements Kernel {
+
+  private static final int ITERATIONS = 100;
+
+  private final ReentrantLock f_lock = new ReentrantLock();
+  private long f_count;
+
+  public long run() {
+    long count = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      f_lock.lock();
+      try {
+        count = ++f_count;
+      } finally {
+        f_lock.unlock();
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,35 @@
+package com.surelogic.flashlight.benchmark.kernels;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.surelogic.flashlight.benchmark.Kernel;
+
+/**
+ * Reads and updates a {@link ConcurrentHashMap}, which the instrumentation
+ * reports as indirect accesses to the map.
+ */
+public class MapWorkload implements Kernel {
+
+  private static final int ITERATIONS = 100;
+  private static final int KEYS = 1024;
+
+  private final ConcurrentHashMap<Integer, Integer> f_map = new ConcurrentHashMap<Integer, Integer>();
+
+  public MapWorkload() {
+    for (int i = 0; i < KEYS; i++) {
+      f_map.put(i, i);
+    }
+  }
+
+  public long run() {
+    long sum = 0;
+    int key = (int) Thread.currentThread().getId();
+    for (int i = 0; i < ITERATIONS; i++) {
+      key = (key * 31 + 7) & KEYS - 1;
+      final Integer value = f_map.get(key);
+      sum += value;
+      f_map.put(key, value + 1);
+    }
+    return sum;
+  }
+}
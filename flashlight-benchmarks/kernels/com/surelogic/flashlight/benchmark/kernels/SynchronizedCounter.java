@@ -0,0 +1,23 @@
+package com.surelogic.flashlight.benchmark.kernels;
+
+import com.surelogic.flashlight.benchmark.Kernel;
+
+/**
+ * Increments a counter while holding its intrinsic lock.
+ */
+public class SynchronizedCounter implements Kernel {
+
+  private static final int ITERATIONS = 100;
+
+  private long f_count;
+
+  public long run() {
+    long count = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      synchronized (this) {
+        count = ++f_count;
+      }
+    }
+    return count;
+  }
+}
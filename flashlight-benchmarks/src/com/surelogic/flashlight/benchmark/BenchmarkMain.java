@@ -0,0 +1,24 @@
+package com.surelogic.flashlight.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, always adding
+ * the garbage collection profiler so that the allocation rate of each profile
+ * is reported. The benchmarks report kernel runs and events per second; use
+ * {@code -bm avgt -tu ns} to report nanoseconds per run instead.
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {
+    // no instances
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final CommandLineOptions cmd = new CommandLineOptions(args);
+    new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+  }
+}
@@ -0,0 +1,45 @@
+package com.surelogic.flashlight.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Counts the events the store took from the kernels, so that JMH reports the
+ * rate of events alongside the rate of kernel runs. The count is read from the
+ * store, so it is 0 for the profiles that do not use it, and it leaves out
+ * whatever the profile does not collect and any events the store dropped.
+ * <p>
+ * The store counts the events of every benchmark thread together, so only the
+ * first thread reports them.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class EventCounter {
+
+  public long events;
+
+  private boolean f_reports;
+  private long f_start;
+
+  @Setup(Level.Iteration)
+  public void reset(final ThreadParams thread) {
+    events = 0;
+    f_reports = thread.getThreadIndex() == 0;
+    f_start = KernelLoader.getEventCount();
+  }
+
+  /**
+   * Counts the events the store has taken since the iteration started. The
+   * store takes them a little after the kernel reports them, so the count for
+   * an iteration may include a few from the one before.
+   */
+  void update() {
+    if (f_reports) {
+      events = KernelLoader.getEventCount() - f_start;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.surelogic.flashlight.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.bind.JAXBException;
+
+import com.surelogic._flashlight.common.InstrumentationConstants;
+import com.surelogic._flashlight.rewriter.PrintWriterMessenger;
+import com.surelogic._flashlight.rewriter.RewriteManager;
+import com.surelogic._flashlight.rewriter.config.Configuration;
+
+/**
+ * Writes an instrumented copy of the compiled kernels for each instrumented
+ * {@link Profile}. This is run by the build before the benchmarks are
+ * packaged.
+ * <p>
+ * Usage: {@code InstrumentKernels benchmark-classes-dir}. The uninstrumented
+ * kernels are read from, and the instrumented kernels written next to, the
+ * directories named by {@link Profile#getClassesDir()}.
+ */
+public final class InstrumentKernels {
+
+  private InstrumentKernels() {
+    // no instances
+  }
+
+  public static void main(final String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: InstrumentKernels benchmark-classes-dir");
+      System.exit(1);
+    }
+    final File benchmarkClasses = new File(args[0]);
+    final File kernelClasses = Profile.UNINSTRUMENTED.getClassesDir();
+    final Set<File> done = new HashSet<File>();
+    for (final Profile p : Profile.values()) {
+      final Configuration config = p.getConfiguration();
+      final File dir = p.getInstrumentationDir();
+      if (config == null || !done.add(dir)) {
+        continue;
+      }
+      System.out.println("Instrumenting kernels for " + p + " into " + dir);
+      final File fieldsFile = new File(dir, InstrumentationConstants.FL_FIELDS_FILE_LOC);
+      final File sitesFile = new File(dir, InstrumentationConstants.FL_SITES_FILE_LOC);
+      final File chFile = new File(dir, InstrumentationConstants.FL_CLASS_HIERARCHY_FILE_LOC);
+      fieldsFile.getParentFile().mkdirs();
+      final RewriteManager manager = new KernelRewriteManager(config, fieldsFile, sitesFile, chFile);
+      manager.addClasspathDir(benchmarkClasses);
+      manager.addDirToDir(kernelClasses, p.getClassesDir());
+      manager.execute();
+    }
+  }
+
+  /**
+   * Fails the build on any problem instrumenting the kernels.
+   */
+  private static final class KernelRewriteManager extends RewriteManager {
+    KernelRewriteManager(final Configuration c, final File ff, final File sf, final File chf) {
+      super(c, new PrintWriterMessenger(new PrintWriter(System.out, true)), ff, sf, chf, null);
+    }
+
+    @Override
+    protected void exceptionScan(final String srcPath, final IOException e) {
+      throw new IllegalStateException("Error scanning classfiles in " + srcPath, e);
+    }
+
+    @Override
+    protected void exceptionInstrument(final String srcPath, final String destPath, final IOException e) {
+      throw new IllegalStateException("Error instrumenting classfiles in " + srcPath, e);
+    }
+
+    @Override
+    protected void exceptionLoadingMethodsFile(final JAXBException e) {
+      throw new IllegalStateException("Problem loading indirect access methods", e);
+    }
+
+    @Override
+    protected void exceptionCreatingFieldsFile(final File fieldsFile, final FileNotFoundException e) {
+      throw new IllegalStateException("Couldn't open " + fieldsFile.getAbsolutePath(), e);
+    }
+
+    @Override
+    protected void exceptionCreatingClassHierarchyFile(final File chFile, final IOException e) {
+      throw new IllegalStateException("Couldn't open " + chFile.getAbsolutePath(), e);
+    }
+
+    @Override
+    protected void exceptionCreatingSitesFile(final File sitesFile, final IOException e) {
+      throw new IllegalStateException("Couldn't open " + sitesFile.getAbsolutePath(), e);
+    }
+  }
+}
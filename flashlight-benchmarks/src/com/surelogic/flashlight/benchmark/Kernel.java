@@ -0,0 +1,21 @@
+package com.surelogic.flashlight.benchmark;
+
+/**
+ * A small piece of work measured with and without Flashlight instrumentation.
+ * Implementations live in the {@code kernels} source folder so that they can
+ * be instrumented apart from the benchmarks that run them, and must have a
+ * public no-argument constructor.
+ * <p>
+ * A kernel may be run by several benchmark threads at once, so it must be
+ * thread-safe unless it is only used by {@link SingleThreadBenchmark}.
+ */
+public interface Kernel {
+
+  /**
+   * Runs the kernel once.
+   *
+   * @return a value computed by the kernel, so that the work is not optimized
+   *         away.
+   */
+  long run();
+}
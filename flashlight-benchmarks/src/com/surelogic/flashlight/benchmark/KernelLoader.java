@@ -0,0 +1,68 @@
+package com.surelogic.flashlight.benchmark;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import com.surelogic._flashlight.Store;
+
+/**
+ * Loads kernels as a {@link Profile} runs them. Each kernel class is loaded by
+ * its own class loader from the directory of the profile, so that the
+ * uninstrumented kernels on the benchmark class path are never used by an
+ * instrumented profile.
+ */
+public final class KernelLoader {
+
+  private static final String KERNELS_PACKAGE = "com.surelogic.flashlight.benchmark.kernels.";
+
+  private static volatile boolean f_usesStore;
+
+  private KernelLoader() {
+    // no instances
+  }
+
+  /**
+   * Loads and constructs a kernel. The store is configured first if the
+   * profile uses it.
+   *
+   * @param profile
+   *          how to run the kernel.
+   * @param name
+   *          the simple name of a class in the kernels package.
+   * @return the kernel.
+   */
+  public static Kernel load(final Profile profile, final String name) throws IOException, ReflectiveOperationException {
+    profile.configureStore();
+    f_usesStore = profile.usesStore();
+    final URL classes = profile.getClassesDir().toURI().toURL();
+    final ClassLoader loader = new URLClassLoader(new URL[] { classes }, Kernel.class.getClassLoader());
+    final Class<? extends Kernel> c = Class.forName(KERNELS_PACKAGE + name, true, loader).asSubclass(Kernel.class);
+    if (c.getClassLoader() != loader) {
+      throw new IllegalStateException(c + " was not loaded from " + classes
+          + "; the kernels must not be on the benchmark class path");
+    }
+    return c.newInstance();
+  }
+
+  /**
+   * Gets the number of events the store has taken from the kernels so far. This
+   * is 0 unless the loaded profile uses the real store, which is not started
+   * otherwise.
+   */
+  public static long getEventCount() {
+    return f_usesStore ? Store.getEventCount() : 0;
+  }
+
+  /**
+   * Shuts the store down after the kernels of a profile are done.
+   *
+   * @param profile
+   *          how the kernels were run.
+   */
+  public static void unload(final Profile profile) {
+    if (profile.usesStore()) {
+      Store.shutdown();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.surelogic.flashlight.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.surelogic._flashlight.common.CollectionType;
+import com.surelogic._flashlight.common.InstrumentationConstants;
+import com.surelogic._flashlight.rewriter.config.Configuration;
+import com.surelogic._flashlight.rewriter.config.ConfigurationBuilder;
+
+/**
+ * The ways a kernel can be run. Each profile other than
+ * {@link #UNINSTRUMENTED} names the instrumented copy of the kernels it runs
+ * and the collection type the store is started with.
+ */
+public enum Profile {
+
+  /**
+   * The kernels as compiled.
+   */
+  UNINSTRUMENTED(null, null, null),
+
+  /**
+   * Instrumented, but calling a store that does nothing. This is the cost of
+   * the instrumentation itself.
+   */
+  EMPTY_STORE("empty", "com/surelogic/_flashlight/rewriter/test/EmptyStore", null),
+
+  /**
+   * Instrumented with the real store, only collecting lock events.
+   */
+  ONLY_LOCKS("store", Configuration.STORE_CLASS_NAME_DEFAULT, CollectionType.ONLY_LOCKS),
+
+  /**
+   * Instrumented with the real store, collecting everything.
+   */
+  ALL("store", Configuration.STORE_CLASS_NAME_DEFAULT, CollectionType.ALL),
+
+  /**
+   * Instrumented with the real store, collecting field accesses in bursts.
+   */
+  SAMPLED("store", Configuration.STORE_CLASS_NAME_DEFAULT, CollectionType.SAMPLED);
+
+  /**
+   * The system property giving the directory {@link InstrumentKernels} wrote
+   * the kernels into.
+   */
+  public static final String KERNELS_DIR_PROPERTY = "flashlight.benchmark.kernels";
+
+  private static final String KERNELS_DIR_DEFAULT = "build" + File.separator + "kernels";
+
+  private final String f_instrumentation;
+  private final String f_storeClassName;
+  private final CollectionType f_collectionType;
+
+  private Profile(final String instrumentation, final String storeClassName, final CollectionType collectionType) {
+    f_instrumentation = instrumentation;
+    f_storeClassName = storeClassName;
+    f_collectionType = collectionType;
+  }
+
+  /**
+   * Checks if the kernels run by this profile report to the real store, which
+   * must be shut down when the benchmark is done.
+   */
+  public boolean usesStore() {
+    return f_collectionType != null;
+  }
+
+  /**
+   * Gets the directory the kernels for this profile are loaded from.
+   */
+  public File getClassesDir() {
+    return new File(getInstrumentationDir(), "classes");
+  }
+
+  /**
+   * Gets the directory {@link InstrumentKernels} writes this profile's
+   * instrumented kernels and their fields and sites files into.
+   */
+  File getInstrumentationDir() {
+    final File kernels = new File(System.getProperty(KERNELS_DIR_PROPERTY, KERNELS_DIR_DEFAULT));
+    return new File(kernels, f_instrumentation == null ? "none" : f_instrumentation);
+  }
+
+  /**
+   * Gets the rewriter configuration for this profile, or {@code null} if its
+   * kernels are not instrumented.
+   */
+  Configuration getConfiguration() {
+    if (f_storeClassName == null) {
+      return null;
+    }
+    final ConfigurationBuilder builder = new ConfigurationBuilder();
+    builder.setStoreClassName(f_storeClassName);
+    return builder.getConfiguration();
+  }
+
+  /**
+   * Sets the system properties the store reads when it is initialized. This
+   * must be called before any instrumented kernel is loaded.
+   *
+   * @throws IOException
+   *           if a run directory cannot be created.
+   */
+  public void configureStore() throws IOException {
+    if (!usesStore()) {
+      return;
+    }
+    final File runFolder = File.createTempFile("flashlight-benchmark", "");
+    if (!runFolder.delete() || !runFolder.mkdir()) {
+      throw new IOException("Unable to create " + runFolder);
+    }
+    final File dir = getInstrumentationDir();
+    System.setProperty(InstrumentationConstants.FL_RUN, "benchmark-" + name().toLowerCase());
+    System.setProperty(InstrumentationConstants.FL_RUN_FOLDER, runFolder.getAbsolutePath());
+    System.setProperty(InstrumentationConstants.FL_COLLECTION_TYPE, f_collectionType.name());
+    System.setProperty(InstrumentationConstants.FL_NO_SPY, "true");
+    System.setProperty(InstrumentationConstants.FL_FIELDS_FILE,
+        new File(dir, InstrumentationConstants.FL_FIELDS_FILE_LOC).getAbsolutePath());
+    System.setProperty(InstrumentationConstants.FL_SITES_FILE,
+        new File(dir, InstrumentationConstants.FL_SITES_FILE_LOC).getAbsolutePath());
+  }
+}
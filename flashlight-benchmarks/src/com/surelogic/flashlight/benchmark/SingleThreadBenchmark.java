@@ -0,0 +1,57 @@
+package com.surelogic.flashlight.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each kernel on one thread under each profile. Every trial is forked,
+ * because the store can only be started once in a virtual machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+public class SingleThreadBenchmark {
+
+  @Param
+  public Profile profile;
+
+  @Param({ "FieldLoop", "SynchronizedCounter", "MapWorkload" })
+  public String kernel;
+
+  private Kernel f_kernel;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    f_kernel = KernelLoader.load(profile, kernel);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    KernelLoader.unload(profile);
+  }
+
+  @Benchmark
+  public long run(final EventCounter counter) {
+    final long result = f_kernel.run();
+    counter.update();
+    return result;
+  }
+}
@@ -197,6 +197,22 @@ public class WatchFlashlightMonitorJob extends AbstractSLJob {
                 b.append('\n');
             }
             f_status.setListing(b.toString());
+            writeCommand(writer, "contention");
+            readUpTo(reader, "Contended Locks");
+            f_status.getContention().clear();
+            List<String> lockSites = null;
+            for (final String line : readUpTo(reader, "Contended Sites")) {
+                if (line.startsWith("\t")) {
+                    if (lockSites != null) {
+                        lockSites.add(line.substring(1));
+                    }
+                } else {
+                    lockSites = new ArrayList<>();
+                    f_status.getContention().put(line, lockSites);
+                }
+            }
+            f_status.getContendedSites().clear();
+            f_status.getContendedSites().addAll(readUpTo(reader, DELIMITER));
         } finally {
             s.close();
         }
@@ -551,7 +551,7 @@ public final class FlashlightVMRunner implements IVMRunner {
       newVmArgsList.add("-D" + FL_CONSOLE_PORT + "=" + conf.getConsolePort());
       newVmArgsList.add("-D" + FL_DATE_OVERRIDE + "=" + datePostfix);
       newVmArgsList.add("-D" + FL_POSTMORTEM + "=" + Boolean.toString(conf.isPostmortem()));
-      newVmArgsList.add("-D" + FL_OUTPUT_TYPE + "=" + OutputType.get(true));
+      newVmArgsList.add("-D" + FL_OUTPUT_TYPE + "=" + OutputType.get(true, true));
       newVmArgsList.add("-D" + FL_COLLECTION_TYPE + "=" + CollectionType.valueOf(conf.getCollectionType(), CollectionType.ALL));
       if (!conf.useRefinery()) {
         newVmArgsList.add("-D" + FL_REFINERY_OFF + "=true");
@@ -137,6 +137,20 @@ public final class LaunchedRun {
     f_prepTracker.set(tracker);
   }
 
+  private final AtomicBoolean f_preparedWhileCollecting = new AtomicBoolean(false);
+
+  /**
+   * Notes that a data preparation job was started on this launched run while
+   * it was still collecting data. Only one is started, even if it fails or is
+   * canceled.
+   * 
+   * @return {@code true} if none had been started yet, {@code false} if one
+   *         had.
+   */
+  boolean setPreparedWhileCollecting() {
+    return f_preparedWhileCollecting.compareAndSet(false, true);
+  }
+
   private final AtomicBoolean f_displayToUser = new AtomicBoolean(true);
 
   /**
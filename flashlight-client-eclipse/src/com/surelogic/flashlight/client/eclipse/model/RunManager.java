@@ -55,7 +55,9 @@ import com.surelogic.flashlight.client.eclipse.jobs.SwitchToFlashlightPerspectiv
 import com.surelogic.flashlight.client.eclipse.jobs.WatchFlashlightMonitorJob;
 import com.surelogic.flashlight.client.eclipse.preferences.FlashlightPreferencesUtility;
 import com.surelogic.flashlight.client.eclipse.views.adhoc.FlashlightDataSource;
+import com.surelogic.flashlight.common.jobs.PrepOptions;
 import com.surelogic.flashlight.common.jobs.PrepSLJob;
+import com.surelogic.flashlight.common.model.CheckpointWatcher;
 import com.surelogic.flashlight.common.model.FlashlightFileUtility;
 import com.surelogic.flashlight.common.model.RunDescription;
 import com.surelogic.flashlight.common.model.RunDirectory;
@@ -759,17 +761,37 @@ public final class RunManager implements ILifecycle {
    *           if runs is {@code null}.
    */
   public void prepareAll(@NonNull Collection<RunDirectory> runs) {
+    prepareAll(runs, false);
+  }
+
+  /**
+   * Starts a data preparation job on all passed run directories, as
+   * {@link #prepareAll(Collection)} does.
+   * 
+   * @param runs
+   *          a collection of run directories.
+   * @param whileCollecting
+   *          {@code true} if the runs are still collecting data, in which case
+   *          each job prepares the checkpoints of its run as they are completed.
+   * 
+   * @throws IllegalArgumentException
+   *           if runs is {@code null}.
+   */
+  void prepareAll(@NonNull Collection<RunDirectory> runs, boolean whileCollecting) {
     if (runs == null) {
       throw new IllegalArgumentException(I18N.err(44, "runs"));
     }
 
+    final PrepOptions.Builder options = new PrepOptions.Builder();
+    options.setBulkLoad(EclipseUtility.getBooleanPreference(FlashlightPreferencesUtility.PREP_BULK_LOAD));
+    options.setWhileCollecting(whileCollecting);
     synchronized (f_lock) {
       for (final RunDirectory run : runs) {
         if (run == null)
           throw new IllegalArgumentException(I18N.err(44, "run"));
 
         final SLJob job = new PrepSLJob(run, EclipseUtility.getIntPreference(FlashlightPreferencesUtility.PREP_OBJECT_WINDOW_SIZE),
-            FlashlightDataSource.getManager().getTopLevelQueries());
+            FlashlightDataSource.getManager().getTopLevelQueries(), options.getOptions());
         final Job eJob = EclipseUtility.toEclipseJob(job, run.getRunIdString());
         eJob.setProperty(IProgressConstants.ICON_PROPERTY, SLImages.getImageDescriptor(CommonImages.IMG_FL_PREP_DATA));
         final LaunchedRun lrun = getLaunchedRunFor(run.getRunIdString());
@@ -863,6 +885,7 @@ public final class RunManager implements ILifecycle {
         boolean preparedDataChanged = false;
         boolean launchedRunChange = false;
         List<RunDirectory> prepare = new ArrayList<>();
+        List<RunDirectory> prepareWhileCollecting = new ArrayList<>();
 
         /*
          * Search the run directory for runs that have completed data
@@ -932,7 +955,12 @@ public final class RunManager implements ILifecycle {
                 } else {
                   if (lrun.setState(RunState.DONE_COLLECTING_DATA)) {
                     launchedRunChange = true;
-                    if (EclipseUtility.getBooleanPreference(FlashlightPreferencesUtility.AUTO_PREP_LAUNCHED_RUNS)) {
+                    /*
+                     * Not if it is already being prepared, as it was while
+                     * collecting data.
+                     */
+                    if (EclipseUtility.getBooleanPreference(FlashlightPreferencesUtility.AUTO_PREP_LAUNCHED_RUNS)
+                        && lrun.getPrepareJobTracker() == null) {
                       prepare.add(run);
                     }
                   }
@@ -958,6 +986,19 @@ public final class RunManager implements ILifecycle {
               }
             }
 
+            /*
+             * Start preparing a launched run that is still collecting data once
+             * its first checkpoint is complete, if the user wants that.
+             */
+            if (RunState.COLLECTING_DATA.equals(lrun.getState()) && lrun.getPrepareJobTracker() == null
+                && EclipseUtility.getBooleanPreference(FlashlightPreferencesUtility.AUTO_PREP_LAUNCHED_RUNS)
+                && EclipseUtility.getBooleanPreference(FlashlightPreferencesUtility.PREP_WHILE_COLLECTING)) {
+              final RunDirectory run = new CheckpointWatcher(getDirectoryFrom(lrun.getRunIdString())).getRunDirectory();
+              if (run != null && lrun.setPreparedWhileCollecting()) {
+                prepareWhileCollecting.add(run);
+              }
+            }
+
             // clear out launches that are not displayed and ready
             if (!lrun.getDisplayToUser() && lrun.isReady()) {
               iterator.remove();
@@ -990,6 +1031,9 @@ public final class RunManager implements ILifecycle {
         if (!prepare.isEmpty()) {
           prepareAll(prepare);
         }
+        if (!prepareWhileCollecting.isEmpty()) {
+          prepareAll(prepareWhileCollecting, true);
+        }
         return SLStatus.OK_STATUS;
       } catch (final Exception e) {
         return SLStatus.createErrorStatus(SLStatus.OK, "RunManager.refresh() failed", e);
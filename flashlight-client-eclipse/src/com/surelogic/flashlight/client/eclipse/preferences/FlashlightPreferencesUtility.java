@@ -67,6 +67,9 @@ public final class FlashlightPreferencesUtility {
 
             EclipseUtility.setDefaultIntPreference(PREP_OBJECT_WINDOW_SIZE,
                     300000);
+            EclipseUtility.setDefaultBooleanPreference(PREP_BULK_LOAD, false);
+            EclipseUtility.setDefaultBooleanPreference(PREP_WHILE_COLLECTING,
+                    false);
 
             EclipseUtility.setDefaultIntPreference(
                     DEADLOCK_GRAPH_SASH_LHS_WEIGHT, 40);
@@ -106,6 +109,9 @@ public final class FlashlightPreferencesUtility {
             + "max.rows.per.query";
     public static final String PREP_OBJECT_WINDOW_SIZE = PREFIX
             + "object.window.size";
+    public static final String PREP_BULK_LOAD = PREFIX + "prep.bulk.load";
+    public static final String PREP_WHILE_COLLECTING = PREFIX
+            + "prep.while.collecting";
     public static final String AUTO_INCREASE_HEAP_AT_LAUNCH = PREFIX
             + "auto.increase.heap.at.launch";
     public static final String PROMPT_ABOUT_LOTS_OF_SAVED_QUERIES = PREFIX
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +32,13 @@ public class MonitorStatus {
 
   private final Set<String> alerts;
 
+  /**
+   * The most contended locks, most waited for first, each with the sites it
+   * was most waited for at.
+   */
+  private final Map<String, List<String>> contention;
+  private final List<String> contendedSites;
+
   private String listing;
 
   private final File portFile;
@@ -59,6 +67,8 @@ public class MonitorStatus {
     deadlocks = new HashSet<>();
     edges = new HashSet<>();
     alerts = new HashSet<>();
+    contention = new LinkedHashMap<>();
+    contendedSites = new ArrayList<>();
     props = new HashMap<>();
     state = ConnectionState.SEARCHING;
   }
@@ -77,6 +87,8 @@ public class MonitorStatus {
       deadlocks = new HashSet<>(status.deadlocks);
       edges = new HashSet<>(status.edges);
       alerts = new HashSet<>(status.alerts);
+      contention = new LinkedHashMap<>(status.contention);
+      contendedSites = new ArrayList<>(status.contendedSites);
       listing = status.listing;
       portFile = status.portFile;
       state = status.state;
@@ -169,6 +181,14 @@ public class MonitorStatus {
     return alerts;
   }
 
+  public Map<String, List<String>> getContention() {
+    return contention;
+  }
+
+  public List<String> getContendedSites() {
+    return contendedSites;
+  }
+
   public String getListing() {
     return listing;
   }
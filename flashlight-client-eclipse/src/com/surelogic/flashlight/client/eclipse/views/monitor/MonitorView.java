@@ -134,6 +134,21 @@ public class MonitorView extends ViewPart {
 
     edtTab.setControl(edtBody);
 
+    /*
+     * Contention Tab
+     */
+    final TabItem contentionTab = new TabItem(folder, SWT.NONE);
+    contentionTab.setText(I18N.msg("flashlight.monitor.view.contention"));
+
+    final Composite contentionBody = new Composite(folder, SWT.NONE);
+    contentionBody.setLayout(new GridLayout());
+    contentionBody.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+
+    final Tree contentionTree = new Tree(contentionBody, SWT.NONE);
+    contentionTree.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+
+    contentionTab.setControl(contentionBody);
+
     /*
      * Listing tab, we aren't keeping this.
      */
@@ -149,7 +164,7 @@ public class MonitorView extends ViewPart {
     menu.add(new ConnectToRunningMonitorAction());
     menu.add(new OpenLegendAction());
     f_mediator = new MonitorViewMediator(status, statusImage, runText, fieldsSelectorText, fieldsSelectorButton, fieldsTree,
-        locksTree, edtSelectorText, edtSelectorButton, edtTree, tv);
+        locksTree, edtSelectorText, edtSelectorButton, edtTree, contentionTree, tv);
 
     f_mediator.init();
   }
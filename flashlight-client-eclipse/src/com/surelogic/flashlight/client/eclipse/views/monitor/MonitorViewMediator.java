@@ -1,6 +1,9 @@
 package com.surelogic.flashlight.client.eclipse.views.monitor;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.Document;
@@ -19,6 +22,7 @@ import org.eclipse.swt.widgets.TreeItem;
 
 import com.surelogic.common.XUtil;
 import com.surelogic.common.core.EclipseUtility;
+import com.surelogic.common.i18n.I18N;
 import com.surelogic.flashlight.client.eclipse.jobs.SendCommandToFlashlightMonitorJob;
 import com.surelogic.flashlight.client.eclipse.views.monitor.MonitorStatus.ConnectionState;
 import com.surelogic.flashlight.client.eclipse.views.monitor.MonitorStatus.FieldStatus;
@@ -28,6 +32,10 @@ public class MonitorViewMediator {
 
   private static final String EDT_ALERTS = "swingFieldAlerts";
   private static final String FIELD_SPEC = "fieldSpec";
+  /**
+   * Marks the item listing the most contended sites in the contention tree.
+   */
+  private static final String SITES = "";
 
   private final Composite f_status;
   private final Label f_statusImage;
@@ -44,6 +52,7 @@ public class MonitorViewMediator {
   private final Tree f_fields;
   private final Tree f_locks;
   private final Tree f_edtAlerts;
+  private final Tree f_contention;
 
   private final MonitorImages f_im;
 
@@ -51,7 +60,7 @@ public class MonitorViewMediator {
 
   MonitorViewMediator(final Composite status, final Label statusImage, final Label runText, final Text fieldsSelector,
       final Button fieldsButton, final Tree fieldsTree, final Tree locksTree, final Text edtSelector, final Button edtButton,
-      final Tree edtTree, final TextViewer listing) {
+      final Tree edtTree, final Tree contentionTree, final TextViewer listing) {
     f_status = status;
     f_statusImage = statusImage;
     f_runText = runText;
@@ -62,6 +71,7 @@ public class MonitorViewMediator {
     f_edtSelector = edtSelector;
     f_edtButton = edtButton;
     f_edtAlerts = edtTree;
+    f_contention = contentionTree;
     f_listing = listing;
     f_im = new MonitorImages(statusImage.getDisplay());
   }
@@ -204,6 +214,7 @@ public class MonitorViewMediator {
       item.setBackground(f_im.getUnknownColor());
     }
     f_locks.removeAll();
+    f_contention.removeAll();
   }
 
   private void connected(final MonitorStatus status) {
@@ -299,6 +310,35 @@ public class MonitorViewMediator {
       item.setText(l.getName());
     }
 
+    /*
+     * Keep the locks and sites the user expanded open as the times change
+     */
+    final Set<String> expanded = new HashSet<>();
+    for (TreeItem item : f_contention.getItems()) {
+      if (item.getExpanded()) {
+        expanded.add((String) item.getData());
+      }
+    }
+    f_contention.removeAll();
+    for (Entry<String, List<String>> e : status.getContention().entrySet()) {
+      TreeItem item = new TreeItem(f_contention, SWT.NONE);
+      item.setText(e.getKey());
+      item.setData(nameOf(e.getKey()));
+      for (String site : e.getValue()) {
+        new TreeItem(item, SWT.NONE).setText(site);
+      }
+      item.setExpanded(expanded.contains(item.getData()));
+    }
+    if (!status.getContendedSites().isEmpty()) {
+      TreeItem sites = new TreeItem(f_contention, SWT.NONE);
+      sites.setText(I18N.msg("flashlight.monitor.view.contention.sites"));
+      sites.setData(SITES);
+      for (String site : status.getContendedSites()) {
+        new TreeItem(sites, SWT.NONE).setText(site);
+      }
+      sites.setExpanded(expanded.contains(SITES));
+    }
+
     Document d = new Document();
     d.set(status.getListing());
     if (XUtil.useExperimental) {
@@ -308,6 +348,14 @@ public class MonitorViewMediator {
 
   }
 
+  /**
+   * Gets the name of the lock a line of the contention command describes.
+   */
+  private static String nameOf(final String lockLine) {
+    final int colon = lockLine.indexOf(": ");
+    return colon < 0 ? lockLine : lockLine.substring(0, colon);
+  }
+
   private void finished(final MonitorStatus status) {
     f_edtSelector.setEnabled(false);
     f_edtButton.setEnabled(false);
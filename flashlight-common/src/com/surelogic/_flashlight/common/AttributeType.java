@@ -97,7 +97,9 @@ public enum AttributeType implements IAttributeType {
 
   NANO_END("nano-end"),
 
-  IN_INTERFACE("interface");
+  IN_INTERFACE("interface"),
+
+  SAMPLING_RATE("sampling-rate");
 
   private final String label;
 
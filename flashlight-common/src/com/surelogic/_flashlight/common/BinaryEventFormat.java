@@ -0,0 +1,141 @@
+package com.surelogic._flashlight.common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Constants shared by {@link BinaryEventWriter} and {@link BinaryEventReader}
+ * that describe the layout of a binary raw data file.
+ * <p>
+ * A binary raw data file starts with the {@link #MAGIC} bytes followed by a
+ * sequence of records. Each record is the event code of the element it
+ * represents, the length in bytes of its payload, and the payload. The payload
+ * is a sequence of attributes, each written as a key that encodes the
+ * {@link IAttributeType} and the kind of value that follows, then the value
+ * itself. Integral values are written as zig-zag variable-length longs, and
+ * nanosecond timestamps are written as the difference from the previous
+ * timestamp in the file.
+ * <p>
+ * The event and attribute codes are part of the file format. New events must
+ * be added to the end of {@link #EVENTS} and new attributes to the end of
+ * {@link AttributeType} or {@link FlagType}.
+ */
+public final class BinaryEventFormat {
+
+  private BinaryEventFormat() {
+    // no instances
+  }
+
+  /**
+   * The first bytes of every binary raw data file, <tt>FLB</tt> followed by
+   * the format version.
+   */
+  public static final byte[] MAGIC = { 'F', 'L', 'B', 1 };
+
+  /*
+   * The kind of value held by an attribute, stored in the low bits of each
+   * attribute key.
+   */
+  static final int KIND_LONG = 0;
+  static final int KIND_TIME = 1;
+  static final int KIND_STRING = 2;
+  static final int KIND_BOOLEAN = 3;
+  static final int KIND_BITS = 2;
+  static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+  /**
+   * The XML element names of the events, indexed by their event code.
+   */
+  private static final String[] EVENTS = { "flashlight", "environment", "time", "checkpoint", "final",
+      "after-intrinsic-lock-acquisition", "after-intrinsic-lock-release", "after-intrinsic-lock-wait",
+      "after-util-concurrent-lock-acquisition-attempt", "after-util-concurrent-lock-release-attempt",
+      "before-intrinsic-lock-acquisition", "before-intrinsic-lock-wait", "before-util-concurrent-lock-acquisition-attempt",
+      "class-definition", "object-definition", "thread-definition", "field-definition", "read-write-lock-definition",
+      "field-assignment", "field-read", "field-write", "garbage-collected-object", "indirect-access", "single-threaded-field",
+      "static-call-location", "trace-node", "happens-before-thread", "happens-before-obj", "happens-before-coll",
+      "happens-before-exec", "selected-package" };
+
+  private static final Map<String, Integer> f_eventCodes = new HashMap<String, Integer>();
+
+  private static final IAttributeType[] f_attributes;
+
+  static {
+    for (int i = 0; i < EVENTS.length; i++) {
+      f_eventCodes.put(EVENTS[i], i);
+    }
+    int max = 0;
+    for (final AttributeType t : AttributeType.values()) {
+      max = Math.max(max, getAttributeCode(t));
+    }
+    for (final FlagType t : FlagType.values()) {
+      max = Math.max(max, getAttributeCode(t));
+    }
+    f_attributes = new IAttributeType[max + 1];
+    for (final AttributeType t : AttributeType.values()) {
+      f_attributes[getAttributeCode(t)] = t;
+    }
+    for (final FlagType t : FlagType.values()) {
+      f_attributes[getAttributeCode(t)] = t;
+    }
+  }
+
+  /**
+   * Gets the event code for the passed XML element name.
+   *
+   * @param eventName
+   *          an XML element name.
+   * @return the event code.
+   * @throws IllegalArgumentException
+   *           if the element name has no event code.
+   */
+  public static int getEventCode(final String eventName) {
+    final Integer code = f_eventCodes.get(eventName);
+    if (code == null) {
+      throw new IllegalArgumentException(eventName + " is not a recognized event");
+    }
+    return code;
+  }
+
+  /**
+   * Gets the XML element name for the passed event code, or {@code null} if
+   * the code is unknown.
+   *
+   * @param code
+   *          an event code.
+   * @return the XML element name, or {@code null}.
+   */
+  /* @Nullable */
+  public static String getEventName(final int code) {
+    if (code < 0 || code >= EVENTS.length) {
+      return null;
+    }
+    return EVENTS[code];
+  }
+
+  /**
+   * Gets the attribute code for the passed attribute type.
+   *
+   * @param type
+   *          an attribute type.
+   * @return the attribute code.
+   */
+  public static int getAttributeCode(final IAttributeType type) {
+    return type.base() + type.ordinal();
+  }
+
+  /**
+   * Gets the attribute type for the passed attribute code, or {@code null} if
+   * the code is unknown.
+   *
+   * @param code
+   *          an attribute code.
+   * @return the attribute type, or {@code null}.
+   */
+  /* @Nullable */
+  public static IAttributeType getAttributeType(final int code) {
+    if (code < 0 || code >= f_attributes.length) {
+      return null;
+    }
+    return f_attributes[code];
+  }
+}
@@ -0,0 +1,194 @@
+package com.surelogic._flashlight.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Reads a raw data file written by {@link BinaryEventWriter} and reports each
+ * event to a {@link Handler} in the same form the XML scans produce from SAX
+ * attributes. Integral and boolean attributes are passed on as primitive values,
+ * which {@link PreppedAttributes} keeps unboxed, and everything else as
+ * strings.
+ */
+public final class BinaryEventReader {
+
+  /**
+   * Receives the events read from a binary raw data file.
+   */
+  public interface Handler {
+    /**
+     * Called for each event in the file.
+     *
+     * @param name
+     *          the XML element name of the event.
+     * @param attributes
+     *          the attributes of the event.
+     * @throws SAXException
+     *           to stop reading the file.
+     */
+    void handleEvent(String name, PreppedAttributes attributes) throws SAXException;
+
+    /**
+     * Called once the end of the file is reached.
+     */
+    void endDocument() throws SAXException;
+  }
+
+  private final InputStream f_in;
+  private byte[] f_buf = new byte[256];
+  private char[] f_chars = new char[64];
+  private int f_pos;
+  private long f_lastTime;
+
+  private BinaryEventReader(final InputStream in) {
+    f_in = in;
+  }
+
+  /**
+   * Reads every event in the passed stream and reports it to the passed
+   * handler. The stream is not closed.
+   *
+   * @param in
+   *          a stream positioned at the start of a binary raw data file.
+   * @param handler
+   *          the handler to report events to.
+   * @throws IOException
+   *           if the stream cannot be read or is not a binary raw data file.
+   * @throws SAXException
+   *           if thrown by the handler.
+   */
+  public static void read(final InputStream in, final Handler handler) throws IOException, SAXException {
+    new BinaryEventReader(in).readAll(handler);
+  }
+
+  private void readAll(final Handler handler) throws IOException, SAXException {
+    for (final byte b : BinaryEventFormat.MAGIC) {
+      if (f_in.read() != b) {
+        throw new IOException("Not a binary Flashlight data file");
+      }
+    }
+    for (;;) {
+      final int first = f_in.read();
+      if (first == -1) {
+        break;
+      }
+      final int code = (int) readVarLong(first);
+      final int len = (int) readVarLong(f_in.read());
+      if (f_buf.length < len) {
+        f_buf = new byte[Math.max(len, f_buf.length * 2)];
+      }
+      readFully(len);
+      final String name = BinaryEventFormat.getEventName(code);
+      if (name == null) {
+        // An event from a newer format, skip it.
+        continue;
+      }
+      handler.handleEvent(name, decode(len));
+    }
+    handler.endDocument();
+  }
+
+  private PreppedAttributes decode(final int len) throws IOException {
+    final PreppedAttributes attrs = new PreppedAttributes();
+    f_pos = 0;
+    while (f_pos < len) {
+      final long key = nextVarLong();
+      final IAttributeType type = BinaryEventFormat.getAttributeType((int) (key >>> BinaryEventFormat.KIND_BITS));
+      switch ((int) key & BinaryEventFormat.KIND_MASK) {
+      case BinaryEventFormat.KIND_LONG:
+        final long value = nextZigZag();
+        if (type != null) {
+          attrs.putLong(type, value);
+        }
+        break;
+      case BinaryEventFormat.KIND_TIME:
+        f_lastTime += nextZigZag();
+        if (type != null) {
+          attrs.putLong(type, f_lastTime);
+        }
+        break;
+      case BinaryEventFormat.KIND_STRING:
+        final String s = nextString();
+        if (type != null) {
+          attrs.put(type, s);
+        }
+        break;
+      default:
+        final boolean b = f_buf[f_pos++] != 0;
+        if (type != null) {
+          attrs.putBoolean(type, b);
+        }
+        break;
+      }
+    }
+    return attrs;
+  }
+
+  private void readFully(final int len) throws IOException {
+    int off = 0;
+    while (off < len) {
+      final int read = f_in.read(f_buf, off, len - off);
+      if (read == -1) {
+        throw new EOFException();
+      }
+      off += read;
+    }
+  }
+
+  private long readVarLong(int b) throws IOException {
+    long value = 0;
+    int shift = 0;
+    for (;;) {
+      if (b == -1) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      shift += 7;
+      b = f_in.read();
+    }
+  }
+
+  private long nextVarLong() {
+    long value = 0;
+    int shift = 0;
+    for (;;) {
+      final int b = f_buf[f_pos++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      shift += 7;
+    }
+  }
+
+  private long nextZigZag() {
+    final long value = nextVarLong();
+    return value >>> 1 ^ -(value & 1);
+  }
+
+  private String nextString() {
+    final int bytes = (int) nextVarLong();
+    if (f_chars.length < bytes) {
+      f_chars = new char[bytes];
+    }
+    final int end = f_pos + bytes;
+    int count = 0;
+    while (f_pos < end) {
+      final int b = f_buf[f_pos++] & 0xFF;
+      if (b < 0x80) {
+        f_chars[count++] = (char) b;
+      } else if (b < 0xE0) {
+        f_chars[count++] = (char) ((b & 0x1F) << 6 | f_buf[f_pos++] & 0x3F);
+      } else {
+        f_chars[count++] = (char) ((b & 0x0F) << 12 | (f_buf[f_pos++] & 0x3F) << 6 | f_buf[f_pos++] & 0x3F);
+      }
+    }
+    return new String(f_chars, 0, count);
+  }
+}
@@ -0,0 +1,169 @@
+package com.surelogic._flashlight.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes events to an output stream in the binary raw data format described
+ * by {@link BinaryEventFormat}. An event is written by a call to
+ * {@link #start(String)}, one call per attribute, and then a call to
+ * {@link #end()}.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class BinaryEventWriter {
+
+  private final OutputStream f_out;
+
+  /**
+   * Holds the payload of the event currently being written.
+   */
+  private byte[] f_buf = new byte[256];
+  private int f_len;
+  private int f_event = -1;
+
+  /**
+   * Holds the record header, an event code and payload length.
+   */
+  private final byte[] f_head = new byte[16];
+
+  private long f_lastTime;
+
+  /**
+   * Constructs a new writer and writes the file header and the
+   * <tt>flashlight</tt> element for the passed run.
+   *
+   * @param out
+   *          the stream to write to.
+   * @param version
+   *          the version of the raw data.
+   * @param run
+   *          the name of the run.
+   * @throws IOException
+   *           if the header cannot be written.
+   */
+  public BinaryEventWriter(final OutputStream out, final String version, final String run) throws IOException {
+    assert out != null;
+    f_out = out;
+    f_out.write(BinaryEventFormat.MAGIC);
+    start("flashlight");
+    attr(AttributeType.VERSION, version);
+    attr(AttributeType.RUN, run);
+    end();
+  }
+
+  /**
+   * Starts a new event.
+   *
+   * @param eventName
+   *          the XML element name of the event.
+   */
+  public void start(final String eventName) {
+    assert f_event == -1;
+    f_event = BinaryEventFormat.getEventCode(eventName);
+    f_len = 0;
+  }
+
+  /**
+   * Writes the current event to the stream.
+   *
+   * @throws IOException
+   *           if the event cannot be written.
+   */
+  public void end() throws IOException {
+    assert f_event != -1;
+    int pos = putVarLong(f_head, 0, f_event);
+    pos = putVarLong(f_head, pos, f_len);
+    f_out.write(f_head, 0, pos);
+    f_out.write(f_buf, 0, f_len);
+    f_event = -1;
+  }
+
+  public void attr(final IAttributeType type, final long value) {
+    key(type, BinaryEventFormat.KIND_LONG);
+    putZigZag(value);
+  }
+
+  /**
+   * Writes a nanosecond timestamp. Timestamps are stored as the difference
+   * from the previous timestamp in the stream, which is usually small.
+   */
+  public void time(final IAttributeType type, final long nanoTime) {
+    key(type, BinaryEventFormat.KIND_TIME);
+    putZigZag(nanoTime - f_lastTime);
+    f_lastTime = nanoTime;
+  }
+
+  public void attr(final IAttributeType type, final boolean value) {
+    key(type, BinaryEventFormat.KIND_BOOLEAN);
+    ensure(1);
+    f_buf[f_len++] = (byte) (value ? 1 : 0);
+  }
+
+  public void attr(final IAttributeType type, final String value) {
+    if (value == null) {
+      return;
+    }
+    key(type, BinaryEventFormat.KIND_STRING);
+    final int chars = value.length();
+    ensure(10 + 3 * chars);
+    final int lenPos = f_len;
+    /*
+     * Reserve the maximum space for the length, then shift the bytes down once
+     * the encoded length is known.
+     */
+    f_len += 5;
+    final int start = f_len;
+    for (int i = 0; i < chars; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        f_buf[f_len++] = (byte) c;
+      } else if (c < 0x800) {
+        f_buf[f_len++] = (byte) (0xC0 | c >> 6);
+        f_buf[f_len++] = (byte) (0x80 | c & 0x3F);
+      } else {
+        f_buf[f_len++] = (byte) (0xE0 | c >> 12);
+        f_buf[f_len++] = (byte) (0x80 | c >> 6 & 0x3F);
+        f_buf[f_len++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+    final int bytes = f_len - start;
+    final int lenEnd = putVarLong(f_buf, lenPos, bytes);
+    System.arraycopy(f_buf, start, f_buf, lenEnd, bytes);
+    f_len = lenEnd + bytes;
+  }
+
+  public void flush() throws IOException {
+    f_out.flush();
+  }
+
+  public void close() throws IOException {
+    f_out.close();
+  }
+
+  private void key(final IAttributeType type, final int kind) {
+    ensure(20);
+    f_len = putVarLong(f_buf, f_len, BinaryEventFormat.getAttributeCode(type) << BinaryEventFormat.KIND_BITS | kind);
+  }
+
+  private void putZigZag(final long value) {
+    f_len = putVarLong(f_buf, f_len, value << 1 ^ value >> 63);
+  }
+
+  private void ensure(final int bytes) {
+    if (f_len + bytes > f_buf.length) {
+      final byte[] buf = new byte[Math.max(f_buf.length * 2, f_len + bytes)];
+      System.arraycopy(f_buf, 0, buf, 0, f_len);
+      f_buf = buf;
+    }
+  }
+
+  private static int putVarLong(final byte[] buf, int pos, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buf[pos++] = (byte) (value & 0x7F | 0x80);
+      value >>>= 7;
+    }
+    buf[pos++] = (byte) value;
+    return pos;
+  }
+}
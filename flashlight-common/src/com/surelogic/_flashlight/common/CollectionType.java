@@ -4,7 +4,17 @@ public enum CollectionType {
   ONLY_LOCKS(false) {
     // FIX to turn on locks
   },
-  ALL(true);
+  ALL(true),
+  /**
+   * Records every lock event, but only field and indirect accesses made
+   * during periodic bursts.
+   */
+  SAMPLED(true) {
+    @Override
+    public boolean isSampled() {
+      return true;
+    }
+  };
 
   private boolean defaultValue;
 
@@ -20,6 +30,13 @@ public enum CollectionType {
     return defaultValue;
   }
 
+  /**
+   * Are only some of the field and indirect accesses recorded?
+   */
+  public boolean isSampled() {
+    return false;
+  }
+
   public static CollectionType valueOf(String name, CollectionType defValue) {
     if (name != null) {
       for (CollectionType val : values()) {
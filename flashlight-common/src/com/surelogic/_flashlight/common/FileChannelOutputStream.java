@@ -1,45 +1,144 @@
 package com.surelogic._flashlight.common;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
- * Uses the java.nio channels to implement FileOutputStream
- * 
+ * Writes a file through memory-mapped regions of it. Writing is copying into
+ * the current region, so the writer never makes a system call to write. The
+ * file is grown a region at a time.
+ * <p>
+ * Regions are double-buffered: while the writer fills one region, a background
+ * thread maps the next one and touches each of its pages, so that the writer
+ * takes neither the cost of mapping nor the page faults. Full regions are
+ * handed back to that thread to be unmapped. When the stream is closed the
+ * file is truncated to the length written.
+ * <p>
+ * The space for each region is written with zeros before it is mapped. Writing
+ * to a mapped page the file system cannot find room for kills the virtual
+ * machine, while a write that fails this way only throws an exception. If a
+ * region cannot be allocated or mapped, say because the disk is full, the
+ * stream goes on writing through the channel from a buffer instead.
+ *
  * @author edwin
  */
 public class FileChannelOutputStream extends OutputStream {
+
+  /**
+   * The size of each mapped region of the file.
+   */
+  public static final int REGION_SIZE = 8 * 1024 * 1024;
+
+  private static final int PAGE_SIZE = 4096;
+
+  /**
+   * The size of the buffer written through the channel once regions can no
+   * longer be mapped.
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Written to allocate the space for a region. Only duplicates are used, so
+   * one buffer serves every stream.
+   */
+  private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  /**
+   * Maps and unmaps regions for every stream. One thread is enough, as it
+   * only needs to keep a region ahead of each writer.
+   */
+  private static ExecutorService f_mapper;
+
+  private static synchronized ExecutorService getMapper() {
+    if (f_mapper == null) {
+      f_mapper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          final Thread t = new Thread(r, "flashlight-file-mapper");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return f_mapper;
+  }
+
+  private final RandomAccessFile file;
   private final FileChannel channel;
-  private final ByteBuffer buffer;
+  private final boolean forceOnClose;
+
+  private ByteBuffer region;
+  private boolean mapped;
+  private long regionStart;
+  private Future<MappedByteBuffer> nextRegion;
+  private Future<?> lastUnmap;
+  private boolean closed;
 
-  @SuppressWarnings("resource")
   public FileChannelOutputStream(File file) throws IOException {
-    channel = new RandomAccessFile(file, "rw").getChannel();
-    // channel = new FileOutputStream(file).getChannel();
-    // FIX how does this work?
-    // buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 5);
-    buffer = ByteBuffer.allocateDirect(32768);
-    buffer.clear();
+    this(file, false);
   }
 
-  @Override
-  public void write(int b) throws IOException {
-    if (buffer.position() == buffer.capacity()) {
-      // Need to write out before adding to buffer
-      flushBuffer();
-    }
-    buffer.put((byte) b);
+  /**
+   * Opens a file for writing, replacing any contents it had.
+   *
+   * @param file
+   *          the file.
+   * @param forceOnClose
+   *          {@code true} if {@link #close()} should not return until the
+   *          contents of the file are on the storage device.
+   */
+  public FileChannelOutputStream(File file, boolean forceOnClose) throws IOException {
+    this(file, forceOnClose, true);
   }
 
-  private void flushBuffer() throws IOException {
-    buffer.flip();
-    if (channel.isOpen()) {
-      channel.write(buffer);
+  /**
+   * Opens a file for writing, replacing any contents it had.
+   *
+   * @param map
+   *          {@code false} to write through the channel from the start, as the
+   *          stream does once a region cannot be mapped.
+   */
+  FileChannelOutputStream(File file, boolean forceOnClose, boolean map) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    this.forceOnClose = forceOnClose;
+    channel = this.file.getChannel();
+    try {
+      channel.truncate(0);
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+    if (map) {
+      try {
+        region = new MapRegion(0).call();
+        mapped = true;
+      } catch (IOException e) {
+        // Write through the channel
+      }
+    }
+    if (mapped) {
+      nextRegion = getMapper().submit(new MapRegion(REGION_SIZE));
     } else {
-      throw new IOException("channel is closed");
+      region = ByteBuffer.allocate(BUFFER_SIZE);
     }
-    buffer.clear();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (!region.hasRemaining()) {
+      nextRegion();
+    }
+    region.put((byte) b);
   }
 
   @Override
@@ -49,39 +148,210 @@ public class FileChannelOutputStream extends OutputStream {
       throw new NullPointerException();
     } else if ((off < 0) || (off > b.length) || (len < 0) || ((off + len) > b.length) || ((off + len) < 0)) {
       throw new IndexOutOfBoundsException();
-    } else if (len == 0) {
-      return;
     }
 
     while (len > 0) {
-      final int remaining = buffer.capacity() - buffer.position();
-      if (remaining > len) {
-        // More than enough space for all of it
-        buffer.put(b, off, len);
-        break;
-      } else {
-        // Enough to fill the buffer, so do what we can
-        buffer.put(b, off, remaining);
-        flushBuffer();
-        off += remaining;
+      if (!region.hasRemaining()) {
+        nextRegion();
+      }
+      final int n = Math.min(len, region.remaining());
+      region.put(b, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Moves on to the next region, which should already be mapped, and starts
+   * mapping the one after it. If the next region could not be mapped, or
+   * regions are no longer mapped, the buffer is written through the channel
+   * instead.
+   */
+  private void nextRegion() throws IOException {
+    if (closed) {
+      throw new IOException("channel is closed");
+    }
+    if (!mapped) {
+      writeBuffer();
+      return;
+    }
+    lastUnmap = getMapper().submit(new UnmapRegion((MappedByteBuffer) region, forceOnClose));
+    regionStart += REGION_SIZE;
+    MappedByteBuffer next;
+    try {
+      next = await(nextRegion);
+    } catch (IOException e) {
+      next = null;
+    }
+    if (next != null) {
+      region = next;
+      nextRegion = getMapper().submit(new MapRegion(regionStart + REGION_SIZE));
+    } else {
+      mapped = false;
+      nextRegion = null;
+      region = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+  }
+
+  /**
+   * Writes what is in the buffer through the channel at the end of the data
+   * written so far, and empties the buffer.
+   */
+  private void writeBuffer() throws IOException {
+    region.flip();
+    try {
+      while (region.hasRemaining()) {
+        regionStart += channel.write(region, regionStart);
       }
-      len -= remaining;
+    } finally {
+      region.compact();
     }
   }
 
+  /**
+   * Does nothing, as written data is already in the operating system's page
+   * cache.
+   */
   @Override
   public void flush() throws IOException {
-    if (channel.isOpen()) {
-      flushBuffer();
-    }
-    // FIX this is very slow
-    // channel.force(false);
+    // Nothing to do
   }
 
   @Override
   public void close() throws IOException {
-    flush();
-    channel.close();
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      try {
+        if (mapped) {
+          regionStart += region.position();
+          new UnmapRegion((MappedByteBuffer) region, forceOnClose).call();
+          try {
+            unmap(await(nextRegion));
+          } catch (IOException e) {
+            // The region after the data was never mapped
+          }
+          if (lastUnmap != null) {
+            await(lastUnmap);
+          }
+        } else {
+          writeBuffer();
+        }
+      } finally {
+        region = null;
+        // Cut off the regions mapped or allocated past the data
+        channel.truncate(regionStart);
+      }
+      if (forceOnClose) {
+        channel.force(true);
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  private static <T> T await(final Future<T> f) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return f.get();
+        } catch (InterruptedException e) {
+          // The region is needed, try again
+          interrupted = true;
+        } catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw new IOException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Grows the file by a region, writing zeros so that the file system finds
+   * room for all of it, then maps the region and touches each page of it.
+   */
+  private final class MapRegion implements Callable<MappedByteBuffer> {
+    private final long start;
+
+    MapRegion(long start) {
+      this.start = start;
+    }
+
+    @Override
+    public MappedByteBuffer call() throws IOException {
+      for (long pos = start; pos < start + REGION_SIZE;) {
+        pos += channel.write(ZEROS.duplicate(), pos);
+      }
+      final MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+      for (int i = 0; i < REGION_SIZE; i += PAGE_SIZE) {
+        b.put(i, (byte) 0);
+      }
+      return b;
+    }
+  }
+
+  /**
+   * Unmaps a region that has been written, forcing it to the storage device
+   * first if asked.
+   */
+  private static final class UnmapRegion implements Callable<Void> {
+    private final MappedByteBuffer region;
+    private final boolean force;
+
+    UnmapRegion(MappedByteBuffer region, boolean force) {
+      this.region = region;
+      this.force = force;
+    }
+
+    @Override
+    public Void call() {
+      if (force) {
+        region.force();
+      }
+      unmap(region);
+      return null;
+    }
+  }
+
+  /**
+   * Releases a mapped region now, rather than when it is garbage collected, so
+   * that the file can be truncated on every platform. There is no public API
+   * to do this, so this only works on the JVMs it knows about, and does
+   * nothing on the others. The region must not be used afterwards.
+   */
+  static void unmap(final ByteBuffer b) {
+    try {
+      // Java 9 and later
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), b);
+      return;
+    } catch (Throwable ignore) {
+      // Try the next way
+    }
+    try {
+      // Java 8 and earlier
+      final Method cleanerMethod = b.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      final Object cleaner = cleanerMethod.invoke(b);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Throwable ignore) {
+      // Left to the garbage collector
+    }
   }
 
   public static OutputStream create(File file) throws IOException {
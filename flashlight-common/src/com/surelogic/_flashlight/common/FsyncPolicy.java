@@ -0,0 +1,29 @@
+package com.surelogic._flashlight.common;
+
+/**
+ * When raw data files are forced to the storage device as they are written.
+ */
+public enum FsyncPolicy {
+  /**
+   * Leave it to the operating system. Data that has been written survives the
+   * instrumented program crashing, but not the machine crashing.
+   */
+  NONE,
+  /**
+   * Force each checkpoint file, and then its <tt>.complete</tt> marker, to the
+   * storage device before the next checkpoint is started. A checkpoint with a
+   * marker survives the machine crashing.
+   */
+  CHECKPOINT;
+
+  public static FsyncPolicy valueOf(String name, FsyncPolicy defValue) {
+    if (name != null) {
+      for (FsyncPolicy val : values()) {
+        if (val.toString().equals(name)) {
+          return val;
+        }
+      }
+    }
+    return defValue;
+  }
+}
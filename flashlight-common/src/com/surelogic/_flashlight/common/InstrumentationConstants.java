@@ -47,6 +47,9 @@ public final class InstrumentationConstants {
   public static final int FL_RAWQ_SIZE_MIN = 16;
   public static final int FL_RAWQ_SIZE_MAX = 32768;
 
+  public static final String FL_RAWQ_POLICY = "FL_RAWQ_POLICY";
+  public static final RawQueuePolicy FL_RAWQ_POLICY_DEFAULT = RawQueuePolicy.BLOCK;
+
   public static final String FL_OUTQ_SIZE = "FL_OUTQ_SIZE";
   public static final int FL_OUTQ_SIZE_DEFAULT = 16;
   public static final int FL_OUTQ_SIZE_MIN = 1;
@@ -57,6 +60,14 @@ public final class InstrumentationConstants {
   public static final int FL_REFINERY_SIZE_MAX = 9999;
   public static final int FL_REFINERY_SIZE_DEFAULT = 4096;
 
+  public static final String FL_GC_BATCH_SIZE = "FL_GC_BATCH_SIZE";
+  public static final int FL_GC_BATCH_SIZE_DEFAULT = 1024;
+  public static final int FL_GC_BATCH_SIZE_MIN = 1;
+
+  public static final String FL_GC_BATCH_MS = "FL_GC_BATCH_MS";
+  public static final int FL_GC_BATCH_MS_DEFAULT = 100;
+  public static final int FL_GC_BATCH_MS_MIN = 1;
+
   public static final String FL_NO_SPY = "FL_NO_SPY";
 
   public static final String FL_CONSOLE_PORT = "FL_CONSOLE_PORT";
@@ -96,8 +107,24 @@ public final class InstrumentationConstants {
   public static final String FL_REFINERY_OFF = "FL_REFINERY_OFF";
 
   public static final String FL_OUTPUT_TYPE = "FL_OUTPUT_TYPE";
-  public static final OutputType FL_OUTPUT_TYPE_DEFAULT = OutputType.FL_GZ;
+  public static final OutputType FL_OUTPUT_TYPE_DEFAULT = OutputType.FLB_GZ;
   public static final OutputType FL_SOCKET_OUTPUT_TYPE = OutputType.FL;
+
+  /**
+   * The most threads used to compress output. No more than one less than the
+   * number of processors are used, and with none the output is compressed by
+   * the thread writing it.
+   */
+  public static final String FL_COMPRESSION_THREADS = "FL_COMPRESSION_THREADS";
+  public static final int FL_COMPRESSION_THREADS_DEFAULT = 4;
+  public static final int FL_COMPRESSION_THREADS_MIN = 0;
+
+  /**
+   * When checkpoint files are forced to the storage device.
+   */
+  public static final String FL_FSYNC_POLICY = "FL_FSYNC_POLICY";
+  public static final FsyncPolicy FL_FSYNC_POLICY_DEFAULT = FsyncPolicy.NONE;
+
   public static final String FL_DEBUG = "FL_DEBUG";
 
   public static final String FL_ANDROID = "FL_ANDROID";
@@ -105,6 +132,14 @@ public final class InstrumentationConstants {
   public static final String FL_COLLECTION_TYPE = "FL_COLLECTION_TYPE";
   public static final CollectionType FL_COLLECTION_TYPE_DEFAULT = CollectionType.ALL;
 
+  public static final String FL_SAMPLE_ON_MS = "FL_SAMPLE_ON_MS";
+  public static final int FL_SAMPLE_ON_MS_DEFAULT = 10;
+  public static final int FL_SAMPLE_ON_MS_MIN = 1;
+
+  public static final String FL_SAMPLE_PERIOD_MS = "FL_SAMPLE_PERIOD_MS";
+  public static final int FL_SAMPLE_PERIOD_MS_DEFAULT = 100;
+  public static final int FL_SAMPLE_PERIOD_MS_MIN = 1;
+
   public static final String FL_LOCK_SUFFIX = ".locks";
   public static final String FL_ACCESS_SUFFIX = ".accesses";
   public static final String FL_OBJECT_SUFFIX = ".objects";
@@ -116,9 +151,17 @@ public final class InstrumentationConstants {
   public static final String FL_POSTMORTEM = "FL_POSTMORTEM";
   public static final String FL_POSTMORTEM_DEFAULT = "true";
 
-  public static final String[] FL_PROPERTY_LIST = new String[] { FL_COLLECTION_TYPE, FL_CONSOLE_PORT, FL_DATE_OVERRIDE, FL_DEBUG,
-      FL_DIR, FL_FIELDS_FILE, FL_CLASS_HIERARCHY_FILE, FL_OFF, FL_NO_SPY, FL_OUTPUT_PORT, FL_OUTPUT_TYPE, FL_OUTQ_SIZE,
-      FL_POSTMORTEM, FL_RAWQ_SIZE, FL_REFINERY_OFF, FL_REFINERY_SIZE, FL_RUN, FL_RUN_FOLDER, FL_SITES_FILE, FL_ANDROID };
+  public static final String FL_EVENT_SLABS = "FL_EVENT_SLABS";
+  public static final String FL_EVENT_SLABS_DEFAULT = "false";
+
+  public static final String FL_RACES = "FL_RACES";
+  public static final String FL_RACES_DEFAULT = "false";
+
+  public static final String[] FL_PROPERTY_LIST = new String[] { FL_COLLECTION_TYPE, FL_COMPRESSION_THREADS, FL_CONSOLE_PORT,
+      FL_DATE_OVERRIDE, FL_DEBUG, FL_DIR, FL_EVENT_SLABS, FL_FIELDS_FILE, FL_CLASS_HIERARCHY_FILE, FL_FSYNC_POLICY,
+      FL_GC_BATCH_MS, FL_GC_BATCH_SIZE, FL_OFF, FL_NO_SPY, FL_OUTPUT_PORT, FL_OUTPUT_TYPE, FL_OUTQ_SIZE, FL_POSTMORTEM,
+      FL_RACES, FL_RAWQ_POLICY, FL_RAWQ_SIZE, FL_REFINERY_OFF, FL_REFINERY_SIZE, FL_RUN, FL_RUN_FOLDER, FL_SAMPLE_ON_MS,
+      FL_SAMPLE_PERIOD_MS, FL_SITES_FILE, FL_ANDROID };
 
   /**
    * The number of events a single log file should (roughly) contain.
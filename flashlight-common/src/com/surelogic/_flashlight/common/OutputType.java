@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.EnumSet;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -22,18 +23,36 @@ import org.xml.sax.SAXException;
 
 public enum OutputType {
 
-  FL(false, ".fl"), FL_GZ(true, ".fl.gz"), COMPLETE(false, ".complete"), LOG(false, "-log.txt");
+  FL(false, ".fl"), FL_GZ(true, ".fl.gz"), FLB(false, true, ".flb"), FLB_GZ(true, true, ".flb.gz"),
+  /**
+   * The same format as {@link #FLB_GZ}, written with the fastest compression
+   * level. Trades a larger file for less processor time during collection.
+   * Files of this type are detected as {@link #FLB_GZ} when read.
+   */
+  FLB_GZ_FAST(true, true, Deflater.BEST_SPEED, ".flb.gz"), COMPLETE(false, ".complete"), LOG(false, "-log.txt");
 
   /**
    * A set that indicates raw data files.
    */
-  public static final EnumSet<OutputType> RAW_DATA = EnumSet.of(FL, FL_GZ);
+  public static final EnumSet<OutputType> RAW_DATA = EnumSet.of(FL, FL_GZ, FLB, FLB_GZ, FLB_GZ_FAST);
 
   private final boolean f_compressed;
+  private final boolean f_binary;
+  private final int f_compressionLevel;
   private final String f_suffix;
 
   private OutputType(final boolean gz, final String sf) {
+    this(gz, false, sf);
+  }
+
+  private OutputType(final boolean gz, final boolean binary, final String sf) {
+    this(gz, binary, Deflater.DEFAULT_COMPRESSION, sf);
+  }
+
+  private OutputType(final boolean gz, final boolean binary, final int level, final String sf) {
     f_compressed = gz;
+    f_binary = binary;
+    f_compressionLevel = level;
     f_suffix = sf;
   }
 
@@ -41,6 +60,27 @@ public enum OutputType {
     return f_compressed;
   }
 
+  /**
+   * Gets the {@link Deflater} compression level used to write this output
+   * type, if it is compressed.
+   * 
+   * @return the compression level.
+   */
+  public int getCompressionLevel() {
+    return f_compressionLevel;
+  }
+
+  /**
+   * Checks if this output type is a raw data file written in the binary format
+   * read by {@link BinaryEventReader} rather than XML.
+   * 
+   * @return {@code true} if this is a binary raw data file type, {@code false}
+   *         otherwise.
+   */
+  public boolean isBinary() {
+    return f_binary;
+  }
+
   /* @NonNull */
   public String getSuffix() {
     return f_suffix;
@@ -110,6 +150,27 @@ public enum OutputType {
     }
   }
 
+  /**
+   * Gets the output type for a raw file based upon if it should be compressed
+   * or not and if it should be binary or XML.
+   * 
+   * @param compress
+   *          {@code true} if compression should be used, {@code false}
+   *          otherwise.
+   * @param binary
+   *          {@code true} if the binary format should be used, {@code false}
+   *          if XML should be used.
+   * @return the matching raw data output type.
+   */
+  /* @NonNull */
+  public static OutputType get(final boolean compress, final boolean binary) {
+    if (binary) {
+      return compress ? FLB_GZ : FLB;
+    } else {
+      return get(compress);
+    }
+  }
+
   /**
    * Gets an output type for the passed file, or {@code null} if none can be
    * determined.
@@ -204,7 +265,12 @@ public enum OutputType {
    */
   public static OutputStream getOutputStreamFor(OutputStream stream, final OutputType type) throws IOException {
     if (type.isCompressed()) {
-      return new GZIPOutputStream(stream);
+      final int level = type.getCompressionLevel();
+      return new GZIPOutputStream(stream) {
+        {
+          def.setLevel(level);
+        }
+      };
     } else {
       return new BufferedOutputStream(stream);
     }
@@ -0,0 +1,267 @@
+package com.surelogic._flashlight.common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses blocks of its input on a pool of
+ * threads. Each block is written as a complete gzip member, and the members
+ * are written in order. A sequence of gzip members is itself a valid gzip
+ * file, so the output can be read with {@link java.util.zip.GZIPInputStream},
+ * which is how {@link OutputType#getInputStreamFor(java.io.File)} reads it.
+ * <p>
+ * Only one thread may write to this stream. It blocks if too many blocks are
+ * waiting to be compressed, so that a slow disk or a busy pool slows the
+ * writer down rather than using up memory.
+ */
+public final class ParallelGZIPOutputStream extends FilterOutputStream {
+
+  /**
+   * The size of a block of input compressed by one task. Large enough that
+   * compressing blocks independently costs little in the compression ratio.
+   */
+  public static final int BLOCK_SIZE = 256 * 1024;
+
+  /**
+   * The gzip member header: the magic number, deflate, no flags, no
+   * modification time, no extra flags, and an unknown operating system.
+   */
+  private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+  /**
+   * The {@link Deflater} used by each compression thread, so that a new one is
+   * not allocated for each block.
+   */
+  private static final ThreadLocal<Deflater[]> tl_deflaters = new ThreadLocal<Deflater[]>() {
+    @Override
+    protected Deflater[] initialValue() {
+      return new Deflater[Deflater.BEST_COMPRESSION + 2];
+    }
+  };
+
+  private final ExecutorService f_pool;
+  private final int f_level;
+  private final int f_maxPending;
+
+  /**
+   * The compressed blocks, in the order they must be written.
+   */
+  private final LinkedList<Future<byte[]>> f_pending = new LinkedList<Future<byte[]>>();
+
+  private byte[] f_block = new byte[BLOCK_SIZE];
+  private int f_count;
+  private boolean f_submitted;
+  private boolean f_closed;
+
+  /**
+   * Constructs a stream compressing with the default compression level.
+   *
+   * @param out
+   *          the stream the compressed output is written to.
+   * @param pool
+   *          the threads that compress blocks. The pool may be shared by
+   *          several streams.
+   * @param threads
+   *          the number of threads in the pool, which bounds how many blocks
+   *          are compressed at once.
+   */
+  public ParallelGZIPOutputStream(final OutputStream out, final ExecutorService pool, final int threads) {
+    this(out, pool, threads, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Constructs a stream.
+   *
+   * @param out
+   *          the stream the compressed output is written to.
+   * @param pool
+   *          the threads that compress blocks. The pool may be shared by
+   *          several streams.
+   * @param threads
+   *          the number of threads in the pool, which bounds how many blocks
+   *          are compressed at once.
+   * @param level
+   *          the {@link Deflater} compression level.
+   */
+  public ParallelGZIPOutputStream(final OutputStream out, final ExecutorService pool, final int threads, final int level) {
+    super(out);
+    if (pool == null) {
+      throw new IllegalArgumentException("pool must be non-null");
+    }
+    f_pool = pool;
+    f_level = level;
+    f_maxPending = 2 * Math.max(threads, 1);
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    checkOpen();
+    if (f_count == BLOCK_SIZE) {
+      submitBlock();
+    }
+    f_block[f_count++] = (byte) b;
+  }
+
+  @Override
+  public void write(final byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    checkOpen();
+    while (len > 0) {
+      if (f_count == BLOCK_SIZE) {
+        submitBlock();
+      }
+      final int n = Math.min(len, BLOCK_SIZE - f_count);
+      System.arraycopy(b, off, f_block, f_count, n);
+      f_count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Compresses whatever has been written so far, waits for every block to be
+   * compressed, and writes and flushes them to the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (f_count > 0) {
+      submitBlock();
+    }
+    while (!f_pending.isEmpty()) {
+      writeBlock(f_pending.removeFirst());
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (f_closed) {
+      return;
+    }
+    f_closed = true;
+    try {
+      if (f_count > 0 || !f_submitted) {
+        /*
+         * Always write at least one member, as an empty gzip file is not
+         * valid.
+         */
+        submitBlock();
+      }
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (f_closed) {
+      throw new IOException("stream is closed");
+    }
+  }
+
+  /**
+   * Hands the current block to the pool, then writes out any blocks at the
+   * front of the queue that are done. Waits for the oldest block if too many
+   * are queued.
+   */
+  private void submitBlock() throws IOException {
+    f_submitted = true;
+    f_pending.addLast(f_pool.submit(new CompressBlock(f_block, f_count, f_level)));
+    f_block = new byte[BLOCK_SIZE];
+    f_count = 0;
+    while (!f_pending.isEmpty() && (f_pending.size() > f_maxPending || f_pending.getFirst().isDone())) {
+      writeBlock(f_pending.removeFirst());
+    }
+  }
+
+  private void writeBlock(final Future<byte[]> block) throws IOException {
+    byte[] compressed;
+    boolean interrupted = false;
+    while (true) {
+      try {
+        compressed = block.get();
+        break;
+      } catch (final InterruptedException e) {
+        // The block must still be written, try again
+        interrupted = true;
+      } catch (final ExecutionException e) {
+        throw new IOException("unable to compress a block", e.getCause());
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    out.write(compressed);
+  }
+
+  /**
+   * Compresses one block into a complete gzip member.
+   */
+  private static final class CompressBlock implements Callable<byte[]> {
+    private final byte[] f_data;
+    private final int f_length;
+    private final int f_level;
+
+    CompressBlock(final byte[] data, final int length, final int level) {
+      f_data = data;
+      f_length = length;
+      f_level = level;
+    }
+
+    @Override
+    public byte[] call() {
+      final Deflater deflater = getDeflater(f_level);
+      deflater.setInput(f_data, 0, f_length);
+      deflater.finish();
+      // Incompressible data grows by a few bytes per 16K stored block
+      byte[] buf = new byte[HEADER.length + f_length + f_length / 1024 + 64];
+      System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+      int len = HEADER.length;
+      while (!deflater.finished()) {
+        if (len == buf.length) {
+          final byte[] larger = new byte[buf.length * 2];
+          System.arraycopy(buf, 0, larger, 0, len);
+          buf = larger;
+        }
+        len += deflater.deflate(buf, len, buf.length - len);
+      }
+      deflater.reset();
+      final CRC32 crc = new CRC32();
+      crc.update(f_data, 0, f_length);
+      final byte[] member = new byte[len + 8];
+      System.arraycopy(buf, 0, member, 0, len);
+      writeInt(member, len, (int) crc.getValue());
+      writeInt(member, len + 4, f_length);
+      return member;
+    }
+
+    private static Deflater getDeflater(final int level) {
+      // DEFAULT_COMPRESSION is -1
+      final Deflater[] deflaters = tl_deflaters.get();
+      final int index = level + 1;
+      Deflater d = deflaters[index];
+      if (d == null) {
+        d = new Deflater(level, true);
+        deflaters[index] = d;
+      }
+      return d;
+    }
+
+    private static void writeInt(final byte[] b, final int off, final int value) {
+      b[off] = (byte) value;
+      b[off + 1] = (byte) (value >>> 8);
+      b[off + 2] = (byte) (value >>> 16);
+      b[off + 3] = (byte) (value >>> 24);
+    }
+  }
+}
@@ -1,10 +1,17 @@
 package com.surelogic._flashlight.common;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
-public class PreppedAttributes extends HashMap<IAttributeType, Object> {
-  private static final long serialVersionUID = 2176197907020676264L;
+/**
+ * The attributes of one event read from a raw data file. Values read from XML
+ * are strings. Values read from a binary file are kept as primitive longs and
+ * booleans, so the typed getters hand them to the prep handlers without
+ * parsing or boxing. An event has only a handful of attributes, so they are
+ * kept in small parallel arrays and searched in order rather than hashed.
+ */
+public class PreppedAttributes {
   private static final Map<String, IAttributeType> xmlMap = new HashMap<String, IAttributeType>();
 
   static {
@@ -24,45 +31,174 @@ public class PreppedAttributes extends HashMap<IAttributeType, Object> {
     return xmlMap.get(name);
   }
 
-  public PreppedAttributes() {
-    // super(IAttributeType.comparator);
-    super(4);
+  private static final byte KIND_OBJECT = 0;
+  private static final byte KIND_LONG = 1;
+  private static final byte KIND_BOOLEAN = 2;
+
+  private IAttributeType[] f_keys = new IAttributeType[8];
+  private byte[] f_kinds = new byte[8];
+  private long[] f_longs = new long[8];
+  private Object[] f_values = new Object[8];
+  private int f_size;
+
+  private int indexOf(final IAttributeType key) {
+    for (int i = 0; i < f_size; i++) {
+      if (f_keys[i] == key) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int slot(final IAttributeType key) {
+    int i = indexOf(key);
+    if (i < 0) {
+      if (f_size == f_keys.length) {
+        final int size = f_size * 2;
+        f_keys = Arrays.copyOf(f_keys, size);
+        f_kinds = Arrays.copyOf(f_kinds, size);
+        f_longs = Arrays.copyOf(f_longs, size);
+        f_values = Arrays.copyOf(f_values, size);
+      }
+      i = f_size++;
+      f_keys[i] = key;
+    }
+    return i;
+  }
+
+  /**
+   * Sets an attribute to a string or other object. Attributes with no type
+   * are not kept.
+   */
+  public void put(final IAttributeType key, final Object value) {
+    if (key == null) {
+      return;
+    }
+    final int i = slot(key);
+    f_kinds[i] = KIND_OBJECT;
+    f_values[i] = value;
+  }
+
+  public void putLong(final IAttributeType key, final long value) {
+    final int i = slot(key);
+    f_kinds[i] = KIND_LONG;
+    f_longs[i] = value;
+    f_values[i] = null;
+  }
+
+  public void putBoolean(final IAttributeType key, final boolean value) {
+    final int i = slot(key);
+    f_kinds[i] = KIND_BOOLEAN;
+    f_longs[i] = value ? 1 : 0;
+    f_values[i] = null;
+  }
+
+  public boolean containsKey(final IAttributeType key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * Gets the value of an attribute, boxing it if it was read as a long or a
+   * boolean.
+   */
+  public Object get(final IAttributeType key) {
+    final int i = indexOf(key);
+    return i < 0 ? null : valueAt(i);
+  }
+
+  /**
+   * Gets the number of attributes.
+   */
+  public int size() {
+    return f_size;
+  }
+
+  public IAttributeType keyAt(final int index) {
+    return f_keys[index];
+  }
+
+  public Object valueAt(final int index) {
+    switch (f_kinds[index]) {
+    case KIND_LONG:
+      return Long.valueOf(f_longs[index]);
+    case KIND_BOOLEAN:
+      return Boolean.valueOf(f_longs[index] != 0);
+    default:
+      return f_values[index];
+    }
+  }
+
+  /**
+   * Checks whether an attribute was read as a long, which
+   * {@link #longAt(int)} then gets without boxing.
+   */
+  public boolean isLongAt(final int index) {
+    return f_kinds[index] == KIND_LONG;
+  }
+
+  public long longAt(final int index) {
+    return f_longs[index];
   }
 
   public String getString(final IAttributeType key) {
-    final Object o = this.get(key);
-    if (o == null) {
+    final int i = indexOf(key);
+    if (i < 0) {
       return null;
     }
-    return o.toString();
+    switch (f_kinds[i]) {
+    case KIND_LONG:
+      return Long.toString(f_longs[i]);
+    case KIND_BOOLEAN:
+      return Boolean.toString(f_longs[i] != 0);
+    default:
+      final Object o = f_values[i];
+      return o == null ? null : o.toString();
+    }
   }
 
   public long getLong(final IAttributeType key) {
-    final Object o = this.get(key);
+    final int i = indexOf(key);
+    if (i < 0) {
+      return Long.MIN_VALUE;
+    }
+    if (f_kinds[i] != KIND_OBJECT) {
+      return f_longs[i];
+    }
+    final Object o = f_values[i];
     if (o == null) {
-      /*
-       * if (key != AttributeType.TYPE) { System.out.println("No value for "
-       * +key); }
-       */
       return Long.MIN_VALUE;
     }
-    return (o instanceof Long) ? (Long) o : Long.parseLong(o.toString());
+    return o instanceof Number ? ((Number) o).longValue() : Long.parseLong(o.toString());
   }
 
   public int getInt(final IAttributeType key) {
-    final Object o = this.get(key);
+    final int i = indexOf(key);
+    if (i < 0) {
+      return Integer.MIN_VALUE;
+    }
+    if (f_kinds[i] != KIND_OBJECT) {
+      return (int) f_longs[i];
+    }
+    final Object o = f_values[i];
     if (o == null) {
       return Integer.MIN_VALUE;
     }
-    return (o instanceof Integer) ? (Integer) o : Integer.parseInt(o.toString());
+    return o instanceof Number ? ((Number) o).intValue() : Integer.parseInt(o.toString());
   }
 
   public boolean getBoolean(final IAttributeType key) {
-    final Object o = this.get(key);
+    final int i = indexOf(key);
+    if (i < 0) {
+      return false;
+    }
+    if (f_kinds[i] != KIND_OBJECT) {
+      return f_longs[i] != 0;
+    }
+    final Object o = f_values[i];
     if (o == null) {
       return false;
     }
-    return (o instanceof Boolean) ? (Boolean) o : "yes".equals(o) || "true".equals(o);
+    return o instanceof Boolean ? (Boolean) o : "yes".equals(o) || "true".equals(o);
   }
 
   public long getEventTime() {
@@ -85,4 +221,16 @@ public class PreppedAttributes extends HashMap<IAttributeType, Object> {
   public long getThreadId() {
     return getLong(AttributeType.THREAD);
   }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder("{");
+    for (int i = 0; i < f_size; i++) {
+      if (i > 0) {
+        b.append(", ");
+      }
+      b.append(f_keys[i].label()).append('=').append(valueAt(i));
+    }
+    return b.append('}').toString();
+  }
 }
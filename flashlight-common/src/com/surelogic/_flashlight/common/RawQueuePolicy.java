@@ -0,0 +1,34 @@
+package com.surelogic._flashlight.common;
+
+/**
+ * What an instrumented thread does when its raw event queue is full because
+ * the refinery has fallen behind.
+ */
+public enum RawQueuePolicy {
+  /**
+   * Park the thread until the refinery makes room. No events are lost.
+   */
+  BLOCK,
+  /**
+   * Busy-wait briefly for the refinery to make room, then park the thread. No
+   * events are lost.
+   */
+  SPIN_THEN_PARK,
+  /**
+   * Discard the event and count it. Definition events are never discarded, so
+   * the raw data stays consistent, but the program being observed is never
+   * slowed by a full queue.
+   */
+  DROP;
+
+  public static RawQueuePolicy valueOf(String name, RawQueuePolicy defValue) {
+    if (name != null) {
+      for (RawQueuePolicy val : values()) {
+        if (val.toString().equals(name)) {
+          return val;
+        }
+      }
+    }
+    return defValue;
+  }
+}
@@ -0,0 +1,146 @@
+package com.surelogic.flashlight.common.columns;
+
+import static com.surelogic.flashlight.common.columns.ColumnTable.BLOCK_ROWS;
+import static com.surelogic.flashlight.common.columns.ColumnTable.MAGIC;
+import static com.surelogic.flashlight.common.columns.ColumnTable.VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes rows, in the order they are given, to a column table file. Rows are
+ * gathered into blocks of {@link ColumnTable#BLOCK_ROWS}. Each column of a
+ * block is stored as the differences between consecutive values, as zig-zag
+ * variable length integers, and compressed. The zone map of each block, the
+ * smallest and largest value of each of its columns, is kept in the footer of
+ * the file so a reader can skip blocks without reading them.
+ */
+final class BlockWriter implements Closeable {
+
+  private final String[] f_columns;
+  private final int f_keyColumns;
+  private final DataOutputStream f_out;
+  private final Deflater f_deflater = new Deflater(Deflater.BEST_SPEED);
+  private final List<ColumnTable.Block> f_blocks = new ArrayList<>();
+
+  private final long[][] f_block;
+  private int f_rows;
+  private long f_offset;
+
+  private final byte[] f_raw = new byte[BLOCK_ROWS * 10];
+  private byte[] f_compressed = new byte[64 * 1024];
+
+  BlockWriter(final File file, final String[] columns, final int keyColumns) throws IOException {
+    f_columns = columns;
+    f_keyColumns = keyColumns;
+    f_block = new long[columns.length][BLOCK_ROWS];
+    f_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    f_out.writeInt(MAGIC);
+    f_out.writeInt(VERSION);
+    f_offset = 8;
+  }
+
+  void add(final long[][] columns, final int row) throws IOException {
+    for (int c = 0; c < f_block.length; c++) {
+      f_block[c][f_rows] = columns[c][row];
+    }
+    if (++f_rows == BLOCK_ROWS) {
+      writeBlock();
+    }
+  }
+
+  void add(final ColumnTable.Cursor cursor) throws IOException {
+    for (int c = 0; c < f_block.length; c++) {
+      f_block[c][f_rows] = cursor.get(c);
+    }
+    if (++f_rows == BLOCK_ROWS) {
+      writeBlock();
+    }
+  }
+
+  private void writeBlock() throws IOException {
+    final int columns = f_block.length;
+    final ColumnTable.Block b = new ColumnTable.Block(f_offset, f_rows, columns);
+    for (int c = 0; c < columns; c++) {
+      final long[] values = f_block[c];
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      long previous = 0;
+      int n = 0;
+      for (int i = 0; i < f_rows; i++) {
+        final long v = values[i];
+        if (v < min) {
+          min = v;
+        }
+        if (v > max) {
+          max = v;
+        }
+        long zz = (v - previous) << 1 ^ (v - previous) >> 63;
+        previous = v;
+        while ((zz & ~0x7FL) != 0) {
+          f_raw[n++] = (byte) (zz & 0x7F | 0x80);
+          zz >>>= 7;
+        }
+        f_raw[n++] = (byte) zz;
+      }
+      f_deflater.reset();
+      f_deflater.setInput(f_raw, 0, n);
+      f_deflater.finish();
+      int length = 0;
+      while (!f_deflater.finished()) {
+        if (length == f_compressed.length) {
+          f_compressed = Arrays.copyOf(f_compressed, f_compressed.length * 2);
+        }
+        length += f_deflater.deflate(f_compressed, length, f_compressed.length - length);
+      }
+      f_out.write(f_compressed, 0, length);
+      b.lengths[c] = length;
+      b.min[c] = min;
+      b.max[c] = max;
+      f_offset += length;
+    }
+    f_blocks.add(b);
+    f_rows = 0;
+  }
+
+  /**
+   * Writes the last, partly filled, block and the footer, and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (f_rows > 0) {
+        writeBlock();
+      }
+      final long footer = f_offset;
+      f_out.writeInt(f_columns.length);
+      for (final String column : f_columns) {
+        f_out.writeUTF(column);
+      }
+      f_out.writeInt(f_keyColumns);
+      f_out.writeInt(f_blocks.size());
+      for (final ColumnTable.Block b : f_blocks) {
+        f_out.writeLong(b.offset);
+        f_out.writeInt(b.rows);
+        for (int c = 0; c < f_columns.length; c++) {
+          f_out.writeInt(b.lengths[c]);
+          f_out.writeLong(b.min[c]);
+          f_out.writeLong(b.max[c]);
+        }
+      }
+      f_out.writeLong(footer);
+      f_out.writeInt(MAGIC);
+    } finally {
+      f_out.close();
+      f_deflater.end();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.surelogic.flashlight.common.columns;
+
+import java.util.Arrays;
+
+/**
+ * Restricts a scan of a {@link ColumnTable} to the rows whose values fall
+ * within an inclusive range for each of some of its columns. Blocks whose zone
+ * maps do not overlap every range are skipped without being read.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class ColumnFilter {
+
+  final long[] f_min;
+  final long[] f_max;
+
+  /**
+   * The columns that have a range, in the order they were first restricted.
+   */
+  int[] f_restricted = new int[0];
+
+  /**
+   * Constructs a filter that accepts every row of a table.
+   *
+   * @param columnCount
+   *          the number of columns in the table.
+   */
+  public ColumnFilter(final int columnCount) {
+    f_min = new long[columnCount];
+    f_max = new long[columnCount];
+    Arrays.fill(f_min, Long.MIN_VALUE);
+    Arrays.fill(f_max, Long.MAX_VALUE);
+  }
+
+  /**
+   * Restricts the filter to rows where a column is within an inclusive range.
+   * Restricting a column more than once keeps the intersection of the ranges.
+   *
+   * @param column
+   *          the index of the column.
+   * @param min
+   *          the smallest value accepted.
+   * @param max
+   *          the largest value accepted.
+   * @return this filter.
+   */
+  public ColumnFilter range(final int column, final long min, final long max) {
+    if (!isRestricted(column)) {
+      f_restricted = Arrays.copyOf(f_restricted, f_restricted.length + 1);
+      f_restricted[f_restricted.length - 1] = column;
+    }
+    f_min[column] = Math.max(f_min[column], min);
+    f_max[column] = Math.min(f_max[column], max);
+    return this;
+  }
+
+  /**
+   * Restricts the filter to rows where a column has a value.
+   *
+   * @param column
+   *          the index of the column.
+   * @param value
+   *          the only value accepted.
+   * @return this filter.
+   */
+  public ColumnFilter equal(final int column, final long value) {
+    return range(column, value, value);
+  }
+
+  private boolean isRestricted(final int column) {
+    for (final int c : f_restricted) {
+      if (c == column) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if a block with the passed zone map may have rows that pass.
+   */
+  boolean overlaps(final long[] min, final long[] max) {
+    for (final int c : f_restricted) {
+      if (max[c] < f_min[c] || min[c] > f_max[c]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks if every row of a block with the passed zone map passes.
+   */
+  boolean covers(final long[] min, final long[] max) {
+    for (final int c : f_restricted) {
+      if (min[c] < f_min[c] || max[c] > f_max[c]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  boolean accepts(final int column, final long value) {
+    return f_min[column] <= value && value <= f_max[column];
+  }
+}
@@ -0,0 +1,209 @@
+package com.surelogic.flashlight.common.columns;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.carrotsearch.hppc.LongLongMap;
+import com.surelogic.flashlight.common.prep.IntrinsicLockDurationState;
+import com.surelogic.flashlight.common.prep.LockState;
+import com.surelogic.flashlight.common.prep.TimestampUtility;
+
+/**
+ * The column tables of a prepared run. They hold the same rows as the ACCESS,
+ * LOCK, and LOCKDURATION tables of the run's database, sorted so that the
+ * common scans (by field and receiver, by lock, and by thread, each over a
+ * range of time) read only the blocks they need.
+ * <p>
+ * Times are stored as nanoseconds since the epoch, see
+ * {@link TimestampUtility#toNanos(Timestamp)}. Enumerations are stored as their
+ * ordinals, and flags as 1 or 0.
+ */
+public final class ColumnStore implements Closeable {
+
+  public static final String ACCESS = "ACCESS";
+  public static final String LOCK = "LOCK";
+  public static final String LOCKDURATION = "LOCKDURATION";
+
+  /**
+   * The columns of the ACCESS table, sorted by field, receiver, and time.
+   * <tt>Receiver</tt> is {@link ColumnTable#NULL} for a static field, and
+   * <tt>RW</tt> is the character <tt>R</tt> or <tt>W</tt>.
+   */
+  static final String[] ACCESS_COLUMNS = { "Field", "Receiver", "TS", "InThread", "Trace", "RW", "UnderConstruction" };
+  public static final int ACCESS_FIELD = 0;
+  public static final int ACCESS_RECEIVER = 1;
+  public static final int ACCESS_TS = 2;
+  public static final int ACCESS_IN_THREAD = 3;
+  public static final int ACCESS_TRACE = 4;
+  public static final int ACCESS_RW = 5;
+  public static final int ACCESS_UNDER_CONSTRUCTION = 6;
+  static final int ACCESS_KEY = 3;
+
+  /**
+   * The columns of the LOCK table, sorted by lock and time. <tt>Type</tt> is a
+   * {@link com.surelogic.flashlight.common.LockType} and <tt>State</tt> a
+   * {@link LockState}. <tt>Success</tt> is 1 if the event succeeded, -1 if it
+   * failed, and 0 if it cannot fail.
+   */
+  static final String[] LOCK_COLUMNS = { "Lock", "TS", "Id", "InThread", "Trace", "LockTrace", "Object", "Type", "State",
+      "Success", "LockIsThis" };
+  public static final int LOCK_LOCK = 0;
+  public static final int LOCK_TS = 1;
+  public static final int LOCK_ID = 2;
+  public static final int LOCK_IN_THREAD = 3;
+  public static final int LOCK_TRACE = 4;
+  public static final int LOCK_LOCK_TRACE = 5;
+  public static final int LOCK_OBJECT = 6;
+  public static final int LOCK_TYPE = 7;
+  public static final int LOCK_STATE = 8;
+  public static final int LOCK_SUCCESS = 9;
+  public static final int LOCK_LOCK_IS_THIS = 10;
+  static final int LOCK_KEY = 2;
+
+  /**
+   * The columns of the LOCKDURATION table, sorted by thread and start time.
+   * <tt>Type</tt> is a {@link com.surelogic.flashlight.common.LockType} and
+   * <tt>State</tt> an {@link IntrinsicLockDurationState}.
+   */
+  static final String[] LOCKDURATION_COLUMNS = { "InThread", "Start", "Stop", "Lock", "Type", "StartEvent", "StartTrace",
+      "StopEvent", "StopTrace", "Duration", "State" };
+  public static final int LOCKDURATION_IN_THREAD = 0;
+  public static final int LOCKDURATION_START = 1;
+  public static final int LOCKDURATION_STOP = 2;
+  public static final int LOCKDURATION_LOCK = 3;
+  public static final int LOCKDURATION_TYPE = 4;
+  public static final int LOCKDURATION_START_EVENT = 5;
+  public static final int LOCKDURATION_START_TRACE = 6;
+  public static final int LOCKDURATION_STOP_EVENT = 7;
+  public static final int LOCKDURATION_STOP_TRACE = 8;
+  public static final int LOCKDURATION_DURATION = 9;
+  public static final int LOCKDURATION_STATE = 10;
+  static final int LOCKDURATION_KEY = 2;
+
+  static final String SUFFIX = ".col";
+
+  private final File f_directory;
+  private final Map<String, ColumnTable> f_tables = new HashMap<>();
+
+  /**
+   * Constructs a store over the passed directory. Tables are opened when they
+   * are first used.
+   *
+   * @param directory
+   *          the directory written by a {@link ColumnStoreWriter}.
+   */
+  public ColumnStore(final File directory) {
+    f_directory = directory;
+  }
+
+  /**
+   * Checks if the passed directory holds a complete store.
+   */
+  public static boolean existsIn(final File directory) {
+    for (final String name : new String[] { ACCESS, LOCK, LOCKDURATION }) {
+      if (!new File(directory, name + SUFFIX).isFile()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets a table, opening it if needed.
+   *
+   * @param name
+   *          one of {@link #ACCESS}, {@link #LOCK}, or {@link #LOCKDURATION}.
+   */
+  public synchronized ColumnTable getTable(final String name) throws IOException {
+    ColumnTable t = f_tables.get(name);
+    if (t == null) {
+      t = ColumnTable.open(new File(f_directory, name + SUFFIX));
+      f_tables.put(name, t);
+    }
+    return t;
+  }
+
+  /**
+   * Scans the accesses of a field of an object, or of a static field, within
+   * a range of time. The accesses are in time order.
+   *
+   * @param field
+   *          the field.
+   * @param receiver
+   *          the object, or {@link ColumnTable#NULL} for a static field.
+   * @param fromNanos
+   *          the start of the range.
+   * @param toNanos
+   *          the end of the range.
+   */
+  public ColumnTable.Cursor getAccesses(final long field, final long receiver, final long fromNanos, final long toNanos)
+      throws IOException {
+    final ColumnTable t = getTable(ACCESS);
+    return t.scan(t.filter().equal(ACCESS_FIELD, field).equal(ACCESS_RECEIVER, receiver).range(ACCESS_TS, fromNanos, toNanos));
+  }
+
+  /**
+   * Counts the accesses of a field by each thread, over every object.
+   *
+   * @return a map from each thread to its number of accesses.
+   */
+  public LongLongMap getAccessCountsByThread(final long field) throws IOException {
+    final ColumnTable t = getTable(ACCESS);
+    return t.countBy(t.filter().equal(ACCESS_FIELD, field), ACCESS_IN_THREAD);
+  }
+
+  /**
+   * Counts the accesses of each field.
+   *
+   * @return a map from each field to its number of accesses.
+   */
+  public LongLongMap getAccessCountsByField() throws IOException {
+    final ColumnTable t = getTable(ACCESS);
+    return t.countBy(t.filter(), ACCESS_FIELD);
+  }
+
+  /**
+   * Counts the acquisitions of a lock by each thread.
+   *
+   * @return a map from each thread to the number of times it acquired the
+   *         lock.
+   */
+  public LongLongMap getAcquisitionCountsByThread(final long lock) throws IOException {
+    final ColumnTable t = getTable(LOCK);
+    return t.countBy(t.filter().equal(LOCK_LOCK, lock).equal(LOCK_STATE, LockState.AFTER_ACQUISITION.ordinal())
+        .range(LOCK_SUCCESS, 0, 1), LOCK_IN_THREAD);
+  }
+
+  /**
+   * Scans the lock durations of a thread that overlap a range of time, in the
+   * order they started.
+   */
+  public ColumnTable.Cursor getLockDurations(final long thread, final long fromNanos, final long toNanos) throws IOException {
+    final ColumnTable t = getTable(LOCKDURATION);
+    return t.scan(t.filter().equal(LOCKDURATION_IN_THREAD, thread).range(LOCKDURATION_START, Long.MIN_VALUE, toNanos)
+        .range(LOCKDURATION_STOP, fromNanos, Long.MAX_VALUE));
+  }
+
+  /**
+   * Gets the total time a thread spent in a lock state.
+   *
+   * @return the time, in nanoseconds.
+   */
+  public long getTimeIn(final long thread, final IntrinsicLockDurationState state) throws IOException {
+    final ColumnTable t = getTable(LOCKDURATION);
+    return t.sum(LOCKDURATION_DURATION,
+        t.filter().equal(LOCKDURATION_IN_THREAD, thread).equal(LOCKDURATION_STATE, state.ordinal()));
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (final ColumnTable t : f_tables.values()) {
+      t.close();
+    }
+    f_tables.clear();
+  }
+}
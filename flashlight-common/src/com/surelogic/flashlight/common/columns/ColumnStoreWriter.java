@@ -0,0 +1,149 @@
+package com.surelogic.flashlight.common.columns;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.surelogic.flashlight.common.LockType;
+import com.surelogic.flashlight.common.prep.IntrinsicLockDurationState;
+import com.surelogic.flashlight.common.prep.LockState;
+import com.surelogic.flashlight.common.prep.TimestampUtility;
+
+/**
+ * Writes the column tables of a {@link ColumnStore} as a run is prepared. The
+ * tables are not complete, and the store cannot be read, until this writer is
+ * closed.
+ * <p>
+ * Instances are not thread safe. Rows must be written by the thread that
+ * prepares the database.
+ */
+public final class ColumnStoreWriter implements Closeable {
+
+  private final File f_directory;
+  private final ColumnTableWriter f_access;
+  private final ColumnTableWriter f_lock;
+  private final ColumnTableWriter f_lockDuration;
+
+  /**
+   * Constructs a writer of a store in the passed directory, replacing any
+   * store that is already there.
+   *
+   * @param directory
+   *          the directory. It is created if it does not exist.
+   */
+  public ColumnStoreWriter(final File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    f_directory = directory;
+    f_access = new ColumnTableWriter(file(ColumnStore.ACCESS), ColumnStore.ACCESS_COLUMNS, ColumnStore.ACCESS_KEY);
+    f_lock = new ColumnTableWriter(file(ColumnStore.LOCK), ColumnStore.LOCK_COLUMNS, ColumnStore.LOCK_KEY);
+    f_lockDuration = new ColumnTableWriter(file(ColumnStore.LOCKDURATION), ColumnStore.LOCKDURATION_COLUMNS,
+        ColumnStore.LOCKDURATION_KEY);
+    for (final ColumnTableWriter w : new ColumnTableWriter[] { f_access, f_lock, f_lockDuration }) {
+      w.discard();
+    }
+  }
+
+  private File file(final String table) {
+    return new File(f_directory, table + ColumnStore.SUFFIX);
+  }
+
+  /**
+   * Adds a row to the ACCESS table.
+   *
+   * @param receiver
+   *          the object, or {@link ColumnTable#NULL} for a static field.
+   * @param read
+   *          {@code true} for a read, {@code false} for a write.
+   */
+  public void addAccess(final Timestamp ts, final long inThread, final long trace, final long field, final boolean read,
+      final long receiver, final boolean underConstruction) throws IOException {
+    final ColumnTableWriter w = f_access;
+    w.set(ColumnStore.ACCESS_FIELD, field);
+    w.set(ColumnStore.ACCESS_RECEIVER, receiver);
+    w.set(ColumnStore.ACCESS_TS, TimestampUtility.toNanos(ts));
+    w.set(ColumnStore.ACCESS_IN_THREAD, inThread);
+    w.set(ColumnStore.ACCESS_TRACE, trace);
+    w.set(ColumnStore.ACCESS_RW, read ? 'R' : 'W');
+    w.set(ColumnStore.ACCESS_UNDER_CONSTRUCTION, underConstruction ? 1 : 0);
+    w.endRow();
+  }
+
+  /**
+   * Adds a row to the LOCK table.
+   *
+   * @param lockTrace
+   *          the lock trace, or {@link ColumnTable#NULL}.
+   * @param success
+   *          whether the event succeeded, or {@code null} if it cannot fail.
+   */
+  public void addLock(final long id, final Timestamp ts, final long inThread, final long trace, final long lockTrace,
+      final long lock, final long object, final LockType type, final LockState state, final Boolean success,
+      final boolean lockIsThis) throws IOException {
+    final ColumnTableWriter w = f_lock;
+    w.set(ColumnStore.LOCK_LOCK, lock);
+    w.set(ColumnStore.LOCK_TS, TimestampUtility.toNanos(ts));
+    w.set(ColumnStore.LOCK_ID, id);
+    w.set(ColumnStore.LOCK_IN_THREAD, inThread);
+    w.set(ColumnStore.LOCK_TRACE, trace);
+    w.set(ColumnStore.LOCK_LOCK_TRACE, lockTrace);
+    w.set(ColumnStore.LOCK_OBJECT, object);
+    w.set(ColumnStore.LOCK_TYPE, type.ordinal());
+    w.set(ColumnStore.LOCK_STATE, state.ordinal());
+    w.set(ColumnStore.LOCK_SUCCESS, success == null ? 0 : success ? 1 : -1);
+    w.set(ColumnStore.LOCK_LOCK_IS_THIS, lockIsThis ? 1 : 0);
+    w.endRow();
+  }
+
+  /**
+   * Adds a row to the LOCKDURATION table.
+   *
+   * @param startTrace
+   *          the lock trace at the start, or {@link ColumnTable#NULL}.
+   * @param stopTrace
+   *          the lock trace at the stop, or {@link ColumnTable#NULL}.
+   */
+  public void addLockDuration(final long inThread, final long lock, final LockType type, final Timestamp start,
+      final long startEvent, final long startTrace, final Timestamp stop, final long stopEvent, final long stopTrace,
+      final long duration, final IntrinsicLockDurationState state) throws IOException {
+    final ColumnTableWriter w = f_lockDuration;
+    w.set(ColumnStore.LOCKDURATION_IN_THREAD, inThread);
+    w.set(ColumnStore.LOCKDURATION_START, TimestampUtility.toNanos(start));
+    w.set(ColumnStore.LOCKDURATION_STOP, TimestampUtility.toNanos(stop));
+    w.set(ColumnStore.LOCKDURATION_LOCK, lock);
+    w.set(ColumnStore.LOCKDURATION_TYPE, type.ordinal());
+    w.set(ColumnStore.LOCKDURATION_START_EVENT, startEvent);
+    w.set(ColumnStore.LOCKDURATION_START_TRACE, startTrace);
+    w.set(ColumnStore.LOCKDURATION_STOP_EVENT, stopEvent);
+    w.set(ColumnStore.LOCKDURATION_STOP_TRACE, stopTrace);
+    w.set(ColumnStore.LOCKDURATION_DURATION, duration);
+    w.set(ColumnStore.LOCKDURATION_STATE, state.ordinal());
+    w.endRow();
+  }
+
+  /**
+   * Sorts and writes each table.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      f_access.close();
+      f_lock.close();
+      f_lockDuration.close();
+    } catch (final IOException e) {
+      discard();
+      throw e;
+    }
+  }
+
+  /**
+   * Deletes whatever has been written.
+   */
+  public void discard() {
+    f_access.discard();
+    f_lock.discard();
+    f_lockDuration.discard();
+  }
+}
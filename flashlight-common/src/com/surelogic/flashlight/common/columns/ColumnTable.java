@@ -0,0 +1,498 @@
+package com.surelogic.flashlight.common.columns;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.carrotsearch.hppc.LongLongHashMap;
+import com.carrotsearch.hppc.LongLongMap;
+
+/**
+ * A read-only table stored by column in a file written by a
+ * {@link ColumnTableWriter}. Every value is a {@code long}. The rows are sorted
+ * by the first {@link #getKeyColumnCount()} columns and stored in blocks, each
+ * of which has a zone map giving the smallest and largest value of each of its
+ * columns.
+ * <p>
+ * The file is memory-mapped. A scan only reads the blocks whose zone maps
+ * overlap its {@link ColumnFilter}, and only decompresses the columns of a
+ * block that are asked for. Aggregates over blocks that lie entirely within
+ * the filter are answered from the zone maps alone.
+ * <p>
+ * A table may be scanned by several threads at once, each with its own
+ * {@link Cursor}.
+ */
+public final class ColumnTable implements Closeable {
+
+  static final int MAGIC = 0x464C4353;
+  static final int VERSION = 1;
+
+  /**
+   * The number of rows in each block, except the last.
+   */
+  static final int BLOCK_ROWS = 1 << 14;
+
+  /**
+   * The value stored for SQL <tt>NULL</tt>.
+   */
+  public static final long NULL = Long.MIN_VALUE;
+
+  /**
+   * The most bytes mapped by one buffer. Blocks never straddle two buffers.
+   */
+  private static final long SEGMENT_LIMIT = 1L << 30;
+
+  /**
+   * The location and zone map of a block.
+   */
+  static final class Block {
+    final long offset;
+    final int rows;
+    final int[] lengths;
+    final long[] min;
+    final long[] max;
+    MappedByteBuffer segment;
+    int position;
+
+    Block(final long offset, final int rows, final int columns) {
+      this.offset = offset;
+      this.rows = rows;
+      lengths = new int[columns];
+      min = new long[columns];
+      max = new long[columns];
+    }
+
+    long length() {
+      long length = 0;
+      for (final int l : lengths) {
+        length += l;
+      }
+      return length;
+    }
+  }
+
+  private final RandomAccessFile f_file;
+  private final String[] f_columns;
+  private final int f_keyColumns;
+  private final Block[] f_blocks;
+  private final long f_rows;
+
+  private ColumnTable(final RandomAccessFile file, final String[] columns, final int keyColumns, final Block[] blocks) {
+    f_file = file;
+    f_columns = columns;
+    f_keyColumns = keyColumns;
+    f_blocks = blocks;
+    long rows = 0;
+    for (final Block b : blocks) {
+      rows += b.rows;
+    }
+    f_rows = rows;
+  }
+
+  /**
+   * Opens a table file.
+   *
+   * @param file
+   *          a file written by a {@link ColumnTableWriter}.
+   * @return the table.
+   * @throws IOException
+   *           if the file cannot be read or is not a complete table file.
+   */
+  public static ColumnTable open(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final long size = channel.size();
+      if (size < 20) {
+        throw new IOException(file + " is not a column table");
+      }
+      raf.seek(size - 12);
+      final long footer = raf.readLong();
+      if (raf.readInt() != MAGIC) {
+        throw new IOException(file + " is not a complete column table");
+      }
+      raf.seek(0);
+      if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+        throw new IOException(file + " is not a column table of version " + VERSION);
+      }
+      channel.position(footer);
+      final DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      final String[] columns = new String[in.readInt()];
+      for (int c = 0; c < columns.length; c++) {
+        columns[c] = in.readUTF();
+      }
+      final int keyColumns = in.readInt();
+      final Block[] blocks = new Block[in.readInt()];
+      for (int i = 0; i < blocks.length; i++) {
+        final Block b = new Block(in.readLong(), in.readInt(), columns.length);
+        for (int c = 0; c < columns.length; c++) {
+          b.lengths[c] = in.readInt();
+          b.min[c] = in.readLong();
+          b.max[c] = in.readLong();
+        }
+        blocks[i] = b;
+      }
+      mapSegments(channel, blocks);
+      return new ColumnTable(raf, columns, keyColumns, blocks);
+    } catch (final IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Maps the blocks, several to a buffer.
+   */
+  private static void mapSegments(final FileChannel channel, final Block[] blocks) throws IOException {
+    int first = 0;
+    while (first < blocks.length) {
+      final long start = blocks[first].offset;
+      int last = first;
+      while (last + 1 < blocks.length && blocks[last + 1].offset + blocks[last + 1].length() - start <= SEGMENT_LIMIT) {
+        last++;
+      }
+      final long end = blocks[last].offset + blocks[last].length();
+      final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      for (int i = first; i <= last; i++) {
+        blocks[i].segment = segment;
+        blocks[i].position = (int) (blocks[i].offset - start);
+      }
+      first = last + 1;
+    }
+  }
+
+  /**
+   * Gets the names of the columns, in order.
+   */
+  public String[] getColumns() {
+    return f_columns.clone();
+  }
+
+  /**
+   * Gets the index of a column.
+   *
+   * @param name
+   *          the name of the column, in any case.
+   * @return the index of the column.
+   * @throws IllegalArgumentException
+   *           if there is no such column.
+   */
+  public int getColumn(final String name) {
+    for (int c = 0; c < f_columns.length; c++) {
+      if (f_columns[c].equalsIgnoreCase(name)) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("No column " + name);
+  }
+
+  /**
+   * Gets the number of leading columns the rows are sorted by.
+   */
+  public int getKeyColumnCount() {
+    return f_keyColumns;
+  }
+
+  /**
+   * Gets the number of rows in the table.
+   */
+  public long getRowCount() {
+    return f_rows;
+  }
+
+  /**
+   * Gets the number of blocks the rows are stored in.
+   */
+  public int getBlockCount() {
+    return f_blocks.length;
+  }
+
+  /**
+   * Constructs a filter for this table that accepts every row.
+   */
+  public ColumnFilter filter() {
+    return new ColumnFilter(f_columns.length);
+  }
+
+  /**
+   * Scans the rows that pass a filter, in the order they are stored.
+   *
+   * @param filter
+   *          a filter for this table. It must not be changed during the scan.
+   * @return a cursor positioned before the first row that passes.
+   */
+  public Cursor scan(final ColumnFilter filter) {
+    return new Cursor(filter);
+  }
+
+  /**
+   * Counts the rows that pass a filter.
+   */
+  public long count(final ColumnFilter filter) {
+    long count = 0;
+    final Cursor c = new Cursor(filter);
+    while (c.nextBlock()) {
+      if (filter.covers(c.f_block.min, c.f_block.max)) {
+        count += c.f_block.rows;
+      } else {
+        while (c.nextInBlock()) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Counts the rows that pass a filter for each value of a column.
+   *
+   * @param filter
+   *          a filter for this table.
+   * @param column
+   *          the index of the column to group by.
+   * @return a map from each value of the column to its number of rows.
+   */
+  public LongLongMap countBy(final ColumnFilter filter, final int column) {
+    final LongLongMap counts = new LongLongHashMap();
+    final Cursor c = new Cursor(filter);
+    while (c.nextBlock()) {
+      final Block b = c.f_block;
+      if (b.min[column] == b.max[column] && filter.covers(b.min, b.max)) {
+        counts.addTo(b.min[column], b.rows);
+      } else {
+        while (c.nextInBlock()) {
+          counts.addTo(c.get(column), 1);
+        }
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Gets the smallest value of a column over the rows that pass a filter.
+   *
+   * @return the smallest value, or {@link #NULL} if no row passes.
+   */
+  public long min(final int column, final ColumnFilter filter) {
+    long min = NULL;
+    boolean found = false;
+    final Cursor c = new Cursor(filter);
+    while (c.nextBlock()) {
+      final Block b = c.f_block;
+      if (found && b.min[column] >= min) {
+        continue;
+      }
+      if (filter.covers(b.min, b.max)) {
+        min = found ? Math.min(min, b.min[column]) : b.min[column];
+        found = true;
+      } else {
+        while (c.nextInBlock()) {
+          final long v = c.get(column);
+          if (!found || v < min) {
+            min = v;
+            found = true;
+          }
+        }
+      }
+    }
+    return min;
+  }
+
+  /**
+   * Gets the largest value of a column over the rows that pass a filter.
+   *
+   * @return the largest value, or {@link #NULL} if no row passes.
+   */
+  public long max(final int column, final ColumnFilter filter) {
+    long max = NULL;
+    boolean found = false;
+    final Cursor c = new Cursor(filter);
+    while (c.nextBlock()) {
+      final Block b = c.f_block;
+      if (found && b.max[column] <= max) {
+        continue;
+      }
+      if (filter.covers(b.min, b.max)) {
+        max = found ? Math.max(max, b.max[column]) : b.max[column];
+        found = true;
+      } else {
+        while (c.nextInBlock()) {
+          final long v = c.get(column);
+          if (!found || v > max) {
+            max = v;
+            found = true;
+          }
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Sums a column over the rows that pass a filter, skipping {@link #NULL}
+   * values.
+   */
+  public long sum(final int column, final ColumnFilter filter) {
+    long sum = 0;
+    final Cursor c = new Cursor(filter);
+    while (c.nextBlock()) {
+      while (c.nextInBlock()) {
+        final long v = c.get(column);
+        if (v != NULL) {
+          sum += v;
+        }
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (final Block b : f_blocks) {
+      b.segment = null;
+    }
+    f_file.close();
+  }
+
+  /**
+   * A position in a scan of the table. Column values of the current block are
+   * decompressed the first time they are asked for.
+   */
+  public final class Cursor {
+    private final ColumnFilter f_filter;
+    private final long[][] f_values = new long[f_columns.length][];
+    private final boolean[] f_decoded = new boolean[f_columns.length];
+    private final Inflater f_inflater = new Inflater();
+    private byte[] f_compressed = new byte[0];
+    private final byte[] f_raw = new byte[BLOCK_ROWS * 10];
+
+    private int f_blockIndex = -1;
+    Block f_block;
+    private boolean f_covered;
+    private int f_row;
+
+    Cursor(final ColumnFilter filter) {
+      f_filter = filter;
+    }
+
+    /**
+     * Moves to the next row that passes the filter.
+     *
+     * @return {@code true} if there is such a row, {@code false} if the scan
+     *         is done.
+     */
+    public boolean next() {
+      while (f_block == null || !nextInBlock()) {
+        if (!nextBlock()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Gets a value of the current row.
+     *
+     * @param column
+     *          the index of the column.
+     * @return the value, or {@link ColumnTable#NULL}.
+     */
+    public long get(final int column) {
+      if (!f_decoded[column]) {
+        decode(column);
+      }
+      return f_values[column][f_row];
+    }
+
+    /**
+     * Moves to the next block whose zone map overlaps the filter.
+     */
+    boolean nextBlock() {
+      while (++f_blockIndex < f_blocks.length) {
+        final Block b = f_blocks[f_blockIndex];
+        if (f_filter.overlaps(b.min, b.max)) {
+          f_block = b;
+          f_covered = f_filter.covers(b.min, b.max);
+          f_row = -1;
+          for (int c = 0; c < f_decoded.length; c++) {
+            f_decoded[c] = false;
+          }
+          return true;
+        }
+      }
+      f_block = null;
+      f_inflater.end();
+      return false;
+    }
+
+    /**
+     * Moves to the next row of the current block that passes the filter.
+     */
+    boolean nextInBlock() {
+      rows: while (++f_row < f_block.rows) {
+        if (!f_covered) {
+          for (final int c : f_filter.f_restricted) {
+            if (!f_filter.accepts(c, get(c))) {
+              continue rows;
+            }
+          }
+        }
+        return true;
+      }
+      return false;
+    }
+
+    private void decode(final int column) {
+      final Block b = f_block;
+      int position = b.position;
+      for (int c = 0; c < column; c++) {
+        position += b.lengths[c];
+      }
+      final int length = b.lengths[column];
+      if (f_compressed.length < length) {
+        f_compressed = new byte[length];
+      }
+      final ByteBuffer in = b.segment.duplicate();
+      in.position(position);
+      in.get(f_compressed, 0, length);
+      f_inflater.reset();
+      f_inflater.setInput(f_compressed, 0, length);
+      final int n;
+      try {
+        n = f_inflater.inflate(f_raw);
+      } catch (final DataFormatException e) {
+        throw new IllegalStateException("Corrupt block " + f_blockIndex + " of column " + f_columns[column], e);
+      }
+      long[] values = f_values[column];
+      if (values == null) {
+        values = f_values[column] = new long[BLOCK_ROWS];
+      }
+      long previous = 0;
+      int p = 0;
+      for (int i = 0; i < b.rows; i++) {
+        long zz = 0;
+        int shift = 0;
+        byte x;
+        do {
+          if (p == n) {
+            throw new IllegalStateException("Short block " + f_blockIndex + " of column " + f_columns[column]);
+          }
+          x = f_raw[p++];
+          zz |= (long) (x & 0x7F) << shift;
+          shift += 7;
+        } while (x < 0);
+        previous += zz >>> 1 ^ -(zz & 1);
+        values[i] = previous;
+      }
+      f_decoded[column] = true;
+    }
+  }
+}
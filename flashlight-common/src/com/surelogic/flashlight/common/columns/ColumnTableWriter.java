@@ -0,0 +1,258 @@
+package com.surelogic.flashlight.common.columns;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Writes a {@link ColumnTable} file from rows given in any order. Rows are
+ * gathered in memory, sorted by the key columns, and spilled to a run file
+ * when the buffer is full. Closing the writer merges the runs into the table
+ * file, a few dozen at a time, so the memory used does not depend on the
+ * number of rows.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class ColumnTableWriter implements Closeable {
+
+  /**
+   * The number of rows gathered in memory before they are spilled to a run.
+   */
+  private static final int RUN_ROWS = 1 << 18;
+
+  /**
+   * The most runs merged at once. Each holds a decompressed block in memory.
+   */
+  private static final int MERGE_FAN_IN = 32;
+
+  private final File f_file;
+  private final String[] f_columns;
+  private final int f_keyColumns;
+  private final long[][] f_buffer;
+  private int f_count;
+  private long f_rows;
+
+  private final List<File> f_runs = new ArrayList<>();
+  private int f_runSeq;
+
+  /**
+   * Constructs a writer.
+   *
+   * @param file
+   *          the table file. Run files are written next to it.
+   * @param columns
+   *          the names of the columns, in order.
+   * @param keyColumns
+   *          the number of leading columns the rows are sorted by.
+   */
+  public ColumnTableWriter(final File file, final String[] columns, final int keyColumns) {
+    this(file, columns, keyColumns, RUN_ROWS);
+  }
+
+  ColumnTableWriter(final File file, final String[] columns, final int keyColumns, final int runRows) {
+    if (keyColumns < 0 || keyColumns > columns.length) {
+      throw new IllegalArgumentException("keyColumns must be between 0 and " + columns.length);
+    }
+    f_file = file;
+    f_columns = columns.clone();
+    f_keyColumns = keyColumns;
+    f_buffer = new long[columns.length][runRows];
+  }
+
+  /**
+   * Sets a value of the row being written.
+   *
+   * @param column
+   *          the index of the column.
+   * @param value
+   *          the value, or {@link ColumnTable#NULL}.
+   */
+  public void set(final int column, final long value) {
+    f_buffer[column][f_count] = value;
+  }
+
+  /**
+   * Ends the row being written. Any column that was not set has the value it
+   * was given in an earlier row.
+   */
+  public void endRow() throws IOException {
+    f_rows++;
+    if (++f_count == f_buffer[0].length) {
+      spill();
+    }
+  }
+
+  /**
+   * Gets the number of rows written so far.
+   */
+  public long getRowCount() {
+    return f_rows;
+  }
+
+  /**
+   * Sorts the rows that have been written and writes the table file.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (f_runs.isEmpty()) {
+        write(f_file);
+        return;
+      }
+      if (f_count > 0) {
+        spill();
+      }
+      while (f_runs.size() > MERGE_FAN_IN) {
+        final List<File> group = new ArrayList<>(f_runs.subList(0, MERGE_FAN_IN));
+        f_runs.subList(0, MERGE_FAN_IN).clear();
+        final File merged = nextRun();
+        merge(group, merged);
+        f_runs.add(merged);
+      }
+      merge(new ArrayList<>(f_runs), f_file);
+      f_runs.clear();
+    } finally {
+      discardRuns();
+    }
+  }
+
+  /**
+   * Deletes the run files, and the table file if it was written, without
+   * finishing the table.
+   */
+  public void discard() {
+    discardRuns();
+    f_file.delete();
+  }
+
+  private void discardRuns() {
+    for (final File run : f_runs) {
+      run.delete();
+    }
+    f_runs.clear();
+  }
+
+  private File nextRun() {
+    return new File(f_file.getPath() + ".run" + f_runSeq++);
+  }
+
+  private void spill() throws IOException {
+    final File run = nextRun();
+    f_runs.add(run);
+    write(run);
+  }
+
+  /**
+   * Writes the rows in the buffer, sorted, to a file and empties the buffer.
+   */
+  private void write(final File file) throws IOException {
+    final int[] order = sortedOrder();
+    final BlockWriter out = new BlockWriter(file, f_columns, f_keyColumns);
+    try {
+      for (final int row : order) {
+        out.add(f_buffer, row);
+      }
+    } finally {
+      out.close();
+    }
+    f_count = 0;
+  }
+
+  private int[] sortedOrder() {
+    int[] order = new int[f_count];
+    for (int i = 0; i < f_count; i++) {
+      order[i] = i;
+    }
+    if (f_keyColumns == 0) {
+      return order;
+    }
+    // Bottom-up merge sort, which is stable
+    int[] temp = new int[f_count];
+    for (int width = 1; width < f_count; width *= 2) {
+      for (int lo = 0; lo < f_count; lo += 2 * width) {
+        final int mid = Math.min(lo + width, f_count);
+        final int hi = Math.min(lo + 2 * width, f_count);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+          temp[k++] = compareRows(order[j], order[i]) < 0 ? order[j++] : order[i++];
+        }
+        while (i < mid) {
+          temp[k++] = order[i++];
+        }
+        while (j < hi) {
+          temp[k++] = order[j++];
+        }
+      }
+      final int[] swap = order;
+      order = temp;
+      temp = swap;
+    }
+    return order;
+  }
+
+  private int compareRows(final int a, final int b) {
+    for (int c = 0; c < f_keyColumns; c++) {
+      final int cmp = compare(f_buffer[c][a], f_buffer[c][b]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  private static int compare(final long a, final long b) {
+    return a < b ? -1 : a == b ? 0 : 1;
+  }
+
+  /**
+   * Merges sorted run files into one file, and deletes them.
+   */
+  private void merge(final List<File> runs, final File file) throws IOException {
+    final List<ColumnTable> tables = new ArrayList<>();
+    try {
+      final PriorityQueue<ColumnTable.Cursor> queue = new PriorityQueue<>(runs.size(), new Comparator<ColumnTable.Cursor>() {
+        @Override
+        public int compare(final ColumnTable.Cursor a, final ColumnTable.Cursor b) {
+          for (int c = 0; c < f_keyColumns; c++) {
+            final int cmp = ColumnTableWriter.compare(a.get(c), b.get(c));
+            if (cmp != 0) {
+              return cmp;
+            }
+          }
+          return 0;
+        }
+      });
+      for (final File run : runs) {
+        final ColumnTable t = ColumnTable.open(run);
+        tables.add(t);
+        final ColumnTable.Cursor cursor = t.scan(t.filter());
+        if (cursor.next()) {
+          queue.add(cursor);
+        }
+      }
+      final BlockWriter out = new BlockWriter(file, f_columns, f_keyColumns);
+      try {
+        while (!queue.isEmpty()) {
+          final ColumnTable.Cursor cursor = queue.poll();
+          out.add(cursor);
+          if (cursor.next()) {
+            queue.add(cursor);
+          }
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      for (final ColumnTable t : tables) {
+        t.close();
+      }
+      for (final File run : runs) {
+        run.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.surelogic.flashlight.common.jobs;
+
+import com.surelogic.NonNull;
+
+/**
+ * How a {@link PrepSLJob} writes the largest tables of a run, ACCESS, LOCK, and
+ * LOCKDURATION, to its database, and when it reads the raw data. Instances are
+ * immutable and are made with a {@link Builder}. The {@link #DEFAULT} options
+ * insert the rows in batches, and read a run that has finished collecting.
+ */
+public final class PrepOptions {
+
+  @NonNull
+  public static final PrepOptions DEFAULT = new Builder().getOptions();
+
+  private final boolean f_bulkLoad;
+  private final boolean f_whileCollecting;
+
+  private PrepOptions(final Builder builder) {
+    f_bulkLoad = builder.f_bulkLoad;
+    f_whileCollecting = builder.f_whileCollecting;
+  }
+
+  /**
+   * Checks if the rows are written to staging files and imported with Derby's
+   * bulk import once they are complete, rather than inserted in batches. This
+   * uses disk space in the run directory about the size of those tables.
+   *
+   * @return {@code true} if the tables are bulk loaded.
+   */
+  public boolean isBulkLoad() {
+    return f_bulkLoad;
+  }
+
+  /**
+   * Checks if the run may still be collecting data. If so, each checkpoint is
+   * prepared as soon as its <tt>.complete</tt> file is written, and the job
+   * finishes the prep once the run is done collecting.
+   *
+   * @return {@code true} if checkpoints are prepared as they are completed.
+   */
+  public boolean isWhileCollecting() {
+    return f_whileCollecting;
+  }
+
+  @Override
+  public String toString() {
+    return "PrepOptions(bulkLoad=" + f_bulkLoad + ", whileCollecting=" + f_whileCollecting + ")";
+  }
+
+  /**
+   * Collects prep options, starting from the defaults.
+   */
+  public static final class Builder {
+
+    boolean f_bulkLoad;
+    boolean f_whileCollecting;
+
+    /**
+     * @see PrepOptions#isBulkLoad()
+     */
+    public void setBulkLoad(final boolean bulkLoad) {
+      f_bulkLoad = bulkLoad;
+    }
+
+    /**
+     * @see PrepOptions#isWhileCollecting()
+     */
+    public void setWhileCollecting(final boolean whileCollecting) {
+      f_whileCollecting = whileCollecting;
+    }
+
+    @NonNull
+    public PrepOptions getOptions() {
+      return new PrepOptions(this);
+    }
+  }
+}
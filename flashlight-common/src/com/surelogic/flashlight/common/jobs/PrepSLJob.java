@@ -2,8 +2,8 @@ package com.surelogic.flashlight.common.jobs;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -13,15 +13,19 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
-import javax.xml.parsers.SAXParser;
-
 import com.carrotsearch.hppc.LongSet;
 import com.surelogic.NonNull;
 import com.surelogic.Nullable;
 import com.surelogic._flashlight.common.InstrumentationConstants;
-import com.surelogic._flashlight.common.OutputType;
+import com.surelogic.common.FileUtility;
 import com.surelogic.common.SLUtility;
 import com.surelogic.common.adhoc.AdHocQuery;
 import com.surelogic.common.i18n.I18N;
@@ -35,9 +39,11 @@ import com.surelogic.common.jobs.SLProgressMonitor;
 import com.surelogic.common.jobs.SLStatus;
 import com.surelogic.common.jobs.SubSLProgressMonitor;
 import com.surelogic.common.logging.SLLogger;
+import com.surelogic.flashlight.common.model.CheckpointWatcher;
 import com.surelogic.flashlight.common.model.FlashlightFileUtility;
 import com.surelogic.flashlight.common.model.RunDescription;
 import com.surelogic.flashlight.common.model.RunDirectory;
+import com.surelogic.flashlight.common.prep.AbstractDataScan;
 import com.surelogic.flashlight.common.prep.AfterIntrinsicLockAcquisition;
 import com.surelogic.flashlight.common.prep.AfterIntrinsicLockRelease;
 import com.surelogic.flashlight.common.prep.AfterIntrinsicLockWait;
@@ -46,8 +52,10 @@ import com.surelogic.flashlight.common.prep.AfterUtilConcurrentLockReleaseAttemp
 import com.surelogic.flashlight.common.prep.BeforeIntrinsicLockAcquisition;
 import com.surelogic.flashlight.common.prep.BeforeIntrinsicLockWait;
 import com.surelogic.flashlight.common.prep.BeforeUtilConcurrentLockAquisitionAttempt;
+import com.surelogic.flashlight.common.prep.BulkLoader;
 import com.surelogic.flashlight.common.prep.ClassDefinition;
 import com.surelogic.flashlight.common.prep.ClassHierarchy;
+import com.surelogic.flashlight.common.prep.DeferredStaticAccesses;
 import com.surelogic.flashlight.common.prep.EmptyQueries;
 import com.surelogic.flashlight.common.prep.FieldAssignment;
 import com.surelogic.flashlight.common.prep.FieldDefinition;
@@ -67,12 +75,16 @@ import com.surelogic.flashlight.common.prep.IntrinsicLockDurationRowInserter;
 import com.surelogic.flashlight.common.prep.LockInfoPostPrep;
 import com.surelogic.flashlight.common.prep.LockIsClassPostPrep;
 import com.surelogic.flashlight.common.prep.LockSetAnalysis;
+import com.surelogic.flashlight.common.prep.LockSetRowInserter;
 import com.surelogic.flashlight.common.prep.ObjectDefinition;
+import com.surelogic.flashlight.common.prep.PipelinedDataScan;
 import com.surelogic.flashlight.common.prep.ReadWriteLock;
 import com.surelogic.flashlight.common.prep.ScanRawFileFieldsPreScan;
+import com.surelogic.flashlight.common.prep.ScanRawFilePartitionScan;
 import com.surelogic.flashlight.common.prep.ScanRawFilePreScan;
 import com.surelogic.flashlight.common.prep.ScanRawFilePrepScan;
 import com.surelogic.flashlight.common.prep.StaticCallLocation;
+import com.surelogic.flashlight.common.prep.StaticFieldAccess;
 import com.surelogic.flashlight.common.prep.StaticFieldRead;
 import com.surelogic.flashlight.common.prep.StaticFieldWrite;
 import com.surelogic.flashlight.common.prep.ThreadDefinition;
@@ -91,18 +103,38 @@ public final class PrepSLJob extends AbstractSLJob {
   private static final int EACH_POST_PREP = 50;
   private static final int ADD_CONSTRAINT_WORK = 100;
 
-  IOneTimePrep[] getOneTimeHandlers(final IntrinsicLockDurationRowInserter i, final ClassHierarchy ch) {
+  /**
+   * The most receiver windows that are pre-scanned ahead of the window being
+   * prepared. Each pre-scan holds the state of a whole window in memory.
+   */
+  private static final int MAX_WINDOWS_AHEAD = 4;
+
+  /**
+   * How often, in milliseconds, the work of scans running on the pool is
+   * reported while waiting for them.
+   */
+  private static final long REPORT_WORK_INTERVAL_MS = 250;
+
+  /**
+   * How often, in milliseconds, the run directory is checked for newly
+   * completed checkpoints while the run is still collecting data.
+   */
+  private static final long CHECKPOINT_POLL_MS = 2000;
+
+  IOneTimePrep[] getOneTimeHandlers(final IntrinsicLockDurationRowInserter i, final ClassHierarchy ch, final BulkLoader bulk,
+      final LockSetRowInserter lockSets, final DeferredStaticAccesses deferred) {
     return new IOneTimePrep[] { new Trace(), new AfterIntrinsicLockAcquisition(i), new AfterIntrinsicLockWait(i),
         new AfterIntrinsicLockRelease(i), new BeforeIntrinsicLockAcquisition(i), new BeforeIntrinsicLockWait(i),
         new BeforeUtilConcurrentLockAquisitionAttempt(i), new AfterUtilConcurrentLockAcquisitionAttempt(i),
-        new AfterUtilConcurrentLockReleaseAttempt(i), new ReadWriteLock(i), new StaticFieldRead(), new StaticFieldWrite(),
+        new AfterUtilConcurrentLockReleaseAttempt(i), new ReadWriteLock(i), new StaticFieldRead(bulk, lockSets, deferred),
+        new StaticFieldWrite(bulk, lockSets, deferred),
         new FieldDefinition(), new TraceNode(), new StaticCallLocation(), new ClassDefinition(), new HappensBeforeThread(ch),
         new HappensBeforeObject(ch), new HappensBeforeCollection(ch), new HappensBeforeExecutor(ch) };
   }
 
-  IRangePrep[] getRangeHandlers() {
-    return new IRangePrep[] { new FieldRead(), new FieldWrite(), new ObjectDefinition(), new ThreadDefinition(),
-        new FieldAssignment(), new IndirectAccess() };
+  IRangePrep[] getRangeHandlers(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    return new IRangePrep[] { new FieldRead(bulk, lockSets), new FieldWrite(bulk, lockSets), new ObjectDefinition(),
+        new ThreadDefinition(), new FieldAssignment(), new IndirectAccess(lockSets) };
   }
 
   private IPostPrep[] getPostPrep(ClassHierarchy ch) {
@@ -110,12 +142,19 @@ public final class PrepSLJob extends AbstractSLJob {
         new LockIsClassPostPrep(), new EmptyQueries(f_runDirectory, f_queries) };
   }
 
-  final RunDirectory f_runDirectory;
+  /**
+   * The run directory. If the run is still collecting data, it is read again
+   * once the run is done, as its description then covers the whole run.
+   */
+  RunDirectory f_runDirectory;
   final List<File> f_dataFiles;
   final Set<AdHocQuery> f_queries;
   final DBConnection f_database;
   final int f_windowSize;
 
+  @NonNull
+  final PrepOptions f_options;
+
   /**
    * Constructs a job instance that will prep the target run description.
    *
@@ -127,7 +166,27 @@ public final class PrepSLJob extends AbstractSLJob {
    *          results
    */
   public PrepSLJob(@NonNull final RunDirectory runDirectory, final int windowSize, @Nullable final Set<AdHocQuery> queries) {
+    this(runDirectory, windowSize, queries, PrepOptions.DEFAULT);
+  }
+
+  /**
+   * Constructs a job instance that will prep the target run description.
+   *
+   * @param run
+   * @param windowSize
+   *          the number of receivers to scan at one time.
+   * @param queries
+   *          an optional set of queries that will be run and checked against
+   *          results
+   * @param options
+   *          how the largest tables are written, and if the run may still be
+   *          collecting data.
+   */
+  public PrepSLJob(@NonNull final RunDirectory runDirectory, final int windowSize, @Nullable final Set<AdHocQuery> queries,
+      @NonNull final PrepOptions options) {
     super(runDirectory.getPrepJobName());
+    if (options == null)
+      throw new IllegalArgumentException(I18N.err(44, "options"));
     final File prepCompleteFile = FlashlightFileUtility.getPrepCompleteFileHandle(runDirectory.getDirectory());
     if (prepCompleteFile.exists()) {
       if (!prepCompleteFile.delete()) {
@@ -139,9 +198,15 @@ public final class PrepSLJob extends AbstractSLJob {
       }
     }
     f_runDirectory = runDirectory;
-    f_dataFiles = runDirectory.getRawFileHandles().getOrderedListOfCheckpointFiles();
+    if (options.isWhileCollecting()) {
+      // Added to as each checkpoint is completed
+      f_dataFiles = new ArrayList<>();
+    } else {
+      f_dataFiles = runDirectory.getRawFileHandles().getOrderedListOfCheckpointFiles();
+    }
     f_database = runDirectory.getDB();
     f_windowSize = windowSize;
+    f_options = options;
     f_queries = queries != null ? queries : Collections.<AdHocQuery> emptySet();
   }
 
@@ -154,13 +219,19 @@ public final class PrepSLJob extends AbstractSLJob {
         new File(runDir, InstrumentationConstants.FL_SITES_FILE_LOC),
         new File(runDir, InstrumentationConstants.FL_HAPPENS_BEFORE_FILE_LOC));
 
-    final IPostPrep[] postPrepWork = getPostPrep(ch);
+    IPostPrep[] postPrepWork = getPostPrep(ch);
 
     monitor.begin(PRE_SCAN_WORK + DROP_CONSTRAINT_WORK + PERSIST_RUN_DESCRIPTION_WORK + SETUP_WORK + PREP_WORK * 2 + FLUSH_WORK
         + EACH_POST_PREP * postPrepWork.length + ADD_CONSTRAINT_WORK);
 
-    File firstFile = f_dataFiles.get(0);
-
+    /*
+     * The raw data files are read on this pool, both to scan them in parallel
+     * and to read ahead of the thread that writes to the database.
+     */
+    final ForkJoinPool pool = new ForkJoinPool();
+    final CheckpointWatcher watcher = f_options.isWhileCollecting() ? new CheckpointWatcher(runDir) : null;
+    File spillDir = null;
+    BulkLoader bulkLoader = null;
     try {
 
       if (monitor.isCanceled()) {
@@ -170,39 +241,72 @@ public final class PrepSLJob extends AbstractSLJob {
        * Scan the file to collect the set of fields that were observed to be
        * single-threaded. This information allows us to avoid inserting
        * unnecessary data into the database.
+       *
+       * The same pass splits the events about objects into a spill file per
+       * receiver window, so that preparing a window only reads the events
+       * that concern it, rather than every raw file again.
+       *
+       * If the run is still collecting data, each checkpoint is pre-scanned
+       * when it is completed instead, just before it is prepared.
        */
 
       final SLProgressMonitor preScanMonitor = new SubSLProgressMonitor(monitor, "Pre-scanning the raw file", PRE_SCAN_WORK);
-      final ScanRawFilePreScan scanResults = new ScanRawFilePreScan(preScanMonitor);
-      final SAXParser saxParser = OutputType.getParser(firstFile);
-      for (File dataFile : f_dataFiles) {
-        final InputStream stream = OutputType.getInputStreamFor(dataFile);
+      /*
+       * The spill files are written in the prep directory, which is not
+       * mistaken for the run still writing data while checkpoints are being
+       * prepared.
+       */
+      f_database.destroy();
+      final File prepDir = FlashlightFileUtility.getPrepDirectoryHandle(runDir);
+      prepDir.mkdirs();
+      spillDir = Files.createTempDirectory(prepDir.toPath(), "spill").toFile();
+      final List<ScanRawFilePreScan> fileScanners = new ArrayList<>();
+      final List<ScanRawFilePartitionScan> partitions = new ArrayList<>();
+      final ScanRawFilePreScan scanResults;
+      if (watcher == null) {
         preScanMonitor.begin(estEventsInRawFile);
-        saxParser.parse(stream, scanResults);
+        final List<ForkJoinTask<ScanRawFilePreScan>> fileScans = submitPreScans(pool, preScanMonitor, spillDir, f_dataFiles,
+            fileScanners, partitions);
+        scanResults = fileScans.isEmpty() ? new ScanRawFilePreScan(preScanMonitor)
+            : join(fileScans.get(0), preScanMonitor, fileScanners);
+        for (int f = 1; f < fileScans.size(); f++) {
+          scanResults.merge(join(fileScans.get(f), preScanMonitor, fileScanners));
+        }
         preScanMonitor.done();
-        stream.close();
+      } else {
+        preScanMonitor.begin();
+        scanResults = new ScanRawFilePreScan(preScanMonitor);
       }
 
       if (monitor.isCanceled()) {
         return SLStatus.CANCEL_STATUS;
       }
 
-      final long eventsInRawFile = scanResults.getElementCount();
-      f_database.destroy();
+      if (f_options.isBulkLoad()) {
+        bulkLoader = new BulkLoader(spillDir);
+      }
+      final BulkLoader bulk = bulkLoader;
+      final File lockSetSpillDir = spillDir;
       f_database.withTransaction(new NullDBTransaction() {
 
         @Override
         public void doPerform(final Connection conn) throws Exception {
           /*
            * Persist the run and obtain its database identifier, start time
-           * stamp, and the start time in nanoseconds.
+           * stamp, and the start time in nanoseconds. The description of a run
+           * that is still collecting data only covers the checkpoints completed
+           * so far, so it is persisted once the run is done. The start time in
+           * nanoseconds is the one read now, so the time stamps of its events
+           * are computed the same way whichever checkpoint they are in.
            */
           final SLProgressMonitor persistRunDescriptionMonitor = new SubSLProgressMonitor(monitor,
               "Persist the new run description", PERSIST_RUN_DESCRIPTION_WORK);
           persistRunDescriptionMonitor.begin();
           final Timestamp start = f_runDirectory.getDescription().getStartTimeOfRun();
           final long startNS = f_runDirectory.getDescription().getCollectionDurationInNanos();
-          saveRunDescription(conn);
+          if (watcher == null) {
+            saveRunDescription(conn);
+          }
           persistRunDescriptionMonitor.done();
 
           if (monitor.isCanceled()) {
@@ -213,9 +317,11 @@ public final class PrepSLJob extends AbstractSLJob {
            * Do the second pass through the file. This time we populate the
            * database.
            */
-          final IntrinsicLockDurationRowInserter i = new IntrinsicLockDurationRowInserter(conn);
+          final LockSetRowInserter lockSets = new LockSetRowInserter(conn, bulk, lockSetSpillDir);
+          final IntrinsicLockDurationRowInserter i = new IntrinsicLockDurationRowInserter(conn, bulk, lockSets);
+          final DeferredStaticAccesses deferred = watcher == null ? null : new DeferredStaticAccesses(lockSetSpillDir);
 
-          final IOneTimePrep[] f_parseElements = getOneTimeHandlers(i, ch);
+          final IOneTimePrep[] f_parseElements = getOneTimeHandlers(i, ch, bulk, lockSets, deferred);
           final SLProgressMonitor setupMonitor = new SubSLProgressMonitor(monitor, "Setting up event handlers", SETUP_WORK);
           setupMonitor.begin(f_parseElements.length);
           for (final IOneTimePrep element : f_parseElements) {
@@ -229,15 +335,33 @@ public final class PrepSLJob extends AbstractSLJob {
           }
 
           final SLProgressMonitor prepMonitor = new SubSLProgressMonitor(monitor, "Preparing the raw file", PREP_WORK);
-          prepMonitor.begin(SLUtility.safeLongToInt(eventsInRawFile));
           final ScanRawFilePrepScan parseHandler = new ScanRawFilePrepScan(conn, prepMonitor, f_parseElements);
-          for (File dataFile : f_dataFiles) {
-            final InputStream dataFileStream = OutputType.getInputStreamFor(dataFile);
-            try {
-              saxParser.parse(dataFileStream, parseHandler);
-            } finally {
-              dataFileStream.close();
+          if (watcher == null) {
+            prepMonitor.begin(SLUtility.safeLongToInt(scanResults.getElementCount()));
+            new PipelinedDataScan(pool, f_dataFiles, monitor).scan(parseHandler);
+          } else {
+            prepMonitor.begin();
+            prepWhileCollecting(watcher, pool, monitor, preScanMonitor, lockSetSpillDir, scanResults, fileScanners,
+                partitions, parseHandler);
+            preScanMonitor.done();
+            /*
+             * Every static field accessed by more than one thread is known
+             * now, so insert the accesses to those that were skipped while
+             * only one thread had been seen accessing them.
+             */
+            final List<IPrep> statics = new ArrayList<>();
+            for (final IOneTimePrep element : f_parseElements) {
+              if (element instanceof StaticFieldAccess) {
+                statics.add(element);
+              }
+            }
+            deferred.replay(conn, prepMonitor, statics.toArray(new IPrep[statics.size()]));
+
+            final RunDirectory finished = watcher.getRunDirectory();
+            if (finished != null) {
+              f_runDirectory = finished;
             }
+            saveRunDescription(conn);
           }
           prepMonitor.done();
           if (monitor.isCanceled()) {
@@ -256,40 +380,70 @@ public final class PrepSLJob extends AbstractSLJob {
           if (monitor.isCanceled()) {
             throw new CanceledException();
           }
+          long eventsInSpillFiles = 0;
+          for (final ScanRawFilePartitionScan partition : partitions) {
+            eventsInSpillFiles += partition.getSpilledCount();
+          }
           final SLProgressMonitor rprepMonitor = new SubSLProgressMonitor(monitor, "Preparing the raw file", PREP_WORK);
           final int numWindows = (int) (scanResults.getMaxReceiverId() / f_windowSize)
               + (scanResults.getMaxReceiverId() % f_windowSize > 0 ? 1 : 0);
-          rprepMonitor.begin(SLUtility.safeLongToInt(eventsInRawFile / 16 * numWindows));
+          rprepMonitor.begin(SLUtility.safeLongToInt(eventsInSpillFiles / 16));
           final LongSet synthetics = scanResults.getSynthetics();
-          final IRangePrep[] rpElements = getRangeHandlers();
+          final IRangePrep[] rpElements = getRangeHandlers(bulk, lockSets);
+          /*
+           * The pre-scan of each window only reads its spill files, so later
+           * windows are pre-scanned on the pool while this thread prepares
+           * the current one.
+           */
+          final List<ForkJoinTask<ScanRawFileFieldsPreScan>> windowScans = new ArrayList<>();
+          final List<ScanRawFileFieldsPreScan> windowScanners = new ArrayList<>();
+          final int windowsAhead = Math.min(MAX_WINDOWS_AHEAD, pool.getParallelism());
           for (int j = 0; j < numWindows; j++) {
+            while (windowScans.size() < numWindows && windowScans.size() <= j + windowsAhead) {
+              final long begin = f_windowSize * (long) windowScans.size();
+              final long end = begin + f_windowSize - 1;
+              final List<File> spillFiles = getSpillFiles(partitions, windowScans.size());
+              final ScanRawFileFieldsPreScan preScan = new ScanRawFileFieldsPreScan(rprepMonitor, synthetics, begin, end);
+              windowScanners.add(preScan);
+              windowScans.add(pool.submit(new Callable<ScanRawFileFieldsPreScan>() {
+                @Override
+                public ScanRawFileFieldsPreScan call() throws Exception {
+                  for (File spillFile : spillFiles) {
+                    preScan.scan(spillFile);
+                  }
+                  return preScan;
+                }
+              }));
+            }
             final long begin = f_windowSize * j;
             final long end = f_windowSize * (j + 1) - 1;
-            final ScanRawFileFieldsPreScan preScan = new ScanRawFileFieldsPreScan(rprepMonitor, synthetics, begin, end);
+            final ScanRawFileFieldsPreScan preScan = join(windowScans.get(j), rprepMonitor, windowScanners);
+            windowScans.set(j, null);
+            windowScanners.set(j, null);
 
-            for (File dataFile : f_dataFiles) {
-              final InputStream infoStream = OutputType.getInputStreamFor(dataFile);
-              try {
-                saxParser.parse(infoStream, preScan);
-              } finally {
-                infoStream.close();
-              }
-            }
             for (final IRangePrep prep : rpElements) {
               prep.setup(conn, start, startNS, preScan, begin, end);
             }
-            for (File dataFile : f_dataFiles) {
-              final InputStream rangeStream = OutputType.getInputStreamFor(dataFile);
-              try {
-                final ScanRawFilePrepScan rangeHandler = new ScanRawFilePrepScan(conn, rprepMonitor, rpElements);
-                saxParser.parse(rangeStream, rangeHandler);
-              } finally {
-                rangeStream.close();
-              }
-            }
+            final List<File> spillFiles = getSpillFiles(partitions, j);
+            final ScanRawFilePrepScan rangeHandler = new ScanRawFilePrepScan(conn, rprepMonitor, rpElements);
+            new PipelinedDataScan(pool, spillFiles, rprepMonitor).scan(rangeHandler);
             for (final IPrep prep : rpElements) {
               prep.flush(scanResults.getEndNanoTime());
             }
+            lockSets.endWindow();
+            for (final File spillFile : spillFiles) {
+              spillFile.delete();
+            }
+          }
+          lockSets.flush();
+          lockSets.close();
+          if (bulk != null) {
+            /*
+             * Every row has been written, so the staging files can be
+             * imported. The tables are empty and have no indexes yet, so
+             * Derby loads them in bulk.
+             */
+            bulk.load(conn);
           }
           if (SLLogger.getLogger().isLoggable(Level.FINE)) {
             for (final IPrep element : f_parseElements) {
@@ -298,6 +452,10 @@ public final class PrepSLJob extends AbstractSLJob {
           }
         }
       });
+      if (watcher != null) {
+        // For the run directory read once the run was done
+        postPrepWork = getPostPrep(ch);
+      }
 
       final SLProgressMonitor constraintMonitor = new SubSLProgressMonitor(monitor, "Generating indexes", ADD_CONSTRAINT_WORK);
       final List<NullDBTransaction> constraints = addConstraints(constraintMonitor);
@@ -351,11 +509,159 @@ public final class PrepSLJob extends AbstractSLJob {
       final String msg = I18N.err(code, runDir.getName());
       return SLStatus.createErrorStatus(code, msg, e);
     } finally {
+      pool.shutdownNow();
+      if (bulkLoader != null) {
+        try {
+          bulkLoader.close();
+        } catch (final IOException ignore) {
+          // The staging files are deleted with the spill directory
+        }
+      }
+      if (spillDir != null) {
+        FileUtility.recursiveDelete(spillDir);
+      }
       monitor.done();
     }
 
   }
 
+  /**
+   * Prepares the checkpoints of a run that is still collecting data as each one
+   * is completed, until the run is done. Each checkpoint is pre-scanned, and
+   * the results added to the pre-scan of the run, before its events are
+   * reported to the one-time handlers. Later checkpoints are pre-scanned on the
+   * pool meanwhile.
+   */
+  private void prepWhileCollecting(final CheckpointWatcher watcher, final ForkJoinPool pool, final SLProgressMonitor monitor,
+      final SLProgressMonitor preScanMonitor, final File spillDir, final ScanRawFilePreScan scanResults,
+      final List<ScanRawFilePreScan> fileScanners, final List<ScanRawFilePartitionScan> partitions,
+      final ScanRawFilePrepScan parseHandler) throws Exception {
+    final File runDir = f_runDirectory.getDirectory();
+    for (;;) {
+      /*
+       * Checked before looking for checkpoints, so that once the run is done
+       * its last checkpoints are still prepared.
+       */
+      final boolean done = FlashlightFileUtility.isDoneCollectingDataInto(runDir);
+      final List<File> completed = watcher.poll();
+      final List<ForkJoinTask<ScanRawFilePreScan>> fileScans = submitPreScans(pool, preScanMonitor, spillDir, completed,
+          fileScanners, partitions);
+      for (int f = 0; f < completed.size(); f++) {
+        scanResults.merge(join(fileScans.get(f), preScanMonitor, fileScanners));
+        new PipelinedDataScan(pool, completed.subList(f, f + 1), monitor).scan(parseHandler);
+        f_dataFiles.add(completed.get(f));
+        if (monitor.isCanceled()) {
+          throw new CanceledException();
+        }
+      }
+      if (done) {
+        return;
+      }
+      Thread.sleep(CHECKPOINT_POLL_MS);
+      if (monitor.isCanceled()) {
+        throw new CanceledException();
+      }
+    }
+  }
+
+  /**
+   * Submits a pre-scan of each of the passed raw data files to the pool. Each
+   * pre-scan also splits its file into spill files by receiver window. The
+   * files follow those already pre-scanned, whose scans and partitions are in
+   * the passed lists, and theirs are added to them.
+   *
+   * @return the pre-scans of the passed files, in order.
+   */
+  private List<ForkJoinTask<ScanRawFilePreScan>> submitPreScans(final ForkJoinPool pool, final SLProgressMonitor preScanMonitor,
+      final File spillDir, final List<File> dataFiles, final List<ScanRawFilePreScan> fileScanners,
+      final List<ScanRawFilePartitionScan> partitions) {
+    final List<ForkJoinTask<ScanRawFilePreScan>> fileScans = new ArrayList<>();
+    for (final File dataFile : dataFiles) {
+      final int f = partitions.size();
+      final ScanRawFilePreScan fileScan = new ScanRawFilePreScan(preScanMonitor, f == 0);
+      fileScanners.add(fileScan);
+      final ScanRawFilePartitionScan partition = new ScanRawFilePartitionScan(preScanMonitor, fileScan, spillDir,
+          Integer.toString(f), f_windowSize);
+      partitions.add(partition);
+      fileScans.add(pool.submit(new Callable<ScanRawFilePreScan>() {
+        @Override
+        public ScanRawFilePreScan call() throws Exception {
+          try {
+            partition.scan(dataFile);
+          } finally {
+            partition.close();
+          }
+          return fileScan;
+        }
+      }));
+    }
+    return fileScans;
+  }
+
+  /**
+   * Gets the spill files of the passed receiver window, in the order of the
+   * raw data files they were split from.
+   */
+  static List<File> getSpillFiles(final List<ScanRawFilePartitionScan> partitions, final int window) {
+    final List<File> spillFiles = new ArrayList<>();
+    for (final ScanRawFilePartitionScan partition : partitions) {
+      final File spillFile = partition.getPartition(window);
+      if (spillFile != null) {
+        spillFiles.add(spillFile);
+      }
+    }
+    return spillFiles;
+  }
+
+  /**
+   * Waits for a scan running on the pool, rethrowing anything it threw. The
+   * scans on the pool count their work rather than report it, as a monitor may
+   * only be used by one thread, so while it waits this thread reports the work
+   * of the passed scans to the monitor.
+   *
+   * @param task
+   *          the task to wait for.
+   * @param monitor
+   *          the monitor to report work to.
+   * @param scans
+   *          the scans whose work is reported, including the one the task
+   *          runs. Elements may be {@code null}.
+   */
+  static <T> T join(final ForkJoinTask<T> task, final SLProgressMonitor monitor, final List<? extends AbstractDataScan> scans)
+      throws Exception {
+    try {
+      for (;;) {
+        try {
+          return task.get(REPORT_WORK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+          reportWork(monitor, scans);
+        }
+      }
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    } finally {
+      reportWork(monitor, scans);
+    }
+  }
+
+  private static void reportWork(final SLProgressMonitor monitor, final List<? extends AbstractDataScan> scans) {
+    int work = 0;
+    for (final AbstractDataScan scan : scans) {
+      if (scan != null) {
+        work += scan.takeWork();
+      }
+    }
+    if (work > 0) {
+      monitor.worked(work);
+    }
+  }
+
   void saveRunDescription(final Connection c) throws SQLException {
     final RunDescription run = f_runDirectory.getDescription();
     final long durationNanos = run.getCollectionDurationInNanos();
@@ -15,7 +15,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.BinaryEventReader;
 import com.surelogic._flashlight.common.OutputType;
+import com.surelogic._flashlight.common.PreppedAttributes;
 import com.surelogic.common.i18n.I18N;
 import com.surelogic.common.logging.SLLogger;
 
@@ -121,6 +123,16 @@ public final class CheckpointFilePrefix {
     return f_android;
   }
 
+  double f_samplingRate = 1.0;
+
+  /**
+   * Gets the fraction of the run during which field accesses were recorded.
+   * This is 1.0 unless the run was sampled.
+   */
+  public double getSamplingRate() {
+    return f_samplingRate;
+  }
+
   /**
    * Checks whether or not this object is well-formed. All attributes are
    * considered except for duration, which was a later addition to this object.
@@ -168,10 +180,27 @@ public final class CheckpointFilePrefix {
     return true;
   }
 
-  class PrefixHandler extends DefaultHandler {
+  class PrefixHandler extends DefaultHandler implements BinaryEventReader.Handler {
     @Override
     public void startElement(final String uri, final String localName, final String name, final Attributes attributes)
         throws SAXException {
+      checkPrefixElement(name);
+      if (attributes != null) {
+        for (int i = 0; i < attributes.getLength(); i++) {
+          readAttribute(attributes.getQName(i), attributes.getValue(i));
+        }
+      }
+    }
+
+    @Override
+    public void handleEvent(final String name, final PreppedAttributes attributes) throws SAXException {
+      checkPrefixElement(name);
+      for (int i = 0; i < attributes.size(); i++) {
+        readAttribute(attributes.keyAt(i).label(), attributes.valueAt(i).toString());
+      }
+    }
+
+    private void checkPrefixElement(final String name) throws SAXException {
       boolean isPrefixElement = name.equals("flashlight") || name.equals("environment") || name.equals("time");
       if (!isPrefixElement) {
         /*
@@ -181,45 +210,44 @@ public final class CheckpointFilePrefix {
          */
         throw new SAXException("done");
       }
-      if (attributes != null) {
-        for (int i = 0; i < attributes.getLength(); i++) {
-          final String aName = attributes.getQName(i);
-          final String aValue = attributes.getValue(i);
-          if (AttributeType.RUN.label().equals(aName)) {
-            f_name = aValue;
-          } else if (AttributeType.VERSION.label().equals(aName)) {
-            f_rawDataVersion = aValue;
-          } else if (AttributeType.HOSTNAME.label().equals(aName)) {
-            f_hostname = aValue;
-          } else if (AttributeType.USER_NAME.label().equals(aName)) {
-            f_userName = aValue;
-          } else if (AttributeType.JAVA_VERSION.label().equals(aName)) {
-            f_javaVersion = aValue;
-          } else if (AttributeType.JAVA_VENDOR.label().equals(aName)) {
-            f_javaVendor = aValue;
-          } else if (AttributeType.OS_NAME.label().equals(aName)) {
-            f_osName = aValue;
-          } else if (AttributeType.OS_ARCH.label().equals(aName)) {
-            f_osArch = aValue;
-          } else if (AttributeType.OS_VERSION.label().equals(aName)) {
-            f_osVersion = aValue;
-          } else if (AttributeType.MEMORY_MB.label().equals(aName)) {
-            f_maxMemoryMb = Integer.parseInt(aValue);
-          } else if (AttributeType.CPUS.label().equals(aName)) {
-            f_processors = Integer.parseInt(aValue);
-          } else if (AttributeType.TIME.label().equals(aName)) {
-            f_nanoTime = Long.parseLong(aValue);
-          } else if (AttributeType.WALL_CLOCK.label().equals(aName)) {
-            final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-            try {
-              f_wallClockTime = dateFormat.parse(aValue);
-            } catch (final ParseException e) {
-              throw new SAXException(e);
-            }
-          } else if (AttributeType.ANDROID.label().equals(aName)) {
-            f_android = true;
-          }
+    }
+
+    private void readAttribute(final String aName, final String aValue) throws SAXException {
+      if (AttributeType.RUN.label().equals(aName)) {
+        f_name = aValue;
+      } else if (AttributeType.VERSION.label().equals(aName)) {
+        f_rawDataVersion = aValue;
+      } else if (AttributeType.HOSTNAME.label().equals(aName)) {
+        f_hostname = aValue;
+      } else if (AttributeType.USER_NAME.label().equals(aName)) {
+        f_userName = aValue;
+      } else if (AttributeType.JAVA_VERSION.label().equals(aName)) {
+        f_javaVersion = aValue;
+      } else if (AttributeType.JAVA_VENDOR.label().equals(aName)) {
+        f_javaVendor = aValue;
+      } else if (AttributeType.OS_NAME.label().equals(aName)) {
+        f_osName = aValue;
+      } else if (AttributeType.OS_ARCH.label().equals(aName)) {
+        f_osArch = aValue;
+      } else if (AttributeType.OS_VERSION.label().equals(aName)) {
+        f_osVersion = aValue;
+      } else if (AttributeType.MEMORY_MB.label().equals(aName)) {
+        f_maxMemoryMb = Integer.parseInt(aValue);
+      } else if (AttributeType.CPUS.label().equals(aName)) {
+        f_processors = Integer.parseInt(aValue);
+      } else if (AttributeType.TIME.label().equals(aName)) {
+        f_nanoTime = Long.parseLong(aValue);
+      } else if (AttributeType.WALL_CLOCK.label().equals(aName)) {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        try {
+          f_wallClockTime = dateFormat.parse(aValue);
+        } catch (final ParseException e) {
+          throw new SAXException(e);
         }
+      } else if (AttributeType.ANDROID.label().equals(aName)) {
+        f_android = true;
+      } else if (AttributeType.SAMPLING_RATE.label().equals(aName)) {
+        f_samplingRate = Double.parseDouble(aValue);
       }
     }
   }
@@ -254,8 +282,13 @@ public final class CheckpointFilePrefix {
         final PrefixHandler handler = new PrefixHandler();
         try {
           // Parse the input
-          final SAXParser saxParser = OutputType.getParser(f_dataFile);
-          saxParser.parse(stream, handler);
+          final OutputType type = OutputType.detectFileType(f_dataFile);
+          if (type.isBinary()) {
+            BinaryEventReader.read(stream, handler);
+          } else {
+            final SAXParser saxParser = OutputType.getParser(type);
+            saxParser.parse(stream, handler);
+          }
         } catch (final SAXException e) {
           /*
            * Ignore, this is expected because we don't want to parse the entire
@@ -0,0 +1,76 @@
+package com.surelogic.flashlight.common.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.Pair;
+import com.surelogic.common.i18n.I18N;
+
+/**
+ * Finds the checkpoint files of a run, in order, as each one is completed. A
+ * checkpoint file is complete once its <tt>.complete</tt> file has been
+ * written, and it is never written to after that, so it may be read while the
+ * instrumented program is still collecting data into later checkpoints.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see FlashlightFileUtility#getLatestCheckpointCompleteFileAndItsNumberWithin(File)
+ */
+public final class CheckpointWatcher {
+
+  @NonNull
+  private final File f_directory;
+
+  /**
+   * The number of checkpoint files returned by {@link #poll()} so far.
+   */
+  private int f_returned;
+
+  /**
+   * Constructs a watcher of a run directory that has not returned any
+   * checkpoint files yet.
+   *
+   * @param directory
+   *          a Flashlight run directory.
+   */
+  public CheckpointWatcher(@NonNull final File directory) {
+    if (directory == null)
+      throw new IllegalArgumentException(I18N.err(44, "directory"));
+    f_directory = directory;
+  }
+
+  /**
+   * Gets the checkpoint files that have been completed since the last call.
+   *
+   * @return the newly completed checkpoint files, in order. The list is empty
+   *         if none have been completed.
+   */
+  @NonNull
+  public List<File> poll() {
+    final Pair<File, Integer> latest = FlashlightFileUtility.getLatestCheckpointCompleteFileAndItsNumberWithin(f_directory);
+    if (latest == null || latest.second() < f_returned) {
+      return Collections.emptyList();
+    }
+    final List<File> all = FlashlightFileUtility.getRawFileHandlesFor(f_directory, latest.second())
+        .getOrderedListOfCheckpointFiles();
+    final List<File> result = new ArrayList<>(all.subList(f_returned, all.size()));
+    f_returned = all.size();
+    return result;
+  }
+
+  /**
+   * Reads the run directory as it is now. The description of the run it
+   * returns covers every checkpoint completed so far.
+   *
+   * @return the run directory, or {@code null} if nothing has been completed
+   *         or anything is missing or wrong.
+   */
+  @Nullable
+  public RunDirectory getRunDirectory() {
+    return RunDirectory.getFor(f_directory, false);
+  }
+}
@@ -488,6 +488,18 @@ public final class FlashlightFileUtility {
     }
   };
 
+  /*
+   * Binary events are much smaller than XML events, but they also compress
+   * less.
+   */
+  private static long estimateBytesPerEvent(final File dataFile) {
+    final OutputType type = OutputType.detectFileType(dataFile);
+    if (type.isBinary()) {
+      return type.isCompressed() ? 5L : 16L;
+    }
+    return type.isCompressed() ? 7L : 130L;
+  }
+
   /**
    * Estimate the amount of events in the raw file based upon the size of the
    * raw file. This guess is only used for the pre-scan of the file during the
@@ -499,7 +511,7 @@ public final class FlashlightFileUtility {
    */
   public static int estimateNumEvents(final File dataFile) {
     final long sizeInBytes = dataFile.length();
-    long estimatedEvents = sizeInBytes / (FlashlightFileUtility.isRawFileGzip(dataFile) ? 7L : 130L);
+    long estimatedEvents = sizeInBytes / estimateBytesPerEvent(dataFile);
     if (estimatedEvents <= 0) {
       estimatedEvents = 10L;
     }
@@ -510,7 +522,7 @@ public final class FlashlightFileUtility {
     long allEstimatedEvents = 0;
     for (File dataFile : dataFiles) {
       final long sizeInBytes = dataFile.length();
-      long estimatedEvents = sizeInBytes / (FlashlightFileUtility.isRawFileGzip(dataFile) ? 7L : 130L);
+      long estimatedEvents = sizeInBytes / estimateBytesPerEvent(dataFile);
       if (estimatedEvents <= 0) {
         estimatedEvents = 10L;
       }
@@ -38,7 +38,7 @@ public final class RunDescription {
       return new RunDescription(prefix.getName(), prefix.getRawDataVersion(), prefix.getHostname(), prefix.getUserName(),
           prefix.getJavaVersion(), prefix.getJavaVendor(), prefix.getOSName(), prefix.getOSArch(), prefix.getOSVersion(),
           prefix.getMaxMemoryMb(), prefix.getProcessors(), new Timestamp(prefix.getWallClockTime().getTime()), prefix.isAndroid(),
-          collectionDurationNanos);
+          prefix.getSamplingRate(), collectionDurationNanos);
     } else {
       throw new IllegalStateException(I18N.err(107, prefix.getFile().getAbsolutePath()));
     }
@@ -47,7 +47,7 @@ public final class RunDescription {
   private RunDescription(final String name, final String rawDataVersion, final String hostname, final String userName,
       final String javaVersion, final String javaVendor, final String osName, final String osArch, final String osVersion,
       final int maxMemoryMb, final int processors, final Timestamp started, final boolean isAndroid,
-      final long collectionDurationNanos) {
+      final double samplingRate, final long collectionDurationNanos) {
     if (name == null) {
       throw new IllegalArgumentException(I18N.err(44, "name"));
     }
@@ -91,6 +91,7 @@ public final class RunDescription {
     }
     f_started = started;
     f_android = isAndroid;
+    f_samplingRate = samplingRate;
     f_collectionDurationNanos = collectionDurationNanos;
   }
 
@@ -197,6 +198,20 @@ public final class RunDescription {
     return f_android;
   }
 
+  private final double f_samplingRate;
+
+  /**
+   * Gets the fraction of the run during which field accesses were recorded.
+   * This is 1.0 unless the run was sampled.
+   */
+  public double getSamplingRate() {
+    return f_samplingRate;
+  }
+
+  public boolean isSampled() {
+    return f_samplingRate < 1.0;
+  }
+
   private final long f_collectionDurationNanos;
 
   public long getCollectionDurationInNanos() {
@@ -220,6 +235,7 @@ public final class RunDescription {
     b.append(" started=").append(f_started);
     b.append(" duration=").append(f_collectionDurationNanos);
     b.append(" isAndroid=").append(f_android);
+    b.append(" samplingRate=").append(f_samplingRate);
     b.append("]");
     return b.toString();
   }
@@ -239,6 +255,8 @@ public final class RunDescription {
     result = prime * result + ((f_osName == null) ? 0 : f_osName.hashCode());
     result = prime * result + ((f_osVersion == null) ? 0 : f_osVersion.hashCode());
     result = prime * result + f_processors;
+    final long samplingRateBits = Double.doubleToLongBits(f_samplingRate);
+    result = prime * result + (int) (samplingRateBits ^ (samplingRateBits >>> 32));
     result = prime * result + ((f_rawDataVersion == null) ? 0 : f_rawDataVersion.hashCode());
     result = prime * result + ((f_started == null) ? 0 : f_started.hashCode());
     result = prime * result + ((f_userName == null) ? 0 : f_userName.hashCode());
@@ -297,6 +315,8 @@ public final class RunDescription {
       return false;
     if (f_processors != other.f_processors)
       return false;
+    if (Double.doubleToLongBits(f_samplingRate) != Double.doubleToLongBits(other.f_samplingRate))
+      return false;
     if (f_rawDataVersion == null) {
       if (other.f_rawDataVersion != null)
         return false;
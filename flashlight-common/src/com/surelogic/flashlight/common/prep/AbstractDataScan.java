@@ -1,20 +1,97 @@
 package com.surelogic.flashlight.common.prep;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import com.surelogic._flashlight.common.BinaryEventReader;
 import com.surelogic._flashlight.common.IAttributeType;
+import com.surelogic._flashlight.common.OutputType;
 import com.surelogic._flashlight.common.PreppedAttributes;
 import com.surelogic.common.jobs.SLProgressMonitor;
 
-public class AbstractDataScan extends DefaultHandler {
+public class AbstractDataScan extends DefaultHandler implements BinaryEventReader.Handler {
   protected final SLProgressMonitor f_monitor;
+  /**
+   * Work done since it was last taken by {@link #takeWork()}. Scans that run on
+   * a pool thread count their work here rather than reporting it to a monitor
+   * that other threads are also using.
+   */
+  private final AtomicLong f_work = new AtomicLong();
 
   public AbstractDataScan(final SLProgressMonitor monitor) {
     assert monitor != null;
     f_monitor = monitor;
   }
 
+  /**
+   * Counts work to be reported later by whichever thread calls
+   * {@link #takeWork()}.
+   *
+   * @param work
+   *          the units of work done.
+   */
+  protected void countWork(final int work) {
+    f_work.addAndGet(work);
+  }
+
+  /**
+   * Gets the work counted since this was last called. Any thread may call this.
+   *
+   * @return the units of work done.
+   */
+  public int takeWork() {
+    return (int) f_work.getAndSet(0);
+  }
+
+  /**
+   * Reads the passed raw data file, reporting each event in it to
+   * {@link #handleEvent(String, PreppedAttributes)}. Both XML and binary raw
+   * data files are supported.
+   *
+   * @param dataFile
+   *          a raw data file.
+   */
+  public void scan(final File dataFile) throws IOException, SAXException, ParserConfigurationException {
+    final OutputType type = OutputType.detectFileType(dataFile);
+    final InputStream stream = OutputType.getInputStreamFor(dataFile);
+    try {
+      if (type.isBinary()) {
+        BinaryEventReader.read(stream, this);
+      } else {
+        OutputType.getParser(type).parse(stream, this);
+      }
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Override
+  public void startElement(final String uri, final String localName, final String name, final Attributes attributes)
+      throws SAXException {
+    handleEvent(name, preprocessAttributes(name, attributes));
+  }
+
+  /**
+   * Called for each event in the raw data file.
+   *
+   * @param name
+   *          the XML element name of the event.
+   * @param attrs
+   *          the attributes of the event.
+   */
+  @Override
+  public void handleEvent(final String name, final PreppedAttributes attrs) throws SAXException {
+    // do nothing
+  }
+
   protected PreppedAttributes preprocessAttributes(final String eltName, final Attributes a) {
     // System.err.println("Got "+e.getLabel());
     final PreppedAttributes attrs;
@@ -0,0 +1,249 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads the largest tables of a prep from staging files rather than through
+ * JDBC batches. Rows are written, as they are produced, to a file per table in
+ * Derby's import format, and each file is loaded with
+ * <tt>SYSCS_UTIL.SYSCS_IMPORT_DATA</tt> once every row has been written. The
+ * import is much faster than batched inserts because Derby loads an empty
+ * table in bulk, without logging each row, and because the tables have no
+ * indexes until the constraints are added after the prep.
+ * <p>
+ * Instances are not thread safe. Rows must be written by the thread that
+ * prepares the database.
+ */
+public final class BulkLoader {
+
+  private static final char COLUMN_DELIMITER = ',';
+  private static final char CHARACTER_DELIMITER = '"';
+
+  private final File f_dir;
+  private final Map<String, Table> f_tables = new LinkedHashMap<>();
+
+  /**
+   * Constructs a loader that writes its staging files into the passed
+   * directory.
+   *
+   * @param dir
+   *          a directory that exists for the life of this loader.
+   */
+  public BulkLoader(final File dir) {
+    f_dir = dir;
+  }
+
+  /**
+   * Gets the staging file of a table, creating it on first use. Every caller
+   * for the same table must pass the same columns.
+   *
+   * @param name
+   *          the name of the table.
+   * @param columns
+   *          the columns each row gives a value for, in order. Generated
+   *          columns are left out.
+   * @return the staging file of the table.
+   */
+  public Table table(final String name, final String... columns) throws SQLException {
+    Table t = f_tables.get(name);
+    if (t == null) {
+      try {
+        t = new Table(name, columns, new File(f_dir, name + ".import"));
+      } catch (final IOException e) {
+        throw new SQLException("Unable to create the staging file for " + name, e);
+      }
+      f_tables.put(name, t);
+    }
+    return t;
+  }
+
+  /**
+   * Imports every staging file into its table, in the order the tables were
+   * first used, and deletes the staging files. Each table must be empty.
+   *
+   * @param c
+   *          a connection to the prep database.
+   */
+  public void load(final Connection c) throws IOException, SQLException {
+    try {
+      for (final Table t : f_tables.values()) {
+        t.close();
+        if (t.f_rows == 0) {
+          continue;
+        }
+        final CallableStatement s = c.prepareCall("CALL SYSCS_UTIL.SYSCS_IMPORT_DATA (NULL, ?, ?, NULL, ?, ?, ?, 'UTF-8', 1)");
+        try {
+          int idx = 1;
+          s.setString(idx++, t.f_name);
+          s.setString(idx++, t.f_columns);
+          s.setString(idx++, t.f_file.getAbsolutePath());
+          s.setString(idx++, Character.toString(COLUMN_DELIMITER));
+          s.setString(idx++, Character.toString(CHARACTER_DELIMITER));
+          s.execute();
+        } finally {
+          s.close();
+        }
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Closes and deletes the staging files without loading them.
+   */
+  public void close() throws IOException {
+    for (final Table t : f_tables.values()) {
+      t.close();
+      t.f_file.delete();
+    }
+    f_tables.clear();
+  }
+
+  /**
+   * The staging file of one table. Each row is written by calling a method for
+   * each column, in order, and then {@link #endRow()}.
+   */
+  public static final class Table {
+    final String f_name;
+    final String f_columns;
+    final File f_file;
+    final Writer f_out;
+    long f_rows;
+    private boolean f_inRow;
+    private boolean f_closed;
+
+    /**
+     * Timestamps are formatted in the default time zone, as
+     * {@link java.sql.PreparedStatement#setTimestamp(int, Timestamp, java.util.Calendar)}
+     * stores them with a default calendar. Consecutive events are usually in
+     * the same second, so the formatted second is cached.
+     */
+    private final SimpleDateFormat f_secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private long f_second = Long.MIN_VALUE;
+    private String f_formattedSecond;
+    private final char[] f_nanos = new char[10];
+
+    Table(final String name, final String[] columns, final File file) throws IOException {
+      f_name = name;
+      final StringBuilder b = new StringBuilder();
+      for (final String column : columns) {
+        if (b.length() > 0) {
+          b.append(COLUMN_DELIMITER);
+        }
+        b.append(column.toUpperCase());
+      }
+      f_columns = b.toString();
+      f_file = file;
+      f_out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+      f_nanos[0] = '.';
+    }
+
+    private SQLException failure(final IOException e) {
+      return new SQLException("Unable to write the staging file for " + f_name, e);
+    }
+
+    private void next() throws IOException {
+      if (f_inRow) {
+        f_out.write(COLUMN_DELIMITER);
+      } else {
+        f_inRow = true;
+      }
+    }
+
+    public void setLong(final long value) throws SQLException {
+      try {
+        next();
+        f_out.write(Long.toString(value));
+      } catch (final IOException e) {
+        throw failure(e);
+      }
+    }
+
+    public void setNull() throws SQLException {
+      try {
+        next();
+      } catch (final IOException e) {
+        throw failure(e);
+      }
+    }
+
+    public void setString(final String value) throws SQLException {
+      try {
+        next();
+        if (value == null) {
+          return;
+        }
+        f_out.write(CHARACTER_DELIMITER);
+        for (int i = 0; i < value.length(); i++) {
+          final char ch = value.charAt(i);
+          if (ch == CHARACTER_DELIMITER) {
+            f_out.write(CHARACTER_DELIMITER);
+          }
+          f_out.write(ch);
+        }
+        f_out.write(CHARACTER_DELIMITER);
+      } catch (final IOException e) {
+        throw failure(e);
+      }
+    }
+
+    public void setTimestamp(final Timestamp value) throws SQLException {
+      try {
+        next();
+        final long millis = value.getTime();
+        final long second = millis / 1000L;
+        if (second != f_second) {
+          f_second = second;
+          f_formattedSecond = f_secondFormat.format(new java.util.Date(second * 1000L));
+        }
+        f_out.write(f_formattedSecond);
+        int nanos = value.getNanos();
+        for (int i = 9; i > 0; i--) {
+          f_nanos[i] = (char) ('0' + nanos % 10);
+          nanos /= 10;
+        }
+        f_out.write(f_nanos);
+      } catch (final IOException e) {
+        throw failure(e);
+      }
+    }
+
+    public void endRow() throws SQLException {
+      try {
+        f_out.write('\n');
+        f_inRow = false;
+        f_rows++;
+      } catch (final IOException e) {
+        throw failure(e);
+      }
+    }
+
+    /**
+     * Gets the number of rows written so far.
+     */
+    public long getRowCount() {
+      return f_rows;
+    }
+
+    void close() throws IOException {
+      if (!f_closed) {
+        f_closed = true;
+        f_out.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import com.surelogic._flashlight.common.BinaryEventWriter;
+import com.surelogic._flashlight.common.OutputType;
+import com.surelogic._flashlight.common.PreppedAttributes;
+import com.surelogic.common.jobs.SLProgressMonitor;
+
+/**
+ * The static field accesses skipped by a prep that reads each checkpoint of a
+ * run as it is completed. When a checkpoint is prepared, a static field that
+ * only one thread has accessed so far may be accessed by another thread in a
+ * later checkpoint, so its accesses are written to a spill file rather than
+ * dropped. Once the last checkpoint has been read, the static fields accessed
+ * by more than one thread are known, and the spill file is replayed to insert
+ * the accesses to them.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class DeferredStaticAccesses {
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private final File f_file;
+  private BinaryEventWriter f_writer;
+  private long f_count;
+
+  /**
+   * Constructs an empty set of deferred accesses.
+   *
+   * @param spillDir
+   *          the directory to write the spill file into.
+   */
+  public DeferredStaticAccesses(final File spillDir) throws IOException {
+    f_file = new File(spillDir, "statics" + OutputType.FLB.getSuffix());
+    f_writer = new BinaryEventWriter(new BufferedOutputStream(new FileOutputStream(f_file), BUFFER_SIZE), "spill", "statics");
+  }
+
+  /**
+   * Notes a static field access that was skipped. Accesses skipped while the
+   * spill file is replayed are dropped, as their field was only ever accessed
+   * by one thread.
+   *
+   * @param name
+   *          the name of the event.
+   * @param attrs
+   *          the attributes of the event.
+   */
+  void defer(final String name, final PreppedAttributes attrs) throws SQLException {
+    if (f_writer == null) {
+      return;
+    }
+    try {
+      ScanRawFilePartitionScan.write(f_writer, name, attrs);
+      f_count++;
+    } catch (final IOException e) {
+      throw new SQLException("Unable to write the deferred static field access spill file", e);
+    }
+  }
+
+  /**
+   * Gets the number of accesses deferred.
+   *
+   * @return the number of accesses deferred.
+   */
+  public long getCount() {
+    return f_count;
+  }
+
+  /**
+   * Reports the deferred accesses, in the order they were read, to the passed
+   * handlers, which insert the accesses to fields now known to be accessed by
+   * more than one thread.
+   *
+   * @param c
+   *          the database connection.
+   * @param monitor
+   *          the progress monitor.
+   * @param handlers
+   *          the static field access handlers that deferred the accesses.
+   */
+  public void replay(final Connection c, final SLProgressMonitor monitor, final IPrep[] handlers) throws IOException,
+      SAXException, ParserConfigurationException, SQLException {
+    close();
+    new ScanRawFilePrepScan(c, monitor, handlers).scan(f_file);
+  }
+
+  /**
+   * Closes the spill file. It is deleted along with the spill directory.
+   */
+  public void close() throws IOException {
+    if (f_writer != null) {
+      try {
+        f_writer.close();
+      } finally {
+        f_writer = null;
+      }
+    }
+  }
+}
@@ -21,10 +21,43 @@ public abstract class FieldAccess extends RangedEvent {
 
   private static final String f_psQ = "INSERT INTO ACCESS (TS,InThread,Trace,Field,RW,Receiver,UnderConstruction) VALUES (?, ?, ?, ?, ?, ?, ?)";
 
+  static final String f_psIdQ = "INSERT INTO ACCESS (Id,TS,InThread,Trace,Field,RW,Receiver,UnderConstruction) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /**
+   * The columns of an ACCESS row, in the order they are written.
+   */
+  static final String[] ACCESS_COLUMNS = { "TS", "InThread", "Trace", "Field", "RW", "Receiver", "UnderConstruction" };
+
+  /**
+   * The columns of an ACCESS row whose identifier is assigned by a
+   * {@link LockSetRowInserter}, in the order they are written.
+   */
+  static final String[] ACCESS_ID_COLUMNS = { "Id", "TS", "InThread", "Trace", "Field", "RW", "Receiver", "UnderConstruction" };
+
+  private final BulkLoader f_bulk;
+
+  private final LockSetRowInserter f_lockSets;
+
   private PreparedStatement f_ps;
 
+  private BulkLoader.Table f_table;
+
   private long skipped, inserted;
 
+  public FieldAccess() {
+    this(null, null);
+  }
+
+  /**
+   * Constructs a handler that writes its rows to the passed loader, if it is
+   * non-null, rather than inserting them. Each access is passed to the lock set
+   * inserter, if it is non-null, which assigns its identifier.
+   */
+  public FieldAccess(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    f_bulk = bulk;
+    f_lockSets = lockSets;
+  }
+
   @Override
   public void parse(final PreppedAttributes attributes) throws SQLException {
     final long nanoTime = attributes.getEventTime();
@@ -52,8 +85,32 @@ public abstract class FieldAccess extends RangedEvent {
 
   private void insert(final long nanoTime, final long inThread, final long trace, final long field, final long receiver,
       final boolean underConstruction) throws SQLException {
+    final Timestamp ts = getTimestamp(nanoTime);
+    final long id = f_lockSets == null ? ILLEGAL_ID : f_lockSets.access(ts, inThread, field, receiver, "R".equals(getRW()),
+        underConstruction);
+    if (f_table != null) {
+      if (id != ILLEGAL_ID) {
+        f_table.setLong(id);
+      }
+      f_table.setTimestamp(ts);
+      f_table.setLong(inThread);
+      f_table.setLong(trace);
+      f_table.setLong(field);
+      f_table.setString(getRW());
+      if (receiver == ILLEGAL_FIELD_ID) {
+        f_table.setNull();
+      } else {
+        f_table.setLong(receiver);
+      }
+      f_table.setString(underConstruction ? "Y" : "N");
+      f_table.endRow();
+      return;
+    }
     int idx = 1;
-    f_ps.setTimestamp(idx++, getTimestamp(nanoTime), now);
+    if (id != ILLEGAL_ID) {
+      f_ps.setLong(idx++, id);
+    }
+    f_ps.setTimestamp(idx++, ts, now);
     f_ps.setLong(idx++, inThread);
     f_ps.setLong(idx++, trace);
     f_ps.setLong(idx++, field);
@@ -82,11 +139,18 @@ public abstract class FieldAccess extends RangedEvent {
   public void setup(final Connection c, final Timestamp start, final long startNS, final ScanRawFileFieldsPreScan scanResults,
       final long begin, final long end) throws SQLException {
     super.setup(c, start, startNS, scanResults, begin, end);
-    f_ps = c.prepareStatement(f_psQ);
+    if (f_bulk != null) {
+      f_table = f_bulk.table("ACCESS", f_lockSets == null ? ACCESS_COLUMNS : ACCESS_ID_COLUMNS);
+    } else {
+      f_ps = c.prepareStatement(f_lockSets == null ? f_psQ : f_psIdQ);
+    }
   }
 
   @Override
   public void flush(final long endTime) throws SQLException {
+    if (f_ps == null) {
+      return;
+    }
     if (count > 0) {
       f_ps.executeBatch();
       count = 0;
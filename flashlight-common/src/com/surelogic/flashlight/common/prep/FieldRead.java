@@ -2,6 +2,14 @@ package com.surelogic.flashlight.common.prep;
 
 public final class FieldRead extends FieldAccess {
 
+  public FieldRead() {
+    super();
+  }
+
+  public FieldRead(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    super(bulk, lockSets);
+  }
+
   @Override
   public String getXMLElementName() {
     return "field-read";
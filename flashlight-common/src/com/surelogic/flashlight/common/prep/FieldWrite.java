@@ -2,6 +2,14 @@ package com.surelogic.flashlight.common.prep;
 
 public final class FieldWrite extends FieldAccess {
 
+  public FieldWrite() {
+    super();
+  }
+
+  public FieldWrite(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    super(bulk, lockSets);
+  }
+
   @Override
   public String getXMLElementName() {
     return "field-write";
@@ -1,11 +1,19 @@
 package com.surelogic.flashlight.common.prep;
 
+import static com.surelogic._flashlight.common.IdConstants.ILLEGAL_FIELD_ID;
+import static com.surelogic._flashlight.common.IdConstants.ILLEGAL_RECEIVER_ID;
+
 import java.io.IOException;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,16 +21,18 @@ import java.util.Map.Entry;
 
 import com.carrotsearch.hppc.LongObjectMap;
 import com.carrotsearch.hppc.LongObjectScatterMap;
-import com.carrotsearch.hppc.procedures.LongObjectProcedure;
+import com.carrotsearch.hppc.LongScatterSet;
+import com.carrotsearch.hppc.LongSet;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import com.carrotsearch.hppc.sorting.IndirectSort;
 import com.surelogic.common.jdbc.BooleanResultHandler;
 import com.surelogic.common.jdbc.ConnectionQuery;
 import com.surelogic.common.jdbc.LongResultHandler;
 import com.surelogic.common.jdbc.NullResultHandler;
 import com.surelogic.common.jdbc.NullRowHandler;
-import com.surelogic.common.jdbc.Nulls;
 import com.surelogic.common.jdbc.Queryable;
 import com.surelogic.common.jdbc.Result;
-import com.surelogic.common.jdbc.ResultHandler;
 import com.surelogic.common.jdbc.Row;
 import com.surelogic.common.jdbc.SchemaData;
 import com.surelogic.common.jdbc.SchemaUtility;
@@ -35,7 +45,18 @@ public class HappensBeforePostPrep implements IPostPrep {
   final ClassHierarchy ch;
   ConnectionQuery q;
   HappensBeforeAnalysis hb;
-  Queryable<Void> badHappensBefore;
+  Queryable<Boolean> isFieldLockQuery;
+
+  /*
+   * The accesses of static fields, and of the fields of objects, each in the
+   * order they are checked in.
+   */
+  static final String STATIC_ACCESSES = "SELECT FIELD,INTHREAD,TS,RW FROM ACCESS WHERE RECEIVER IS NULL ORDER BY FIELD,TS,ID";
+  static final String INSTANCE_ACCESSES = "SELECT RECEIVER,FIELD,INTHREAD,TS,RW FROM ACCESS WHERE RECEIVER IS NOT NULL ORDER BY RECEIVER,TS,ID";
+
+  static final String INSERT_BAD_HAPPENS_BEFORE = "INSERT INTO BADHAPPENSBEFORE (Field,Receiver) VALUES (?, ?)";
+  static final String INSERT_BLOCK_STATS = "INSERT INTO BLOCKSTATS (Receiver,Field,InThread,Start,Stop,Reads,Writes,Quotient) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  static final String INSERT_FIELD_BLOCK_STATS = "INSERT INTO FIELDBLOCKSTATS (Receiver,Field,RField,InThread,Start,Stop,Reads,Writes,Quotient) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
   public HappensBeforePostPrep(ClassHierarchy ch) {
     this.ch = ch;
@@ -63,9 +84,8 @@ public class HappensBeforePostPrep implements IPostPrep {
     q.statement("Accesses.prep.selectClassAccesses", new ClassInitHandler()).call();
 
     hb = new HappensBeforeAnalysis(c);
-    badHappensBefore = q.prepared("Accesses.prep.insertBadHappensBefore");
-    q.statement("Accesses.prep.selectStatics", new StaticHandler()).call();
-    q.statement("Accesses.prep.selectFields", new InstanceHandler()).call();
+    isFieldLockQuery = q.prepared("Accesses.prep.isFieldLock", new BooleanResultHandler());
+    checkAccesses(c);
     c.commit();
     try {
       addConstraints(c, schema, "add_badhappensbefore_constraints.sql");
@@ -192,177 +212,563 @@ public class HappensBeforePostPrep implements IPostPrep {
 
   }
 
-  class InstanceHandler extends NullRowHandler {
-    final BlockStatsHandler bh = new BlockStatsHandler();
-    final Queryable<Boolean> check = q.prepared("Accesses.prep.selectInstanceField", new AccessHandler());
-    final Queryable<?> recordBlocks = q.prepared("Accesses.prep.selectInstanceField", bh);
+  /**
+   * Checks every access to the selected fields, and measures the blocks of
+   * accesses to the selected fields of objects, in one ordered scan of the
+   * ACCESS table. The accesses are not kept: each selected field of the object
+   * being read keeps its own check and the measurements of its current block.
+   */
+  void checkAccesses(final Connection c) throws SQLException {
+    final FieldPairs fields = new FieldPairs();
+    q.statement("Accesses.prep.selectFields", new NullRowHandler() {
+      @Override
+      protected void doHandle(Row r) {
+        final long field = r.nextLong();
+        final long receiver = r.nextLong();
+        fields.add(receiver, field);
+      }
+    }).call();
+    fields.sort();
+    final LongSet statics = new LongScatterSet();
+    q.statement("Accesses.prep.selectStatics", new NullRowHandler() {
+      @Override
+      protected void doHandle(Row r) {
+        statics.add(r.nextLong());
+      }
+    }).call();
+    final Edges edges = new Edges() {
+      @Override
+      public boolean hasHappensBefore(final Timestamp write, final long writeThread, final Timestamp read, final long readThread)
+          throws SQLException {
+        return hb.hasHappensBefore(write, writeThread, read, readThread);
+      }
 
-    long field;
-    long receiver;
+      @Override
+      public boolean isFieldLock(final long field, final long receiver) {
+        return isFieldLockQuery.call(field, receiver) == Boolean.TRUE;
+      }
+    };
 
-    @Override
-    protected void doHandle(Row r) {
-      field = r.nextLong();
-      receiver = r.nextLong();
-      bh.clear();
-      recordBlocks.call(field, receiver);
-      if (!check.call(field, receiver)) {
-        badHappensBefore.call(field, receiver);
+    final Inserter inserter = new Inserter(c);
+    try {
+      final Statement st = c.createStatement();
+      try {
+        ResultSet rs = st.executeQuery(STATIC_ACCESSES);
+        try {
+          final StaticAccesses accesses = new StaticAccesses(statics, edges, inserter);
+          while (rs.next()) {
+            accesses.add(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3), "R".equals(rs.getString(4)));
+          }
+          accesses.finish();
+        } finally {
+          rs.close();
+        }
+        rs = st.executeQuery(INSTANCE_ACCESSES);
+        try {
+          final InstanceAccesses accesses = new InstanceAccesses(fields, edges, inserter);
+          while (rs.next()) {
+            accesses.add(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getTimestamp(4), "R".equals(rs.getString(5)));
+          }
+          accesses.finish();
+        } finally {
+          rs.close();
+        }
+      } finally {
+        st.close();
       }
+      inserter.flush();
+    } finally {
+      inserter.close();
     }
+  }
 
-    class BlockStatsHandler extends NullRowHandler {
-
-      final InterleavingFieldHandler h = new InterleavingFieldHandler();
-
-      Timestamp beginThread, endThread;
-      int reads, writes;
-      long lastThread = -1;
+  /**
+   * The happens-before edges and field locks the checks consult.
+   */
+  interface Edges {
+    boolean hasHappensBefore(Timestamp write, long writeThread, Timestamp read, long readThread) throws SQLException;
 
-      final Queryable<?> insertBlockStats = q.prepared("Accesses.prep.insertBlockStats");
-      final Queryable<?> insertFieldBlockStats = q.prepared("Accesses.prep.insertFieldBlockStats");
-      final Queryable<Boolean> isFieldLock = q.prepared("Accesses.prep.isFieldLock", new BooleanResultHandler());
-      final Queryable<?> countInterleavingFields = q.prepared("Accesses.prep.interleavingFields", h);
+    boolean isFieldLock(long field, long receiver);
+  }
 
-      void clear() {
-        beginThread = endThread = null;
-        reads = writes = 0;
-        lastThread = -1;
-        h.fields.clear();
+  /**
+   * The selected fields of objects, as receiver and field pairs in two arrays,
+   * sorted by receiver so they can be merged with the accesses.
+   */
+  static class FieldPairs {
+    long[] receivers = new long[1024];
+    long[] fields = new long[1024];
+    int size;
+
+    void add(final long receiver, final long field) {
+      if (size == receivers.length) {
+        receivers = Arrays.copyOf(receivers, size * 2);
+        fields = Arrays.copyOf(fields, size * 2);
       }
+      receivers[size] = receiver;
+      fields[size] = field;
+      size++;
+    }
 
-      @Override
-      protected void doHandle(Row r) {
-        long thread = r.nextLong();
-        if (thread != lastThread) {
-          handleBlock();
-          lastThread = thread;
-          beginThread = endThread = r.nextTimestamp();
-          reads = 0;
-          writes = 0;
-        } else {
-          endThread = r.nextTimestamp();
+    void sort() {
+      final long[] r = receivers;
+      final long[] f = fields;
+      final int[] order = IndirectSort.mergesort(0, size, new IndirectComparator() {
+        @Override
+        public int compare(final int a, final int b) {
+          final int byReceiver = Long.compare(r[a], r[b]);
+          return byReceiver != 0 ? byReceiver : Long.compare(f[a], f[b]);
         }
-        if (r.nextString().equals("R")) {
-          reads++;
-        } else {
-          writes++;
+      });
+      receivers = new long[size];
+      fields = new long[size];
+      for (int i = 0; i < size; i++) {
+        receivers[i] = r[order[i]];
+        fields[i] = f[order[i]];
+      }
+    }
+  }
+
+  /**
+   * Checks that each thread's first read of a field after a write to it by
+   * another thread happens after the write.
+   */
+  static class AccessCheck {
+    final Edges edges;
+    Timestamp lastWrite = null;
+    long curThread = -1;
+    long lastWriteThread = -1;
+    boolean ok = true;
+
+    AccessCheck(final Edges edges) {
+      this.edges = edges;
+    }
+
+    void add(final long thread, final Timestamp ts, final boolean isRead) throws SQLException {
+      if (!ok) {
+        return;
+      }
+      if (!isRead) {
+        lastWrite = ts;
+        lastWriteThread = thread;
+      } else if (thread != curThread) {
+        curThread = thread;
+        if (!edges.hasHappensBefore(lastWrite, lastWriteThread, ts, thread)) {
+          ok = false;
         }
       }
+    }
+  }
+
+  /**
+   * Checks the accesses to the selected static fields, read in field and then
+   * time order.
+   */
+  static class StaticAccesses {
+    final LongSet statics;
+    final Edges edges;
+    final Inserter inserter;
+    long field = ILLEGAL_FIELD_ID;
+    AccessCheck check;
+
+    StaticAccesses(final LongSet statics, final Edges edges, final Inserter inserter) {
+      this.statics = statics;
+      this.edges = edges;
+      this.inserter = inserter;
+    }
 
-      void handleBlock() {
-        if (reads + writes > 20) {
-          countInterleavingFields.call(receiver, beginThread, endThread);
+    void add(final long f, final long thread, final Timestamp ts, final boolean isRead) throws SQLException {
+      if (f != field) {
+        finish();
+        field = f;
+        check = statics.contains(f) ? new AccessCheck(edges) : null;
+      }
+      if (check != null) {
+        check.add(thread, ts, isRead);
+      }
+    }
 
+    void finish() throws SQLException {
+      if (check != null && !check.ok) {
+        inserter.badHappensBefore(field, null);
+      }
+      check = null;
+    }
+  }
+
+  /**
+   * Checks and measures the accesses to the selected fields of objects, read
+   * in receiver and then time order. Only the accesses at the latest time are
+   * kept, because a block that starts at that time also counts the accesses
+   * to the object's other fields that came just before it at the same time.
+   */
+  static class InstanceAccesses {
+    final FieldPairs pairs;
+    final Edges edges;
+    final Inserter inserter;
+    int nextPair;
+
+    long receiver = ILLEGAL_RECEIVER_ID;
+    FieldAccesses[] selected = new FieldAccesses[0];
+
+    /*
+     * The accesses to the object at the latest time
+     */
+    Timestamp groupTime;
+    int groupSize;
+    long[] groupField = new long[16];
+    long[] groupThread = new long[16];
+
+    /**
+     * Whether each field of the object holds an object that is used as a lock.
+     */
+    final LongObjectMap<Boolean> fieldLocks = new LongObjectScatterMap<>();
+
+    InstanceAccesses(final FieldPairs pairs, final Edges edges, final Inserter inserter) {
+      this.pairs = pairs;
+      this.edges = edges;
+      this.inserter = inserter;
+    }
+
+    void add(final long r, final long f, final long t, final Timestamp time, final boolean isRead) throws SQLException {
+      if (r != receiver) {
+        finish();
+        start(r);
+      }
+      if (selected.length == 0) {
+        return;
+      }
+      if (!time.equals(groupTime)) {
+        groupTime = time;
+        groupSize = 0;
+      }
+      for (final FieldAccesses accesses : selected) {
+        accesses.add(f, t, time, isRead);
+      }
+      if (groupSize == groupField.length) {
+        groupField = Arrays.copyOf(groupField, groupSize * 2);
+        groupThread = Arrays.copyOf(groupThread, groupSize * 2);
+      }
+      groupField[groupSize] = f;
+      groupThread[groupSize] = t;
+      groupSize++;
+    }
+
+    private void start(final long r) {
+      receiver = r;
+      groupTime = null;
+      groupSize = 0;
+      fieldLocks.clear();
+      while (nextPair < pairs.size && pairs.receivers[nextPair] < r) {
+        nextPair++;
+      }
+      int end = nextPair;
+      while (end < pairs.size && pairs.receivers[end] == r) {
+        end++;
+      }
+      selected = new FieldAccesses[end - nextPair];
+      for (int i = 0; i < selected.length; i++) {
+        selected[i] = new FieldAccesses(pairs.fields[nextPair + i]);
+      }
+      nextPair = end;
+    }
+
+    /**
+     * Finishes the checks of the object being read. As the query-based check
+     * did, the last block of accesses to each field is not measured.
+     */
+    void finish() throws SQLException {
+      for (final FieldAccesses accesses : selected) {
+        accesses.finish();
+        if (!accesses.check.ok) {
+          inserter.badHappensBefore(accesses.field, receiver);
         }
       }
+      selected = new FieldAccesses[0];
+    }
 
-      class InterleavingFieldHandler extends NullResultHandler {
+    boolean isFieldLock(final long f) {
+      Boolean isLock = fieldLocks.get(f);
+      if (isLock == null) {
+        isLock = edges.isFieldLock(f, receiver);
+        fieldLocks.put(f, isLock);
+      }
+      return isLock;
+    }
 
-        LongObjectMap<Interleaving> fields = new LongObjectScatterMap<>();
+    /**
+     * Checks the accesses to one field of the object, and measures how often
+     * the accesses of a thread to it are interleaved with accesses by other
+     * threads, to the field and to each other field of the object, over each
+     * block of more than 20 accesses the thread makes in a row. A block counts
+     * the accesses to the object from the time of its first access to the time
+     * of its last, inclusive, so a block that ends at the latest time is only
+     * measured once a later access is read.
+     */
+    class FieldAccesses {
+      final long field;
+      final AccessCheck check = new AccessCheck(edges);
+      Block block;
+      final List<Block> closing = new ArrayList<>();
+
+      FieldAccesses(final long field) {
+        this.field = field;
+      }
 
-        @Override
-        public void doHandle(Result result) {
-          fields.clear();
-          boolean inThread = true;
-          int interleavings = 0;
-          for (Row r : result) {
-            long rField = r.nextLong();
-            long rThread = r.nextLong();
-            // Handle the big block
-            if (rThread != lastThread && inThread) {
-              interleavings++;
+      void add(final long f, final long t, final Timestamp time, final boolean isRead) throws SQLException {
+        if (!closing.isEmpty()) {
+          if (time.after(closing.get(0).end)) {
+            for (final Block b : closing) {
+              handleBlock(b, b.counted);
             }
-            if (inThread) {
-              inThread = rThread == lastThread;
-            } else {
-              inThread = rThread == lastThread && rField == field;
+            closing.clear();
+          } else {
+            for (final Block b : closing) {
+              b.counted.count(f, t, field, b.thread);
             }
-            // Handle the individual blocks
-            if (rField != field) {
-              Interleaving i = fields.get(rField);
-              if (i == null) {
-                i = new Interleaving();
-                fields.put(rField, i);
-              }
-              if (rThread != lastThread && i.inThread) {
-                i.interleavings++;
-              }
-              i.inThread = inThread;
-            } else {
-              final boolean val = inThread;
-              fields.forEach(new LongObjectProcedure<Interleaving>() {
-                public void apply(long key, Interleaving value) {
-                  value.inThread = val;
-                }
-              });
+          }
+        }
+        if (f != field) {
+          if (block != null) {
+            if (block.atEnd == null && time.after(block.end)) {
+              block.atEnd = block.counted.copy();
             }
+            block.counted.count(f, t, field, block.thread);
           }
-          if (isFieldLock.call(field, receiver) != Boolean.TRUE) {
-            insertBlockStats.call(field, receiver, lastThread, beginThread, endThread, reads, writes,
-                (double) interleavings * 100 / (reads + writes));
-            fields.forEach(new LongObjectProcedure<Interleaving>() {
-              public void apply(long rField, Interleaving value) {
-                if (isFieldLock.call(rField, receiver) != Boolean.TRUE) {
-                  insertFieldBlockStats.call(field, rField, receiver, lastThread, beginThread, endThread, reads, writes,
-                      (double) value.interleavings * 100 / (reads + writes));
-                }
-
-              }
-            });
+          return;
+        }
+        check.add(t, time, isRead);
+        if (block == null || t != block.thread) {
+          if (block != null) {
+            close(block, t, time);
+          }
+          block = new Block(t, time);
+          for (int i = 0; i < groupSize; i++) {
+            block.counted.count(groupField[i], groupThread[i], field, t);
           }
+        } else {
+          block.end = time;
+          block.atEnd = null;
+        }
+        block.counted.count(f, t, field, t);
+        if (isRead) {
+          block.reads++;
+        } else {
+          block.writes++;
         }
+      }
 
+      /**
+       * Closes a block when another thread accesses the field.
+       */
+      private void close(final Block b, final long t, final Timestamp time) throws SQLException {
+        if (b.atEnd != null) {
+          handleBlock(b, b.atEnd);
+        } else if (time.after(b.end)) {
+          handleBlock(b, b.counted);
+        } else if (b.reads + b.writes > 20) {
+          b.counted.count(field, t, field, b.thread);
+          closing.add(b);
+        }
       }
 
+      /**
+       * Finishes the blocks that are still being measured. The last block is
+       * not measured.
+       */
+      void finish() throws SQLException {
+        for (final Block b : closing) {
+          handleBlock(b, b.counted);
+        }
+        closing.clear();
+      }
+
+      private void handleBlock(final Block b, final Interleavings in) throws SQLException {
+        final int count = b.reads + b.writes;
+        if (count <= 20 || isFieldLock(field)) {
+          return;
+        }
+        inserter.blockStats(receiver, field, b.thread, b.begin, b.end, b.reads, b.writes,
+            (double) in.interleavings * 100 / count);
+        for (final LongObjectCursor<Interleaving> i : in.fields) {
+          if (!isFieldLock(i.key)) {
+            inserter.fieldBlockStats(receiver, field, i.key, b.thread, b.begin, b.end, b.reads, b.writes,
+                (double) i.value.interleavings * 100 / count);
+          }
+        }
+      }
     }
+  }
 
+  /**
+   * The accesses of one thread in a row to a field.
+   */
+  static class Block {
+    final long thread;
+    final Timestamp begin;
+    Timestamp end;
+    int reads, writes;
+
+    /**
+     * The interleavings of the accesses since the block began.
+     */
+    final Interleavings counted = new Interleavings();
+
+    /**
+     * The interleavings up to the end of the block so far, if accesses after
+     * its end have been counted, or {@code null}.
+     */
+    Interleavings atEnd;
+
+    Block(final long thread, final Timestamp begin) {
+      this.thread = thread;
+      this.begin = begin;
+      end = begin;
+    }
   }
 
-  class Interleaving {
+  /**
+   * Counts the interleavings of a block of accesses by one thread to one field,
+   * as the accesses to the object during the block are seen.
+   */
+  static class Interleavings {
+    int interleavings;
+    boolean inThread = true;
+    final LongObjectMap<Interleaving> fields = new LongObjectScatterMap<>();
+
+    void count(final long rField, final long rThread, final long blockField, final long blockThread) {
+      // Handle the big block
+      if (rThread != blockThread && inThread) {
+        interleavings++;
+      }
+      if (inThread) {
+        inThread = rThread == blockThread;
+      } else {
+        inThread = rThread == blockThread && rField == blockField;
+      }
+      // Handle the individual blocks
+      if (rField != blockField) {
+        Interleaving in = fields.get(rField);
+        if (in == null) {
+          in = new Interleaving();
+          fields.put(rField, in);
+        }
+        if (rThread != blockThread && in.inThread) {
+          in.interleavings++;
+        }
+        in.inThread = inThread;
+      } else {
+        for (final LongObjectCursor<Interleaving> in : fields) {
+          in.value.inThread = inThread;
+        }
+      }
+    }
+
+    Interleavings copy() {
+      final Interleavings copy = new Interleavings();
+      copy.interleavings = interleavings;
+      copy.inThread = inThread;
+      for (final LongObjectCursor<Interleaving> in : fields) {
+        final Interleaving i = new Interleaving();
+        i.interleavings = in.value.interleavings;
+        i.inThread = in.value.inThread;
+        copy.fields.put(in.key, i);
+      }
+      return copy;
+    }
+  }
+
+  static class Interleaving {
     long interleavings = 0;
     boolean inThread = true;
   }
 
-  class StaticHandler extends NullRowHandler {
-    final Queryable<Boolean> check = q.prepared("Accesses.prep.selectStaticField", new AccessHandler());
+  /**
+   * Batches the rows of the BADHAPPENSBEFORE, BLOCKSTATS, and FIELDBLOCKSTATS
+   * tables.
+   */
+  static class Inserter {
+    private static final int BATCH = 10000;
 
-    @Override
-    protected void doHandle(Row r) {
-      long field = r.nextLong();
-      if (!check.call(field)) {
-        badHappensBefore.call(field, Nulls.LONG);
+    final PreparedStatement badHappensBefore, blockStats, fieldBlockStats;
+    int badHappensBeforeCount, blockStatsCount, fieldBlockStatsCount;
+
+    Inserter(final Connection c) throws SQLException {
+      badHappensBefore = c.prepareStatement(INSERT_BAD_HAPPENS_BEFORE);
+      blockStats = c.prepareStatement(INSERT_BLOCK_STATS);
+      fieldBlockStats = c.prepareStatement(INSERT_FIELD_BLOCK_STATS);
+    }
+
+    void badHappensBefore(final long field, final Long receiver) throws SQLException {
+      badHappensBefore.setLong(1, field);
+      if (receiver == null) {
+        badHappensBefore.setNull(2, Types.BIGINT);
+      } else {
+        badHappensBefore.setLong(2, receiver);
+      }
+      badHappensBefore.addBatch();
+      if (++badHappensBeforeCount == BATCH) {
+        badHappensBefore.executeBatch();
+        badHappensBeforeCount = 0;
       }
     }
 
-  }
+    void blockStats(final long receiver, final long field, final long thread, final Timestamp start, final Timestamp stop,
+        final int reads, final int writes, final double quotient) throws SQLException {
+      int idx = 1;
+      blockStats.setLong(idx++, receiver);
+      blockStats.setLong(idx++, field);
+      blockStats.setLong(idx++, thread);
+      blockStats.setTimestamp(idx++, start);
+      blockStats.setTimestamp(idx++, stop);
+      blockStats.setLong(idx++, reads);
+      blockStats.setLong(idx++, writes);
+      blockStats.setDouble(idx++, quotient);
+      blockStats.addBatch();
+      if (++blockStatsCount == BATCH) {
+        blockStats.executeBatch();
+        blockStatsCount = 0;
+      }
+    }
 
-  class AccessHandler implements ResultHandler<Boolean> {
+    void fieldBlockStats(final long receiver, final long field, final long rField, final long thread, final Timestamp start,
+        final Timestamp stop, final int reads, final int writes, final double quotient) throws SQLException {
+      int idx = 1;
+      fieldBlockStats.setLong(idx++, receiver);
+      fieldBlockStats.setLong(idx++, field);
+      fieldBlockStats.setLong(idx++, rField);
+      fieldBlockStats.setLong(idx++, thread);
+      fieldBlockStats.setTimestamp(idx++, start);
+      fieldBlockStats.setTimestamp(idx++, stop);
+      fieldBlockStats.setLong(idx++, reads);
+      fieldBlockStats.setLong(idx++, writes);
+      fieldBlockStats.setDouble(idx++, quotient);
+      fieldBlockStats.addBatch();
+      if (++fieldBlockStatsCount == BATCH) {
+        fieldBlockStats.executeBatch();
+        fieldBlockStatsCount = 0;
+      }
+    }
 
-    @Override
-    public Boolean handle(Result result) {
-      Timestamp lastWrite = null;
-      long curThread = -1;
-      long lastWriteThread = -1;
-      for (Row r : result) {
-        long thread = r.nextLong();
-        Timestamp ts = r.nextTimestamp();
-        boolean isRead = r.nextString().equals("R");
-        if (!isRead) {
-          lastWrite = ts;
-          lastWriteThread = thread;
-        } else if (thread != curThread) {
-          curThread = thread;
-          try {
-            if (!hb.hasHappensBefore(lastWrite, lastWriteThread, ts, thread)) {
-              return false;
-            }
-          } catch (SQLException e) {
-            throw new IllegalStateException(e);
-          }
-        }
+    void flush() throws SQLException {
+      if (badHappensBeforeCount > 0) {
+        badHappensBefore.executeBatch();
+        badHappensBeforeCount = 0;
+      }
+      if (blockStatsCount > 0) {
+        blockStats.executeBatch();
+        blockStatsCount = 0;
       }
-      return true;
+      if (fieldBlockStatsCount > 0) {
+        fieldBlockStats.executeBatch();
+        fieldBlockStatsCount = 0;
+      }
+    }
+
+    void close() throws SQLException {
+      badHappensBefore.close();
+      blockStats.close();
+      fieldBlockStats.close();
     }
   }
 
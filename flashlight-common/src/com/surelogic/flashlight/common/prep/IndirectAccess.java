@@ -16,8 +16,24 @@ import com.surelogic.common.logging.SLLogger;
 public final class IndirectAccess extends RangedEvent {
   private static final String f_psQ = "INSERT INTO INDIRECTACCESS (TS,InThread,Trace,Receiver) VALUES (?, ?, ?, ?)";
 
+  private static final String f_psIdQ = "INSERT INTO INDIRECTACCESS (Id,TS,InThread,Trace,Receiver) VALUES (?, ?, ?, ?, ?)";
+
+  private final LockSetRowInserter f_lockSets;
+
   private PreparedStatement f_ps;
 
+  public IndirectAccess() {
+    this(null);
+  }
+
+  /**
+   * Constructs a handler that passes each access to the lock set inserter, if
+   * it is non-null, which assigns its identifier.
+   */
+  public IndirectAccess(final LockSetRowInserter lockSets) {
+    f_lockSets = lockSets;
+  }
+
   @Override
   public String getXMLElementName() {
     return "indirect-access";
@@ -27,7 +43,7 @@ public final class IndirectAccess extends RangedEvent {
   public void setup(final Connection c, final Timestamp start, final long startNS, final ScanRawFileFieldsPreScan scanResults,
       final long begin, final long end) throws SQLException {
     super.setup(c, start, startNS, scanResults, begin, end);
-    f_ps = c.prepareStatement(f_psQ);
+    f_ps = c.prepareStatement(f_lockSets == null ? f_psQ : f_psIdQ);
   }
 
   @Override
@@ -48,8 +64,12 @@ public final class IndirectAccess extends RangedEvent {
 
   private void insert(final long nanoTime, final long inThread, final long trace, final long receiver) throws SQLException {
     if (f_scanResults.isIndirectlyAccessedObject(receiver)) {
+      final Timestamp ts = getTimestamp(nanoTime);
       int idx = 1;
-      f_ps.setTimestamp(idx++, getTimestamp(nanoTime), now);
+      if (f_lockSets != null) {
+        f_ps.setLong(idx++, f_lockSets.indirectAccess(ts, inThread));
+      }
+      f_ps.setTimestamp(idx++, ts, now);
       f_ps.setLong(idx++, inThread);
       f_ps.setLong(idx++, trace);
       f_ps.setLong(idx++, receiver);
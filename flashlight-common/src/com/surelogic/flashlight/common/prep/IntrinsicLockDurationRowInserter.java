@@ -322,11 +322,51 @@ public final class IntrinsicLockDurationRowInserter {
 
   boolean flushed = false;
 
+  /**
+   * The staging files of the LOCK and LOCKDURATION tables, or {@code null} if
+   * their rows are inserted.
+   */
+  private final BulkLoader.Table f_lockTable, f_durationTable;
+
+  /**
+   * Is told when each thread starts and stops holding a lock, or
+   * {@code null}.
+   */
+  private final LockSetRowInserter f_lockSets;
+
   public IntrinsicLockDurationRowInserter(final Connection c) throws SQLException {
+    this(c, null, null);
+  }
+
+  /**
+   * Constructs an inserter that writes the rows of the LOCK and LOCKDURATION
+   * tables, which are the largest it produces, to the passed loader if it is
+   * non-null.
+   */
+  public IntrinsicLockDurationRowInserter(final Connection c, final BulkLoader bulk) throws SQLException {
+    this(c, bulk, null);
+  }
+
+  /**
+   * Constructs an inserter that also tells the passed lock set inserter, if it
+   * is non-null, when each thread starts and stops holding a lock.
+   */
+  public IntrinsicLockDurationRowInserter(final Connection c, final BulkLoader bulk, final LockSetRowInserter lockSets)
+      throws SQLException {
+    f_lockSets = lockSets;
     for (Queries q : Queries.values()) {
       statements.put(q, c.prepareStatement(q.getSql()));
       counts.put(q, 0);
     }
+    if (bulk != null) {
+      f_lockTable = bulk.table("LOCK", "Id", "TS", "InThread", "Trace", "LockTrace", "Lock", "Object", "Type", "State", "Success",
+          "LockIsThis");
+      f_durationTable = bulk.table("LOCKDURATION", "InThread", "Lock", "Type", "Start", "StartEvent", "StartTrace", "Stop",
+          "StopEvent", "StopTrace", "Duration", "State");
+    } else {
+      f_lockTable = null;
+      f_durationTable = null;
+    }
   }
 
   public void flush(final Timestamp endTime) throws SQLException {
@@ -336,6 +376,9 @@ public final class IntrinsicLockDurationRowInserter {
     flushed = true;
 
     handleNonIdleFinalState(endTime);
+    if (f_lockSets != null) {
+      f_lockSets.seal();
+    }
 
     if (StaticCallLocation.checkSites) {
       TraceNode.refdSites.forEach(new LongProcedure() {
@@ -720,6 +763,10 @@ public final class IntrinsicLockDurationRowInserter {
       final long object, final LockState startEvent, final IntrinsicLockDurationState lockState, final ThreadState lockToState) {
     final IntrinsicLockDurationState oldLockState = state.getLockState();
     lockToState.update(state, id, trace, lockToState.lockTrace, object, time, startEvent, lockState);
+    if (f_lockSets != null && lockState == IntrinsicLockDurationState.HOLDING
+        && oldLockState != IntrinsicLockDurationState.HOLDING) {
+      f_lockSets.acquired(inThread, state.getLock(), time, id);
+    }
     updateThreadStatus(id, time, inThread, oldLockState, lockState);
   }
 
@@ -897,8 +944,36 @@ public final class IntrinsicLockDurationRowInserter {
   void recordStateDuration(final long inThread, final LockId lock, final Timestamp startTime, final long startEvent,
       final LockTrace startTrace, final Timestamp stopTime, final long stopEvent, final LockTrace stopTrace,
       final IntrinsicLockDurationState state) {
+    if (f_lockSets != null && state == IntrinsicLockDurationState.HOLDING) {
+      f_lockSets.released(inThread, lock, stopTime);
+    }
+    final long secs = stopTime.getTime() / 1000 - startTime.getTime() / 1000;
+    final long nanos = stopTime.getNanos() - startTime.getNanos();
     final PreparedStatement f_ps = statements.get(LOCK_DURATION);
     try {
+      if (f_durationTable != null) {
+        f_durationTable.setLong(inThread);
+        f_durationTable.setLong(lock.getId());
+        f_durationTable.setString(lock.getType().getFlag());
+        f_durationTable.setTimestamp(startTime);
+        f_durationTable.setLong(startEvent);
+        if (startTrace == null) {
+          f_durationTable.setNull();
+        } else {
+          f_durationTable.setLong(startTrace.getId());
+        }
+        f_durationTable.setTimestamp(stopTime);
+        f_durationTable.setLong(stopEvent);
+        if (stopTrace == null) {
+          f_durationTable.setNull();
+        } else {
+          f_durationTable.setLong(stopTrace.getId());
+        }
+        f_durationTable.setLong(1000000000 * secs + nanos);
+        f_durationTable.setString(state.toString());
+        f_durationTable.endRow();
+        return;
+      }
       int idx = 1;
       f_ps.setLong(idx++, inThread);
       f_ps.setLong(idx++, lock.getId());
@@ -917,9 +992,6 @@ public final class IntrinsicLockDurationRowInserter {
       } else {
         f_ps.setLong(idx++, stopTrace.getId());
       }
-      final long secs = stopTime.getTime() / 1000 - startTime.getTime() / 1000;
-      final long nanos = stopTime.getNanos() - startTime.getNanos();
-
       f_ps.setLong(idx++, 1000000000 * secs + nanos);
       f_ps.setString(idx++, state.toString());
       if (doInsert) {
@@ -1033,9 +1105,33 @@ public final class IntrinsicLockDurationRowInserter {
     default:
       // Do nothing
     }
+    final long id = finalEvent ? Lock.FINAL_EVENT : ++f_lockId;
+    if (f_lockTable != null) {
+      f_lockTable.setLong(id);
+      f_lockTable.setTimestamp(time);
+      f_lockTable.setLong(inThread);
+      f_lockTable.setLong(trace);
+      if (threadState.lockTrace == null) {
+        f_lockTable.setNull();
+      } else {
+        f_lockTable.setLong(threadState.lockTrace.getId());
+      }
+      f_lockTable.setLong(lock.getId());
+      f_lockTable.setLong(object);
+      f_lockTable.setString(lock.getType().getFlag());
+      f_lockTable.setString(lockState.toString().replace('_', ' '));
+      if (success == null) {
+        f_lockTable.setNull();
+      } else {
+        f_lockTable.setString(success ? "Y" : "N");
+      }
+      f_lockTable.setString(lockIsThis ? "Y" : null);
+      f_lockTable.endRow();
+      return f_lockId;
+    }
     final PreparedStatement ps = statements.get(INSERT_LOCK);
     int idx = 1;
-    ps.setLong(idx++, finalEvent ? Lock.FINAL_EVENT : ++f_lockId);
+    ps.setLong(idx++, id);
     ps.setTimestamp(idx++, time, here);
     ps.setLong(idx++, inThread);
     ps.setLong(idx++, trace);
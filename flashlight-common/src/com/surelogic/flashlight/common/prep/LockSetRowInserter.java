@@ -0,0 +1,896 @@
+package com.surelogic.flashlight.common.prep;
+
+import static com.surelogic._flashlight.common.IdConstants.ILLEGAL_RECEIVER_ID;
+import static com.surelogic.flashlight.common.prep.LockSetRowInserter.Queries.ACCESS_LOCKS_HELD;
+import static com.surelogic.flashlight.common.prep.LockSetRowInserter.Queries.FIELD_LOCK_SET;
+import static com.surelogic.flashlight.common.prep.LockSetRowInserter.Queries.FIELD_INSTANCE_LOCK_SET;
+import static com.surelogic.flashlight.common.prep.LockSetRowInserter.Queries.FIELD_INSTANCE_THREAD;
+import static com.surelogic.flashlight.common.prep.LockSetRowInserter.Queries.FIELD_STATIC_THREAD;
+import static com.surelogic.flashlight.common.prep.LockSetRowInserter.Queries.INDIRECT_ACCESS_LOCKS_HELD;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.LongIntMap;
+import com.carrotsearch.hppc.LongObjectMap;
+import com.carrotsearch.hppc.LongObjectScatterMap;
+import com.carrotsearch.hppc.cursors.LongIntCursor;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
+import com.surelogic.flashlight.common.LockId;
+
+/**
+ * Computes the locks held at each field access, and the lock sets of each
+ * field, while the raw file is prepared, rather than by reading the accesses
+ * and lock durations back out of the database afterwards.
+ * <p>
+ * The {@link IntrinsicLockDurationRowInserter} reports when each thread starts
+ * and stops holding a lock during the one-time pass. They are kept as a
+ * timeline per thread of the set of locks it holds, so an access can look up
+ * its lock set whenever it is prepared, including during the range passes
+ * that follow. Each timeline is kept in chunks. Only a bounded number of full
+ * chunks are kept in memory, the others are written to a spill file and read
+ * back when an access needs them. A lock is held at the times from the event that acquired it to
+ * the event that released it, inclusive, as in the LOCKDURATION table. Static
+ * field accesses are read in the one-time pass too, and are looked up as they
+ * are read, so one at the same time as a later lock event of its thread is
+ * ordered before that event.
+ * <p>
+ * Lock sets are interned, so the timelines, and the lock set of each field and
+ * each field of an object, only hold an index, and intersecting two sets is
+ * done once.
+ * <p>
+ * This inserter also assigns the identifiers of the ACCESS and INDIRECTACCESS
+ * rows, so that their ACCESSLOCKSHELD and INDIRECTACCESSLOCKSHELD rows can be
+ * written as they are prepared.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class LockSetRowInserter {
+
+  enum Queries {
+    ACCESS_LOCKS_HELD("INSERT INTO ACCESSLOCKSHELD (Access,LocksHeld,LastAcquisition) VALUES (?, ?, ?)"),
+
+    INDIRECT_ACCESS_LOCKS_HELD("INSERT INTO INDIRECTACCESSLOCKSHELD (Access,LocksHeld,LastAcquisition) VALUES (?, ?, ?)"),
+
+    FIELD_LOCK_SET("INSERT INTO FIELDLOCKSET (Field,Lock,Type) VALUES (?, ?, ?)"),
+
+    FIELD_INSTANCE_LOCK_SET("INSERT INTO FIELDINSTANCELOCKSET (Field,Receiver,Lock,Type) VALUES (?, ?, ?, ?)"),
+
+    FIELD_STATIC_THREAD("INSERT INTO FIELDSTATICTHREAD (Field,Thread,ReadCount,WriteCount) VALUES (?, ?, ?, ?)"),
+
+    FIELD_INSTANCE_THREAD(
+        "INSERT INTO FIELDINSTANCETHREAD (Field,Receiver,Thread,ReadCount,WriteCount,ReadUCCount,WriteUCCount) VALUES (?, ?, ?, ?, ?, ?, ?)");
+
+    private final String sql;
+
+    Queries(final String sql) {
+      this.sql = sql;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+  }
+
+  static final boolean doInsert = AbstractPrep.doInsert;
+
+  private static final int BATCH = 10000;
+
+  /**
+   * The interned set with no locks.
+   */
+  static final int EMPTY = 0;
+
+  /**
+   * The number of points in a full chunk of a thread's timeline.
+   */
+  static final int CHUNK_SIZE = 8192;
+
+  /**
+   * The most full chunks of the timelines kept in memory, about 20 MB.
+   */
+  static final int RESIDENT_CHUNKS = 128;
+
+  /**
+   * The bytes of a point in the spill file: its time, set, and last
+   * acquisition.
+   */
+  private static final int POINT_BYTES = 20;
+
+  final EnumMap<Queries, PreparedStatement> statements = new EnumMap<>(Queries.class);
+  final EnumMap<Queries, Integer> counts = new EnumMap<>(Queries.class);
+
+  /**
+   * The staging file of the ACCESSLOCKSHELD table, or {@code null} if its rows
+   * are inserted.
+   */
+  private final BulkLoader.Table f_accessLocksHeldTable;
+
+  private long f_accessId;
+  private long f_indirectAccessId;
+
+  /*
+   * Interned locks, and interned sets of them. A set is a sorted array of lock
+   * indices.
+   */
+  private final Map<LockId, Integer> f_lockIndex = new HashMap<>();
+  private final List<LockId> f_locks = new ArrayList<>();
+  private final Map<LockSet, Integer> f_setIndex = new HashMap<>();
+  private final List<int[]> f_sets = new ArrayList<>();
+  private final LongIntMap f_intersections = new LongIntHashMap();
+
+  private final LongObjectMap<ThreadLocks> f_threads = new LongObjectScatterMap<>();
+
+  private final int f_chunkSize;
+  private final int f_residentChunks;
+
+  /**
+   * The full chunks in memory, the least recently loaded first.
+   */
+  private final ArrayDeque<Chunk> f_resident = new ArrayDeque<>();
+
+  /**
+   * The directory the spill file is created in, or {@code null} for the
+   * default temporary directory.
+   */
+  private final File f_spillDir;
+  private File f_spillFile;
+  private RandomAccessFile f_spill;
+  private long f_spillLength;
+  private ByteBuffer f_spillBuffer;
+
+  /**
+   * The first failure to write a chunk to the spill file. Chunks are written
+   * while lock events are reported, which cannot fail, so it is reported by
+   * the next access.
+   */
+  private IOException f_spillFailure;
+
+  /**
+   * The lock set of each static field, over its accesses outside of class
+   * initialization.
+   */
+  private final LongIntMap f_staticFieldSets = new LongIntHashMap();
+
+  /**
+   * The lock set of each instance field, the intersection of the lock sets of
+   * the objects in the windows prepared so far.
+   */
+  private final LongIntMap f_instanceFieldSets = new LongIntHashMap();
+
+  /**
+   * The accesses to each static field by each thread, as read, write counts.
+   */
+  private final LongObjectMap<LongObjectMap<long[]>> f_staticCounts = new LongObjectScatterMap<>();
+
+  /**
+   * The instances accessed in the receiver window being prepared, by field and
+   * then receiver.
+   */
+  private final LongObjectMap<LongObjectMap<Instance>> f_instances = new LongObjectScatterMap<>();
+
+  /**
+   * Constructs an inserter that writes the rows of the ACCESSLOCKSHELD table,
+   * which has a row for every access, to the passed loader if it is non-null.
+   */
+  public LockSetRowInserter(final Connection c, final BulkLoader bulk) throws SQLException {
+    this(c, bulk, null);
+  }
+
+  /**
+   * Constructs an inserter that writes the rows of the ACCESSLOCKSHELD table,
+   * which has a row for every access, to the passed loader if it is non-null.
+   * Timelines that do not fit in memory are spilled to a file in the passed
+   * directory, or in the default temporary directory if it is {@code null}.
+   */
+  public LockSetRowInserter(final Connection c, final BulkLoader bulk, final File spillDir) throws SQLException {
+    this(c, bulk, spillDir, CHUNK_SIZE, RESIDENT_CHUNKS);
+  }
+
+  LockSetRowInserter(final Connection c, final BulkLoader bulk, final File spillDir, final int chunkSize,
+      final int residentChunks) throws SQLException {
+    f_spillDir = spillDir;
+    f_chunkSize = chunkSize;
+    f_residentChunks = residentChunks;
+    for (final Queries q : Queries.values()) {
+      statements.put(q, c.prepareStatement(q.getSql()));
+      counts.put(q, 0);
+    }
+    f_accessLocksHeldTable = bulk == null ? null : bulk.table("ACCESSLOCKSHELD", "Access", "LocksHeld", "LastAcquisition");
+    f_sets.add(new int[0]);
+    f_setIndex.put(new LockSet(f_sets.get(EMPTY)), EMPTY);
+  }
+
+  /*
+   * Lock state, reported by the IntrinsicLockDurationRowInserter
+   */
+
+  /**
+   * Notes that a thread starts to hold a lock.
+   *
+   * @param thread
+   *          the thread.
+   * @param lock
+   *          the lock.
+   * @param time
+   *          the time of the event that acquired the lock.
+   * @param event
+   *          the identifier of the event that acquired the lock.
+   */
+  void acquired(final long thread, final LockId lock, final Timestamp time, final long event) {
+    getThreadLocks(thread).acquired(indexOf(lock), TimestampUtility.toNanos(time), event);
+  }
+
+  /**
+   * Notes that a thread stops holding a lock.
+   *
+   * @param thread
+   *          the thread.
+   * @param lock
+   *          the lock.
+   * @param time
+   *          the time of the event that released the lock, which is the last
+   *          time it is held.
+   */
+  void released(final long thread, final LockId lock, final Timestamp time) {
+    getThreadLocks(thread).released(indexOf(lock), TimestampUtility.toNanos(time) + 1);
+  }
+
+  /**
+   * Notes that no more lock events will be reported.
+   */
+  void seal() {
+    for (final LongObjectCursor<ThreadLocks> c : f_threads) {
+      c.value.advance(Long.MAX_VALUE);
+    }
+  }
+
+  /*
+   * Accesses, reported by the field access handlers
+   */
+
+  /**
+   * Notes an access to a field and writes the locks held at the access.
+   *
+   * @param ts
+   *          the time of the access.
+   * @param thread
+   *          the accessing thread.
+   * @param field
+   *          the field.
+   * @param receiver
+   *          the object, or
+   *          {@link com.surelogic._flashlight.common.IdConstants#ILLEGAL_RECEIVER_ID}
+   *          for a static field.
+   * @param read
+   *          {@code true} for a read, {@code false} for a write.
+   * @param underConstruction
+   *          {@code true} if the object or class is under construction.
+   * @return the identifier of the ACCESS row.
+   */
+  public long access(final Timestamp ts, final long thread, final long field, final long receiver, final boolean read,
+      final boolean underConstruction) throws SQLException {
+    final long id = ++f_accessId;
+    final ThreadLocks locks = f_threads.get(thread);
+    final boolean holds = locks != null && locks.find(TimestampUtility.toNanos(ts));
+    final int set = holds ? locks.f_foundSet : EMPTY;
+    insertLocksHeld(id, set, holds ? locks.f_foundLast : null);
+    if (receiver == ILLEGAL_RECEIVER_ID) {
+      if (!underConstruction) {
+        final int fieldSet = f_staticFieldSets.getOrDefault(field, -1);
+        f_staticFieldSets.put(field, fieldSet < 0 ? set : intersect(fieldSet, set));
+      }
+      LongObjectMap<long[]> threads = f_staticCounts.get(field);
+      if (threads == null) {
+        threads = new LongObjectScatterMap<>();
+        f_staticCounts.put(field, threads);
+      }
+      long[] count = threads.get(thread);
+      if (count == null) {
+        count = new long[2];
+        threads.put(thread, count);
+      }
+      count[read ? 0 : 1]++;
+    } else {
+      LongObjectMap<Instance> receivers = f_instances.get(field);
+      if (receivers == null) {
+        receivers = new LongObjectScatterMap<>();
+        f_instances.put(field, receivers);
+      }
+      Instance instance = receivers.get(receiver);
+      if (instance == null) {
+        instance = new Instance();
+        receivers.put(receiver, instance);
+      }
+      if (!underConstruction) {
+        instance.set = instance.set < 0 ? set : intersect(instance.set, set);
+      }
+      long[] count = instance.threads.get(thread);
+      if (count == null) {
+        count = new long[4];
+        instance.threads.put(thread, count);
+      }
+      count[(underConstruction ? 2 : 0) + (read ? 0 : 1)]++;
+    }
+    return id;
+  }
+
+  /**
+   * Notes an indirect access to an object and writes the locks held at the
+   * access.
+   *
+   * @return the identifier of the INDIRECTACCESS row.
+   */
+  public long indirectAccess(final Timestamp ts, final long thread) throws SQLException {
+    final long id = ++f_indirectAccessId;
+    final ThreadLocks locks = f_threads.get(thread);
+    final boolean holds = locks != null && locks.find(TimestampUtility.toNanos(ts));
+    final PreparedStatement ps = statements.get(INDIRECT_ACCESS_LOCKS_HELD);
+    ps.setLong(1, id);
+    ps.setInt(2, holds ? f_sets.get(locks.f_foundSet).length : 0);
+    if (holds) {
+      ps.setLong(3, locks.f_foundLast);
+    } else {
+      ps.setNull(3, Types.BIGINT);
+    }
+    addBatch(INDIRECT_ACCESS_LOCKS_HELD);
+    return id;
+  }
+
+  private void insertLocksHeld(final long id, final int set, final Long lastAcquisition) throws SQLException {
+    final int held = f_sets.get(set).length;
+    if (f_accessLocksHeldTable != null) {
+      f_accessLocksHeldTable.setLong(id);
+      f_accessLocksHeldTable.setLong(held);
+      if (lastAcquisition == null) {
+        f_accessLocksHeldTable.setNull();
+      } else {
+        f_accessLocksHeldTable.setLong(lastAcquisition);
+      }
+      f_accessLocksHeldTable.endRow();
+      return;
+    }
+    final PreparedStatement ps = statements.get(ACCESS_LOCKS_HELD);
+    ps.setLong(1, id);
+    ps.setInt(2, held);
+    if (lastAcquisition == null) {
+      ps.setNull(3, Types.BIGINT);
+    } else {
+      ps.setLong(3, lastAcquisition);
+    }
+    addBatch(ACCESS_LOCKS_HELD);
+  }
+
+  /**
+   * Writes the lock sets and access counts of the objects accessed in the
+   * receiver window that was just prepared. Every access to them has been
+   * seen, so they are not kept.
+   */
+  public void endWindow() throws SQLException {
+    final PreparedStatement lockSet = statements.get(FIELD_INSTANCE_LOCK_SET);
+    final PreparedStatement thread = statements.get(FIELD_INSTANCE_THREAD);
+    for (final LongObjectCursor<LongObjectMap<Instance>> f : f_instances) {
+      final long field = f.key;
+      int fieldSet = f_instanceFieldSets.getOrDefault(field, -1);
+      for (final LongObjectCursor<Instance> r : f.value) {
+        final long receiver = r.key;
+        final Instance instance = r.value;
+        if (instance.set >= 0) {
+          for (final int lock : f_sets.get(instance.set)) {
+            final LockId id = f_locks.get(lock);
+            lockSet.setLong(1, field);
+            lockSet.setLong(2, receiver);
+            lockSet.setLong(3, id.getId());
+            lockSet.setString(4, id.getType().getFlag());
+            addBatch(FIELD_INSTANCE_LOCK_SET);
+          }
+          fieldSet = fieldSet < 0 ? instance.set : intersect(fieldSet, instance.set);
+        }
+        for (final LongObjectCursor<long[]> t : instance.threads) {
+          final long[] count = t.value;
+          int idx = 1;
+          thread.setLong(idx++, field);
+          thread.setLong(idx++, receiver);
+          thread.setLong(idx++, t.key);
+          for (final long c : count) {
+            thread.setLong(idx++, c);
+          }
+          addBatch(FIELD_INSTANCE_THREAD);
+        }
+      }
+      if (fieldSet >= 0) {
+        f_instanceFieldSets.put(field, fieldSet);
+      }
+    }
+    f_instances.clear();
+  }
+
+  /**
+   * Writes the lock sets of each field and the access counts of the static
+   * fields, and any rows that are still batched.
+   */
+  public void flush() throws SQLException {
+    if (f_spillFailure != null) {
+      throw new SQLException("Unable to write the lock set spill file", f_spillFailure);
+    }
+    endWindow();
+    insertFieldLockSets(f_staticFieldSets);
+    insertFieldLockSets(f_instanceFieldSets);
+    final PreparedStatement ps = statements.get(FIELD_STATIC_THREAD);
+    for (final LongObjectCursor<LongObjectMap<long[]>> f : f_staticCounts) {
+      for (final LongObjectCursor<long[]> t : f.value) {
+        ps.setLong(1, f.key);
+        ps.setLong(2, t.key);
+        ps.setLong(3, t.value[0]);
+        ps.setLong(4, t.value[1]);
+        addBatch(FIELD_STATIC_THREAD);
+      }
+    }
+    for (final Queries q : Queries.values()) {
+      if (counts.get(q) > 0) {
+        statements.get(q).executeBatch();
+        counts.put(q, 0);
+      }
+    }
+  }
+
+  private void insertFieldLockSets(final LongIntMap fieldSets) throws SQLException {
+    final PreparedStatement ps = statements.get(FIELD_LOCK_SET);
+    for (final LongIntCursor f : fieldSets) {
+      for (final int lock : f_sets.get(f.value)) {
+        final LockId id = f_locks.get(lock);
+        ps.setLong(1, f.key);
+        ps.setLong(2, id.getId());
+        ps.setString(3, id.getType().getFlag());
+        addBatch(FIELD_LOCK_SET);
+      }
+    }
+  }
+
+  public void close() throws SQLException {
+    for (final PreparedStatement ps : statements.values()) {
+      ps.close();
+    }
+    statements.clear();
+    counts.clear();
+    f_threads.clear();
+    f_resident.clear();
+    f_staticCounts.clear();
+    f_instances.clear();
+    if (f_spill != null) {
+      try {
+        f_spill.close();
+      } catch (final IOException e) {
+        throw new SQLException("Unable to close the lock set spill file", e);
+      } finally {
+        f_spill = null;
+        f_spillFile.delete();
+      }
+    }
+  }
+
+  /*
+   * Spilling timelines
+   */
+
+  /**
+   * Notes that a full chunk is in memory, writing out the chunks loaded least
+   * recently while there are too many.
+   */
+  private void resident(final Chunk chunk) {
+    f_resident.add(chunk);
+    while (f_resident.size() > f_residentChunks && f_spillFailure == null) {
+      final Chunk oldest = f_resident.peek();
+      if (oldest.offset < 0) {
+        try {
+          write(oldest);
+        } catch (final IOException e) {
+          // Keep the chunks in memory
+          f_spillFailure = e;
+          return;
+        }
+      }
+      f_resident.poll();
+      oldest.times = null;
+      oldest.sets = null;
+      oldest.lasts = null;
+    }
+  }
+
+  private void write(final Chunk chunk) throws IOException {
+    if (f_spill == null) {
+      f_spillFile = File.createTempFile("locksets", ".spill", f_spillDir);
+      f_spill = new RandomAccessFile(f_spillFile, "rw");
+      f_spillBuffer = ByteBuffer.allocate(f_chunkSize * POINT_BYTES);
+    }
+    final ByteBuffer buf = f_spillBuffer;
+    buf.clear();
+    for (int i = 0; i < chunk.size; i++) {
+      buf.putLong(chunk.times[i]);
+      buf.putInt(chunk.sets[i]);
+      buf.putLong(chunk.lasts[i]);
+    }
+    buf.flip();
+    final FileChannel channel = f_spill.getChannel();
+    long pos = f_spillLength;
+    while (buf.hasRemaining()) {
+      pos += channel.write(buf, pos);
+    }
+    chunk.offset = f_spillLength;
+    f_spillLength = pos;
+  }
+
+  /**
+   * Reads a chunk back from the spill file if it is not in memory.
+   */
+  private void load(final Chunk chunk) throws SQLException {
+    if (f_spillFailure != null) {
+      throw new SQLException("Unable to write the lock set spill file", f_spillFailure);
+    }
+    if (chunk.times != null) {
+      return;
+    }
+    final ByteBuffer buf = f_spillBuffer;
+    buf.clear();
+    buf.limit(chunk.size * POINT_BYTES);
+    try {
+      final FileChannel channel = f_spill.getChannel();
+      long pos = chunk.offset;
+      while (buf.hasRemaining()) {
+        final int n = channel.read(buf, pos);
+        if (n < 0) {
+          throw new IOException("Unexpected end of " + f_spillFile);
+        }
+        pos += n;
+      }
+    } catch (final IOException e) {
+      throw new SQLException("Unable to read the lock set spill file", e);
+    }
+    buf.flip();
+    final long[] times = new long[chunk.size];
+    final int[] sets = new int[chunk.size];
+    final long[] lasts = new long[chunk.size];
+    for (int i = 0; i < chunk.size; i++) {
+      times[i] = buf.getLong();
+      sets[i] = buf.getInt();
+      lasts[i] = buf.getLong();
+    }
+    chunk.times = times;
+    chunk.sets = sets;
+    chunk.lasts = lasts;
+    resident(chunk);
+  }
+
+  private void addBatch(final Queries q) throws SQLException {
+    if (!doInsert) {
+      return;
+    }
+    final PreparedStatement ps = statements.get(q);
+    ps.addBatch();
+    final int count = counts.get(q) + 1;
+    if (count == BATCH) {
+      ps.executeBatch();
+      counts.put(q, 0);
+    } else {
+      counts.put(q, count);
+    }
+  }
+
+  /*
+   * Interning
+   */
+
+  private int indexOf(final LockId lock) {
+    Integer index = f_lockIndex.get(lock);
+    if (index == null) {
+      index = f_locks.size();
+      f_locks.add(lock);
+      f_lockIndex.put(lock, index);
+    }
+    return index;
+  }
+
+  private int intern(final int[] locks) {
+    final LockSet key = new LockSet(locks);
+    Integer index = f_setIndex.get(key);
+    if (index == null) {
+      index = f_sets.size();
+      f_sets.add(locks);
+      f_setIndex.put(key, index);
+    }
+    return index;
+  }
+
+  int intersect(final int a, final int b) {
+    if (a == b || a == EMPTY) {
+      return a;
+    }
+    if (b == EMPTY) {
+      return b;
+    }
+    final long key = a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    int result = f_intersections.getOrDefault(key, -1);
+    if (result < 0) {
+      final int[] x = f_sets.get(a);
+      final int[] y = f_sets.get(b);
+      final int[] both = new int[Math.min(x.length, y.length)];
+      int i = 0, j = 0, n = 0;
+      while (i < x.length && j < y.length) {
+        if (x[i] < y[j]) {
+          i++;
+        } else if (x[i] > y[j]) {
+          j++;
+        } else {
+          both[n++] = x[i];
+          i++;
+          j++;
+        }
+      }
+      result = intern(Arrays.copyOf(both, n));
+      f_intersections.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the locks in an interned set, for tests.
+   */
+  List<LockId> getLocks(final int set) {
+    final List<LockId> locks = new ArrayList<>();
+    for (final int lock : f_sets.get(set)) {
+      locks.add(f_locks.get(lock));
+    }
+    return locks;
+  }
+
+  private ThreadLocks getThreadLocks(final long thread) {
+    ThreadLocks locks = f_threads.get(thread);
+    if (locks == null) {
+      locks = new ThreadLocks();
+      f_threads.put(thread, locks);
+    }
+    return locks;
+  }
+
+  /**
+   * The key of an interned lock set.
+   */
+  private static final class LockSet {
+    final int[] locks;
+    final int hash;
+
+    LockSet(final int[] locks) {
+      this.locks = locks;
+      hash = Arrays.hashCode(locks);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof LockSet && Arrays.equals(locks, ((LockSet) obj).locks);
+    }
+  }
+
+  /**
+   * The lock set and access counts of a field of an object.
+   */
+  private static final class Instance {
+    /**
+     * The interned lock set, or -1 if the field has only been accessed while
+     * the object was under construction.
+     */
+    int set = -1;
+    /**
+     * The read, write, read under construction, and write under construction
+     * counts of each thread.
+     */
+    final LongObjectMap<long[]> threads = new LongObjectScatterMap<>();
+  }
+
+  /**
+   * A full chunk of a thread's timeline. Its points are in memory, or in the
+   * spill file at its offset, or both.
+   */
+  private static final class Chunk {
+    final long start;
+    final int size;
+    long[] times;
+    int[] sets;
+    long[] lasts;
+    long offset = -1;
+
+    Chunk(final long[] times, final int[] sets, final long[] lasts, final int size) {
+      start = times[0];
+      this.size = size;
+      this.times = times;
+      this.sets = sets;
+      this.lasts = lasts;
+    }
+  }
+
+  /**
+   * The locks a thread holds over time.
+   */
+  private final class ThreadLocks {
+    /*
+     * The locks held now, with the time and event each was acquired at.
+     */
+    private final List<long[]> f_held = new ArrayList<>();
+    /*
+     * Releases that take effect at a later time than has been seen, as lock
+     * and time pairs, in time order.
+     */
+    private final List<long[]> f_pending = new ArrayList<>();
+
+    /*
+     * The timeline: the full chunks, in time order, then the points being
+     * added. From f_times[i] the thread holds set f_setAt[i], and f_lastAt[i]
+     * is the event that acquired the most recently acquired of them.
+     */
+    private final List<Chunk> f_chunks = new ArrayList<>();
+    private long[] f_times = new long[4];
+    private int[] f_setAt = new int[4];
+    private long[] f_lastAt = new long[4];
+    private int f_size;
+
+    /*
+     * The point found by find(long)
+     */
+    int f_foundSet;
+    long f_foundLast;
+
+    void acquired(final int lock, final long time, final long event) {
+      advance(time);
+      for (int i = 0; i < f_pending.size(); i++) {
+        if (f_pending.get(i)[0] == lock) {
+          // Reacquired before its release took effect
+          f_pending.remove(i);
+          break;
+        }
+      }
+      remove(lock);
+      f_held.add(new long[] { lock, time, event });
+      change(time);
+    }
+
+    void released(final int lock, final long time) {
+      f_pending.add(new long[] { lock, time });
+    }
+
+    /**
+     * Applies the releases that take effect by the passed time.
+     */
+    void advance(final long time) {
+      while (!f_pending.isEmpty() && f_pending.get(0)[1] <= time) {
+        final long[] release = f_pending.remove(0);
+        if (remove((int) release[0])) {
+          change(release[1]);
+        }
+      }
+    }
+
+    private boolean remove(final int lock) {
+      for (int i = 0; i < f_held.size(); i++) {
+        if (f_held.get(i)[0] == lock) {
+          f_held.remove(i);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Adds a point to the timeline for the locks held now.
+     */
+    private void change(final long time) {
+      final int[] locks = new int[f_held.size()];
+      long start = Long.MIN_VALUE;
+      long last = 0;
+      for (int i = 0; i < locks.length; i++) {
+        final long[] held = f_held.get(i);
+        locks[i] = (int) held[0];
+        if (held[1] >= start) {
+          start = held[1];
+          last = held[2];
+        }
+      }
+      Arrays.sort(locks);
+      final int set = intern(locks);
+      if (f_size > 0 && f_times[f_size - 1] >= time) {
+        // At the same time as the last change, which it replaces
+        f_setAt[f_size - 1] = set;
+        f_lastAt[f_size - 1] = last;
+        return;
+      }
+      if (f_size > 0 && f_setAt[f_size - 1] == set && f_lastAt[f_size - 1] == last) {
+        return;
+      }
+      if (f_size == f_chunkSize) {
+        final Chunk full = new Chunk(f_times, f_setAt, f_lastAt, f_size);
+        f_chunks.add(full);
+        resident(full);
+        f_times = new long[f_chunkSize];
+        f_setAt = new int[f_chunkSize];
+        f_lastAt = new long[f_chunkSize];
+        f_size = 0;
+      } else if (f_size == f_times.length) {
+        final int size = Math.min(f_size * 2, f_chunkSize);
+        f_times = Arrays.copyOf(f_times, size);
+        f_setAt = Arrays.copyOf(f_setAt, size);
+        f_lastAt = Arrays.copyOf(f_lastAt, size);
+      }
+      f_times[f_size] = time;
+      f_setAt[f_size] = set;
+      f_lastAt[f_size] = last;
+      f_size++;
+    }
+
+    /**
+     * Finds the timeline point in effect at the passed time, and sets
+     * {@link #f_foundSet} and {@link #f_foundLast} to it.
+     *
+     * @return {@code false} if the thread held no locks at the passed time.
+     */
+    boolean find(final long time) throws SQLException {
+      advance(time);
+      if (f_size > 0 && f_times[0] <= time) {
+        return found(f_times, f_setAt, f_lastAt, f_size, time);
+      }
+      int lo = 0, hi = f_chunks.size() - 1, at = -1;
+      while (lo <= hi) {
+        final int mid = lo + hi >>> 1;
+        if (f_chunks.get(mid).start <= time) {
+          at = mid;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      if (at < 0) {
+        return false;
+      }
+      final Chunk chunk = f_chunks.get(at);
+      load(chunk);
+      return found(chunk.times, chunk.sets, chunk.lasts, chunk.size, time);
+    }
+
+    private boolean found(final long[] times, final int[] sets, final long[] lasts, final int size, final long time) {
+      int lo = 0, hi = size - 1, at = -1;
+      while (lo <= hi) {
+        final int mid = lo + hi >>> 1;
+        if (times[mid] <= time) {
+          at = mid;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      if (at < 0 || sets[at] == EMPTY) {
+        return false;
+      }
+      f_foundSet = sets[at];
+      f_foundLast = lasts[at];
+      return true;
+    }
+  }
+}
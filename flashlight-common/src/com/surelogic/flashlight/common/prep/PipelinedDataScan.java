@@ -0,0 +1,270 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import com.surelogic._flashlight.common.PreppedAttributes;
+import com.surelogic.common.jobs.SLProgressMonitor;
+
+/**
+ * Reads a run's raw data files on the threads of a {@link ForkJoinPool} and
+ * hands their events, in order, to a scan running on the calling thread.
+ * Decompressing and parsing the files is the expensive part of a scan, so
+ * while the calling thread applies events to the database the pool is already
+ * reading ahead, a few files at a time, into bounded queues of event batches.
+ * <p>
+ * Events reach the scan in exactly the order a sequential
+ * {@link AbstractDataScan#scan(File)} of each file would produce, and
+ * {@link AbstractDataScan#endDocument()} is called at the end of each file.
+ */
+public final class PipelinedDataScan {
+
+  /**
+   * The number of events passed from a reader to the scan at one time.
+   */
+  private static final int BATCH_SIZE = 1024;
+
+  /**
+   * The number of batches a reader may get ahead of the scan, per file.
+   */
+  private static final int BATCHES_AHEAD = 16;
+
+  private final ForkJoinPool f_pool;
+  private final List<File> f_dataFiles;
+  private final SLProgressMonitor f_monitor;
+  private final int f_filesAhead;
+
+  /**
+   * Constructs a pipeline over the passed raw data files.
+   *
+   * @param pool
+   *          the pool to read files on.
+   * @param dataFiles
+   *          the raw data files of a run, in order.
+   * @param monitor
+   *          a monitor to check for a user cancel.
+   */
+  public PipelinedDataScan(final ForkJoinPool pool, final List<File> dataFiles, final SLProgressMonitor monitor) {
+    f_pool = pool;
+    f_dataFiles = dataFiles;
+    f_monitor = monitor;
+    /*
+     * Never have more readers outstanding than the pool has threads, so that
+     * the reader of the file being scanned is never stuck behind readers of
+     * later files that are blocked on full queues.
+     */
+    f_filesAhead = Math.max(1, pool.getParallelism());
+  }
+
+  /**
+   * Reports every event in the raw data files to the passed scan.
+   *
+   * @param scan
+   *          the scan to report events to.
+   */
+  public void scan(final AbstractDataScan scan) throws IOException, SAXException, ParserConfigurationException {
+    final Reader[] readers = new Reader[f_dataFiles.size()];
+    try {
+      for (int i = 0; i < readers.length && i < f_filesAhead; i++) {
+        readers[i] = submit(i);
+      }
+      for (int i = 0; i < readers.length; i++) {
+        readers[i].copyTo(scan);
+        readers[i] = null;
+        final int next = i + f_filesAhead;
+        if (next < readers.length) {
+          readers[next] = submit(next);
+        }
+      }
+    } finally {
+      for (final Reader r : readers) {
+        if (r != null) {
+          r.abandon();
+        }
+      }
+    }
+  }
+
+  private Reader submit(final int index) {
+    final Reader r = new Reader(f_dataFiles.get(index), f_monitor);
+    f_pool.execute(r);
+    return r;
+  }
+
+  /**
+   * A group of events read from a file, or the end of the file.
+   */
+  private static final class Batch {
+    final String[] names;
+    final PreppedAttributes[] attrs;
+    int size;
+    boolean last;
+    Throwable failure;
+
+    Batch() {
+      names = new String[BATCH_SIZE];
+      attrs = new PreppedAttributes[BATCH_SIZE];
+    }
+
+    /**
+     * Constructs the last batch of a reader that failed. It allocates as
+     * little as possible, as the failure may be that memory ran out.
+     */
+    Batch(final Throwable failure) {
+      names = null;
+      attrs = null;
+      last = true;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Reads one file into a queue of batches.
+   */
+  private static final class Reader extends AbstractDataScan implements Runnable {
+    private final File f_dataFile;
+    private final BlockingQueue<Batch> f_queue = new ArrayBlockingQueue<>(BATCHES_AHEAD);
+    private volatile boolean f_abandoned;
+    /**
+     * Set once {@link #run()} returns, whether or not it managed to queue its
+     * last batch.
+     */
+    private volatile boolean f_done;
+    private Batch f_batch = new Batch();
+
+    Reader(final File dataFile, final SLProgressMonitor monitor) {
+      super(monitor);
+      f_dataFile = dataFile;
+    }
+
+    @Override
+    public void run() {
+      try {
+        scan(f_dataFile);
+      } catch (final Throwable e) {
+        /*
+         * Errors are passed on too, because copyTo would otherwise wait for
+         * a last batch that never comes.
+         */
+        f_batch = null;
+        if (!f_abandoned) {
+          try {
+            put(new Batch(e));
+          } catch (final Throwable ignore) {
+            // abandoned or canceled while reporting the failure
+          }
+        }
+      } finally {
+        f_done = true;
+      }
+    }
+
+    @Override
+    public void handleEvent(final String name, final PreppedAttributes attrs) throws SAXException {
+      final Batch b = f_batch;
+      b.names[b.size] = name;
+      b.attrs[b.size] = attrs;
+      if (++b.size == BATCH_SIZE) {
+        put(b);
+        f_batch = new Batch();
+      }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+      f_batch.last = true;
+      put(f_batch);
+      f_batch = null;
+    }
+
+    private void put(final Batch b) throws SAXException {
+      try {
+        while (!f_queue.offer(b, 100, TimeUnit.MILLISECONDS)) {
+          if (f_abandoned || f_monitor.isCanceled()) {
+            throw new SAXException("canceled");
+          }
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SAXException("interrupted");
+      }
+    }
+
+    /**
+     * Tells this reader to stop, because no one will take its events.
+     */
+    void abandon() {
+      f_abandoned = true;
+      f_queue.clear();
+    }
+
+    /**
+     * Reports every event in this reader's file to the passed scan, waiting
+     * for them to be read as necessary.
+     */
+    void copyTo(final AbstractDataScan scan) throws IOException, SAXException, ParserConfigurationException {
+      for (;;) {
+        final Batch b = take();
+        for (int i = 0; i < b.size; i++) {
+          scan.handleEvent(b.names[i], b.attrs[i]);
+        }
+        if (b.last) {
+          if (b.failure != null) {
+            rethrow(b.failure);
+          }
+          scan.endDocument();
+          return;
+        }
+      }
+    }
+
+    /**
+     * Waits for the next batch, giving up if the user cancels or if the reader
+     * stopped without queuing its last batch.
+     */
+    private Batch take() throws SAXException {
+      try {
+        for (;;) {
+          final boolean done = f_done;
+          final Batch b = f_queue.poll(100, TimeUnit.MILLISECONDS);
+          if (b != null) {
+            return b;
+          }
+          if (f_monitor.isCanceled()) {
+            throw new SAXException("canceled");
+          }
+          if (done) {
+            throw new SAXException("Stopped reading " + f_dataFile.getName() + " before its end");
+          }
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SAXException("interrupted");
+      }
+    }
+
+    private static void rethrow(final Throwable e) throws IOException, SAXException, ParserConfigurationException {
+      if (e instanceof IOException) {
+        throw (IOException) e;
+      } else if (e instanceof SAXException) {
+        throw (SAXException) e;
+      } else if (e instanceof ParserConfigurationException) {
+        throw (ParserConfigurationException) e;
+      } else if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      } else if (e instanceof Error) {
+        throw (Error) e;
+      }
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -1,6 +1,5 @@
 package com.surelogic.flashlight.common.prep;
 
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import com.carrotsearch.hppc.LongCollection;
@@ -91,16 +90,16 @@ public class ScanRawFileFieldsPreScan extends AbstractDataScan {
 
   @SuppressWarnings("fallthrough")
   @Override
-  public void startElement(final String uri, final String localName, final String name, final Attributes attributes)
-      throws SAXException {
+  public void handleEvent(final String name, final PreppedAttributes attrs) throws SAXException {
     f_elementCount++;
 
     // modified to try and reduce computation overhead)
     if ((f_elementCount & 0x1f) == 0x1f) {
       /*
-       * Show progress to the user
+       * Count progress, which the thread waiting on this scan shows to the
+       * user
        */
-      f_monitor.worked(1);
+      countWork(1);
 
       /*
        * Check for a user cancel.
@@ -112,7 +111,6 @@ public class ScanRawFileFieldsPreScan extends AbstractDataScan {
     if (f_elementCount % 1000000 == 0) {
       logState();
     }
-    final PreppedAttributes attrs = preprocessAttributes(name, attributes);
     final PrepEvent e = PrepEvent.getEvent(name);
     switch (e) {
     case FIELDREAD:
@@ -0,0 +1,280 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.SAXException;
+
+import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.BinaryEventWriter;
+import com.surelogic._flashlight.common.IAttributeType;
+import com.surelogic._flashlight.common.OutputType;
+import com.surelogic._flashlight.common.PreppedAttributes;
+import com.surelogic.common.jobs.SLProgressMonitor;
+
+/**
+ * Splits one raw data file into a binary spill file per receiver window, so
+ * that each window can be prepared by reading only the events that concern
+ * it, rather than by reading every raw data file again.
+ * <p>
+ * An event is written to the spill file of each window that holds one of the
+ * object ids that {@link ScanRawFileFieldsPreScan} or the {@link IRangePrep}
+ * handlers look at for that event; every other event is dropped. Events keep
+ * their order within each spill file. Every event is also reported to a
+ * delegate scan, so a file can be partitioned during another pass over it.
+ */
+public final class ScanRawFilePartitionScan extends AbstractDataScan {
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private final AbstractDataScan f_delegate;
+  private final File f_spillDir;
+  private final String f_prefix;
+  private final long f_windowSize;
+
+  private final List<File> f_files = new ArrayList<>();
+  private final List<BinaryEventWriter> f_writers = new ArrayList<>();
+
+  /**
+   * The distinct windows of the event being partitioned.
+   */
+  private final int[] f_windows = new int[3];
+  private int f_windowCount;
+
+  private long f_spilledCount;
+
+  /**
+   * Constructs a partition scan of one raw data file.
+   *
+   * @param monitor
+   *          the progress monitor.
+   * @param delegate
+   *          a scan that is also reported every event.
+   * @param spillDir
+   *          the directory to write spill files into.
+   * @param prefix
+   *          the prefix of the names of the spill files, unique to the raw
+   *          data file.
+   * @param windowSize
+   *          the number of receivers in each window.
+   */
+  public ScanRawFilePartitionScan(final SLProgressMonitor monitor, final AbstractDataScan delegate, final File spillDir,
+      final String prefix, final long windowSize) {
+    super(monitor);
+    assert delegate != null;
+    f_delegate = delegate;
+    f_spillDir = spillDir;
+    f_prefix = prefix;
+    f_windowSize = windowSize;
+  }
+
+  /**
+   * Gets the spill file for the passed window.
+   *
+   * @param window
+   *          the index of a receiver window.
+   * @return the spill file, or {@code null} if no event in the raw data file
+   *         concerned the window.
+   */
+  public File getPartition(final int window) {
+    return window < f_files.size() ? f_files.get(window) : null;
+  }
+
+  /**
+   * Gets the number of events written to spill files. An event written to
+   * several spill files is counted once for each.
+   *
+   * @return the number of events written to spill files.
+   */
+  public long getSpilledCount() {
+    return f_spilledCount;
+  }
+
+  @SuppressWarnings("fallthrough")
+  @Override
+  public void handleEvent(final String name, final PreppedAttributes attrs) throws SAXException {
+    f_delegate.handleEvent(name, attrs);
+    f_windowCount = 0;
+    final PrepEvent e = PrepEvent.getEvent(name);
+    switch (e) {
+    case FIELDREAD:
+    case FIELDWRITE:
+      addWindow(attrs.getLong(AttributeType.RECEIVER));
+      addWindow(attrs.getThreadId());
+      break;
+    case FIELDASSIGNMENT:
+    case INDIRECTACCESS:
+      addWindow(attrs.getLong(AttributeType.RECEIVER));
+      break;
+    case GARBAGECOLLECTEDOBJECT:
+      addWindow(attrs.getLong(AttributeType.ID));
+      break;
+    case AFTERINTRINSICLOCKACQUISITION:
+    case AFTERINTRINSICLOCKRELEASE:
+    case AFTERINTRINSICLOCKWAIT:
+    case AFTERUTILCONCURRENTLOCKACQUISITIONATTEMPT:
+    case AFTERUTILCONCURRENTLOCKRELEASEATTEMPT:
+    case BEFOREINTRINSICLOCKACQUISITION:
+    case BEFOREINTRINSICLOCKWAIT:
+    case BEFOREUTILCONCURRENTLOCKACQUISITIONATTEMPT:
+      addWindow(attrs.getThreadId());
+      addWindow(attrs.getLockObjectId());
+      break;
+    case READWRITELOCK:
+      addWindow(attrs.getLong(AttributeType.ID));
+      addWindow(attrs.getLong(AttributeType.READ_LOCK_ID));
+      addWindow(attrs.getLong(AttributeType.WRITE_LOCK_ID));
+      break;
+    case OBJECTDEFINITION:
+    case THREADDEFINITION:
+      addWindow(attrs.getLong(AttributeType.ID));
+      // fall through
+    case FIELDDEFINITION:
+      addWindow(attrs.getLong(AttributeType.TYPE));
+      break;
+    case HAPPENSBEFORETHREAD:
+      addWindow(attrs.getLong(AttributeType.TOTHREAD));
+      addWindow(attrs.getLong(AttributeType.THREAD));
+      break;
+    case HAPPENSBEFORECOLLECTION:
+      addWindow(attrs.getLong(AttributeType.COLLECTION));
+      // fall through
+    case HAPPENSBEFOREOBJECT:
+    case HAPPENSBEFOREEXEC:
+      addWindow(attrs.getLong(AttributeType.OBJECT));
+      addWindow(attrs.getLong(AttributeType.THREAD));
+      break;
+    default:
+      break;
+    }
+    try {
+      for (int i = 0; i < f_windowCount; i++) {
+        write(getWriter(f_windows[i]), name, attrs);
+        f_spilledCount++;
+      }
+    } catch (final IOException ex) {
+      throw new SAXException(ex);
+    }
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    f_delegate.endDocument();
+    try {
+      close();
+    } catch (final IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Closes the spill files. This happens at the end of the raw data file, but
+   * must also be done if reading it fails.
+   */
+  public void close() throws IOException {
+    IOException failure = null;
+    for (final BinaryEventWriter w : f_writers) {
+      if (w != null) {
+        try {
+          w.close();
+        } catch (final IOException e) {
+          failure = e;
+        }
+      }
+    }
+    f_writers.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void addWindow(final long id) {
+    if (id < 0) {
+      // ILLEGAL_ID, or not an object
+      return;
+    }
+    final int window = (int) (id / f_windowSize);
+    for (int i = 0; i < f_windowCount; i++) {
+      if (f_windows[i] == window) {
+        return;
+      }
+    }
+    f_windows[f_windowCount++] = window;
+  }
+
+  private BinaryEventWriter getWriter(final int window) throws IOException {
+    while (f_writers.size() <= window) {
+      f_writers.add(null);
+      f_files.add(null);
+    }
+    BinaryEventWriter w = f_writers.get(window);
+    if (w == null) {
+      final File file = new File(f_spillDir, f_prefix + "-" + window + OutputType.FLB.getSuffix());
+      w = new BinaryEventWriter(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), "spill", f_prefix);
+      f_writers.set(window, w);
+      f_files.set(window, file);
+    }
+    return w;
+  }
+
+  /**
+   * Writes an event read from either kind of raw data file. Values read from
+   * XML are strings, so those that are plain integers are written as longs to
+   * keep the spill files small; {@link PreppedAttributes} reads either back.
+   */
+  static void write(final BinaryEventWriter w, final String name, final PreppedAttributes attrs) throws IOException {
+    w.start(name);
+    for (int i = 0; i < attrs.size(); i++) {
+      final IAttributeType type = attrs.keyAt(i);
+      if (attrs.isLongAt(i)) {
+        if (type == AttributeType.TIME) {
+          w.time(type, attrs.longAt(i));
+        } else {
+          w.attr(type, attrs.longAt(i));
+        }
+        continue;
+      }
+      final Object value = attrs.valueAt(i);
+      if (value == null) {
+        continue;
+      }
+      if (value instanceof Boolean) {
+        w.attr(type, ((Boolean) value).booleanValue());
+        continue;
+      }
+      final Long l = asLong(value.toString());
+      if (l == null) {
+        w.attr(type, value.toString());
+      } else if (type == AttributeType.TIME) {
+        w.time(type, l);
+      } else {
+        w.attr(type, l);
+      }
+    }
+    w.end();
+  }
+
+  private static Long asLong(final String s) {
+    final int len = s.length();
+    if (len == 0 || len > 20) {
+      return null;
+    }
+    for (int i = s.charAt(0) == '-' ? 1 : 0; i < len; i++) {
+      final char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return null;
+      }
+    }
+    try {
+      final Long l = Long.valueOf(s);
+      // Only when it reads back as the same string
+      return l.toString().equals(s) ? l : null;
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -2,13 +2,14 @@ package com.surelogic.flashlight.common.prep;
 
 import java.util.logging.Level;
 
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import com.carrotsearch.hppc.LongLongMap;
 import com.carrotsearch.hppc.LongLongScatterMap;
 import com.carrotsearch.hppc.LongScatterSet;
 import com.carrotsearch.hppc.LongSet;
+import com.carrotsearch.hppc.cursors.LongCursor;
+import com.carrotsearch.hppc.cursors.LongLongCursor;
 import com.surelogic._flashlight.common.AttributeType;
 import com.surelogic._flashlight.common.IdConstants;
 import com.surelogic._flashlight.common.PreppedAttributes;
@@ -25,6 +26,22 @@ public final class ScanRawFilePreScan extends AbstractDataScan {
         super(monitor);
     }
 
+    /**
+     * Constructs a scan of one raw data file of a run, to be combined with the
+     * scans of the other files using {@link #merge(ScanRawFilePreScan)}.
+     *
+     * @param monitor
+     *            the progress monitor.
+     * @param firstFile
+     *            {@code true} if this is the first file of the run, which
+     *            begins with the <tt>time</tt> event for the start of the run.
+     */
+    public ScanRawFilePreScan(final SLProgressMonitor monitor,
+            final boolean firstFile) {
+        super(monitor);
+        f_firstTimeEventFound = !firstFile;
+    }
+
     private long f_elementCount = 0;
 
     /**
@@ -114,16 +131,16 @@ public final class ScanRawFilePreScan extends AbstractDataScan {
     }
 
     @Override
-    public void startElement(final String uri, final String localName,
-            final String name, final Attributes attributes) throws SAXException {
+    public void handleEvent(final String name, final PreppedAttributes attrs) throws SAXException {
         f_elementCount++;
 
         // modified to try and reduce computation overhead)
         if ((f_elementCount & 0x1f) == 0x1f) {
             /*
-             * Show progress to the user
+             * Count progress, which the thread waiting on this scan shows to
+             * the user
              */
-            f_monitor.worked(32);
+            countWork(32);
 
             /*
              * Check for a user cancel.
@@ -135,7 +152,6 @@ public final class ScanRawFilePreScan extends AbstractDataScan {
         if (f_elementCount % 1000000 == 0) {
             logState();
         }
-        final PreppedAttributes attrs = preprocessAttributes(name, attributes);
         PrepEvent event = PrepEvent.getEvent(name);
         switch (event) {
         case FIELDREAD:
@@ -232,6 +248,32 @@ public final class ScanRawFilePreScan extends AbstractDataScan {
                         + f_currentStatics.size());
     }
 
+    /**
+     * Adds the results of a scan of the next raw data file of the same run to
+     * this scan. The result is the same as if this scan had gone on to read
+     * that file itself.
+     *
+     * @param later
+     *            a scan of the file following the ones this scan has read.
+     */
+    public void merge(final ScanRawFilePreScan later) {
+        f_elementCount += later.f_elementCount;
+        if (later.f_endTime != -1) {
+            f_endTime = later.f_endTime;
+        }
+        for (final LongCursor c : later.f_synthetics) {
+            f_synthetics.add(c.value);
+        }
+        f_rwLocks.putAll(later.f_rwLocks);
+        for (final LongCursor c : later.f_usedStatics) {
+            f_usedStatics.add(c.value);
+        }
+        for (final LongLongCursor c : later.f_currentStatics) {
+            useField(c.key, c.value);
+        }
+        f_maxReceiverId = Math.max(f_maxReceiverId, later.f_maxReceiverId);
+    }
+
     @Override
     public void endDocument() throws SAXException {
         if (f_endTime == -1) {
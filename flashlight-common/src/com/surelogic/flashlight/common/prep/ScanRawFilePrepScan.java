@@ -6,7 +6,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import com.surelogic._flashlight.common.PreppedAttributes;
@@ -31,8 +30,7 @@ public final class ScanRawFilePrepScan extends AbstractDataScan {
   }
 
   @Override
-  public void startElement(final String uri, final String localName, final String name, final Attributes attributes)
-      throws SAXException {
+  public void handleEvent(final String name, final PreppedAttributes attrs) throws SAXException {
     f_elementCount++;
 
     // modified to try and reduce computation overhead)
@@ -49,7 +47,6 @@ public final class ScanRawFilePrepScan extends AbstractDataScan {
         throw new SAXException("canceled");
       }
     }
-    final PreppedAttributes attrs = preprocessAttributes(name, attributes);
     final IPrep element = f_elementHandlers.get(name);
     if (element != null) {
       try {
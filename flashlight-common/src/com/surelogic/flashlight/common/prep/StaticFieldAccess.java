@@ -21,14 +21,43 @@ public abstract class StaticFieldAccess extends Event {
 
   private static final String f_psQ = "INSERT INTO ACCESS (TS,InThread,Trace,Field,RW,Receiver,UnderConstruction) VALUES (?, ?, ?, ?, ?, ?, ?)";
 
+  private final BulkLoader f_bulk;
+
+  private final LockSetRowInserter f_lockSets;
+
+  private final DeferredStaticAccesses f_deferred;
+
   private PreparedStatement f_ps;
 
+  private BulkLoader.Table f_table;
+
   private ScanRawFilePreScan f_scanResults;
 
   private long skipped, inserted;
 
   public StaticFieldAccess() {
+    this(null, null);
+  }
+
+  /**
+   * Constructs a handler that writes its rows to the passed loader, if it is
+   * non-null, rather than inserting them. Each access is passed to the lock set
+   * inserter, if it is non-null, which assigns its identifier.
+   */
+  public StaticFieldAccess(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    this(bulk, lockSets, null);
+  }
+
+  /**
+   * Constructs a handler as above that also writes the accesses it skips to
+   * the passed deferred accesses, if it is non-null, so they can be replayed
+   * once every static field accessed by more than one thread is known.
+   */
+  public StaticFieldAccess(final BulkLoader bulk, final LockSetRowInserter lockSets, final DeferredStaticAccesses deferred) {
     super();
+    f_bulk = bulk;
+    f_lockSets = lockSets;
+    f_deferred = deferred;
   }
 
   @Override
@@ -44,10 +73,15 @@ public abstract class StaticFieldAccess extends Event {
         SLLogger.getLogger().log(Level.SEVERE, "Missing nano-time, thread, site, or field in " + getXMLElementName());
         return;
       }
-      if (!f_scanResults.isSynthetic(field) && f_scanResults.isThreadedStaticField(field)) {
+      if (f_scanResults.isSynthetic(field)) {
+        skipped++;
+      } else if (f_scanResults.isThreadedStaticField(field)) {
         insert(nanoTime, inThread, trace, field, receiver, underConstruction);
         inserted++;
       } else {
+        if (f_deferred != null) {
+          f_deferred.defer(getXMLElementName(), attributes);
+        }
         skipped++;
       }
     }
@@ -57,8 +91,32 @@ public abstract class StaticFieldAccess extends Event {
 
   private void insert(final long nanoTime, final long inThread, final long trace, final long field, final long receiver,
       final boolean underConstruction) throws SQLException {
+    final Timestamp ts = getTimestamp(nanoTime);
+    final long id = f_lockSets == null ? ILLEGAL_ID : f_lockSets.access(ts, inThread, field, receiver, "R".equals(getRW()),
+        underConstruction);
+    if (f_table != null) {
+      if (id != ILLEGAL_ID) {
+        f_table.setLong(id);
+      }
+      f_table.setTimestamp(ts);
+      f_table.setLong(inThread);
+      f_table.setLong(trace);
+      f_table.setLong(field);
+      f_table.setString(getRW());
+      if (receiver == ILLEGAL_FIELD_ID) {
+        f_table.setNull();
+      } else {
+        f_table.setLong(receiver);
+      }
+      f_table.setString(underConstruction ? "Y" : "N");
+      f_table.endRow();
+      return;
+    }
     int idx = 1;
-    f_ps.setTimestamp(idx++, getTimestamp(nanoTime), now);
+    if (id != ILLEGAL_ID) {
+      f_ps.setLong(idx++, id);
+    }
+    f_ps.setTimestamp(idx++, ts, now);
     f_ps.setLong(idx++, inThread);
     f_ps.setLong(idx++, trace);
     f_ps.setLong(idx++, field);
@@ -82,7 +140,11 @@ public abstract class StaticFieldAccess extends Event {
   public final void setup(final Connection c, final Timestamp start, final long startNS, final ScanRawFilePreScan scanResults)
       throws SQLException {
     super.setup(c, start, startNS, scanResults);
-    f_ps = c.prepareStatement(f_psQ);
+    if (f_bulk != null) {
+      f_table = f_bulk.table("ACCESS", f_lockSets == null ? FieldAccess.ACCESS_COLUMNS : FieldAccess.ACCESS_ID_COLUMNS);
+    } else {
+      f_ps = c.prepareStatement(f_lockSets == null ? f_psQ : FieldAccess.f_psIdQ);
+    }
     f_scanResults = scanResults;
   }
 
@@ -95,11 +157,13 @@ public abstract class StaticFieldAccess extends Event {
 
   @Override
   public void flush(final long endTime) throws SQLException {
-    if (count > 0) {
-      f_ps.executeBatch();
-      count = 0;
+    if (f_ps != null) {
+      if (count > 0) {
+        f_ps.executeBatch();
+        count = 0;
+      }
+      f_ps.close();
     }
-    f_ps.close();
     super.flush(endTime);
   }
 
@@ -2,6 +2,18 @@ package com.surelogic.flashlight.common.prep;
 
 public class StaticFieldRead extends StaticFieldAccess {
 
+  public StaticFieldRead() {
+    super();
+  }
+
+  public StaticFieldRead(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    super(bulk, lockSets);
+  }
+
+  public StaticFieldRead(final BulkLoader bulk, final LockSetRowInserter lockSets, final DeferredStaticAccesses deferred) {
+    super(bulk, lockSets, deferred);
+  }
+
   @Override
   public String getXMLElementName() {
     return "field-read";
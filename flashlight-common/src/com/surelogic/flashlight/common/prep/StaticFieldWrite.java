@@ -2,6 +2,18 @@ package com.surelogic.flashlight.common.prep;
 
 public class StaticFieldWrite extends StaticFieldAccess {
 
+  public StaticFieldWrite() {
+    super();
+  }
+
+  public StaticFieldWrite(final BulkLoader bulk, final LockSetRowInserter lockSets) {
+    super(bulk, lockSets);
+  }
+
+  public StaticFieldWrite(final BulkLoader bulk, final LockSetRowInserter lockSets, final DeferredStaticAccesses deferred) {
+    super(bulk, lockSets, deferred);
+  }
+
   @Override
   public String getXMLElementName() {
     return "field-write";
@@ -0,0 +1,40 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.sql.Timestamp;
+
+/**
+ * Converts between the time stamps of the prepared tables and nanoseconds since
+ * the epoch, which compare and subtract as plain longs.
+ */
+public final class TimestampUtility {
+
+  /**
+   * Converts a time stamp to nanoseconds since the epoch.
+   */
+  public static long toNanos(final Timestamp ts) {
+    long seconds = ts.getTime() / 1000;
+    if (ts.getTime() % 1000 < 0) {
+      seconds--;
+    }
+    return seconds * 1000000000L + ts.getNanos();
+  }
+
+  /**
+   * Converts nanoseconds since the epoch to a time stamp.
+   */
+  public static Timestamp toTimestamp(final long nanos) {
+    long seconds = nanos / 1000000000L;
+    int rest = (int) (nanos % 1000000000L);
+    if (rest < 0) {
+      seconds--;
+      rest += 1000000000;
+    }
+    final Timestamp ts = new Timestamp(seconds * 1000);
+    ts.setNanos(rest);
+    return ts;
+  }
+
+  private TimestampUtility() {
+    // no instances
+  }
+}
@@ -0,0 +1,13 @@
+-- ----------------------------------------------
+-- The prep assigns the ids of ACCESS and INDIRECTACCESS rows, so that it can
+-- write their lock sets as it goes. Derby cannot change an identity column
+-- from GENERATED ALWAYS, so the (still empty) tables are created again.
+-- ----------------------------------------------
+DROP TABLE "FLASHLIGHT"."ACCESS"
+<<>>
+CREATE TABLE "FLASHLIGHT"."ACCESS" ("ID" BIGINT NOT NULL GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1), "TS" TIMESTAMP NOT NULL, "INTHREAD" BIGINT NOT NULL, "TRACE" BIGINT NOT NULL, "FIELD" BIGINT NOT NULL, "RW" CHAR(1) NOT NULL, "RECEIVER" BIGINT, "UNDERCONSTRUCTION" CHAR(1) NOT NULL)
+<<>>
+DROP TABLE "FLASHLIGHT"."INDIRECTACCESS"
+<<>>
+CREATE TABLE "FLASHLIGHT"."INDIRECTACCESS" ("ID" BIGINT NOT NULL GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1), "TS" TIMESTAMP NOT NULL, "INTHREAD" BIGINT NOT NULL, "TRACE" BIGINT NOT NULL, "RECEIVER" BIGINT NOT NULL)
+<<>>
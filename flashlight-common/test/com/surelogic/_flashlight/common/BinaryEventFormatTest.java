@@ -0,0 +1,75 @@
+package com.surelogic._flashlight.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.SAXException;
+
+public class BinaryEventFormatTest extends TestCase {
+
+  private static class Collector implements BinaryEventReader.Handler {
+    final List<String> names = new ArrayList<String>();
+    final List<PreppedAttributes> attrs = new ArrayList<PreppedAttributes>();
+    boolean ended;
+
+    @Override
+    public void handleEvent(final String name, final PreppedAttributes attributes) throws SAXException {
+      names.add(name);
+      attrs.add(attributes);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+      ended = true;
+    }
+  }
+
+  public void testRoundTrip() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final BinaryEventWriter w = new BinaryEventWriter(bytes, "1.0", "run é中");
+    w.start("field-read");
+    w.time(AttributeType.TIME, 123456789012L);
+    w.attr(AttributeType.THREAD, 5);
+    w.attr(AttributeType.RECEIVER, IdConstants.ILLEGAL_RECEIVER_ID);
+    w.attr(FlagType.UNDER_CONSTRUCTION, true);
+    w.end();
+    w.start("after-util-concurrent-lock-acquisition-attempt");
+    w.time(AttributeType.TIME, 123456700000L);
+    w.attr(FlagType.GOT_LOCK, false);
+    w.end();
+    w.close();
+
+    final Collector c = new Collector();
+    BinaryEventReader.read(new ByteArrayInputStream(bytes.toByteArray()), c);
+    assertTrue(c.ended);
+    assertEquals(3, c.names.size());
+    assertEquals("flashlight", c.names.get(0));
+    assertEquals("run é中", c.attrs.get(0).getString(AttributeType.RUN));
+    assertEquals("1.0", c.attrs.get(0).getString(AttributeType.VERSION));
+
+    final PreppedAttributes read = c.attrs.get(1);
+    assertEquals("field-read", c.names.get(1));
+    assertEquals(123456789012L, read.getEventTime());
+    assertEquals(5, read.getThreadId());
+    assertEquals(5, read.getInt(AttributeType.THREAD));
+    assertEquals(IdConstants.ILLEGAL_RECEIVER_ID, read.getLong(AttributeType.RECEIVER));
+    assertTrue(read.getBoolean(FlagType.UNDER_CONSTRUCTION));
+
+    final PreppedAttributes lock = c.attrs.get(2);
+    assertEquals(123456700000L, lock.getEventTime());
+    assertFalse(lock.getBoolean(FlagType.GOT_LOCK));
+  }
+
+  public void testNotBinary() throws Exception {
+    try {
+      BinaryEventReader.read(new ByteArrayInputStream("<?xml".getBytes("UTF-8")), new Collector());
+      fail();
+    } catch (final java.io.IOException expected) {
+      // expected
+    }
+  }
+}
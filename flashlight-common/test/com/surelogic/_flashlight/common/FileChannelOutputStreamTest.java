@@ -0,0 +1,96 @@
+package com.surelogic._flashlight.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class FileChannelOutputStreamTest extends TestCase {
+
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("channel", ".flb");
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  private static byte[] data(final int size) {
+    final byte[] b = new byte[size];
+    new Random(42).nextBytes(b);
+    return b;
+  }
+
+  private byte[] readFile() throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buf = new byte[65536];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        out.write(buf, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testAcrossRegions() throws IOException {
+    final byte[] expected = data(2 * FileChannelOutputStream.REGION_SIZE + 12345);
+    final FileChannelOutputStream out = new FileChannelOutputStream(file);
+    // Single bytes across the first region boundary, then arrays across the
+    // second
+    final int bytes = FileChannelOutputStream.REGION_SIZE + 10;
+    out.write(expected, 0, FileChannelOutputStream.REGION_SIZE - 10);
+    for (int i = FileChannelOutputStream.REGION_SIZE - 10; i < bytes; i++) {
+      out.write(expected[i]);
+    }
+    for (int i = bytes; i < expected.length; i += 100000) {
+      out.write(expected, i, Math.min(100000, expected.length - i));
+    }
+    out.close();
+    assertEquals(expected.length, file.length());
+    assertTrue(Arrays.equals(expected, readFile()));
+  }
+
+  public void testReplacesAndForces() throws IOException {
+    final FileOutputStream old = new FileOutputStream(file);
+    old.write(data(1000));
+    old.close();
+    final FileChannelOutputStream out = new FileChannelOutputStream(file, true);
+    out.write(new byte[] { 1, 2, 3 });
+    out.flush();
+    out.close();
+    out.close();
+    assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, readFile()));
+  }
+
+  public void testWithoutMapping() throws IOException {
+    final byte[] expected = data(3 * FileChannelOutputStream.BUFFER_SIZE + 123);
+    final FileChannelOutputStream out = new FileChannelOutputStream(file, true, false);
+    out.write(expected, 0, 100);
+    for (int i = 100; i < FileChannelOutputStream.BUFFER_SIZE + 10; i++) {
+      out.write(expected[i]);
+    }
+    out.write(expected, FileChannelOutputStream.BUFFER_SIZE + 10, expected.length - FileChannelOutputStream.BUFFER_SIZE - 10);
+    out.close();
+    assertEquals(expected.length, file.length());
+    assertTrue(Arrays.equals(expected, readFile()));
+  }
+
+  public void testEmpty() throws IOException {
+    new FileChannelOutputStream(file).close();
+    assertEquals(0, file.length());
+  }
+}
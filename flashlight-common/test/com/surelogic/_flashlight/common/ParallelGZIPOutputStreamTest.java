@@ -0,0 +1,88 @@
+package com.surelogic._flashlight.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelGZIPOutputStreamTest extends TestCase {
+
+  private ExecutorService pool;
+
+  @Override
+  protected void setUp() {
+    pool = Executors.newFixedThreadPool(3);
+  }
+
+  @Override
+  protected void tearDown() {
+    pool.shutdown();
+  }
+
+  private static byte[] data(final int size) {
+    // Compressible, but not trivially so
+    final Random r = new Random(42);
+    final byte[] b = new byte[size];
+    for (int i = 0; i < size; i++) {
+      b[i] = (byte) ('a' + r.nextInt(8));
+    }
+    return b;
+  }
+
+  private static byte[] readAll(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buf = new byte[8192];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      out.write(buf, 0, n);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  public void testRoundTrip() throws IOException {
+    final byte[] expected = data(5 * ParallelGZIPOutputStream.BLOCK_SIZE + 1234);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, pool, 3);
+    out.write(expected, 0, 1000);
+    out.write(expected[1000]);
+    out.flush();
+    out.write(expected, 1001, expected.length - 1001);
+    out.close();
+    assertTrue(bytes.size() < expected.length / 2);
+    final byte[] actual = readAll(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertTrue(Arrays.equals(expected, actual));
+  }
+
+  public void testEmpty() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ParallelGZIPOutputStream(bytes, pool, 3).close();
+    assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()))).length);
+  }
+
+  public void testFastReadAsFlbGz() throws IOException {
+    final byte[] expected = data(3 * ParallelGZIPOutputStream.BLOCK_SIZE);
+    final File file = File.createTempFile("parallel", OutputType.FLB_GZ_FAST.getSuffix());
+    try {
+      final ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(new FileOutputStream(file), pool, 3,
+          OutputType.FLB_GZ_FAST.getCompressionLevel());
+      out.write(expected);
+      out.close();
+      assertEquals(OutputType.FLB_GZ, OutputType.detectFileType(file));
+      assertEquals(Deflater.BEST_SPEED, OutputType.FLB_GZ_FAST.getCompressionLevel());
+      assertTrue(Arrays.equals(expected, readAll(OutputType.getInputStreamFor(file))));
+    } finally {
+      file.delete();
+    }
+  }
+}
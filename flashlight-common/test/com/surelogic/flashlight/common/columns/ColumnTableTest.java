@@ -0,0 +1,153 @@
+package com.surelogic.flashlight.common.columns;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.carrotsearch.hppc.LongLongHashMap;
+import com.carrotsearch.hppc.LongLongMap;
+import com.surelogic.flashlight.common.prep.TimestampUtility;
+
+public class ColumnTableTest {
+
+    private static final String[] COLUMNS = { "Field", "Receiver", "TS",
+            "InThread" };
+    private static final int ROWS = 100000;
+
+    private static long[][] rows() {
+        final Random r = new Random(7);
+        final long[][] rows = new long[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new long[] { r.nextInt(50),
+                    r.nextInt(10) == 0 ? ColumnTable.NULL : r.nextInt(1000),
+                    1400000000000000000L + r.nextInt(Integer.MAX_VALUE),
+                    r.nextInt(8) };
+        }
+        return rows;
+    }
+
+    private static ColumnTable write(final File file, final long[][] rows,
+            final int runRows) throws IOException {
+        final ColumnTableWriter w = new ColumnTableWriter(file, COLUMNS, 3,
+                runRows);
+        for (final long[] row : rows) {
+            for (int c = 0; c < row.length; c++) {
+                w.set(c, row[c]);
+            }
+            w.endRow();
+        }
+        w.close();
+        return ColumnTable.open(file);
+    }
+
+    @Test
+    public void testSortedAcrossMergePasses() throws IOException {
+        final long[][] rows = rows();
+        final File file = File.createTempFile("columns", ".col");
+        // 100 runs, more than are merged at once
+        final ColumnTable t = write(file, rows, ROWS / 100);
+        try {
+            Assert.assertEquals(ROWS, t.getRowCount());
+            Assert.assertEquals(3, t.getKeyColumnCount());
+            Assert.assertEquals(ROWS / ColumnTable.BLOCK_ROWS + 1,
+                    t.getBlockCount());
+            Assert.assertEquals(0, file.getParentFile().listFiles(
+                    new java.io.FilenameFilter() {
+                        @Override
+                        public boolean accept(final File dir, final String name) {
+                            return name.startsWith(file.getName() + ".run");
+                        }
+                    }).length);
+            long expectedSum = 0;
+            for (final long[] row : rows) {
+                expectedSum += row[0] * 31 + row[3];
+            }
+            final ColumnTable.Cursor c = t.scan(t.filter());
+            long[] previous = null;
+            long sum = 0;
+            int count = 0;
+            while (c.next()) {
+                final long[] row = { c.get(0), c.get(1), c.get(2), c.get(3) };
+                if (previous != null) {
+                    Assert.assertTrue(compare(previous, row) <= 0);
+                }
+                previous = row;
+                sum += row[0] * 31 + row[3];
+                count++;
+            }
+            Assert.assertEquals(ROWS, count);
+            Assert.assertEquals(expectedSum, sum);
+        } finally {
+            t.close();
+            file.delete();
+        }
+    }
+
+    private static int compare(final long[] a, final long[] b) {
+        for (int c = 0; c < 3; c++) {
+            if (a[c] != b[c]) {
+                return a[c] < b[c] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void testFiltersAndAggregates() throws IOException {
+        final long[][] rows = rows();
+        final File file = File.createTempFile("columns", ".col");
+        final ColumnTable t = write(file, rows, ROWS);
+        try {
+            final long tsMin = 1400000000000000000L + Integer.MAX_VALUE / 4;
+            final long tsMax = 1400000000000000000L + Integer.MAX_VALUE / 2;
+            long count = 0, sum = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            final LongLongMap byThread = new LongLongHashMap();
+            long fieldCount = 0;
+            for (final long[] row : rows) {
+                if (row[0] == 17) {
+                    fieldCount++;
+                }
+                if (row[0] >= 10 && row[0] <= 20 && row[2] >= tsMin
+                        && row[2] <= tsMax) {
+                    count++;
+                    sum += row[3];
+                    min = Math.min(min, row[2]);
+                    max = Math.max(max, row[2]);
+                    byThread.addTo(row[3], 1);
+                }
+            }
+            final ColumnFilter f = t.filter().range(0, 10, 20)
+                    .range(2, tsMin, tsMax);
+            Assert.assertEquals(count, t.count(f));
+            Assert.assertEquals(sum, t.sum(3, f));
+            Assert.assertEquals(min, t.min(2, f));
+            Assert.assertEquals(max, t.max(2, f));
+            Assert.assertEquals(byThread, t.countBy(f, 3));
+            Assert.assertEquals(fieldCount, t.count(t.filter().equal(0, 17)));
+            Assert.assertEquals(fieldCount, t.countBy(t.filter(), 0).get(17));
+            Assert.assertEquals(0, t.count(t.filter().equal(0, 50)));
+            Assert.assertEquals(ColumnTable.NULL,
+                    t.min(2, t.filter().equal(0, 50)));
+        } finally {
+            t.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTimestampConversion() {
+        final Timestamp ts = new Timestamp(1400000000123L);
+        ts.setNanos(123456789);
+        Assert.assertEquals(ts, TimestampUtility.toTimestamp(TimestampUtility
+                .toNanos(ts)));
+        final Timestamp early = new Timestamp(-1500L);
+        early.setNanos(500000001);
+        Assert.assertEquals(early, TimestampUtility
+                .toTimestamp(TimestampUtility.toNanos(early)));
+    }
+}
@@ -0,0 +1,114 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.BinaryEventWriter;
+import com.surelogic.common.jobs.NullSLProgressMonitor;
+
+public class DeferredStaticAccessesTest {
+
+    private static void access(final BinaryEventWriter w, final String name,
+            final long time, final long thread, final long field)
+            throws Exception {
+        w.start(name);
+        w.time(AttributeType.TIME, time);
+        w.attr(AttributeType.THREAD, thread);
+        w.attr(AttributeType.TRACE, 1);
+        w.attr(AttributeType.FIELD, field);
+        w.end();
+    }
+
+    private static void checkpoint(final BinaryEventWriter w, final long time)
+            throws Exception {
+        w.start("checkpoint");
+        w.time(AttributeType.TIME, time);
+        w.end();
+    }
+
+    /**
+     * The accesses recorded, as field and thread pairs.
+     */
+    private static List<String> accesses(
+            final LockSetRowInserterTest.Recorder recorder) {
+        final List<String> accesses = new ArrayList<String>();
+        final List<Object[]> rows = recorder.rows.get("ACCESS");
+        if (rows != null) {
+            for (final Object[] row : rows) {
+                accesses.add(row[3] + "@" + row[1]);
+            }
+        }
+        return accesses;
+    }
+
+    @Test
+    public void testReplayOnceThreaded() throws Exception {
+        final File dir = File.createTempFile("deferred", "");
+        Assert.assertTrue(dir.delete() && dir.mkdir());
+        try {
+            final File first = new File(dir, "0.flb");
+            BinaryEventWriter w = new BinaryEventWriter(new FileOutputStream(
+                    first), "1.0", "test");
+            access(w, "field-read", 100, 1, 1);
+            access(w, "field-read", 200, 1, 2);
+            access(w, "field-write", 300, 1, 1);
+            checkpoint(w, 350);
+            w.close();
+            final File second = new File(dir, "1.flb");
+            w = new BinaryEventWriter(new FileOutputStream(second), "1.0",
+                    "test");
+            access(w, "field-read", 400, 2, 1);
+            access(w, "field-read", 500, 1, 2);
+            checkpoint(w, 550);
+            w.close();
+
+            final NullSLProgressMonitor monitor = new NullSLProgressMonitor();
+            final ScanRawFilePreScan scanResults = new ScanRawFilePreScan(
+                    monitor);
+            final DeferredStaticAccesses deferred = new DeferredStaticAccesses(
+                    dir);
+            final LockSetRowInserterTest.Recorder reads = new LockSetRowInserterTest.Recorder();
+            final LockSetRowInserterTest.Recorder writes = new LockSetRowInserterTest.Recorder();
+            final StaticFieldRead read = new StaticFieldRead(null, null,
+                    deferred);
+            final StaticFieldWrite write = new StaticFieldWrite(null, null,
+                    deferred);
+            read.setup(reads.connection(), new Timestamp(0), 0, scanResults);
+            write.setup(writes.connection(), new Timestamp(0), 0,
+                    scanResults);
+            final IPrep[] handlers = new IPrep[] { read, write };
+
+            // Each checkpoint is pre-scanned just before it is prepared
+            final File[] checkpoints = new File[] { first, second };
+            for (int f = 0; f < checkpoints.length; f++) {
+                final ScanRawFilePreScan fileScan = new ScanRawFilePreScan(
+                        monitor, f == 0);
+                fileScan.scan(checkpoints[f]);
+                scanResults.merge(fileScan);
+                new ScanRawFilePrepScan(reads.connection(), monitor, handlers)
+                        .scan(checkpoints[f]);
+            }
+            // Field 1 was only seen accessed by thread 1 in the first
+            Assert.assertEquals("[1@2]", accesses(reads).toString());
+            Assert.assertTrue(accesses(writes).isEmpty());
+            Assert.assertEquals(4, deferred.getCount());
+
+            deferred.replay(reads.connection(), monitor, handlers);
+            Assert.assertEquals("[1@2, 1@1]", accesses(reads).toString());
+            Assert.assertEquals("[1@1]", accesses(writes).toString());
+        } finally {
+            for (final File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
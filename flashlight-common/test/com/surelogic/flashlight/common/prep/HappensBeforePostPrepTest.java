@@ -0,0 +1,339 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.carrotsearch.hppc.LongScatterSet;
+import com.carrotsearch.hppc.LongSet;
+
+public class HappensBeforePostPrepTest {
+
+    private static final long BASE = 1400000000000L;
+    private static final int RECEIVERS = 3;
+    private static final int FIELDS = 4;
+    private static final int THREADS = 3;
+
+    /**
+     * One row of the ACCESS table.
+     */
+    static class Access {
+        final long id;
+        final Long receiver;
+        final long field;
+        final long thread;
+        final Timestamp ts;
+        final boolean read;
+
+        Access(final long id, final Long receiver, final long field,
+                final long thread, final Timestamp ts, final boolean read) {
+            this.id = id;
+            this.receiver = receiver;
+            this.field = field;
+            this.thread = thread;
+            this.ts = ts;
+            this.read = read;
+        }
+    }
+
+    /**
+     * Edges that depend only on their arguments, so the checks see the same
+     * answers however often they ask.
+     */
+    static final HappensBeforePostPrep.Edges EDGES = new HappensBeforePostPrep.Edges() {
+        @Override
+        public boolean hasHappensBefore(final Timestamp write,
+                final long writeThread, final Timestamp read,
+                final long readThread) {
+            return write == null
+                    || (write.getTime() + writeThread + readThread) % 7 != 0;
+        }
+
+        @Override
+        public boolean isFieldLock(final long field, final long receiver) {
+            return (field * 31 + receiver) % 5 == 0;
+        }
+    };
+
+    @Test
+    public void testMatchesQueries() throws SQLException {
+        int blocks = 0;
+        for (long seed = 0; seed < 20; seed++) {
+            blocks += check(accesses(new Random(seed)), new Random(seed));
+        }
+        Assert.assertTrue(blocks > 100);
+    }
+
+    /**
+     * Generates long runs of accesses by one thread to a few objects and static
+     * fields, with accesses by other threads now and then and many accesses at
+     * the same time.
+     */
+    static List<Access> accesses(final Random random) {
+        final List<Access> accesses = new ArrayList<Access>();
+        long time = 0;
+        long runThread = 1;
+        for (int id = 0; id < 4000; id++) {
+            if (random.nextInt(300) == 0) {
+                runThread = 1 + random.nextInt(THREADS);
+            }
+            final long thread = random.nextInt(20) == 0 ? 1 + random
+                    .nextInt(THREADS) : runThread;
+            if (random.nextInt(3) == 0) {
+                time++;
+            }
+            final Long receiver = random.nextInt(8) == 0 ? null : Long
+                    .valueOf(1 + random.nextInt(RECEIVERS));
+            final long field = 1 + random.nextInt(FIELDS);
+            accesses.add(new Access(id, receiver, field, thread,
+                    new Timestamp(BASE + time), random.nextInt(3) != 0));
+        }
+        return accesses;
+    }
+
+    /**
+     * Checks the accesses as the scan over ACCESS does, and compares the rows
+     * it inserts with those the queries for each field inserted.
+     *
+     * @return the number of blocks measured.
+     */
+    static int check(final List<Access> accesses, final Random random)
+            throws SQLException {
+        final HappensBeforePostPrep.FieldPairs pairs = new HappensBeforePostPrep.FieldPairs();
+        final List<long[]> selected = new ArrayList<long[]>();
+        final LongSet statics = new LongScatterSet();
+        for (long field = 1; field <= FIELDS; field++) {
+            if (random.nextInt(4) != 0) {
+                statics.add(field);
+            }
+            for (long receiver = RECEIVERS; receiver >= 1; receiver--) {
+                if (random.nextInt(4) != 0) {
+                    pairs.add(receiver, field);
+                    selected.add(new long[] { receiver, field });
+                }
+            }
+        }
+        pairs.sort();
+
+        final LockSetRowInserterTest.Recorder recorder = new LockSetRowInserterTest.Recorder();
+        final HappensBeforePostPrep.Inserter inserter = new HappensBeforePostPrep.Inserter(
+                recorder.connection());
+        final HappensBeforePostPrep.StaticAccesses staticAccesses = new HappensBeforePostPrep.StaticAccesses(
+                statics, EDGES, inserter);
+        for (final Access a : sorted(accesses, true)) {
+            if (a.receiver == null) {
+                staticAccesses.add(a.field, a.thread, a.ts, a.read);
+            }
+        }
+        staticAccesses.finish();
+        final HappensBeforePostPrep.InstanceAccesses instanceAccesses = new HappensBeforePostPrep.InstanceAccesses(
+                pairs, EDGES, inserter);
+        for (final Access a : sorted(accesses, false)) {
+            if (a.receiver != null) {
+                instanceAccesses.add(a.receiver, a.field, a.thread, a.ts,
+                        a.read);
+            }
+        }
+        instanceAccesses.finish();
+        inserter.flush();
+
+        final Map<String, List<String>> expected = new HashMap<String, List<String>>();
+        for (final long field : statics.toArray()) {
+            if (!check(select(accesses, null, field))) {
+                add(expected, "BADHAPPENSBEFORE", field, null);
+            }
+        }
+        for (final long[] pair : selected) {
+            final List<Access> fieldAccesses = select(accesses, pair[0],
+                    pair[1]);
+            if (!check(fieldAccesses)) {
+                add(expected, "BADHAPPENSBEFORE", pair[1], pair[0]);
+            }
+            blockStats(expected, accesses, pair[0], pair[1], fieldAccesses);
+        }
+        for (final String table : new String[] { "BADHAPPENSBEFORE",
+                "BLOCKSTATS", "FIELDBLOCKSTATS" }) {
+            final List<String> rows = new ArrayList<String>();
+            for (final Object[] row : recorder.rows.get(table)) {
+                rows.add(Arrays.asList(row).toString());
+            }
+            Collections.sort(rows);
+            List<String> wanted = expected.get(table);
+            if (wanted == null) {
+                wanted = new ArrayList<String>();
+            }
+            Collections.sort(wanted);
+            Assert.assertEquals(table, wanted, rows);
+        }
+        return recorder.rows.get("BLOCKSTATS").size();
+    }
+
+    static void add(final Map<String, List<String>> rows, final String table,
+            final Object... row) {
+        List<String> tableRows = rows.get(table);
+        if (tableRows == null) {
+            tableRows = new ArrayList<String>();
+            rows.put(table, tableRows);
+        }
+        tableRows.add(Arrays.asList(row).toString());
+    }
+
+    /**
+     * Orders accesses as the queries over ACCESS do, by field for static
+     * fields or by receiver for objects, then by time and id.
+     */
+    static List<Access> sorted(final List<Access> accesses,
+            final boolean byField) {
+        final List<Access> sorted = new ArrayList<Access>(accesses);
+        Collections.sort(sorted, new Comparator<Access>() {
+            @Override
+            public int compare(final Access a, final Access b) {
+                if (byField && a.field != b.field) {
+                    return a.field < b.field ? -1 : 1;
+                }
+                final long ra = a.receiver == null ? 0 : a.receiver;
+                final long rb = b.receiver == null ? 0 : b.receiver;
+                if (!byField && ra != rb) {
+                    return ra < rb ? -1 : 1;
+                }
+                final int byTime = a.ts.compareTo(b.ts);
+                if (byTime != 0) {
+                    return byTime;
+                }
+                return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * The accesses to one field, in time order, as the query for the accesses
+     * to a field selected them.
+     */
+    static List<Access> select(final List<Access> accesses,
+            final Long receiver, final long field) {
+        final List<Access> selected = new ArrayList<Access>();
+        for (final Access a : sorted(accesses, false)) {
+            if (a.field == field
+                    && (receiver == null ? a.receiver == null
+                            : receiver.equals(a.receiver))) {
+                selected.add(a);
+            }
+        }
+        return selected;
+    }
+
+    static boolean check(final List<Access> accesses) throws SQLException {
+        Timestamp lastWrite = null;
+        long curThread = -1;
+        long lastWriteThread = -1;
+        for (final Access a : accesses) {
+            if (!a.read) {
+                lastWrite = a.ts;
+                lastWriteThread = a.thread;
+            } else if (a.thread != curThread) {
+                curThread = a.thread;
+                if (!EDGES.hasHappensBefore(lastWrite, lastWriteThread, a.ts,
+                        a.thread)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Measures the blocks of accesses to a field as the queries did: each
+     * block but the last, once another thread accesses the field, against all
+     * the accesses to the object from its first access to its last.
+     */
+    static void blockStats(final Map<String, List<String>> rows,
+            final List<Access> all, final long receiver, final long field,
+            final List<Access> accesses) {
+        Timestamp begin = null, end = null;
+        int reads = 0, writes = 0;
+        long lastThread = -1;
+        for (final Access a : accesses) {
+            if (a.thread != lastThread) {
+                if (reads + writes > 20) {
+                    handleBlock(rows, all, receiver, field, lastThread, begin,
+                            end, reads, writes);
+                }
+                lastThread = a.thread;
+                begin = end = a.ts;
+                reads = 0;
+                writes = 0;
+            } else {
+                end = a.ts;
+            }
+            if (a.read) {
+                reads++;
+            } else {
+                writes++;
+            }
+        }
+    }
+
+    static void handleBlock(final Map<String, List<String>> rows,
+            final List<Access> all, final long receiver, final long field,
+            final long thread, final Timestamp begin, final Timestamp end,
+            final int reads, final int writes) {
+        final Map<Long, long[]> fields = new LinkedHashMap<Long, long[]>();
+        boolean inThread = true;
+        int interleavings = 0;
+        for (final Access a : sorted(all, false)) {
+            if (a.receiver == null || a.receiver.longValue() != receiver
+                    || a.ts.before(begin) || a.ts.after(end)) {
+                continue;
+            }
+            if (a.thread != thread && inThread) {
+                interleavings++;
+            }
+            if (inThread) {
+                inThread = a.thread == thread;
+            } else {
+                inThread = a.thread == thread && a.field == field;
+            }
+            if (a.field != field) {
+                // interleavings, and 1 when in the thread
+                long[] in = fields.get(a.field);
+                if (in == null) {
+                    in = new long[] { 0, 1 };
+                    fields.put(a.field, in);
+                }
+                if (a.thread != thread && in[1] == 1) {
+                    in[0]++;
+                }
+                in[1] = inThread ? 1 : 0;
+            } else {
+                for (final long[] in : fields.values()) {
+                    in[1] = inThread ? 1 : 0;
+                }
+            }
+        }
+        if (!EDGES.isFieldLock(field, receiver)) {
+            add(rows, "BLOCKSTATS", receiver, field, thread, begin, end,
+                    reads, writes, (double) interleavings * 100
+                            / (reads + writes));
+            for (final Map.Entry<Long, long[]> in : fields.entrySet()) {
+                if (!EDGES.isFieldLock(in.getKey(), receiver)) {
+                    add(rows, "FIELDBLOCKSTATS", receiver, field, in.getKey(),
+                            thread, begin, end, reads, writes,
+                            (double) in.getValue()[0] * 100 / (reads + writes));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.surelogic.flashlight.common.prep;
+
+import static com.surelogic._flashlight.common.IdConstants.ILLEGAL_RECEIVER_ID;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.surelogic.flashlight.common.LockId;
+import com.surelogic.flashlight.common.LockType;
+
+public class LockSetRowInserterTest {
+
+    private static final int THREADS = 4;
+    private static final int LOCKS = 5;
+    private static final long BASE = 1400000000000000000L;
+
+    /**
+     * Records the rows batched into each table.
+     */
+    static class Recorder implements InvocationHandler {
+        final Map<String, List<Object[]>> rows = new HashMap<String, List<Object[]>>();
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(), new Class<?>[] { Connection.class },
+                    this);
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) {
+            final String sql = (String) args[0];
+            final String table = sql.split(" ")[2];
+            final List<Object[]> tableRows = new ArrayList<Object[]>();
+            rows.put(table, tableRows);
+            final Object[] row = new Object[sql.split("\\?").length - 1];
+            return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(final Object p, final Method m,
+                                final Object[] a) {
+                            final String name = m.getName();
+                            if (name.equals("setNull")) {
+                                row[(Integer) a[0] - 1] = null;
+                            } else if (name.startsWith("set")) {
+                                row[(Integer) a[0] - 1] = a[1];
+                            } else if (name.equals("addBatch")) {
+                                tableRows.add(row.clone());
+                            } else if (name.equals("executeBatch")) {
+                                return new int[0];
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * A time a thread holds a lock.
+     */
+    static class Hold {
+        final int lock;
+        final long start, startEvent;
+        long stop = Long.MAX_VALUE;
+
+        Hold(final int lock, final long start, final long startEvent) {
+            this.lock = lock;
+            this.start = start;
+            this.startEvent = startEvent;
+        }
+    }
+
+    static Timestamp ts(final long nanos) {
+        return TimestampUtility.toTimestamp(nanos);
+    }
+
+    static LockId lock(final int lock) {
+        return new LockId(100 + lock, LockType.INTRINSIC);
+    }
+
+    /**
+     * The locks a thread holds at a time, by brute force.
+     */
+    static Set<Integer> held(final List<Hold> holds, final long time) {
+        final Set<Integer> locks = new HashSet<Integer>();
+        for (final Hold h : holds) {
+            if (h.start <= time && time <= h.stop) {
+                locks.add(h.lock);
+            }
+        }
+        return locks;
+    }
+
+    static Long lastAcquisition(final List<Hold> holds, final long time) {
+        Hold last = null;
+        for (final Hold h : holds) {
+            if (h.start <= time && time <= h.stop
+                    && (last == null || h.start >= last.start)) {
+                last = h;
+            }
+        }
+        return last == null ? null : last.startEvent;
+    }
+
+    @Test
+    public void testLocksHeldAndLockSets() throws SQLException {
+        final Recorder recorder = new Recorder();
+        checkLocksHeldAndLockSets(recorder, new LockSetRowInserter(
+                recorder.connection(), null));
+    }
+
+    @Test
+    public void testSpilledTimelines() throws SQLException {
+        final Recorder recorder = new Recorder();
+        // Tiny chunks, so that most of each timeline is read back from disk
+        final LockSetRowInserter lockSets = new LockSetRowInserter(
+                recorder.connection(), null, null, 4, 2);
+        checkLocksHeldAndLockSets(recorder, lockSets);
+        lockSets.close();
+    }
+
+    private static void checkLocksHeldAndLockSets(final Recorder recorder,
+            final LockSetRowInserter lockSets) throws SQLException {
+        final Random r = new Random(11);
+        final List<List<Hold>> holds = new ArrayList<List<Hold>>();
+        final long[] now = new long[THREADS];
+        final boolean[] accessed = new boolean[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            holds.add(new ArrayList<Hold>());
+            now[t] = BASE;
+        }
+        // Accesses, as thread, time, receiver, under construction
+        final List<long[]> staticAccesses = new ArrayList<long[]>();
+        final List<long[]> instanceAccesses = new ArrayList<long[]>();
+        long event = 0;
+        for (int i = 0; i < 20000; i++) {
+            final int t = r.nextInt(THREADS);
+            /*
+             * Some events happen at the same time as the lock event before.
+             * A static access is looked up when it is read, so it does not
+             * hold a lock acquired later at the same time.
+             */
+            now[t] += (accessed[t] ? 1 : 0) + r.nextInt(3);
+            final List<Hold> threadHolds = holds.get(t);
+            final Hold open = open(threadHolds, r.nextInt(LOCKS));
+            final int choice = r.nextInt(4);
+            accessed[t] = choice != 0;
+            if (choice == 0) {
+                if (open == null) {
+                    final int lock = r.nextInt(LOCKS);
+                    if (open(threadHolds, lock) == null) {
+                        threadHolds.add(new Hold(lock, now[t], ++event));
+                        lockSets.acquired(t, lock(lock), ts(now[t]), event);
+                    }
+                } else {
+                    open.stop = now[t];
+                    lockSets.released(t, lock(open.lock), ts(now[t]));
+                }
+            } else if (choice == 1) {
+                final long[] a = { t, now[t], ILLEGAL_RECEIVER_ID,
+                        r.nextInt(20) == 0 ? 1 : 0 };
+                staticAccesses.add(a);
+                Assert.assertEquals(staticAccesses.size(), lockSets.access(
+                        ts(a[1]), t, 1, ILLEGAL_RECEIVER_ID, r.nextBoolean(),
+                        a[3] == 1));
+            } else {
+                instanceAccesses.add(new long[] { t, now[t], r.nextInt(3),
+                        r.nextInt(20) == 0 ? 1 : 0 });
+            }
+        }
+        lockSets.seal();
+        // The range pass sees the instance accesses in any order
+        Collections.shuffle(instanceAccesses, r);
+        for (final long[] a : instanceAccesses) {
+            lockSets.access(ts(a[1]), a[0], 2, a[2], true, a[3] == 1);
+        }
+        lockSets.flush();
+
+        final List<long[]> all = new ArrayList<long[]>(staticAccesses);
+        all.addAll(instanceAccesses);
+        final List<Object[]> locksHeld = recorder.rows.get("ACCESSLOCKSHELD");
+        Assert.assertEquals(all.size(), locksHeld.size());
+        final Set<Integer> staticSet = allLocks();
+        final Map<Long, Set<Integer>> instanceSets = new HashMap<Long, Set<Integer>>();
+        for (int i = 0; i < all.size(); i++) {
+            final long[] a = all.get(i);
+            final List<Hold> threadHolds = holds.get((int) a[0]);
+            final Set<Integer> held = held(threadHolds, a[1]);
+            final Object[] row = locksHeld.get(i);
+            Assert.assertEquals(i + 1L, row[0]);
+            Assert.assertEquals(held.size(), row[1]);
+            Assert.assertEquals(lastAcquisition(threadHolds, a[1]), row[2]);
+            if (a[3] == 1) {
+                continue;
+            }
+            if (a[2] == ILLEGAL_RECEIVER_ID) {
+                staticSet.retainAll(held);
+            } else if (instanceSets.containsKey(a[2])) {
+                instanceSets.get(a[2]).retainAll(held);
+            } else {
+                instanceSets.put(a[2], new HashSet<Integer>(held));
+            }
+        }
+        final Set<Integer> instanceFieldSet = allLocks();
+        for (final Set<Integer> s : instanceSets.values()) {
+            instanceFieldSet.retainAll(s);
+        }
+        final Map<Long, Set<Integer>> fieldSets = new HashMap<Long, Set<Integer>>();
+        fieldSets.put(1L, new HashSet<Integer>());
+        fieldSets.put(2L, new HashSet<Integer>());
+        for (final Object[] row : recorder.rows.get("FIELDLOCKSET")) {
+            fieldSets.get(row[0]).add((int) ((Long) row[1] - 100));
+        }
+        Assert.assertEquals(staticSet, fieldSets.get(1L));
+        Assert.assertEquals(instanceFieldSet, fieldSets.get(2L));
+        long instanceCount = 0;
+        for (final Object[] row : recorder.rows.get("FIELDINSTANCETHREAD")) {
+            for (int c = 3; c < 7; c++) {
+                instanceCount += (Long) row[c];
+            }
+        }
+        Assert.assertEquals(instanceAccesses.size(), instanceCount);
+    }
+
+    private static Hold open(final List<Hold> holds, final int lock) {
+        for (final Hold h : holds) {
+            if (h.lock == lock && h.stop == Long.MAX_VALUE) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    private static Set<Integer> allLocks() {
+        final Set<Integer> locks = new HashSet<Integer>();
+        for (int l = 0; l < LOCKS; l++) {
+            locks.add(l);
+        }
+        return locks;
+    }
+
+    @Test
+    public void testReacquiredWhenReleased() throws SQLException {
+        final Recorder recorder = new Recorder();
+        final LockSetRowInserter lockSets = new LockSetRowInserter(
+                recorder.connection(), null);
+        lockSets.acquired(1, lock(0), ts(BASE), 1);
+        lockSets.acquired(1, lock(1), ts(BASE + 10), 2);
+        lockSets.released(1, lock(0), ts(BASE + 20));
+        lockSets.acquired(1, lock(0), ts(BASE + 20), 3);
+        lockSets.released(1, lock(1), ts(BASE + 30));
+        lockSets.seal();
+        final long[] times = { BASE - 1, BASE + 15, BASE + 20, BASE + 30,
+                BASE + 31 };
+        for (final long time : times) {
+            lockSets.access(ts(time), 1, 1, ILLEGAL_RECEIVER_ID, true, false);
+        }
+        lockSets.flush();
+        final List<Object[]> rows = recorder.rows.get("ACCESSLOCKSHELD");
+        final Object[][] expected = { { 1L, 0, null }, { 2L, 2, 2L },
+                { 3L, 2, 3L }, { 4L, 2, 3L }, { 5L, 1, 3L } };
+        Assert.assertEquals(expected.length, rows.size());
+        for (int i = 0; i < expected.length; i++) {
+            for (int c = 0; c < 3; c++) {
+                Assert.assertEquals(expected[i][c], rows.get(i)[c]);
+            }
+        }
+        // The first access held no locks
+        Assert.assertTrue(recorder.rows.get("FIELDLOCKSET").isEmpty());
+        Assert.assertEquals(LockSetRowInserter.EMPTY,
+                lockSets.intersect(LockSetRowInserter.EMPTY, 1));
+    }
+}
@@ -0,0 +1,124 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.BinaryEventFormat;
+import com.surelogic._flashlight.common.BinaryEventWriter;
+import com.surelogic._flashlight.common.PreppedAttributes;
+import com.surelogic.common.jobs.NullSLProgressMonitor;
+
+public class PipelinedDataScanTest {
+
+    private static final int FILES = 5;
+    private static final int EVENTS_PER_FILE = 3000;
+
+    static class Recorder extends AbstractDataScan {
+        final List<Long> times = new ArrayList<Long>();
+        int documents;
+
+        Recorder() {
+            super(new NullSLProgressMonitor());
+        }
+
+        @Override
+        public void handleEvent(final String name,
+                final PreppedAttributes attrs) throws SAXException {
+            if ("checkpoint".equals(name)) {
+                times.add(attrs.getEventTime());
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            documents++;
+        }
+    }
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        final File dir = File.createTempFile("pipeline", "");
+        Assert.assertTrue(dir.delete() && dir.mkdir());
+        final List<File> files = new ArrayList<File>();
+        try {
+            long time = 0;
+            for (int f = 0; f < FILES; f++) {
+                final File file = new File(dir, "checkpoint" + f + ".flb");
+                files.add(file);
+                final BinaryEventWriter w = new BinaryEventWriter(
+                        new FileOutputStream(file), "1.0", "test");
+                for (int i = 0; i < EVENTS_PER_FILE; i++) {
+                    w.start("checkpoint");
+                    w.time(AttributeType.TIME, ++time);
+                    w.end();
+                }
+                w.close();
+            }
+
+            final Recorder sequential = new Recorder();
+            for (final File file : files) {
+                sequential.scan(file);
+            }
+            final Recorder pipelined = new Recorder();
+            final ForkJoinPool pool = new ForkJoinPool(2);
+            try {
+                new PipelinedDataScan(pool, files,
+                        new NullSLProgressMonitor()).scan(pipelined);
+            } finally {
+                pool.shutdown();
+            }
+
+            Assert.assertEquals(FILES * EVENTS_PER_FILE,
+                    sequential.times.size());
+            Assert.assertEquals(sequential.times, pipelined.times);
+            Assert.assertEquals(FILES, pipelined.documents);
+        } finally {
+            for (final File file : files) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * An error in a reader must reach the scan rather than leave it waiting.
+     */
+    @Test(timeout = 10000)
+    public void testReaderErrorIsReported() throws Exception {
+        final File file = File.createTempFile("pipeline", ".flb");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(BinaryEventFormat.MAGIC);
+                // An event claiming a payload too large to allocate
+                out.write(new byte[] { 0, (byte) 0xFF, (byte) 0xFF,
+                        (byte) 0xFF, (byte) 0xFF, 0x07 });
+            } finally {
+                out.close();
+            }
+            final List<File> files = new ArrayList<File>();
+            files.add(file);
+            final ForkJoinPool pool = new ForkJoinPool(2);
+            try {
+                new PipelinedDataScan(pool, files,
+                        new NullSLProgressMonitor()).scan(new Recorder());
+                Assert.fail();
+            } catch (final OutOfMemoryError expected) {
+                // expected
+            } finally {
+                pool.shutdown();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
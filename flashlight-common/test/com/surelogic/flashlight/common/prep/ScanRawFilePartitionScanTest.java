@@ -0,0 +1,92 @@
+package com.surelogic.flashlight.common.prep;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.BinaryEventWriter;
+import com.surelogic._flashlight.common.PreppedAttributes;
+import com.surelogic.common.jobs.NullSLProgressMonitor;
+
+public class ScanRawFilePartitionScanTest {
+
+    private static final long WINDOW_SIZE = 10;
+
+    static class Recorder extends AbstractDataScan {
+        final List<String> events = new ArrayList<String>();
+
+        Recorder() {
+            super(new NullSLProgressMonitor());
+        }
+
+        @Override
+        public void handleEvent(final String name,
+                final PreppedAttributes attrs) throws SAXException {
+            events.add(name + " " + attrs.getEventTime() + " "
+                    + attrs.getLong(AttributeType.RECEIVER));
+        }
+    }
+
+    private static void fieldRead(final BinaryEventWriter w, final long time,
+            final long thread, final long receiver) throws Exception {
+        w.start("field-read");
+        w.time(AttributeType.TIME, time);
+        w.attr(AttributeType.THREAD, thread);
+        w.attr(AttributeType.FIELD, 1);
+        w.attr(AttributeType.RECEIVER, receiver);
+        w.end();
+    }
+
+    @Test
+    public void testPartitionByWindow() throws Exception {
+        final File dir = File.createTempFile("partition", "");
+        Assert.assertTrue(dir.delete() && dir.mkdir());
+        final File file = new File(dir, "raw.flb");
+        try {
+            final BinaryEventWriter w = new BinaryEventWriter(
+                    new FileOutputStream(file), "1.0", "test");
+            fieldRead(w, 100, 5, 25);
+            fieldRead(w, 200, 5, 7);
+            w.start("checkpoint");
+            w.time(AttributeType.TIME, 300);
+            w.end();
+            fieldRead(w, 400, 5, 28);
+            w.close();
+
+            final Recorder all = new Recorder();
+            final ScanRawFilePartitionScan partition = new ScanRawFilePartitionScan(
+                    new NullSLProgressMonitor(), all, dir, "0", WINDOW_SIZE);
+            partition.scan(file);
+
+            // Every file begins with the flashlight event
+            Assert.assertEquals(5, all.events.size());
+            // Thread 5 is in window 0, so every read is also spilled there
+            Assert.assertEquals(5, partition.getSpilledCount());
+            Assert.assertNull(partition.getPartition(1));
+            Assert.assertNull(partition.getPartition(3));
+
+            final Recorder first = new Recorder();
+            first.scan(partition.getPartition(0));
+            Assert.assertEquals(4, first.events.size());
+            Assert.assertEquals("field-read 200 7", first.events.get(2));
+
+            final Recorder third = new Recorder();
+            third.scan(partition.getPartition(2));
+            Assert.assertEquals(3, third.events.size());
+            Assert.assertEquals("field-read 100 25", third.events.get(1));
+            Assert.assertEquals("field-read 400 28", third.events.get(2));
+        } finally {
+            for (final File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.surelogic._flashlight;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers, for the happens-before entry points of the {@link Store}, whether
+ * the class of the object at a call site is assignable to the type the
+ * rewriter could not resolve. Each site remembers the last class it saw and the
+ * answer for it, so a site that keeps seeing the same class compares one
+ * reference instead of loading the type by name and walking the class
+ * hierarchy.
+ * <p>
+ * Hits and misses are counted in a few padded stripes, chosen by thread, so
+ * that busy sites on different threads do not contend on one counter. A hit
+ * may be lost when two threads share a stripe; the counts are only displayed.
+ */
+final class AssignabilityCache {
+
+  /**
+   * The answer for the last class seen at a site. Replaced, never changed.
+   */
+  static final class Entry {
+    /**
+     * Weak so that the classes can still be unloaded.
+     */
+    final WeakReference<Class<?>> f_type;
+    final WeakReference<Class<?>> f_class;
+    final boolean f_assignable;
+
+    Entry(final Class<?> type, final Class<?> c, final boolean assignable) {
+      f_type = new WeakReference<Class<?>>(type);
+      f_class = new WeakReference<Class<?>>(c);
+      f_assignable = assignable;
+    }
+  }
+
+  private static final int STRIPES = 16;
+  /**
+   * Longs between the stripes, so that each is on its own cache line.
+   */
+  private static final int PAD = 8;
+
+  private final SiteTable<Entry> f_sites = new SiteTable<Entry>();
+  private final AtomicLongArray f_hits = new AtomicLongArray(STRIPES * PAD);
+  private final AtomicLongArray f_misses = new AtomicLongArray(STRIPES * PAD);
+
+  /**
+   * Checks if a class is assignable to a type.
+   *
+   * @param siteId
+   *          the call site.
+   * @param typeName
+   *          the fully qualified name of the type, which does not change for a
+   *          site.
+   * @param c
+   *          the class of the object at the site.
+   * @return <code>true</code> if <tt>c</tt> is assignable to the type.
+   * @throws ClassNotFoundException
+   *           if the type cannot be loaded.
+   */
+  boolean isAssignable(final long siteId, final String typeName, final Class<?> c) throws ClassNotFoundException {
+    final int stripe = (int) (Thread.currentThread().getId() % STRIPES) * PAD;
+    final Entry known = f_sites.get(siteId);
+    if (known != null && known.f_class.get() == c) {
+      f_hits.lazySet(stripe, f_hits.get(stripe) + 1);
+      return known.f_assignable;
+    }
+    f_misses.incrementAndGet(stripe);
+    Class<?> type = known == null ? null : known.f_type.get();
+    if (type == null) {
+      type = Class.forName(typeName);
+    }
+    final boolean assignable = type.isAssignableFrom(c);
+    f_sites.put(siteId, new Entry(type, c, assignable));
+    return assignable;
+  }
+
+  /**
+   * Describes how often the cache answered a check.
+   */
+  String getStatistics() {
+    long hits = 0;
+    long misses = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      hits += f_hits.get(i * PAD);
+      misses += f_misses.get(i * PAD);
+    }
+    return String.format("happens-before type checks: %d hit(s) : %d miss(es)", hits, misses);
+  }
+}
@@ -1,10 +1,11 @@
 package com.surelogic._flashlight;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import com.surelogic._flashlight.common.FsyncPolicy;
 import com.surelogic._flashlight.common.InstrumentationConstants;
 import com.surelogic._flashlight.common.OutputType;
 import com.surelogic._flashlight.trace.TraceNode;
@@ -14,14 +15,19 @@ public class CheckpointingOutputStreamStrategy extends EventVisitor {
   private final RunConf f_conf;
   private final OutputType f_outputType;
   private final EventVisitor.Factory f_factory;
+  private final boolean f_fsync;
+  private final DepositoryWriter f_writer;
 
   private int f_count;
   private EventVisitor f_out;
 
-  CheckpointingOutputStreamStrategy(final RunConf conf, final EventVisitor.Factory factory, final OutputType type) {
+  CheckpointingOutputStreamStrategy(final RunConf conf, final EventVisitor.Factory factory, final OutputType type,
+      final DepositoryWriter writer) {
     f_factory = factory;
+    f_writer = writer;
     f_conf = conf;
     f_outputType = type;
+    f_fsync = StoreConfiguration.getFsyncPolicy() == FsyncPolicy.CHECKPOINT;
     try {
       f_out = f_factory.create(f_conf, nextStream());
     } catch (IOException e) {
@@ -30,16 +36,28 @@ public class CheckpointingOutputStreamStrategy extends EventVisitor {
   }
 
   private OutputStream nextStream() throws IOException {
-    return EventVisitor.createStream(new File(StoreConfiguration.getDirectory(),
-        String.format("%s.%06d", InstrumentationConstants.FL_CHECKPOINT_PREFIX, f_count)), f_outputType);
+    return f_writer.open(EventVisitor.createStream(new File(StoreConfiguration.getDirectory(),
+        String.format("%s.%06d", InstrumentationConstants.FL_CHECKPOINT_PREFIX, f_count)), f_outputType, f_fsync));
   }
 
+  /**
+   * Marks the checkpoint file just closed as complete. With
+   * {@link FsyncPolicy#CHECKPOINT} the checkpoint file has already been forced
+   * to the storage device, and so is the marker, so a marker is never found
+   * without its data after a crash.
+   */
   private void checkpointStream(long nanos) throws IOException {
     f_out = null;
-    FileWriter w = new FileWriter(new File(StoreConfiguration.getDirectory(),
+    FileOutputStream w = new FileOutputStream(new File(StoreConfiguration.getDirectory(),
         String.format("%s.%06d%s", InstrumentationConstants.FL_CHECKPOINT_PREFIX, f_count++, OutputType.COMPLETE.getSuffix())));
-    w.write(nanos - f_conf.getStartNanoTime() + " ns\n");
-    w.close();
+    try {
+      w.write((nanos - f_conf.getStartNanoTime() + " ns\n").getBytes());
+      if (f_fsync) {
+        w.getFD().sync();
+      }
+    } finally {
+      w.close();
+    }
   }
 
   @Override
@@ -124,6 +142,11 @@ public class CheckpointingOutputStreamStrategy extends EventVisitor {
     f_out.visit(e);
   }
 
+  @Override
+  void visit(final FieldAccessSlab e) {
+    f_out.visit(e);
+  }
+
   @Override
   void visit(final FinalEvent e) {
     f_out.visit(e);
@@ -1,11 +1,14 @@
 package com.surelogic._flashlight;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 /**
  * Takes events from the out queue and persists them according to an output
- * strategy.
+ * strategy. This thread only serializes events; the output strategy's streams
+ * are written by a {@link DepositoryWriter}, which is handed what has been
+ * serialized at the end of each batch of events.
  */
 final class Depository extends Thread {
 
@@ -15,12 +18,17 @@ final class Depository extends Thread {
 
   private volatile EventVisitor f_outputStrategy;
 
-  Depository(final RunConf conf, final BlockingQueue<List<Event>> outQueue, final EventVisitor outputStrategy) {
+  private final DepositoryWriter f_writer;
+
+  Depository(final RunConf conf, final BlockingQueue<List<Event>> outQueue, final EventVisitor outputStrategy,
+      final DepositoryWriter writer) {
     super("flashlight-depository");
     assert outQueue != null;
     f_outQueue = outQueue;
     assert outputStrategy != null;
     f_outputStrategy = outputStrategy;
+    assert writer != null;
+    f_writer = writer;
     this.conf = conf;
   }
 
@@ -44,15 +52,33 @@ final class Depository extends Thread {
             f_finished = true;
           }
           e.accept(f_outputStrategy);
-          f_outputCount++;
+          if (e instanceof FieldAccessSlab) {
+            final FieldAccessSlab slab = (FieldAccessSlab) e;
+            f_outputCount += slab.size();
+            slab.release();
+          } else {
+            f_outputCount++;
+          }
         }
         buf.clear();
+        if (f_outQueue.isEmpty()) {
+          f_writer.endBatch();
+        }
       } catch (final InterruptedException e) {
         conf.logAProblem("depository was interrupted...a bug");
+      } catch (final IOException e) {
+        conf.logAProblem("depository output failed", e);
       }
     }
     f_outputStrategy.flush();
-    conf.log("depository flushed (" + f_outputCount + " events(s) output)");
+    try {
+      f_writer.endBatch();
+    } catch (final IOException e) {
+      conf.logAProblem("depository output failed", e);
+    }
+    f_writer.finish();
+    conf.log("depository flushed (" + f_outputCount + " events(s) output, " + f_writer.getBytesWritten()
+        + " byte(s) written, waited for a buffer " + f_writer.getBufferWaits() + " time(s))");
 
     if (StoreConfiguration.debugOn()) {
       f_outputStrategy.printStats();
@@ -0,0 +1,349 @@
+package com.surelogic._flashlight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Performs the file and socket output of the {@link Depository}, so that the
+ * depository thread only has to serialize events. The output strategies write
+ * to streams opened by {@link #open(OutputStream)}, which copy what they are
+ * given into pooled buffers. Full buffers are handed to this thread, which
+ * writes them, in the order they were handed off, to the stream underneath
+ * (compressing them on the way) and then returns them to the pool.
+ * <p>
+ * The pool is the only bound on how far serialization can get ahead of
+ * output: when every buffer is waiting to be written the depository waits for
+ * one to be returned.
+ */
+class DepositoryWriter extends Thread {
+
+  /**
+   * The size of each pooled buffer.
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final BlockingQueue<byte[]> f_free;
+
+  private final BlockingQueue<Chunk> f_work = new LinkedBlockingQueue<Chunk>();
+
+  /**
+   * The streams that are open, so their partly filled buffers can be handed
+   * off at the end of a batch. Guarded by itself, as a stream may be opened by
+   * a thread other than the depository.
+   */
+  private final List<PipelinedStream> f_open = new ArrayList<PipelinedStream>();
+
+  private long f_bytesWritten = 0;
+
+  private long f_bufferWaits = 0;
+
+  /**
+   * Constructs a writer.
+   *
+   * @param poolSize
+   *          the number of buffers in the pool.
+   */
+  DepositoryWriter(final int poolSize) {
+    super("flashlight-depository-writer");
+    final int size = Math.max(poolSize, 2);
+    f_free = new ArrayBlockingQueue<byte[]>(size);
+    for (int i = 0; i < size; i++) {
+      f_free.add(new byte[BUFFER_SIZE]);
+    }
+  }
+
+  /**
+   * Opens a stream that writes to the passed stream on this thread. Only one
+   * thread may write to the returned stream, and it may not be used after it
+   * is closed.
+   *
+   * @param out
+   *          the stream to write to. It is closed when the returned stream is
+   *          closed.
+   */
+  OutputStream open(final OutputStream out) {
+    final PipelinedStream s = new PipelinedStream(out);
+    synchronized (f_open) {
+      f_open.add(s);
+    }
+    return s;
+  }
+
+  /**
+   * Hands off the partly filled buffers of every open stream, so that output
+   * does not sit in a buffer while the depository waits for the next batch of
+   * events. Must be called by the thread writing to the streams.
+   */
+  void endBatch() throws IOException {
+    final PipelinedStream[] open;
+    synchronized (f_open) {
+      open = f_open.toArray(new PipelinedStream[f_open.size()]);
+    }
+    for (final PipelinedStream s : open) {
+      s.handOff();
+    }
+  }
+
+  /**
+   * Finishes writing what has been handed off, then stops this thread and
+   * waits for it to terminate.
+   */
+  void finish() {
+    PostMortemStore.putInQueue(f_work, new Chunk(null, null, 0, Chunk.STOP));
+    boolean interrupted = false;
+    while (isAlive()) {
+      try {
+        join();
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the number of bytes written by this thread. Only valid after
+   * {@link #finish()}.
+   */
+  long getBytesWritten() {
+    return f_bytesWritten;
+  }
+
+  /**
+   * Gets the number of times a stream waited for a buffer to be returned to
+   * the pool. Only valid after {@link #finish()}.
+   */
+  long getBufferWaits() {
+    return f_bufferWaits;
+  }
+
+  @Override
+  public void run() {
+    Store.flashlightThread();
+    drain();
+  }
+
+  /**
+   * Does what is handed to this thread until it is told to stop.
+   */
+  void drain() {
+    while (true) {
+      final Chunk c;
+      try {
+        c = f_work.take();
+      } catch (final InterruptedException e) {
+        continue;
+      }
+      if (c.kind == Chunk.STOP) {
+        return;
+      }
+      c.stream.perform(c);
+    }
+  }
+
+  private byte[] takeBuffer() {
+    byte[] buf = f_free.poll();
+    if (buf == null) {
+      f_bufferWaits++;
+      boolean interrupted = false;
+      while (buf == null) {
+        try {
+          buf = f_free.take();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return buf;
+  }
+
+  /**
+   * Something for this thread to do to one stream.
+   */
+  private static final class Chunk {
+    static final int WRITE = 0;
+    static final int FLUSH = 1;
+    static final int CLOSE = 2;
+    static final int STOP = 3;
+
+    final PipelinedStream stream;
+    final byte[] buf;
+    final int length;
+    final int kind;
+
+    Chunk(final PipelinedStream stream, final byte[] buf, final int length, final int kind) {
+      this.stream = stream;
+      this.buf = buf;
+      this.length = length;
+      this.kind = kind;
+    }
+  }
+
+  /**
+   * A stream that fills pooled buffers and hands them to this thread.
+   */
+  private final class PipelinedStream extends OutputStream {
+    private final OutputStream f_out;
+    private final CountDownLatch f_closed = new CountDownLatch(1);
+
+    /**
+     * The first failure writing to the stream underneath, reported the next
+     * time the stream is used. Anything else thrown is wrapped in one.
+     */
+    private volatile IOException f_failure;
+
+    private byte[] f_buf;
+    private int f_count;
+    private boolean f_isClosed;
+
+    PipelinedStream(final OutputStream out) {
+      f_out = out;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      checkOpen();
+      if (f_buf == null) {
+        f_buf = takeBuffer();
+      } else if (f_count == BUFFER_SIZE) {
+        handOff();
+        f_buf = takeBuffer();
+      }
+      f_buf[f_count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      checkOpen();
+      while (len > 0) {
+        if (f_buf == null) {
+          f_buf = takeBuffer();
+        } else if (f_count == BUFFER_SIZE) {
+          handOff();
+          f_buf = takeBuffer();
+        }
+        final int n = Math.min(len, BUFFER_SIZE - f_count);
+        System.arraycopy(b, off, f_buf, f_count, n);
+        f_count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Hands off what has been written, and has the stream underneath flushed,
+     * without waiting for either.
+     */
+    @Override
+    public void flush() throws IOException {
+      checkOpen();
+      handOff();
+      PostMortemStore.putInQueue(f_work, new Chunk(this, null, 0, Chunk.FLUSH));
+    }
+
+    /**
+     * Hands off what has been written and waits until it has been written and
+     * the stream underneath closed.
+     */
+    @Override
+    public void close() throws IOException {
+      if (f_isClosed) {
+        return;
+      }
+      submit();
+      if (f_buf != null) {
+        PostMortemStore.putInQueue(f_free, f_buf);
+        f_buf = null;
+      }
+      f_isClosed = true;
+      synchronized (f_open) {
+        f_open.remove(this);
+      }
+      PostMortemStore.putInQueue(f_work, new Chunk(this, null, 0, Chunk.CLOSE));
+      boolean interrupted = false;
+      while (f_closed.getCount() > 0) {
+        try {
+          f_closed.await();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (f_failure != null) {
+        throw f_failure;
+      }
+    }
+
+    void handOff() throws IOException {
+      submit();
+      if (f_failure != null) {
+        throw f_failure;
+      }
+    }
+
+    private void submit() {
+      if (f_count > 0) {
+        PostMortemStore.putInQueue(f_work, new Chunk(this, f_buf, f_count, Chunk.WRITE));
+        f_buf = null;
+        f_count = 0;
+      }
+    }
+
+    private void checkOpen() throws IOException {
+      if (f_isClosed) {
+        throw new IOException("stream is closed");
+      }
+    }
+
+    /**
+     * Does a chunk of work on the writer thread. Whatever the stream
+     * underneath throws is recorded as its failure, so that this thread goes
+     * on with the other streams and a close is always answered.
+     */
+    void perform(final Chunk c) {
+      try {
+        if (f_failure == null || c.kind == Chunk.CLOSE) {
+          switch (c.kind) {
+          case Chunk.WRITE:
+            f_out.write(c.buf, 0, c.length);
+            f_bytesWritten += c.length;
+            break;
+          case Chunk.FLUSH:
+            f_out.flush();
+            break;
+          case Chunk.CLOSE:
+            f_out.close();
+            break;
+          }
+        }
+      } catch (final Throwable e) {
+        if (f_failure == null) {
+          f_failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+      } finally {
+        if (c.buf != null) {
+          PostMortemStore.putInQueue(f_free, c.buf);
+        }
+        if (c.kind == Chunk.CLOSE) {
+          f_closed.countDown();
+        }
+      }
+    }
+  }
+}
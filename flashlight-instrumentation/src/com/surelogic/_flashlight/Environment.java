@@ -2,6 +2,8 @@ package com.surelogic._flashlight;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.surelogic._flashlight.common.AttributeType;
 
@@ -12,38 +14,56 @@ public class Environment extends Event {
     v.visit(this);
   }
 
-  private static void addProperty(final String key, final AttributeType attr, final StringBuilder b) {
+  private static void addProperty(final String key, final AttributeType attr, final Map<AttributeType, Object> values) {
     String prop = System.getProperty(key);
     if (prop == null) {
       prop = "UNKNOWN";
     }
-    Entities.addAttribute(attr.label(), prop, b);
+    values.put(attr, prop);
   }
 
-  @Override
-  public String toString() {
-    StringBuilder b = new StringBuilder();
-    b.append("  <environment");
+  /**
+   * Gets the attributes describing this environment, in output order.
+   * 
+   * @return the attributes describing this environment. Values are either
+   *         strings or numbers.
+   */
+  Map<AttributeType, Object> getAttributes() {
+    final Map<AttributeType, Object> values = new LinkedHashMap<AttributeType, Object>();
     try {
-      Entities.addAttribute(AttributeType.HOSTNAME.label(), InetAddress.getLocalHost().getHostName(), b);
+      values.put(AttributeType.HOSTNAME, InetAddress.getLocalHost().getHostName());
     } catch (UnknownHostException e) {
-      Entities.addAttribute(AttributeType.HOSTNAME.label(), "unknown", b);
+      values.put(AttributeType.HOSTNAME, "unknown");
     }
-    addProperty("user.name", AttributeType.USER_NAME, b);
+    addProperty("user.name", AttributeType.USER_NAME, values);
     if (StoreConfiguration.isAndroid()) {
-      addProperty("java.vm.version", AttributeType.JAVA_VERSION, b);
+      addProperty("java.vm.version", AttributeType.JAVA_VERSION, values);
     } else {
-      addProperty("java.version", AttributeType.JAVA_VERSION, b);
+      addProperty("java.version", AttributeType.JAVA_VERSION, values);
     }
-    addProperty("java.vendor", AttributeType.JAVA_VENDOR, b);
-    addProperty("os.name", AttributeType.OS_NAME, b);
-    addProperty("os.arch", AttributeType.OS_ARCH, b);
-    addProperty("os.version", AttributeType.OS_VERSION, b);
+    addProperty("java.vendor", AttributeType.JAVA_VENDOR, values);
+    addProperty("os.name", AttributeType.OS_NAME, values);
+    addProperty("os.arch", AttributeType.OS_ARCH, values);
+    addProperty("os.version", AttributeType.OS_VERSION, values);
     if (StoreConfiguration.isAndroid()) {
-      Entities.addAttribute(AttributeType.ANDROID.label(), "true", b);
+      values.put(AttributeType.ANDROID, "true");
+    }
+    values.put(AttributeType.MEMORY_MB, Runtime.getRuntime().maxMemory() / (1024L * 1024L));
+    values.put(AttributeType.CPUS, Runtime.getRuntime().availableProcessors());
+    if (StoreConfiguration.isSampling()) {
+      // A string, because numbers are written as longs
+      values.put(AttributeType.SAMPLING_RATE, String.valueOf(StoreConfiguration.getSamplingRate()));
+    }
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder();
+    b.append("  <environment");
+    for (Map.Entry<AttributeType, Object> e : getAttributes().entrySet()) {
+      Entities.addAttribute(e.getKey().label(), String.valueOf(e.getValue()), b);
     }
-    Entities.addAttribute(AttributeType.MEMORY_MB.label(), Runtime.getRuntime().maxMemory() / (1024L * 1024L), b);
-    Entities.addAttribute(AttributeType.CPUS.label(), Runtime.getRuntime().availableProcessors(), b);
     b.append("/>");
     return b.toString();
   }
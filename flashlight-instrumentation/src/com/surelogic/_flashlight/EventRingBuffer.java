@@ -0,0 +1,365 @@
+package com.surelogic._flashlight;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import com.surelogic._flashlight.common.RawQueuePolicy;
+
+/**
+ * A bounded single-producer/single-consumer queue of events. Each instrumented
+ * thread is the only producer for its buffer, and the refinery is the only
+ * consumer of every buffer, so neither side needs a lock: the producer
+ * publishes an event by advancing {@link #tail} and the consumer frees a slot
+ * by advancing {@link #head}.
+ * <p>
+ * A buffer may also hold field accesses as primitive records, see
+ * {@link #putFieldAccess(long, long, long, long, long)}. These are stored in a
+ * parallel <code>long[]</code> and handed to the refinery in
+ * {@link FieldAccessSlab}s, so the producer allocates nothing for them.
+ * <p>
+ * When a buffer fills past its high-water mark the producer wakes the consumer,
+ * see {@link #setConsumer(Thread)}, so that an idle consumer does not let the
+ * buffer overflow while it backs off.
+ * <p>
+ * The indices are padded onto separate cache lines so that the producer and
+ * consumer do not invalidate each other's line on every event. The padding is
+ * spread across superclasses because the VM does not reorder fields across a
+ * class hierarchy.
+ */
+final class EventRingBuffer extends EventRingBufferFields {
+
+  /**
+   * How many times a producer using {@link RawQueuePolicy#SPIN_THEN_PARK}
+   * retries a full buffer before parking.
+   */
+  private static final int SPIN_LIMIT = 1000;
+
+  /**
+   * The longest a producer parks before checking the buffer again. This bounds
+   * the cost of a missed wakeup.
+   */
+  private static final long PARK_NANOS = 1000000L;
+
+  private final RawQueuePolicy f_policy;
+
+  /**
+   * The number of entries at which the producer wakes the consumer.
+   */
+  private final int f_highWater;
+
+  /**
+   * Holds the primitive field access records, {@link FieldAccessSlab#RECORD_SIZE}
+   * longs for each slot, or {@code null} if this buffer only holds events.
+   */
+  private final long[] f_records;
+
+  /**
+   * The id of the thread that owns this buffer, used to label slabs.
+   */
+  private final long f_threadId;
+
+  /**
+   * Constructs a buffer holding at least the passed number of events.
+   *
+   * @param size
+   *          the minimum capacity, rounded up to a power of two.
+   * @param policy
+   *          what {@link #put(Event, boolean)} does when the buffer is full.
+   */
+  EventRingBuffer(final int size, final RawQueuePolicy policy) {
+    super(capacityFor(size));
+    f_policy = policy;
+    f_highWater = highWaterFor(f_buffer.length);
+    f_records = null;
+    f_threadId = 0;
+  }
+
+  /**
+   * Constructs a buffer holding at least the passed number of events that can
+   * also hold primitive field access records.
+   *
+   * @param size
+   *          the minimum capacity, rounded up to a power of two.
+   * @param policy
+   *          what {@link #put(Event, boolean)} does when the buffer is full.
+   * @param threadId
+   *          the id of the thread that owns this buffer.
+   */
+  EventRingBuffer(final int size, final RawQueuePolicy policy, final long threadId) {
+    super(capacityFor(size));
+    f_policy = policy;
+    f_highWater = highWaterFor(f_buffer.length);
+    f_records = new long[f_buffer.length * FieldAccessSlab.RECORD_SIZE];
+    f_threadId = threadId;
+  }
+
+  private static int capacityFor(final int size) {
+    int capacity = 1;
+    while (capacity < size) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int highWaterFor(final int capacity) {
+    return Math.max(1, capacity - capacity / 4);
+  }
+
+  /**
+   * Sets the thread to wake when this buffer is nearly full. The consumer calls
+   * this before it first drains the buffer.
+   *
+   * @param thread
+   *          the consumer thread.
+   */
+  void setConsumer(final Thread thread) {
+    consumer = thread;
+  }
+
+  /**
+   * Gets the number of entries at which the producer wakes the consumer.
+   */
+  int getHighWater() {
+    return f_highWater;
+  }
+
+  /**
+   * Adds an event to this buffer, applying the back-pressure policy if it is
+   * full. Only the owning thread may call this method. Interruptions are
+   * ignored while waiting and the interrupted status is restored afterwards.
+   *
+   * @param e
+   *          the event to add.
+   * @param mayDrop
+   *          {@code true} if the event may be discarded under
+   *          {@link RawQueuePolicy#DROP}.
+   */
+  void put(final Event e, final boolean mayDrop) {
+    if (awaitRoom(mayDrop)) {
+      final long t = tail;
+      f_buffer[(int) t & f_mask] = e;
+      TAIL.lazySet(this, t + 1);
+      if (t + 1 - headCache >= f_highWater) {
+        nearlyFull(t + 1);
+      }
+    }
+  }
+
+  /**
+   * Adds a field access to this buffer as a primitive record, applying the
+   * back-pressure policy if it is full. Only the owning thread may call this
+   * method, and only if this buffer was constructed to hold records.
+   *
+   * @param info
+   *          the {@link FieldAccessSlab} flags of the access.
+   * @param nanoTime
+   *          when the access happened.
+   * @param fieldId
+   *          the id of the field accessed.
+   * @param receiverId
+   *          the id of the receiver, or 0 for a static field.
+   * @param traceId
+   *          the id of the trace the access happened in.
+   */
+  void putFieldAccess(final long info, final long nanoTime, final long fieldId, final long receiverId, final long traceId) {
+    if (awaitRoom(true)) {
+      final long t = tail;
+      final int r = ((int) t & f_mask) * FieldAccessSlab.RECORD_SIZE;
+      f_records[r + FieldAccessSlab.INFO] = info;
+      f_records[r + FieldAccessSlab.NANO_TIME] = nanoTime;
+      f_records[r + FieldAccessSlab.FIELD] = fieldId;
+      f_records[r + FieldAccessSlab.RECEIVER] = receiverId;
+      f_records[r + FieldAccessSlab.TRACE] = traceId;
+      TAIL.lazySet(this, t + 1);
+      if (t + 1 - headCache >= f_highWater) {
+        nearlyFull(t + 1);
+      }
+    }
+  }
+
+  /**
+   * Waits until there is room for one more entry in this buffer, according to
+   * the back-pressure policy.
+   *
+   * @param mayDrop
+   *          {@code true} if the entry may be discarded under
+   *          {@link RawQueuePolicy#DROP}.
+   * @return {@code true} if there is room, {@code false} if the entry was
+   *         dropped.
+   */
+  private boolean awaitRoom(final boolean mayDrop) {
+    if (hasRoom()) {
+      return true;
+    }
+    if (mayDrop && f_policy == RawQueuePolicy.DROP) {
+      dropped++;
+      return false;
+    }
+    int spins = f_policy == RawQueuePolicy.SPIN_THEN_PARK ? SPIN_LIMIT : 0;
+    boolean interrupted = false;
+    while (!hasRoom()) {
+      if (spins > 0) {
+        spins--;
+        continue;
+      }
+      waiter = Thread.currentThread();
+      if (isFull()) {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+      waiter = null;
+      if (Thread.interrupted()) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return true;
+  }
+
+  /**
+   * Wakes the consumer, at most once between drains, if the buffer really is
+   * past its high-water mark. The check against {@link #headCache} that leads
+   * here can be stale.
+   */
+  private void nearlyFull(final long t) {
+    headCache = head;
+    if (t - headCache >= f_highWater && !wakeupPending) {
+      final Thread c = consumer;
+      if (c != null) {
+        wakeupPending = true;
+        LockSupport.unpark(c);
+      }
+    }
+  }
+
+  private boolean hasRoom() {
+    final long t = tail;
+    if (t - headCache < f_buffer.length) {
+      return true;
+    }
+    headCache = head;
+    return t - headCache < f_buffer.length;
+  }
+
+  private boolean isFull() {
+    return tail - head >= f_buffer.length;
+  }
+
+  /**
+   * Removes every event currently in this buffer and adds them, in order, to
+   * the passed collection. Consecutive field access records are added as
+   * {@link FieldAccessSlab}s. Only the refinery may call this method.
+   *
+   * @param c
+   *          the collection to add the events to.
+   * @return the number of events and records removed.
+   */
+  int drainTo(final Collection<? super Event> c) {
+    final long h = head;
+    final long t = tail;
+    FieldAccessSlab slab = null;
+    for (long i = h; i < t; i++) {
+      final int index = (int) i & f_mask;
+      final Event e = f_buffer[index];
+      if (e != null) {
+        c.add(e);
+        f_buffer[index] = null;
+        slab = null;
+      } else {
+        if (slab == null || slab.isFull()) {
+          slab = FieldAccessSlab.obtain(f_threadId);
+          c.add(slab);
+        }
+        slab.add(f_records, index * FieldAccessSlab.RECORD_SIZE);
+      }
+    }
+    if (wakeupPending) {
+      wakeupPending = false;
+    }
+    if (t != h) {
+      HEAD.lazySet(this, t);
+      final Thread w = waiter;
+      if (w != null) {
+        LockSupport.unpark(w);
+      }
+    }
+    return (int) (t - h);
+  }
+
+  /**
+   * Gets the number of events discarded because this buffer was full.
+   */
+  long getDroppedCount() {
+    return dropped;
+  }
+}
+
+/*
+ * The classes below lay out the fields of EventRingBuffer so that the
+ * producer's index and the consumer's index each sit alone on a cache line.
+ */
+
+abstract class EventRingBufferPad0 {
+  long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class EventRingBufferProducer extends EventRingBufferPad0 {
+  /**
+   * The index of the next slot the producer will fill.
+   */
+  volatile long tail;
+  /**
+   * The producer's last view of {@link EventRingBufferConsumer#head}, so it
+   * only reads the consumer's cache line when the buffer looks full.
+   */
+  long headCache;
+  /**
+   * Events discarded by the producer. Only written by the producer.
+   */
+  volatile long dropped;
+}
+
+abstract class EventRingBufferPad1 extends EventRingBufferProducer {
+  long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class EventRingBufferConsumer extends EventRingBufferPad1 {
+  /**
+   * The index of the next slot the consumer will empty.
+   */
+  volatile long head;
+  /**
+   * The producer, if it is parked waiting for the consumer to make room.
+   */
+  volatile Thread waiter;
+  /**
+   * The consumer, woken by the producer when the buffer is nearly full.
+   */
+  volatile Thread consumer;
+  /**
+   * Set by the producer when it wakes the consumer, and cleared by the
+   * consumer when it drains the buffer.
+   */
+  volatile boolean wakeupPending;
+}
+
+abstract class EventRingBufferPad2 extends EventRingBufferConsumer {
+  long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+abstract class EventRingBufferFields extends EventRingBufferPad2 {
+  static final AtomicLongFieldUpdater<EventRingBufferProducer> TAIL = AtomicLongFieldUpdater.newUpdater(
+      EventRingBufferProducer.class, "tail");
+  static final AtomicLongFieldUpdater<EventRingBufferConsumer> HEAD = AtomicLongFieldUpdater.newUpdater(
+      EventRingBufferConsumer.class, "head");
+
+  final Event[] f_buffer;
+  final int f_mask;
+
+  EventRingBufferFields(final int capacity) {
+    f_buffer = new Event[capacity];
+    f_mask = capacity - 1;
+  }
+}
@@ -4,10 +4,15 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
 
 import com.surelogic._flashlight.common.FileChannelOutputStream;
 import com.surelogic._flashlight.common.OutputType;
+import com.surelogic._flashlight.common.ParallelGZIPOutputStream;
 import com.surelogic._flashlight.trace.TraceNode;
 
 /**
@@ -70,6 +75,10 @@ public abstract class EventVisitor {
     // do nothing
   }
 
+  void visit(final FieldAccessSlab e) {
+    // do nothing
+  }
+
   void visit(final FinalEvent e) {
     // do nothing
   }
@@ -147,16 +156,37 @@ public abstract class EventVisitor {
   }
 
   public static File createStreamFile(final String fileName, final OutputType type) {
-    final String extension = ".fl";
-    return new File(fileName + extension + (type.isCompressed() ? ".gz" : ""));
+    return new File(fileName + type.getSuffix());
   }
 
   static OutputStream createStream(final String fileName, final OutputType type) throws IOException {
+    return createStream(fileName, type, false);
+  }
+
+  /**
+   * Opens a raw data file for writing.
+   *
+   * @param forceOnClose
+   *          {@code true} if closing the stream should not return until the
+   *          file is on the storage device.
+   */
+  static OutputStream createStream(final String fileName, final OutputType type, final boolean forceOnClose)
+      throws IOException {
     final File dataFile = createStreamFile(fileName, type);
     OutputStream stream;
-    stream = new FileChannelOutputStream(dataFile);
+    stream = new FileChannelOutputStream(dataFile, forceOnClose);
     if (type.isCompressed()) {
-      stream = new GZIPOutputStream(stream, 32768);
+      final int threads = StoreConfiguration.getCompressionThreads();
+      final int level = type.getCompressionLevel();
+      if (threads > 0) {
+        stream = new ParallelGZIPOutputStream(stream, getCompressionPool(threads), threads, level);
+      } else {
+        stream = new GZIPOutputStream(stream, 32768) {
+          {
+            def.setLevel(level);
+          }
+        };
+      }
     } else {
       stream = new BufferedOutputStream(stream, 32768);
     }
@@ -167,6 +197,35 @@ public abstract class EventVisitor {
     return createStream(file.getAbsolutePath(), outputType);
   }
 
+  static OutputStream createStream(File file, OutputType outputType, boolean forceOnClose) throws IOException {
+    return createStream(file.getAbsolutePath(), outputType, forceOnClose);
+  }
+
+  /**
+   * The threads that compress output, shared by every output stream.
+   */
+  private static ExecutorService f_compressionPool;
+
+  private static synchronized ExecutorService getCompressionPool(final int threads) {
+    if (f_compressionPool == null) {
+      final AtomicInteger count = new AtomicInteger();
+      f_compressionPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread t = new Thread("flashlight-compression-" + count.incrementAndGet()) {
+            @Override
+            public void run() {
+              Store.flashlightThread();
+              r.run();
+            }
+          };
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return f_compressionPool;
+  }
+
   interface Factory {
     EventVisitor create(RunConf conf, OutputStream stream) throws IOException;
   }
@@ -0,0 +1,188 @@
+package com.surelogic._flashlight;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A batch of field accesses made by one thread, held as primitive records in
+ * a single <code>long[]</code> rather than as one {@link FieldAccess} object
+ * per access. Slabs are filled by the refinery from the records in an
+ * {@link EventRingBuffer}, written out by the depository, and then returned to
+ * a pool for reuse, so recording a field access this way allocates nothing.
+ * <p>
+ * Each record is {@link #RECORD_SIZE} longs: flags, nano-time, field id,
+ * receiver id, and trace id.
+ */
+final class FieldAccessSlab extends Event {
+
+  static final int RECORD_SIZE = 5;
+
+  static final int INFO = 0;
+  static final int NANO_TIME = 1;
+  static final int FIELD = 2;
+  static final int RECEIVER = 3;
+  static final int TRACE = 4;
+
+  static final long WRITE = 1;
+  static final long INSTANCE = 2;
+  static final long UNDER_CONSTRUCTION = 4;
+  static final long REMOVED = 8;
+
+  /**
+   * The number of records a slab holds.
+   */
+  static final int CAPACITY = 256;
+
+  private static final BlockingQueue<FieldAccessSlab> f_pool = new ArrayBlockingQueue<FieldAccessSlab>(64);
+
+  private final long[] f_records = new long[CAPACITY * RECORD_SIZE];
+  private int f_size;
+  private long f_threadId;
+
+  private FieldAccessSlab() {
+    // Use obtain()
+  }
+
+  /**
+   * Gets an empty slab, reusing a released one if possible.
+   *
+   * @param threadId
+   *          the id of the thread that made the accesses.
+   */
+  static FieldAccessSlab obtain(final long threadId) {
+    FieldAccessSlab slab = f_pool.poll();
+    if (slab == null) {
+      slab = new FieldAccessSlab();
+    }
+    slab.f_threadId = threadId;
+    return slab;
+  }
+
+  /**
+   * Returns this slab to the pool. The slab must not be used afterwards.
+   */
+  void release() {
+    f_size = 0;
+    f_pool.offer(this);
+  }
+
+  boolean isFull() {
+    return f_size == CAPACITY;
+  }
+
+  /**
+   * Gets the number of records in this slab, including removed ones.
+   */
+  int size() {
+    return f_size;
+  }
+
+  /**
+   * Copies a record onto the end of this slab.
+   *
+   * @param records
+   *          the array holding the record.
+   * @param offset
+   *          the index of the first long of the record.
+   */
+  void add(final long[] records, final int offset) {
+    assert !isFull();
+    System.arraycopy(records, offset, f_records, f_size * RECORD_SIZE, RECORD_SIZE);
+    f_size++;
+  }
+
+  long getThreadId() {
+    return f_threadId;
+  }
+
+  private long get(final int record, final int column) {
+    return f_records[record * RECORD_SIZE + column];
+  }
+
+  boolean isRemoved(final int record) {
+    return (get(record, INFO) & REMOVED) != 0;
+  }
+
+  boolean isWrite(final int record) {
+    return (get(record, INFO) & WRITE) != 0;
+  }
+
+  boolean hasReceiver(final int record) {
+    return (get(record, INFO) & INSTANCE) != 0;
+  }
+
+  boolean isUnderConstruction(final int record) {
+    return (get(record, INFO) & UNDER_CONSTRUCTION) != 0;
+  }
+
+  long getNanoTime(final int record) {
+    return get(record, NANO_TIME);
+  }
+
+  long getFieldId(final int record) {
+    return get(record, FIELD);
+  }
+
+  long getReceiverId(final int record) {
+    return get(record, RECEIVER);
+  }
+
+  long getTraceId(final int record) {
+    return get(record, TRACE);
+  }
+
+  /**
+   * Moves the records that happened after the passed time into a new slab.
+   * Records within a slab are in the order they happened, so this splits the
+   * slab in two.
+   *
+   * @param nanoTime
+   *          the time to split at.
+   * @return a slab holding the later records, or {@code null} if there are
+   *         none.
+   */
+  FieldAccessSlab splitAfter(final long nanoTime) {
+    int first = 0;
+    while (first < f_size && getNanoTime(first) <= nanoTime) {
+      first++;
+    }
+    if (first == f_size) {
+      return null;
+    }
+    final FieldAccessSlab later = obtain(f_threadId);
+    later.f_size = f_size - first;
+    System.arraycopy(f_records, first * RECORD_SIZE, later.f_records, 0, later.f_size * RECORD_SIZE);
+    f_size = first;
+    return later;
+  }
+
+  /**
+   * Removes every record about a field in the passed set.
+   *
+   * @param refs
+   *          the thread-local fields to remove records about.
+   */
+  void removeEventsAbout(final SingleThreadedRefs refs) {
+    for (int i = 0; i < f_size; i++) {
+      final boolean remove;
+      if (hasReceiver(i)) {
+        remove = refs.containsField(getFieldId(i), getReceiverId(i));
+      } else {
+        remove = refs.containsStaticField(getFieldId(i));
+      }
+      if (remove) {
+        f_records[i * RECORD_SIZE + INFO] |= REMOVED;
+      }
+    }
+  }
+
+  @Override
+  void accept(final EventVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String toString() {
+    return "[FieldAccessSlab: thread=" + f_threadId + " size=" + f_size + "]";
+  }
+}
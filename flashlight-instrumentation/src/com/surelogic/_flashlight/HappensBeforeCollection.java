@@ -26,6 +26,14 @@ public class HappensBeforeCollection extends HappensBeforeEvent {
     return obj;
   }
 
+  long getCollection() {
+    return coll;
+  }
+
+  long getSiteId() {
+    return siteId;
+  }
+
   @Override
   public String toString() {
     final StringBuilder b = new StringBuilder(128);
@@ -19,6 +19,26 @@ public abstract class HappensBeforeEvent extends ProgramEvent {
     f_traceId = state.getCurrentTrace(siteId).getId();
   }
 
+  String getId() {
+    return f_id;
+  }
+
+  long getNanoStart() {
+    return f_nanoStart;
+  }
+
+  long getNanoEnd() {
+    return f_nanoEnd;
+  }
+
+  long getThreadId() {
+    return f_threadId;
+  }
+
+  long getTraceId() {
+    return f_traceId;
+  }
+
   protected final void addId(final StringBuilder b) {
     Entities.addAttribute(AttributeType.ID.label(), f_id, b);
   }
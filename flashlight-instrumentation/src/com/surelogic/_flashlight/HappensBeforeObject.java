@@ -23,6 +23,10 @@ public class HappensBeforeObject extends HappensBeforeEvent {
     return obj;
   }
 
+  long getSiteId() {
+    return siteId;
+  }
+
   @Override
   public String toString() {
     final StringBuilder b = new StringBuilder(128);
@@ -14,6 +14,14 @@ public class HappensBeforeThread extends HappensBeforeEvent {
     this.siteId = siteId;
   }
 
+  long getToThread() {
+    return to;
+  }
+
+  long getSiteId() {
+    return siteId;
+  }
+
   @Override
   void accept(EventVisitor v) {
     v.visit(this);
@@ -0,0 +1,222 @@
+package com.surelogic._flashlight;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values in power-of-two buckets: 0, 1, 2-3, 4-7,
+ * and so on. A histogram with fewer than {@link #MAX_BUCKETS} buckets puts
+ * every value past its second to last bucket in its last one, so its memory is
+ * fixed by the range of values worth telling apart. The total and the largest
+ * of the values are kept as well.
+ * <p>
+ * Any thread may read a histogram, for example to display it on the console.
+ * Values are recorded by {@link #record(long)} if only one thread records, or
+ * else by {@link #recordConcurrently(long)}.
+ */
+public final class Histogram {
+
+  /**
+   * The number of buckets needed to hold every <tt>long</tt> value in its own
+   * bucket.
+   */
+  public static final int MAX_BUCKETS = 64;
+
+  private final String f_name;
+  private final String f_unit;
+  /**
+   * The buckets, then the total, then the largest value.
+   */
+  private final AtomicLongArray f_buckets;
+  private final int f_total;
+  private final int f_max;
+
+  /**
+   * Constructs an empty histogram with a bucket for every value.
+   *
+   * @param name
+   *          what the histogram measures.
+   * @param unit
+   *          the unit of the values, displayed after each bucket.
+   */
+  public Histogram(final String name, final String unit) {
+    this(name, unit, MAX_BUCKETS);
+  }
+
+  /**
+   * Constructs an empty histogram.
+   *
+   * @param name
+   *          what the histogram measures.
+   * @param unit
+   *          the unit of the values, displayed after each bucket.
+   * @param buckets
+   *          the number of buckets, from 2 to {@link #MAX_BUCKETS}. Values of
+   *          2<sup>buckets - 2</sup> and more share the last bucket.
+   */
+  public Histogram(final String name, final String unit, final int buckets) {
+    if (buckets < 2 || buckets > MAX_BUCKETS) {
+      throw new IllegalArgumentException("buckets must be from 2 to " + MAX_BUCKETS + ": " + buckets);
+    }
+    f_name = name;
+    f_unit = unit;
+    f_buckets = new AtomicLongArray(buckets + 2);
+    f_total = buckets;
+    f_max = buckets + 1;
+  }
+
+  /**
+   * Gets the number of buckets.
+   */
+  public int getBuckets() {
+    return f_total;
+  }
+
+  /**
+   * Gets the bucket a value is recorded in.
+   */
+  public int bucket(final long value) {
+    if (value <= 0) {
+      return 0;
+    }
+    return Math.min(64 - Long.numberOfLeadingZeros(value), f_total - 1);
+  }
+
+  /**
+   * Gets the largest value that falls in a bucket.
+   */
+  public long upperBound(final int bucket) {
+    if (bucket == f_total - 1) {
+      return Long.MAX_VALUE;
+    }
+    return bucket == 0 ? 0 : (1L << bucket) - 1;
+  }
+
+  /**
+   * Records a value. Negative values are recorded as 0. Only one thread may
+   * call this.
+   *
+   * @param value
+   *          the value.
+   */
+  public void record(final long value) {
+    final long v = value < 0 ? 0 : value;
+    final int bucket = bucket(v);
+    f_buckets.lazySet(bucket, f_buckets.get(bucket) + 1);
+    f_buckets.lazySet(f_total, f_buckets.get(f_total) + v);
+    if (v > f_buckets.get(f_max)) {
+      f_buckets.lazySet(f_max, v);
+    }
+  }
+
+  /**
+   * Records a value. Negative values are recorded as 0. Any number of threads
+   * may call this at once, but they then contend for the counters.
+   *
+   * @param value
+   *          the value.
+   */
+  public void recordConcurrently(final long value) {
+    final long v = value < 0 ? 0 : value;
+    f_buckets.incrementAndGet(bucket(v));
+    f_buckets.addAndGet(f_total, v);
+    long max;
+    while (v > (max = f_buckets.get(f_max))) {
+      if (f_buckets.compareAndSet(f_max, max, v)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Adds the values recorded in another histogram with the same number of
+   * buckets to this one, as if recorded by {@link #record(long)}. Values the
+   * other histogram records meanwhile may or may not be added.
+   *
+   * @param other
+   *          a histogram with as many buckets as this.
+   */
+  public void add(final Histogram other) {
+    if (other.f_total != f_total) {
+      throw new IllegalArgumentException("Histograms must have the same number of buckets");
+    }
+    for (int i = 0; i <= f_total; i++) {
+      f_buckets.lazySet(i, f_buckets.get(i) + other.f_buckets.get(i));
+    }
+    final long max = other.f_buckets.get(f_max);
+    if (max > f_buckets.get(f_max)) {
+      f_buckets.lazySet(f_max, max);
+    }
+  }
+
+  /**
+   * Gets the number of values recorded.
+   */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < f_total; i++) {
+      count += f_buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Gets the total of the values recorded.
+   */
+  public long getTotal() {
+    return f_buckets.get(f_total);
+  }
+
+  /**
+   * Gets the largest value recorded, or 0 if none was.
+   */
+  public long getMax() {
+    return f_buckets.get(f_max);
+  }
+
+  /**
+   * Gets a value that at least the given fraction of the recorded values do
+   * not exceed, rounded up to the top of its bucket.
+   *
+   * @param fraction
+   *          a number between 0 and 1.
+   */
+  public long percentile(final double fraction) {
+    final long[] counts = new long[f_total];
+    long count = 0;
+    for (int i = 0; i < f_total; i++) {
+      counts[i] = f_buckets.get(i);
+      count += counts[i];
+    }
+    final long wanted = (long) Math.ceil(count * fraction);
+    long seen = 0;
+    for (int i = 0; i < f_total; i++) {
+      seen += counts[i];
+      if (seen >= wanted && seen > 0) {
+        return Math.min(upperBound(i), getMax());
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder(f_name);
+    b.append(" (").append(getCount()).append(" samples)");
+    for (int i = 0; i < f_total; i++) {
+      final long count = f_buckets.get(i);
+      if (count == 0) {
+        continue;
+      }
+      b.append("\n  ");
+      if (i <= 1) {
+        b.append(i);
+      } else if (i == f_total - 1 && f_total < MAX_BUCKETS) {
+        b.append(1L << i - 1).append(" or more");
+      } else {
+        b.append(1L << i - 1).append('-').append((1L << i - 1) * 2 - 1);
+      }
+      b.append(' ').append(f_unit).append(": ").append(count);
+    }
+    return b.toString();
+  }
+}
@@ -23,6 +23,10 @@ public class InstrumentationConf {
     return null;
   }
 
+  public static String getFL_COMPRESSION_THREADS() {
+    return null;
+  }
+
   public static String getFL_CONSOLE_PORT() {
     return null;
   }
@@ -39,10 +43,26 @@ public class InstrumentationConf {
     return null;
   }
 
+  public static String getFL_EVENT_SLABS() {
+    return null;
+  }
+
   public static String getFL_FIELDS_FILE() {
     return null;
   }
 
+  public static String getFL_FSYNC_POLICY() {
+    return null;
+  }
+
+  public static String getFL_GC_BATCH_MS() {
+    return null;
+  }
+
+  public static String getFL_GC_BATCH_SIZE() {
+    return null;
+  }
+
   public static String getFL_OFF() {
     return null;
   }
@@ -67,6 +87,14 @@ public class InstrumentationConf {
     return null;
   }
 
+  public static String getFL_RACES() {
+    return null;
+  }
+
+  public static String getFL_RAWQ_POLICY() {
+    return null;
+  }
+
   public static String getFL_RAWQ_SIZE() {
     return null;
   }
@@ -91,6 +119,14 @@ public class InstrumentationConf {
     return null;
   }
 
+  public static String getFL_SAMPLE_ON_MS() {
+    return null;
+  }
+
+  public static String getFL_SAMPLE_PERIOD_MS() {
+    return null;
+  }
+
   public static String getFL_SITES_FILE() {
     return null;
   }
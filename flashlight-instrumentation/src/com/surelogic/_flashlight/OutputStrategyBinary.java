@@ -0,0 +1,381 @@
+package com.surelogic._flashlight;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+
+import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.BinaryEventWriter;
+import com.surelogic._flashlight.common.FlagType;
+import com.surelogic._flashlight.trace.TraceNode;
+
+/**
+ * Writes events in the binary raw data format. Each event produces the same
+ * element name and attributes that {@link OutputStrategyXML} would, but
+ * without the cost of building and escaping XML text, and without the size of
+ * repeated attribute names.
+ */
+final class OutputStrategyBinary extends EventVisitor {
+  private final BinaryEventWriter f_out;
+
+  static final Factory factory = new Factory() {
+    @Override
+    public EventVisitor create(final RunConf conf, final OutputStream stream) throws IOException {
+      return new OutputStrategyBinary(conf, stream);
+    }
+  };
+
+  OutputStrategyBinary(final RunConf conf, final OutputStream stream) throws IOException {
+    assert stream != null;
+    f_out = new BinaryEventWriter(stream, OutputStrategyXML.version, conf.getRun());
+  }
+
+  private void end() {
+    try {
+      f_out.end();
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void thread(final WithinThreadEvent e) {
+    f_out.time(AttributeType.TIME, e.getNanoTime());
+    f_out.attr(AttributeType.THREAD, e.getWithinThread().getId());
+  }
+
+  private void lock(final String name, final Lock e) {
+    f_out.start(name);
+    thread(e);
+    f_out.attr(AttributeType.TRACE, e.getTraceId());
+    f_out.attr(AttributeType.LOCK, e.getLockObject().getId());
+  }
+
+  private void intrinsicLock(final String name, final IntrinsicLock e) {
+    lock(name, e);
+    if (e.isLockThis()) {
+      f_out.attr(FlagType.THIS_LOCK, true);
+    }
+    end();
+  }
+
+  private void fieldAccess(final String name, final FieldAccessInstance e) {
+    f_out.start(name);
+    thread(e);
+    f_out.attr(AttributeType.TRACE, e.getTraceId());
+    f_out.attr(AttributeType.FIELD, e.getFieldId());
+    f_out.attr(AttributeType.RECEIVER, e.getReceiver().getId());
+    if (e.receiverUnderConstruction()) {
+      f_out.attr(FlagType.UNDER_CONSTRUCTION, true);
+    }
+    end();
+  }
+
+  private void fieldAccess(final String name, final FieldAccessStatic e) {
+    f_out.start(name);
+    thread(e);
+    f_out.attr(AttributeType.TRACE, e.getTraceId());
+    f_out.attr(AttributeType.FIELD, e.getFieldId());
+    if (e.classUnderConstruction()) {
+      f_out.attr(FlagType.UNDER_CONSTRUCTION, true);
+    }
+    end();
+  }
+
+  private void happensBefore(final String name, final HappensBeforeEvent e, final long siteId) {
+    f_out.start(name);
+    f_out.attr(AttributeType.ID, e.getId());
+    f_out.time(AttributeType.NANO_START, e.getNanoStart());
+    f_out.time(AttributeType.NANO_END, e.getNanoEnd());
+    f_out.attr(AttributeType.THREAD, e.getThreadId());
+    f_out.attr(AttributeType.TRACE, e.getTraceId());
+    f_out.attr(AttributeType.SITE_ID, siteId);
+  }
+
+  @Override
+  void visit(final AfterIntrinsicLockAcquisition e) {
+    intrinsicLock("after-intrinsic-lock-acquisition", e);
+  }
+
+  @Override
+  void visit(final AfterIntrinsicLockRelease e) {
+    intrinsicLock("after-intrinsic-lock-release", e);
+  }
+
+  @Override
+  void visit(final AfterIntrinsicLockWait e) {
+    intrinsicLock("after-intrinsic-lock-wait", e);
+  }
+
+  @Override
+  void visit(final AfterUtilConcurrentLockAcquisitionAttempt e) {
+    lock("after-util-concurrent-lock-acquisition-attempt", e);
+    f_out.attr(FlagType.GOT_LOCK, e.gotTheLock());
+    end();
+  }
+
+  @Override
+  void visit(final AfterUtilConcurrentLockReleaseAttempt e) {
+    lock("after-util-concurrent-lock-release-attempt", e);
+    f_out.attr(FlagType.RELEASED_LOCK, e.releasedTheLock());
+    end();
+  }
+
+  @Override
+  void visit(final BeforeIntrinsicLockAcquisition e) {
+    intrinsicLock("before-intrinsic-lock-acquisition", e);
+  }
+
+  @Override
+  void visit(final BeforeIntrinsicLockWait e) {
+    intrinsicLock("before-intrinsic-lock-wait", e);
+  }
+
+  @Override
+  void visit(final BeforeUtilConcurrentLockAcquisitionAttempt e) {
+    lock("before-util-concurrent-lock-acquisition-attempt", e);
+    end();
+  }
+
+  @Override
+  void visit(final CheckpointEvent e) {
+    f_out.start("checkpoint");
+    f_out.time(AttributeType.TIME, e.getNanoTime());
+    end();
+  }
+
+  @Override
+  void visit(final FieldAssignment e) {
+    f_out.start("field-assignment");
+    f_out.attr(AttributeType.FIELD, e.getFieldId());
+    f_out.attr(AttributeType.VALUE, e.getValueId());
+    if (e.hasReceiver()) {
+      f_out.attr(AttributeType.RECEIVER, e.getReceiverId());
+    }
+    end();
+  }
+
+  @Override
+  void visit(final FieldDefinition e) {
+    f_out.start("field-definition");
+    f_out.attr(AttributeType.ID, e.getId());
+    f_out.attr(AttributeType.TYPE, e.getTypeId());
+    f_out.attr(AttributeType.FIELD, e.getName());
+    f_out.attr(AttributeType.MODIFIER, e.getModifier());
+    end();
+  }
+
+  @Override
+  void visit(final FieldReadInstance e) {
+    fieldAccess("field-read", e);
+  }
+
+  @Override
+  void visit(final FieldReadStatic e) {
+    fieldAccess("field-read", e);
+  }
+
+  @Override
+  void visit(final FieldWriteInstance e) {
+    fieldAccess("field-write", e);
+  }
+
+  @Override
+  void visit(final FieldWriteStatic e) {
+    fieldAccess("field-write", e);
+  }
+
+  @Override
+  void visit(final FieldAccessSlab e) {
+    for (int i = 0; i < e.size(); i++) {
+      if (e.isRemoved(i)) {
+        continue;
+      }
+      f_out.start(e.isWrite(i) ? "field-write" : "field-read");
+      f_out.time(AttributeType.TIME, e.getNanoTime(i));
+      f_out.attr(AttributeType.THREAD, e.getThreadId());
+      f_out.attr(AttributeType.TRACE, e.getTraceId(i));
+      f_out.attr(AttributeType.FIELD, e.getFieldId(i));
+      if (e.hasReceiver(i)) {
+        f_out.attr(AttributeType.RECEIVER, e.getReceiverId(i));
+      }
+      if (e.isUnderConstruction(i)) {
+        f_out.attr(FlagType.UNDER_CONSTRUCTION, true);
+      }
+      end();
+    }
+  }
+
+  @Override
+  void visit(final FinalEvent e) {
+    try {
+      f_out.close();
+    } catch (final IOException exc) {
+      throw new IllegalStateException(exc);
+    }
+  }
+
+  @Override
+  void visit(final GarbageCollectedObject e) {
+    f_out.start("garbage-collected-object");
+    f_out.attr(AttributeType.ID, e.getObjectId());
+    end();
+  }
+
+  @Override
+  void visit(final IndirectAccess e) {
+    f_out.start("indirect-access");
+    thread(e);
+    f_out.attr(AttributeType.TRACE, e.getTraceId());
+    f_out.attr(AttributeType.RECEIVER, e.getReceiver().getId());
+    end();
+  }
+
+  private final IdPhantomReferenceVisitor f_definitions = new IdPhantomReferenceVisitor() {
+    @Override
+    void visit(final ClassPhantomReference r) {
+      f_out.start("class-definition");
+      f_out.attr(AttributeType.ID, r.getId());
+      f_out.attr(AttributeType.CLASS_NAME, r.getName());
+      f_out.attr(AttributeType.MODIFIER, r.getModifiers());
+      f_out.attr(AttributeType.CLASS_TYPE, r.getType().getXmlName());
+    }
+
+    @Override
+    void visit(final ObjectDefinition defn, final ObjectPhantomReference r) {
+      f_out.start("object-definition");
+      f_out.attr(AttributeType.ID, r.getId());
+      f_out.attr(AttributeType.TYPE, defn.getType().getId());
+    }
+
+    @Override
+    void visit(final ObjectDefinition defn, final ThreadPhantomReference r) {
+      f_out.start("thread-definition");
+      f_out.attr(AttributeType.ID, r.getId());
+      f_out.attr(AttributeType.TYPE, defn.getType().getId());
+      f_out.attr(AttributeType.THREAD_NAME, r.getName());
+    }
+  };
+
+  @Override
+  void visit(final ObjectDefinition e) {
+    e.getObject().accept(e, f_definitions);
+    end();
+  }
+
+  @Override
+  void visit(final ReadWriteLockDefinition e) {
+    f_out.start("read-write-lock-definition");
+    f_out.attr(AttributeType.ID, e.getReadWriteLockId());
+    f_out.attr(AttributeType.READ_LOCK_ID, e.getReadLockId());
+    f_out.attr(AttributeType.WRITE_LOCK_ID, e.getWriteLockId());
+    end();
+  }
+
+  @Override
+  void visit(final SingleThreadedFieldInstance e) {
+    f_out.start("single-threaded-field");
+    f_out.attr(AttributeType.FIELD, e.getFieldId());
+    f_out.attr(AttributeType.RECEIVER, e.getReceiver().getId());
+    end();
+  }
+
+  @Override
+  void visit(final SingleThreadedFieldStatic e) {
+    f_out.start("single-threaded-field");
+    f_out.attr(AttributeType.FIELD, e.getFieldId());
+    end();
+  }
+
+  @Override
+  void visit(final StaticCallLocation e) {
+    f_out.start("static-call-location");
+    f_out.attr(AttributeType.ID, e.getSiteId());
+    f_out.attr(AttributeType.IN_CLASS, e.getWithinClassId());
+    if (e.isInInterface()) {
+      f_out.attr(AttributeType.IN_INTERFACE, true);
+    }
+    f_out.attr(AttributeType.LINE, e.getLine());
+    f_out.attr(AttributeType.LOCATION, e.getLocationName());
+    f_out.attr(AttributeType.LOCATIONDESC, e.getLocationDesc());
+    f_out.attr(AttributeType.LOCATIONMOD, e.getLocationMod());
+    f_out.attr(AttributeType.FILE, e.getFileName());
+    if (e.getMethodCallName() != null) {
+      f_out.attr(AttributeType.METHODCALLOWNER, e.getMethodCallOwner());
+      f_out.attr(AttributeType.METHODCALLNAME, e.getMethodCallName());
+      f_out.attr(AttributeType.METHODCALLDESC, e.getMethodCallDesc());
+      f_out.attr(AttributeType.METHODCALLMOD, e.getMethodCallMod());
+    }
+    end();
+  }
+
+  @Override
+  void visit(final Time e) {
+    f_out.start("time");
+    f_out.time(AttributeType.TIME, e.getNanoTime());
+    final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    f_out.attr(AttributeType.WALL_CLOCK, dateFormat.format(e.getDate()));
+    end();
+  }
+
+  @Override
+  public void visit(final TraceNode e) {
+    f_out.start("trace-node");
+    f_out.attr(AttributeType.TRACE, e.getId());
+    f_out.attr(AttributeType.SITE_ID, e.getSiteId());
+    f_out.attr(AttributeType.PARENT_ID, e.getParent() == null ? 0 : e.getParent().getId());
+    end();
+  }
+
+  @Override
+  void visit(final HappensBeforeThread e) {
+    happensBefore("happens-before-thread", e, e.getSiteId());
+    f_out.attr(AttributeType.TOTHREAD, e.getToThread());
+    end();
+  }
+
+  @Override
+  void visit(final HappensBeforeObject e) {
+    happensBefore("happens-before-obj", e, e.getSiteId());
+    f_out.attr(AttributeType.OBJECT, e.getObj());
+    end();
+  }
+
+  @Override
+  void visit(final HappensBeforeCollection e) {
+    happensBefore("happens-before-coll", e, e.getSiteId());
+    f_out.attr(AttributeType.COLLECTION, e.getCollection());
+    f_out.attr(AttributeType.OBJECT, e.getObj());
+    end();
+  }
+
+  @Override
+  void visit(final HappensBeforeExecutor e) {
+    happensBefore("happens-before-exec", e, e.getSiteId());
+    f_out.attr(AttributeType.OBJECT, e.getObj());
+    end();
+  }
+
+  @Override
+  void visit(final Environment e) {
+    f_out.start("environment");
+    for (final Map.Entry<AttributeType, Object> attr : e.getAttributes().entrySet()) {
+      final Object value = attr.getValue();
+      if (value instanceof Number) {
+        f_out.attr(attr.getKey(), ((Number) value).longValue());
+      } else {
+        f_out.attr(attr.getKey(), String.valueOf(value));
+      }
+    }
+    end();
+  }
+
+  @Override
+  void flush() {
+    try {
+      f_out.flush();
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
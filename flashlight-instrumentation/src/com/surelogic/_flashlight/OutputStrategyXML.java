@@ -6,6 +6,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 
 import com.surelogic._flashlight.common.AttributeType;
+import com.surelogic._flashlight.common.FlagType;
 import com.surelogic._flashlight.trace.TraceNode;
 
 final class OutputStrategyXML extends EventVisitor {
@@ -118,6 +119,30 @@ final class OutputStrategyXML extends EventVisitor {
     o(e.toString());
   }
 
+  @Override
+  void visit(final FieldAccessSlab e) {
+    final StringBuilder b = new StringBuilder(128);
+    for (int i = 0; i < e.size(); i++) {
+      if (e.isRemoved(i)) {
+        continue;
+      }
+      b.setLength(0);
+      b.append(e.isWrite(i) ? "<field-write" : "<field-read");
+      Entities.addAttribute(AttributeType.TIME.label(), e.getNanoTime(i), b);
+      Entities.addAttribute(AttributeType.THREAD.label(), e.getThreadId(), b);
+      Entities.addAttribute(AttributeType.TRACE.label(), e.getTraceId(i), b);
+      Entities.addAttribute(AttributeType.FIELD.label(), e.getFieldId(i), b);
+      if (e.hasReceiver(i)) {
+        Entities.addAttribute(AttributeType.RECEIVER.label(), e.getReceiverId(i), b);
+      }
+      if (e.isUnderConstruction(i)) {
+        Entities.addAttribute(FlagType.UNDER_CONSTRUCTION.label(), "yes", b);
+      }
+      b.append("/>");
+      o(b.toString());
+    }
+  }
+
   @Override
   void visit(final FinalEvent e) {
     f_indent = "";
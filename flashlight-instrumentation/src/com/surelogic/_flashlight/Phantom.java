@@ -120,6 +120,50 @@ public final class Phantom {
     }
   }
 
+  /**
+   * Moves garbage collected objects from the queue into the given collection,
+   * blocking until at least one is available. Once the first arrives, this
+   * keeps collecting until the collection has <code>max</code> more elements
+   * or <code>millis</code> more milliseconds have passed, so that objects
+   * collected together are reported together.
+   *
+   * @param c
+   *          the collection to transfer elements into.
+   * @param max
+   *          the most elements to transfer.
+   * @param millis
+   *          how long to wait for the first element, and then for the rest.
+   * @return the number of elements transferred, 0 if none arrived in time.
+   * @throws InterruptedException
+   *           if interrupted while waiting.
+   */
+  public static int drainTo(final Collection<IdPhantomReference> c, final int max, final long millis)
+      throws InterruptedException {
+    IdPhantomReference pr = (IdPhantomReference) f_collected.remove(millis);
+    if (pr == null) {
+      return 0;
+    }
+    final long deadline = System.nanoTime() + millis * 1000000L;
+    int count = 0;
+    for (;;) {
+      c.add(pr);
+      if (++count == max) {
+        return count;
+      }
+      pr = (IdPhantomReference) f_collected.poll();
+      if (pr == null) {
+        final long remaining = (deadline - System.nanoTime()) / 1000000L;
+        if (remaining <= 0) {
+          return count;
+        }
+        pr = (IdPhantomReference) f_collected.remove(remaining);
+        if (pr == null) {
+          return count;
+        }
+      }
+    }
+  }
+
   private Phantom() {
     // no instances
   }
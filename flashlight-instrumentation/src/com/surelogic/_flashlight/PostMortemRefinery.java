@@ -8,9 +8,24 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 public class PostMortemRefinery extends Thread {
 
+  /**
+   * How long the refinery waits after a pass that found events, so that the
+   * next pass finds a useful batch.
+   */
+  private static final long ACTIVE_WAIT_NANOS = 250000L;
+
+  /**
+   * The first and longest waits after passes that found nothing. The wait
+   * doubles after each idle pass. A thread queue past its high-water mark
+   * ends the wait early.
+   */
+  private static final long MIN_IDLE_WAIT_NANOS = 50000L;
+  private static final long MAX_IDLE_WAIT_NANOS = 10000000L;
+
   private final PostMortemStore f_store;
   private final RunConf f_conf;
   private final DefinitionEventGenerator f_defs;
@@ -22,6 +37,7 @@ public class PostMortemRefinery extends Thread {
   private long f_lastRollover;
   private final long f_refineryStart;
   private long f_threadLocalFieldCount;
+  private long f_droppedEventCount;
 
   private final BlockingQueue<List<? extends IdPhantomReference>> f_gcQueue;
   private long f_garbageCollectedObjectCount;
@@ -32,6 +48,19 @@ public class PostMortemRefinery extends Thread {
 
   private volatile boolean f_shutdown;
 
+  private long f_idleWaitNanos;
+  private long f_lastPassNanos;
+
+  /*
+   * Scheduling metrics, displayed by the refinery console command.
+   */
+  private final Histogram f_queueDepths = new Histogram("thread queue depth at drain", "event(s)");
+  private final Histogram f_drainRates = new Histogram("drain rate", "event(s)/ms");
+  private volatile long f_passes;
+  private volatile long f_idlePasses;
+  private volatile long f_eagerPasses;
+  private volatile long f_eventCount;
+
   public PostMortemRefinery(PostMortemStore store, RunConf conf, DefinitionEventGenerator defs,
       BlockingQueue<List<? extends IdPhantomReference>> gcQueue, BlockingQueue<List<Event>> outQueue, int refinerySize) {
     super("flashlight-refinery");
@@ -50,6 +79,7 @@ public class PostMortemRefinery extends Thread {
 
   void requestShutdown() {
     f_shutdown = true;
+    LockSupport.unpark(this);
   }
 
   void registerThread(PostMortemStore.State state) {
@@ -59,11 +89,20 @@ public class PostMortemRefinery extends Thread {
   @Override
   public void run() {
     int count = 0;
+    final List<StateReference> registered = new ArrayList<StateReference>();
+    f_lastPassNanos = System.nanoTime();
     for (;;) {
       boolean isFinished = f_shutdown;
       // Add any threads that need to be registered to the list of active
       // threads.
-      f_toRegister.drainTo(activeThreads);
+      f_toRegister.drainTo(registered);
+      for (StateReference ref : registered) {
+        ref.localQueue.setConsumer(this);
+      }
+      activeThreads.addAll(registered);
+      registered.clear();
+      int drained = 0;
+      boolean highWater = false;
 
       long curTime = System.nanoTime();
       boolean timesUp;
@@ -82,17 +121,33 @@ public class PostMortemRefinery extends Thread {
         for (Iterator<StateReference> iter = activeThreads.iterator(); iter.hasNext();) {
           StateReference ref = iter.next();
           boolean isThreadDone = ref.get() == null;
-          ref.localQueue.drainTo(buf);
+          final int n = ref.localQueue.drainTo(buf);
+          drained += n;
+          highWater |= recordDrain(ref, n);
           if (isThreadDone) {
+            f_droppedEventCount += ref.localQueue.getDroppedCount();
             iter.remove();
           }
         }
+        List<FieldAccessSlab> laterSlabs = null;
         for (Event e : buf) {
+          if (e instanceof FieldAccessSlab) {
+            final FieldAccessSlab later = ((FieldAccessSlab) e).splitAfter(curTime);
+            if (later != null) {
+              if (laterSlabs == null) {
+                laterSlabs = new ArrayList<FieldAccessSlab>();
+              }
+              laterSlabs.add(later);
+            }
+          }
           if (!e.isTimedEvent() || e.getTime() <= curTime) {
             f_eventCache.add(e);
           }
         }
         f_eventCache.add(new CheckpointEvent(curTime));
+        if (laterSlabs != null) {
+          f_eventCache.addAll(laterSlabs);
+        }
         for (Event e : buf) {
           if (e.isTimedEvent() && e.getTime() > curTime) {
             f_eventCache.add(e);
@@ -107,12 +162,17 @@ public class PostMortemRefinery extends Thread {
         for (Iterator<StateReference> iter = activeThreads.iterator(); iter.hasNext();) {
           StateReference ref = iter.next();
           boolean isThreadDone = ref.get() == null;
-          count += ref.localQueue.drainTo(f_eventCache);
+          final int n = ref.localQueue.drainTo(f_eventCache);
+          count += n;
+          drained += n;
+          highWater |= recordDrain(ref, n);
           if (isThreadDone) {
+            f_droppedEventCount += ref.localQueue.getDroppedCount();
             iter.remove();
           }
         }
       }
+      f_eventCount += drained;
       // We are done here, so shut down the thread
       processGarbageCollectedObjects();
       if (isFinished) {
@@ -121,19 +181,74 @@ public class PostMortemRefinery extends Thread {
       boolean xferd = transferEventsToOutQueue(isCheckpoint || isFinished);
       if (isFinished) {
         break;
-      } else if (xferd) {
-        /*
-         * This prevents us from busy looping when there is no data.
-         */
-        try {
-          Thread.sleep(1);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-        }
       }
+      schedule(drained, highWater, xferd);
+    }
+    for (StateReference ref : activeThreads) {
+      f_droppedEventCount += ref.localQueue.getDroppedCount();
     }
     f_conf.log("refinery completed (" + f_garbageCollectedObjectCount + " object(s) garbage collected : " + f_threadLocalFieldCount
-        + " thread-local fields observed)");
+        + " thread-local fields observed : " + f_droppedEventCount + " event(s) dropped)");
+  }
+
+  /**
+   * Records the number of events drained from a thread queue.
+   *
+   * @return {@code true} if the queue was past its high-water mark.
+   */
+  private boolean recordDrain(final StateReference ref, final int n) {
+    if (n > 0) {
+      f_queueDepths.record(n);
+    }
+    return n >= ref.localQueue.getHighWater();
+  }
+
+  /**
+   * Waits before the next pass over the thread queues. A pass that found a
+   * queue past its high-water mark is followed at once by another. After a
+   * pass that found events the refinery waits briefly to let a batch build up.
+   * After passes that found nothing it backs off exponentially, until a thread
+   * queue fills past its high-water mark and wakes it.
+   */
+  private void schedule(final int drained, final boolean highWater, final boolean xferd) {
+    final long now = System.nanoTime();
+    if (drained > 0) {
+      f_drainRates.record(drained * 1000000L / Math.max(1, now - f_lastPassNanos));
+    }
+    f_lastPassNanos = now;
+    f_passes++;
+    if (highWater) {
+      f_eagerPasses++;
+      f_idleWaitNanos = 0;
+      return;
+    }
+    final long wait;
+    if (drained > 0 || xferd) {
+      f_idleWaitNanos = 0;
+      wait = ACTIVE_WAIT_NANOS;
+    } else {
+      f_idlePasses++;
+      f_idleWaitNanos = f_idleWaitNanos == 0 ? MIN_IDLE_WAIT_NANOS : Math.min(f_idleWaitNanos * 2, MAX_IDLE_WAIT_NANOS);
+      wait = f_idleWaitNanos;
+    }
+    LockSupport.parkNanos(this, wait);
+  }
+
+  /**
+   * Gets the number of events the refinery has taken from the thread queues so
+   * far. Events the queues dropped are not counted.
+   */
+  long getEventCount() {
+    return f_eventCount;
+  }
+
+  /**
+   * Describes how the refinery has been scheduled and how full the thread
+   * queues were when drained.
+   */
+  String getStatistics() {
+    return "refinery: " + f_passes + " pass(es) : " + f_idlePasses + " idle : " + f_eagerPasses + " past high-water\n"
+        + f_queueDepths + "\n" + f_drainRates;
   }
 
   /**
@@ -236,6 +351,8 @@ public class PostMortemRefinery extends Thread {
         if (refs.containsObject(a.getReceiver())) {
           f_eventCache.set(i, null);
         }
+      } else if (e instanceof FieldAccessSlab) {
+        ((FieldAccessSlab) e).removeEventsAbout(refs);
       }
     }
   }
@@ -273,7 +390,7 @@ public class PostMortemRefinery extends Thread {
    */
   private static class StateReference extends WeakReference<PostMortemStore.State> {
 
-    final BlockingQueue<Event> localQueue;
+    final EventRingBuffer localQueue;
 
     public StateReference(com.surelogic._flashlight.PostMortemStore.State referent) {
       super(referent);
@@ -50,11 +50,22 @@ public class PostMortemStore implements StoreListener {
   public static final class State {
     final ThreadPhantomReference thread;
     public final Traces.Header traceHeader;
-    final BlockingQueue<Event> localQueue;
+    final EventRingBuffer localQueue;
+    /**
+     * {@code true} if field accesses are recorded as primitive records in
+     * {@link #localQueue} rather than as events.
+     */
+    final boolean useSlabs;
 
     State() {
-      localQueue = new ArrayBlockingQueue<Event>(StoreConfiguration.getRawQueueSize());
       thread = Phantom.ofThread(Thread.currentThread());
+      useSlabs = StoreConfiguration.useEventSlabs();
+      if (useSlabs) {
+        localQueue = new EventRingBuffer(StoreConfiguration.getRawQueueSize(), StoreConfiguration.getRawQueuePolicy(),
+            thread.getId());
+      } else {
+        localQueue = new EventRingBuffer(StoreConfiguration.getRawQueueSize(), StoreConfiguration.getRawQueuePolicy());
+      }
       traceHeader = Traces.makeHeader();
     }
 
@@ -108,22 +119,24 @@ public class PostMortemStore implements StoreListener {
     // Initialize Refinery and Depository
     final OutputType outType = StoreConfiguration.getOutputType();
     if (StoreConfiguration.debugOn()) {
-      System.err.println("Output XML = " + outType);
+      System.err.println("Output type = " + outType);
     }
     EventVisitor outputStrategy = null;
+    final DepositoryWriter writer = new DepositoryWriter(StoreConfiguration.getOutQueueSize());
+    writer.start();
     if (StoreConfiguration.debugOn()) {
       System.err.println("Compress stream = " + outType.isCompressed());
     }
-    final EventVisitor.Factory factory = OutputStrategyXML.factory;
     if (StoreConfiguration.hasOutputPort()) {
       // This check needs to be before the MultiFileOutput check,
       // as we do not switch output streams when we are using
       // checkpointing and sockets at the same time.
       f_conf.log("Using network output.");
-      outputStrategy = new SocketOutputStrategy(f_conf, factory, outType);
+      outputStrategy = new SocketOutputStrategy(f_conf, OutputStrategyXML.factory, outType, writer);
     } else {
+      final EventVisitor.Factory factory = outType.isBinary() ? OutputStrategyBinary.factory : OutputStrategyXML.factory;
       f_conf.log("Using checkpointing output.");
-      outputStrategy = new CheckpointingOutputStreamStrategy(f_conf, factory, outType);
+      outputStrategy = new CheckpointingOutputStreamStrategy(f_conf, factory, outType, writer);
     }
 
     // Initialize Queues
@@ -143,9 +156,10 @@ public class PostMortemStore implements StoreListener {
     final int refinerySize = StoreConfiguration.getRefinerySize();
     f_refinery = new PostMortemRefinery(this, f_conf, defs, f_gcQueue, f_outQueue, refinerySize);
     f_refinery.start();
-    f_depository = new Depository(f_conf, f_outQueue, outputStrategy);
+    f_depository = new Depository(f_conf, f_outQueue, outputStrategy, writer);
     f_depository.start();
-    f_conf.log("collection started (rawQ=" + StoreConfiguration.getRawQueueSize() + " : refinery=" + refinerySize + " : outQ="
+    f_conf.log("collection started (rawQ=" + StoreConfiguration.getRawQueueSize() + " "
+        + StoreConfiguration.getRawQueuePolicy() + " : refinery=" + refinerySize + " : outQ="
         + StoreConfiguration.getOutQueueSize() + ")");
     f_conf.logFlush();
   }
@@ -154,6 +168,20 @@ public class PostMortemStore implements StoreListener {
   public void instanceFieldAccess(final boolean read, final Object receiver, final int fieldID, final long siteId,
       final ClassPhantomReference dcPhantom, final Class<?> declaringClass) {
     final State state = tl_withinStore.get();
+    if (state.useSlabs) {
+      final long nanoTime = System.nanoTime();
+      final long traceId = getTraceId(state, siteId);
+      final ObjectPhantomReference phantom = Phantom.ofObject(receiver);
+      long info = FieldAccessSlab.INSTANCE;
+      if (!read) {
+        info |= FieldAccessSlab.WRITE;
+      }
+      if (phantom.isUnderConstruction()) {
+        info |= FieldAccessSlab.UNDER_CONSTRUCTION;
+      }
+      state.localQueue.putFieldAccess(info, nanoTime, fieldID, phantom.getId(), traceId);
+      return;
+    }
     final Event e;
     if (read) {
       e = new FieldReadInstance(receiver, fieldID, siteId, state);
@@ -171,6 +199,15 @@ public class PostMortemStore implements StoreListener {
     if (dcPhantom != null) {
       underConstruction = dcPhantom.isUnderConstruction();
     }
+    if (state.useSlabs) {
+      final long nanoTime = System.nanoTime();
+      long info = read ? 0 : FieldAccessSlab.WRITE;
+      if (underConstruction) {
+        info |= FieldAccessSlab.UNDER_CONSTRUCTION;
+      }
+      state.localQueue.putFieldAccess(info, nanoTime, fieldID, 0, getTraceId(state, siteId));
+      return;
+    }
     final Event e;
     if (read) {
       e = new FieldReadStatic(fieldID, siteId, state, underConstruction);
@@ -180,6 +217,15 @@ public class PostMortemStore implements StoreListener {
     putInQueue(state, e);
   }
 
+  /**
+   * Gets the id of the current trace for a field access recorded as a
+   * primitive record, the same way a {@link TracedEvent} does.
+   */
+  private static long getTraceId(final State state, final long siteId) {
+    final TraceNode trace = state.getCurrentTrace(siteId);
+    return trace == null ? 0 : trace.getId();
+  }
+
   @Override
   public void indirectAccess(final Object receiver, final long siteId) {
     final State state = tl_withinStore.get();
@@ -336,6 +382,14 @@ public class PostMortemStore implements StoreListener {
     putInQueue(tl_withinStore.get(), new FieldAssignment(fieldId, value));
   }
 
+  /**
+   * Gets the number of events the refinery has taken from the thread queues so
+   * far.
+   */
+  long getEventCount() {
+    return f_refinery == null ? 0 : f_refinery.getEventCount();
+  }
+
   @Override
   public void shutdown() {
     /*
@@ -353,8 +407,18 @@ public class PostMortemStore implements StoreListener {
 
   static final int LOCAL_QUEUE_MAX = 256;
 
+  /**
+   * Puts an event into the raw queue of the passed thread state. If the queue
+   * is full the configured {@link StoreConfiguration#getRawQueuePolicy()} is
+   * applied, but only events that happen at a point in time may be dropped.
+   *
+   * @param state
+   *          the state of the calling thread.
+   * @param e
+   *          the event to put into the raw queue.
+   */
   public static void putInQueue(final State state, final Event e) {
-    putInQueue(state.localQueue, e);
+    state.localQueue.put(e, e.isTimedEvent());
   }
 
   /**
@@ -429,7 +493,25 @@ public class PostMortemStore implements StoreListener {
 
   @Override
   public Collection<? extends ConsoleCommand> getCommands() {
-    return Collections.emptyList();
+    return Collections.singletonList(new RefineryCommand());
+  }
+
+  class RefineryCommand implements ConsoleCommand {
+    private static final String REFINERY = "refinery";
+
+    @Override
+    public String getDescription() {
+      return REFINERY + " - display refinery scheduling and thread queue depth histograms";
+    }
+
+    @Override
+    public String handle(final String command) {
+      if (REFINERY.equalsIgnoreCase(command)) {
+        return f_refinery.getStatistics();
+      }
+      return null;
+    }
+
   }
 
   @Override
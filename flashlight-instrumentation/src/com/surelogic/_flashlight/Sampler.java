@@ -0,0 +1,78 @@
+package com.surelogic._flashlight;
+
+/**
+ * A thread that turns the recording of field accesses on and off in bursts
+ * when the collection type is {@link com.surelogic._flashlight.common.CollectionType#SAMPLED}.
+ * Accesses are recorded for the first part of each period and ignored for the
+ * rest. Recording every access in a burst, rather than a scattering of
+ * accesses from the whole run, keeps the interleavings between threads that
+ * the analyses look for. Lock events are always recorded.
+ */
+final class Sampler extends Thread {
+
+  /**
+   * {@code true} while field accesses are being recorded. This is always
+   * {@code true} unless a sampler is running.
+   */
+  private static volatile boolean f_recording = true;
+
+  private final long f_onMillis;
+  private final long f_offMillis;
+
+  private volatile boolean f_shutdownRequested = false;
+
+  /**
+   * Constructs a sampler.
+   *
+   * @param onMillis
+   *          how long each burst of recording lasts.
+   * @param periodMillis
+   *          how often a burst starts. Must be longer than a burst.
+   */
+  Sampler(final long onMillis, final long periodMillis) {
+    super("flashlight-sampler");
+    setDaemon(true);
+    f_onMillis = onMillis;
+    f_offMillis = periodMillis - onMillis;
+  }
+
+  /**
+   * Checks whether field accesses are being recorded right now.
+   */
+  static boolean isRecording() {
+    return f_recording;
+  }
+
+  @Override
+  public void run() {
+    Store.flashlightThread();
+
+    while (!f_shutdownRequested) {
+      f_recording = true;
+      pause(f_onMillis);
+      if (f_shutdownRequested) {
+        break;
+      }
+      f_recording = false;
+      pause(f_offMillis);
+    }
+    f_recording = true;
+  }
+
+  private static void pause(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      // ignore, likely during a shutdown
+    }
+  }
+
+  /**
+   * Signals that this sampler should stop. Recording is left on. This method
+   * returns immediately.
+   */
+  void requestShutdown() {
+    f_shutdownRequested = true;
+    this.interrupt(); // wake up
+  }
+}
@@ -2,18 +2,26 @@ package com.surelogic._flashlight;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class SingleThreadedRefs {
   private Set<IdPhantomReference> deadObjects = null;
   private Set<SingleThreadedField> deadFields = null;
+  /*
+   * The dead fields by id, built when first needed by a FieldAccessSlab. Maps
+   * a receiver id, or null for static fields, to a set of field ids.
+   */
+  private Map<Long, Set<Long>> deadFieldIds = null;
 
   void addSingleThreadedFields(Collection<SingleThreadedField> list) {
     if (deadFields == null) {
       deadFields = new HashSet<SingleThreadedField>();
     }
     deadFields.addAll(list);
+    deadFieldIds = null;
   }
 
   void addField(SingleThreadedField singleThreadedEventAbout) {
@@ -21,6 +29,7 @@ public class SingleThreadedRefs {
       deadFields = new HashSet<SingleThreadedField>();
     }
     deadFields.add(singleThreadedEventAbout);
+    deadFieldIds = null;
   }
 
   /**
@@ -43,6 +52,42 @@ public class SingleThreadedRefs {
     return deadFields.contains(e);
   }
 
+  /**
+   * Whether or not the field with the given id in the given receiver is
+   * single-threaded.
+   */
+  boolean containsField(final long fieldId, final long receiverId) {
+    return containsFieldId(Long.valueOf(receiverId), fieldId);
+  }
+
+  /**
+   * Whether or not the static field with the given id is single-threaded.
+   */
+  boolean containsStaticField(final long fieldId) {
+    return containsFieldId(null, fieldId);
+  }
+
+  private boolean containsFieldId(final Long receiverId, final long fieldId) {
+    if (deadFields == null || deadFields.isEmpty()) {
+      return false;
+    }
+    if (deadFieldIds == null) {
+      deadFieldIds = new HashMap<Long, Set<Long>>();
+      for (SingleThreadedField f : deadFields) {
+        final Long receiver = f instanceof SingleThreadedFieldInstance ? Long
+            .valueOf(((SingleThreadedFieldInstance) f).getReceiver().getId()) : null;
+        Set<Long> ids = deadFieldIds.get(receiver);
+        if (ids == null) {
+          ids = new HashSet<Long>();
+          deadFieldIds.put(receiver, ids);
+        }
+        ids.add(f.getFieldId());
+      }
+    }
+    final Set<Long> ids = deadFieldIds.get(receiverId);
+    return ids != null && ids.contains(fieldId);
+  }
+
   /**
    * Whether or not we have a dead indirectly accessed object
    *
@@ -70,6 +115,7 @@ public class SingleThreadedRefs {
     if (deadFields != null) {
       deadFields.clear();
     }
+    deadFieldIds = null;
   }
 
   public boolean isEmpty() {
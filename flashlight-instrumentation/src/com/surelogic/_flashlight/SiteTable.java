@@ -0,0 +1,92 @@
+package com.surelogic._flashlight;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A table of values indexed by site id. The rewriter hands out site ids densely
+ * from zero, so a growable array can stand in for a hash map keyed by site id.
+ * Reading is a couple of array loads and never locks. Writing locks, but each
+ * site is typically only written once.
+ *
+ * <p>
+ * Site ids past {@link #MAX_SITES} are not stored in the table. Callers must
+ * be prepared for {@link #get(long)} to return {@code null} for any site.
+ *
+ * @param <T>
+ *          the type of the values.
+ */
+public final class SiteTable<T> {
+
+  /**
+   * The largest number of sites held in a table.
+   */
+  public static final int MAX_SITES = 1 << 22;
+
+  private static final int INITIAL_SIZE = 1024;
+
+  /**
+   * Only replaced, by a larger copy, while holding the lock on this.
+   */
+  private volatile AtomicReferenceArray<T> f_table = new AtomicReferenceArray<T>(INITIAL_SIZE);
+
+  /**
+   * Gets the value for the passed site.
+   *
+   * @param siteId
+   *          a site id.
+   * @return the value for the site, or {@code null} if there is none.
+   */
+  public T get(final long siteId) {
+    final AtomicReferenceArray<T> table = f_table;
+    if (siteId >= 0 && siteId < table.length()) {
+      return table.get((int) siteId);
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether a site can be held in a table. Callers can check this
+   * before building a value for a site that {@link #put(long, Object)} would
+   * only discard.
+   *
+   * @param siteId
+   *          a site id.
+   * @return {@code true} if the site id is not negative and less than
+   *         {@link #MAX_SITES}.
+   */
+  public static boolean holds(final long siteId) {
+    return siteId >= 0 && siteId < MAX_SITES;
+  }
+
+  /**
+   * Sets the value for the passed site, replacing any value it had. Nothing
+   * happens, and no lock is taken, if the site id is negative or not less than
+   * {@link #MAX_SITES}.
+   *
+   * @param siteId
+   *          a site id.
+   * @param value
+   *          the value.
+   */
+  public void put(final long siteId, final T value) {
+    if (holds(siteId)) {
+      store((int) siteId, value);
+    }
+  }
+
+  private synchronized void store(final int siteId, final T value) {
+    AtomicReferenceArray<T> table = f_table;
+    if (siteId >= table.length()) {
+      int size = table.length();
+      while (size <= siteId) {
+        size <<= 1;
+      }
+      final AtomicReferenceArray<T> larger = new AtomicReferenceArray<T>(size);
+      for (int i = 0; i < table.length(); i++) {
+        larger.lazySet(i, table.get(i));
+      }
+      f_table = table = larger;
+    }
+    table.set(siteId, value);
+  }
+}
@@ -23,10 +23,12 @@ public class SocketOutputStrategy extends EventVisitor {
   final Factory f_fact;
   private final Thread f_connectThread;
   final OutputType f_outType;
+  final DepositoryWriter f_writer;
   volatile boolean connecting;
 
-  public SocketOutputStrategy(final RunConf conf, final Factory factory, final OutputType outType) {
+  SocketOutputStrategy(final RunConf conf, final Factory factory, final OutputType outType, final DepositoryWriter writer) {
     f_conf = conf;
+    f_writer = writer;
     f_fact = factory;
     f_outType = outType;
     f_conf
@@ -56,7 +58,7 @@ public class SocketOutputStrategy extends EventVisitor {
           // If it worked, we are good to go. If it didn't, then it is
           // time to shut down.
           if (f_socket != null) {
-            OutputStream stream = OutputType.getOutputStreamFor(f_socket.getOutputStream(), f_outType);
+            OutputStream stream = f_writer.open(OutputType.getOutputStreamFor(f_socket.getOutputStream(), f_outType));
             f_out = f_fact.create(f_conf, stream);
             success = true;
           } else {
@@ -210,6 +212,13 @@ public class SocketOutputStrategy extends EventVisitor {
     }
   }
 
+  @Override
+  void visit(final FieldAccessSlab e) {
+    if (checkConnection()) {
+      f_out.visit(e);
+    }
+  }
+
   @Override
   void visit(final FinalEvent e) {
     if (checkConnection()) {
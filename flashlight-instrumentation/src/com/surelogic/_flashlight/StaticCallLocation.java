@@ -25,6 +25,10 @@ public class StaticCallLocation extends AbstractCallLocation {
     return f_memberName;
   }
 
+  public String getLocationDesc() {
+    return f_memberDesc;
+  }
+
   public int getLocationMod() {
     return f_memberMod;
   }
@@ -45,6 +49,10 @@ public class StaticCallLocation extends AbstractCallLocation {
     return f_methodCallDesc;
   }
 
+  public int getMethodCallMod() {
+    return f_methodCallModifier;
+  }
+
   public boolean isInInterface() {
     return f_isInInterface;
   }
@@ -1,10 +1,12 @@
 package com.surelogic._flashlight;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.surelogic._flashlight.common.IdConstants;
 import com.surelogic._flashlight.monitor.MonitorStore;
+import com.surelogic._flashlight.monitor.RaceStore;
 
 /**
  * This class defines the interface into the Flashlight data store.
@@ -39,6 +41,38 @@ public class Store {
 
   private static final GCThread f_gc;
 
+  /**
+   * Turns the recording of field accesses on and off when the collection type
+   * is sampled, otherwise {@code null}.
+   */
+  private static final Sampler f_sampler;
+
+  /**
+   * The declaring class of the field accessed at each site, so that the class
+   * phantom need not be looked up on every access.
+   */
+  private static final SiteTable<SiteClass> f_siteClasses = new SiteTable<SiteClass>();
+
+  static final class SiteClass {
+    /**
+     * Weak so that the class can still be unloaded. A site may also see a
+     * different class if its class is loaded by several class loaders.
+     */
+    final WeakReference<Class<?>> f_class;
+    final ClassPhantomReference f_phantom;
+
+    SiteClass(final Class<?> c, final ClassPhantomReference phantom) {
+      f_class = new WeakReference<Class<?>>(c);
+      f_phantom = phantom;
+    }
+  }
+
+  /**
+   * Answers the type checks of the happens-before entry points that the
+   * rewriter could not resolve.
+   */
+  private static final AssignabilityCache f_assignability = new AssignabilityCache();
+
   static final RunConf f_conf;
 
   static final List<StoreListener> f_listeners;
@@ -62,14 +96,19 @@ public class Store {
 
       // TODO add listeners based on properties
 
-      f_listeners = new ArrayList<StoreListener>(2);
+      f_listeners = new ArrayList<StoreListener>(3);
       f_listeners.add(new MonitorStore());
+      if (StoreConfiguration.checkRaces()) {
+        f_listeners.add(new RaceStore());
+      }
       if (StoreConfiguration.isPostmortemMode()) {
         f_listeners.add(new PostMortemStore());
       }
       List<ConsoleCommand> commands = new ArrayList<ConsoleCommand>();
       commands.add(new ShutdownCommand());
       commands.add(new PingCommand());
+      commands.add(new GCCommand());
+      commands.add(new HappensBeforeCommand());
       for (StoreListener l : f_listeners) {
         l.init(f_conf);
         commands.addAll(l.getCommands());
@@ -111,6 +150,15 @@ public class Store {
        */
       f_gc = new GCThread();
       f_gc.start();
+      /*
+       * Start sampling field accesses
+       */
+      if (StoreConfiguration.isSampling()) {
+        f_sampler = new Sampler(StoreConfiguration.getSampleOnMillis(), StoreConfiguration.getSamplePeriodMillis());
+        f_sampler.start();
+      } else {
+        f_sampler = null;
+      }
 
       f_flashlightIsNotInitialized = false;
       StoreDelegate.FL_OFF.set(false);
@@ -120,6 +168,7 @@ public class Store {
       f_spy = null;
       f_conf = null;
       f_gc = null;
+      f_sampler = null;
       tl_withinStore = null;
     }
   }
@@ -143,8 +192,10 @@ public class Store {
   }
 
   /**
-   * Garbage collection thread. It polls the phantom reference queues and
-   * reports garbage collection events to the {@link StoreListener} listeners.
+   * Garbage collection thread. It waits on the phantom reference queue and
+   * reports garbage collection events, in batches, to the {@link StoreListener}
+   * listeners. The thread blocks while nothing is being collected, so it does
+   * not take a processor away from the instrumented program.
    *
    * @author nathan
    *
@@ -154,27 +205,77 @@ public class Store {
     private final List<IdPhantomReference> references = new ArrayList<IdPhantomReference>();
     private volatile boolean keepAlive = true;
 
+    private final int f_batchSize;
+    private final long f_batchMillis;
+    private final long f_startNanos = System.nanoTime();
+
+    /*
+     * Metrics, only written by this thread.
+     */
+    private volatile long f_processed;
+    private volatile long f_batches;
+    private volatile long f_largestBatch;
+    private volatile long f_lastRate;
+    private long f_intervalStartNanos = f_startNanos;
+    private long f_intervalProcessed;
+
     GCThread() {
       super("flashlight-gc");
+      f_batchSize = StoreConfiguration.getGCBatchSize();
+      f_batchMillis = StoreConfiguration.getGCBatchMillis();
     }
 
     @Override
     public void run() {
       while (keepAlive) {
-        Phantom.drainTo(references);
-        if (references.size() > 0) {
+        try {
+          Phantom.drainTo(references, f_batchSize, f_batchMillis);
+        } catch (final InterruptedException e) {
+          // Report anything already collected, then check keepAlive
+        }
+        final int size = references.size();
+        if (size > 0) {
           for (StoreListener l : f_listeners) {
             l.garbageCollect(references);
           }
           references.clear();
+          f_processed += size;
+          f_batches++;
+          if (size > f_largestBatch) {
+            f_largestBatch = size;
+          }
         }
-        Thread.yield();
+        updateRate(size);
+      }
+    }
+
+    /**
+     * Keeps the rate of references processed over roughly the last second.
+     */
+    private void updateRate(final int size) {
+      f_intervalProcessed += size;
+      final long now = System.nanoTime();
+      final long elapsed = now - f_intervalStartNanos;
+      if (elapsed >= 1000000000L) {
+        f_lastRate = f_intervalProcessed * 1000000000L / elapsed;
+        f_intervalStartNanos = now;
+        f_intervalProcessed = 0;
       }
     }
 
     public void requestShutdown() {
       keepAlive = false;
     }
+
+    /**
+     * Describes how many garbage collected objects this thread has reported.
+     */
+    String getStatistics() {
+      final long processed = f_processed;
+      final long elapsed = Math.max(1, System.nanoTime() - f_startNanos);
+      return String.format("gc: %d reference(s) in %d batch(es) (largest %d) : %d/s recently : %d/s overall", processed,
+          f_batches, f_largestBatch, f_lastRate, processed * 1000000000L / elapsed);
+    }
   }
 
   /**
@@ -198,9 +299,27 @@ public class Store {
     return true;
   }
 
+  /**
+   * Gets the phantom of the class declaring the field accessed at a site,
+   * from {@link #f_siteClasses} if it has been seen at the site before. Sites
+   * the table cannot hold always look the phantom up.
+   */
+  private static ClassPhantomReference getDeclaringClassPhantom(final long siteId, final Class<?> declaringClass) {
+    if (!SiteTable.holds(siteId)) {
+      return Phantom.ofClass(declaringClass);
+    }
+    final SiteClass known = f_siteClasses.get(siteId);
+    if (known != null && known.f_class.get() == declaringClass) {
+      return known.f_phantom;
+    }
+    final ClassPhantomReference phantom = Phantom.ofClass(declaringClass);
+    f_siteClasses.put(siteId, new SiteClass(declaringClass, phantom));
+    return phantom;
+  }
+
   public static void instanceFieldAccess(final boolean read, final Object receiver, final int fieldID, final long siteId,
       final ClassPhantomReference dcPhantom, final Class<?> declaringClass) {
-    if (!StoreConfiguration.processFieldAccesses()) {
+    if (!StoreConfiguration.processFieldAccesses() || !Sampler.isRecording()) {
       return;
     }
     if (checkInside()) {
@@ -216,7 +335,7 @@ public class Store {
          * before and broke things.
          */
         if (declaringClass != null) {
-          Phantom.ofClass(declaringClass);
+          getDeclaringClassPhantom(siteId, declaringClass);
         }
         for (StoreListener l : f_listeners) {
           l.instanceFieldAccess(read, receiver, fieldID, siteId, dcPhantom, declaringClass);
@@ -229,7 +348,7 @@ public class Store {
 
   public static void staticFieldAccess(final boolean read, final int fieldID, final long siteId,
       final ClassPhantomReference dcPhantom, final Class<?> declaringClass) {
-    if (!StoreConfiguration.processFieldAccesses()) {
+    if (!StoreConfiguration.processFieldAccesses() || !Sampler.isRecording()) {
       return;
     }
     if (checkInside()) {
@@ -245,7 +364,7 @@ public class Store {
          * before and broke things.
          */
         if (declaringClass != null) {
-          Phantom.ofClass(declaringClass);
+          getDeclaringClassPhantom(siteId, declaringClass);
         }
         for (StoreListener l : f_listeners) {
           l.staticFieldAccess(read, fieldID, siteId, dcPhantom, declaringClass);
@@ -257,7 +376,7 @@ public class Store {
   }
 
   public static void indirectAccess(final Object receiver, final long siteId) {
-    if (!StoreConfiguration.getCollectionType().processIndirectAccesses()) {
+    if (!StoreConfiguration.getCollectionType().processIndirectAccesses() || !Sampler.isRecording()) {
       return;
     }
     if (checkInside()) {
@@ -655,7 +774,7 @@ public class Store {
       final String typeName, final boolean isCallIn) {
     if (checkInside()) {
       try {
-        if (typeName == null || Class.forName(typeName).isAssignableFrom(Thread.currentThread().getClass())) {
+        if (typeName == null || f_assignability.isAssignable(siteId, typeName, Thread.currentThread().getClass())) {
           for (StoreListener l : f_listeners) {
             l.happensBeforeThread(id, callee, siteId, typeName, nanoTime);
           }
@@ -680,7 +799,7 @@ public class Store {
       final String typeName, final boolean isCallIn) {
     if (checkInside()) {
       try {
-        if (typeName == null || Class.forName(typeName).isAssignableFrom(object.getClass())) {
+        if (typeName == null || f_assignability.isAssignable(siteId, typeName, object.getClass())) {
           for (StoreListener l : f_listeners) {
             l.happensBeforeObject(id, object, siteId, typeName, nanoTime);
           }
@@ -705,7 +824,7 @@ public class Store {
       final long siteId, final String typeName, final boolean isCallIn) {
     if (checkInside()) {
       try {
-        if (typeName == null || Class.forName(typeName).isAssignableFrom(collection.getClass())) {
+        if (typeName == null || f_assignability.isAssignable(siteId, typeName, collection.getClass())) {
           for (StoreListener l : f_listeners) {
             l.happensBeforeCollection(id, collection, item, siteId, typeName, nanoTime);
           }
@@ -722,7 +841,7 @@ public class Store {
       final String typeName, final boolean isCallIn) {
     if (checkInside()) {
       try {
-        if (typeName == null || Class.forName(typeName).isAssignableFrom(object.getClass())) {
+        if (typeName == null || f_assignability.isAssignable(siteId, typeName, object.getClass())) {
           for (StoreListener l : f_listeners) {
             l.happensBeforeExecutor(id, object, siteId, typeName, nanoTime);
           }
@@ -777,6 +896,12 @@ public class Store {
     }
 
     f_gc.requestShutdown();
+    f_conf.log(f_gc.getStatistics());
+    f_conf.log(f_assignability.getStatistics());
+
+    if (f_sampler != null) {
+      f_sampler.requestShutdown();
+    }
 
     /*
      * Shutdown store listeners
@@ -800,6 +925,23 @@ public class Store {
     f_conf.logComplete();
   }
 
+  /**
+   * Gets the number of events the post-mortem store has taken from the program
+   * threads so far. This is 0 if flashlight is not collecting post-mortem
+   * data.
+   */
+  public static long getEventCount() {
+    long count = 0;
+    if (f_listeners != null) {
+      for (StoreListener l : f_listeners) {
+        if (l instanceof PostMortemStore) {
+          count += ((PostMortemStore) l).getEventCount();
+        }
+      }
+    }
+    return count;
+  }
+
   /**
    * Get the phantom object reference for the given {@code Class} object. Cannot
    * use {@link Phantom#ofClass(Class)} directly because we need to make sure
@@ -869,6 +1011,38 @@ public class Store {
     }
   }
 
+  static class GCCommand implements ConsoleCommand {
+
+    @Override
+    public String handle(final String command) {
+      if ("gc".equalsIgnoreCase(command)) {
+        return f_gc.getStatistics();
+      }
+      return null;
+    }
+
+    @Override
+    public String getDescription() {
+      return "gc - displays garbage collection processing statistics";
+    }
+  }
+
+  static class HappensBeforeCommand implements ConsoleCommand {
+
+    @Override
+    public String handle(final String command) {
+      if ("hb".equalsIgnoreCase(command)) {
+        return f_assignability.getStatistics();
+      }
+      return null;
+    }
+
+    @Override
+    public String getDescription() {
+      return "hb - displays happens-before type check cache statistics";
+    }
+  }
+
   static class PingCommand implements ConsoleCommand {
 
     @Override
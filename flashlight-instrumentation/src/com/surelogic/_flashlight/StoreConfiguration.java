@@ -4,12 +4,22 @@ import static com.surelogic._flashlight.common.InstrumentationConstants.DATE_FOR
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_ANDROID;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_COLLECTION_TYPE;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_COLLECTION_TYPE_DEFAULT;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_COMPRESSION_THREADS;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_COMPRESSION_THREADS_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_CONSOLE_PORT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_CONSOLE_PORT_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_DATE_OVERRIDE;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_DEBUG;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_DIR;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_EVENT_SLABS;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_EVENT_SLABS_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_FIELDS_FILE;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_FSYNC_POLICY;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_FSYNC_POLICY_DEFAULT;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_GC_BATCH_MS;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_GC_BATCH_MS_DEFAULT;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_GC_BATCH_SIZE;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_GC_BATCH_SIZE_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_FIELDS_FILE_LOC;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_FIELDS_RESOURCE;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_LOG_FILE_LOC;
@@ -23,7 +33,11 @@ import static com.surelogic._flashlight.common.InstrumentationConstants.FL_OUTQ_
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_OUTQ_SIZE_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_POSTMORTEM;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_POSTMORTEM_DEFAULT;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RACES;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RACES_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_PROPERTIES_RESOURCE;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RAWQ_POLICY;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RAWQ_POLICY_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RAWQ_SIZE;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RAWQ_SIZE_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_REFINERY_OFF;
@@ -32,6 +46,10 @@ import static com.surelogic._flashlight.common.InstrumentationConstants.FL_REFIN
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RUN;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RUN_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_RUN_FOLDER;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SAMPLE_ON_MS;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SAMPLE_ON_MS_DEFAULT;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SAMPLE_PERIOD_MS;
+import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SAMPLE_PERIOD_MS_DEFAULT;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SITES_FILE;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SITES_FILE_LOC;
 import static com.surelogic._flashlight.common.InstrumentationConstants.FL_SITES_RESOURCE;
@@ -60,8 +78,10 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import com.surelogic._flashlight.common.CollectionType;
+import com.surelogic._flashlight.common.FsyncPolicy;
 import com.surelogic._flashlight.common.InstrumentationConstants;
 import com.surelogic._flashlight.common.OutputType;
+import com.surelogic._flashlight.common.RawQueuePolicy;
 
 /**
  * This class is giant hack, but I don't know of a better way to do things. This
@@ -81,8 +101,13 @@ public class StoreConfiguration {
   private static volatile String runName;
   private static volatile int threadRegistrationQueueSize;
   private static volatile int rawQueueSize;
+  private static volatile RawQueuePolicy rawQueuePolicy;
   private static volatile int outQueueSize;
   private static volatile int refinerySize;
+  private static volatile int gcBatchSize;
+  private static volatile int gcBatchMillis;
+  private static volatile int sampleOnMillis;
+  private static volatile int samplePeriodMillis;
   private static volatile boolean noSpy;
   private static volatile int consolePort;
   private static volatile Integer outputPort;
@@ -90,10 +115,14 @@ public class StoreConfiguration {
   private static volatile String sitesFile;
   private static volatile String dateOverride;
   private static volatile OutputType outputType;
+  private static volatile int compressionThreads;
+  private static volatile FsyncPolicy fsyncPolicy;
   private static volatile CollectionType collectionType;
   private static volatile boolean handleFieldAccesses;
   private static volatile boolean debug;
   private static volatile boolean isPostmortemMode;
+  private static volatile boolean checkRaces;
+  private static volatile boolean useEventSlabs;
   private static volatile boolean isAndroid;
 
   private static void updateIfNotSet(final Properties props, final String propName, final String propValue) {
@@ -113,17 +142,26 @@ public class StoreConfiguration {
     // phase. We do not override properties specified on the command line.
     try {
       updateIfNotSet(props, FL_COLLECTION_TYPE, InstrumentationConf.getFL_COLLECTION_TYPE());
+      updateIfNotSet(props, FL_COMPRESSION_THREADS, InstrumentationConf.getFL_COMPRESSION_THREADS());
       updateIfNotSet(props, FL_CONSOLE_PORT, InstrumentationConf.getFL_CONSOLE_PORT());
       updateIfNotSet(props, FL_DATE_OVERRIDE, InstrumentationConf.getFL_DATE_OVERRIDE());
       updateIfNotSet(props, FL_DEBUG, InstrumentationConf.getFL_DEBUG());
       updateIfNotSet(props, FL_DIR, InstrumentationConf.getFL_DIR());
+      updateIfNotSet(props, FL_EVENT_SLABS, InstrumentationConf.getFL_EVENT_SLABS());
       updateIfNotSet(props, FL_FIELDS_FILE, InstrumentationConf.getFL_FIELDS_FILE());
+      updateIfNotSet(props, FL_FSYNC_POLICY, InstrumentationConf.getFL_FSYNC_POLICY());
+      updateIfNotSet(props, FL_GC_BATCH_MS, InstrumentationConf.getFL_GC_BATCH_MS());
+      updateIfNotSet(props, FL_GC_BATCH_SIZE, InstrumentationConf.getFL_GC_BATCH_SIZE());
       updateIfNotSet(props, FL_OFF, InstrumentationConf.getFL_OFF());
+      updateIfNotSet(props, FL_SAMPLE_ON_MS, InstrumentationConf.getFL_SAMPLE_ON_MS());
+      updateIfNotSet(props, FL_SAMPLE_PERIOD_MS, InstrumentationConf.getFL_SAMPLE_PERIOD_MS());
       updateIfNotSet(props, FL_NO_SPY, InstrumentationConf.getFL_NO_SPY());
       updateIfNotSet(props, FL_OUTPUT_PORT, InstrumentationConf.getFL_OUTPUT_PORT());
       updateIfNotSet(props, FL_OUTPUT_TYPE, InstrumentationConf.getFL_OUTPUT_TYPE());
       updateIfNotSet(props, FL_OUTQ_SIZE, InstrumentationConf.getFL_OUTQ_SIZE());
       updateIfNotSet(props, FL_POSTMORTEM, InstrumentationConf.getFL_POSTMORTEM());
+      updateIfNotSet(props, FL_RACES, InstrumentationConf.getFL_RACES());
+      updateIfNotSet(props, FL_RAWQ_POLICY, InstrumentationConf.getFL_RAWQ_POLICY());
       updateIfNotSet(props, FL_RAWQ_SIZE, InstrumentationConf.getFL_RAWQ_SIZE());
       updateIfNotSet(props, FL_REFINERY_OFF, InstrumentationConf.getFL_REFINERY_OFF());
       updateIfNotSet(props, FL_REFINERY_SIZE, InstrumentationConf.getFL_REFINERY_SIZE());
@@ -157,6 +195,8 @@ public class StoreConfiguration {
     setRun(props.getProperty(FL_RUN, FL_RUN_DEFAULT));
 
     setPostmortemMode(Boolean.parseBoolean(props.getProperty(FL_POSTMORTEM, FL_POSTMORTEM_DEFAULT)));
+    setCheckRaces(Boolean.parseBoolean(props.getProperty(FL_RACES, FL_RACES_DEFAULT)));
+    setEventSlabs(Boolean.parseBoolean(props.getProperty(FL_EVENT_SLABS, FL_EVENT_SLABS_DEFAULT)));
     // Check for a date override
     setDateOverride(props.getProperty(FL_DATE_OVERRIDE));
 
@@ -298,8 +338,13 @@ public class StoreConfiguration {
 
     setThreadRegistrationQueueSize(getIntProperty(props, FL_THREADQ_SIZE, FL_THREADQ_SIZE_DEFAULT));
     setRawQueueSize(getIntProperty(props, FL_RAWQ_SIZE, FL_RAWQ_SIZE_DEFAULT));
+    setRawQueuePolicy(RawQueuePolicy.valueOf(props.getProperty(FL_RAWQ_POLICY), FL_RAWQ_POLICY_DEFAULT));
     setOutQueueSize(getIntProperty(props, FL_OUTQ_SIZE, FL_OUTQ_SIZE_DEFAULT));
     setRefinerySize(getIntProperty(props, FL_REFINERY_SIZE, FL_REFINERY_SIZE_DEFAULT));
+    setGCBatchSize(getIntProperty(props, FL_GC_BATCH_SIZE, FL_GC_BATCH_SIZE_DEFAULT));
+    setGCBatchMillis(getIntProperty(props, FL_GC_BATCH_MS, FL_GC_BATCH_MS_DEFAULT));
+    setSampleOnMillis(getIntProperty(props, FL_SAMPLE_ON_MS, FL_SAMPLE_ON_MS_DEFAULT));
+    setSamplePeriodMillis(getIntProperty(props, FL_SAMPLE_PERIOD_MS, FL_SAMPLE_PERIOD_MS_DEFAULT));
     setNoSpy(props.getProperty(FL_NO_SPY) != null);
     setConsolePort(getIntProperty(props, FL_CONSOLE_PORT, FL_CONSOLE_PORT_DEFAULT));
     setOutputPort(getIntProperty(props, FL_OUTPUT_PORT, null));
@@ -309,6 +354,8 @@ public class StoreConfiguration {
     } else {
       setOutputType(OutputType.valueOf(props.getProperty(FL_OUTPUT_TYPE), FL_OUTPUT_TYPE_DEFAULT));
     }
+    setCompressionThreads(getIntProperty(props, FL_COMPRESSION_THREADS, FL_COMPRESSION_THREADS_DEFAULT));
+    setFsyncPolicy(FsyncPolicy.valueOf(props.getProperty(FL_FSYNC_POLICY), FL_FSYNC_POLICY_DEFAULT));
     setDebug("ON".equalsIgnoreCase(props.getProperty(FL_DEBUG, "OFF")));
     isAndroid = props.getProperty(FL_ANDROID) != null;
     setCollectionType(CollectionType.valueOf(props.getProperty(FL_COLLECTION_TYPE), FL_COLLECTION_TYPE_DEFAULT));
@@ -419,6 +466,26 @@ public class StoreConfiguration {
     rawQueueSize = Math.max(size, InstrumentationConstants.FL_RAWQ_SIZE_MIN);
   }
 
+  /**
+   * Get what an instrumented thread does when its raw queue is full.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_RAWQ_POLICY</code> with the default value of
+   * {@link RawQueuePolicy#BLOCK}.
+   */
+  public static RawQueuePolicy getRawQueuePolicy() {
+    return rawQueuePolicy;
+  }
+
+  /**
+   * Set what an instrumented thread does when its raw queue is full. This only
+   * affects threads that have not yet produced an event.
+   */
+  public static void setRawQueuePolicy(final RawQueuePolicy policy) {
+    rawQueuePolicy = policy;
+  }
+
   /**
    * Get the size of the BlockingQueue between the refinery and the depository
    * (which deals with output). One thread inputs and another thread drains this
@@ -548,6 +615,47 @@ public class StoreConfiguration {
     outputType = type;
   }
 
+  /**
+   * Get the number of threads used to compress output. This is never more
+   * than one less than the number of processors, and if it is 0 the output is
+   * compressed by the thread writing it.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_COMPRESSION_THREADS</code> with the default value of 4.
+   */
+  public static int getCompressionThreads() {
+    return compressionThreads;
+  }
+
+  /**
+   * Set the most threads used to compress output.
+   */
+  public static void setCompressionThreads(final int threads) {
+    final int max = Runtime.getRuntime().availableProcessors() - 1;
+    compressionThreads = Math.min(Math.max(threads, InstrumentationConstants.FL_COMPRESSION_THREADS_MIN), max);
+  }
+
+  /**
+   * Get when checkpoint files are forced to the storage device.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_FSYNC_POLICY</code> with the default value of
+   * {@link FsyncPolicy#NONE}.
+   */
+  public static FsyncPolicy getFsyncPolicy() {
+    return fsyncPolicy;
+  }
+
+  /**
+   * Set when checkpoint files are forced to the storage device. This only
+   * affects checkpoint files that have not yet been started.
+   */
+  public static void setFsyncPolicy(final FsyncPolicy policy) {
+    fsyncPolicy = policy;
+  }
+
   public static boolean debugOn() {
     return debug;
   }
@@ -569,6 +677,105 @@ public class StoreConfiguration {
     return handleFieldAccesses;
   }
 
+  /**
+   * Get the most garbage collected objects that the garbage collection thread
+   * reports to the store listeners at one time.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_GC_BATCH_SIZE</code> with the default value of 1024.
+   */
+  public static int getGCBatchSize() {
+    return gcBatchSize;
+  }
+
+  /**
+   * Set the most garbage collected objects reported at one time. The size is
+   * always at least 1.
+   */
+  public static void setGCBatchSize(final int size) {
+    gcBatchSize = Math.max(size, InstrumentationConstants.FL_GC_BATCH_SIZE_MIN);
+  }
+
+  /**
+   * Get the number of milliseconds the garbage collection thread waits for
+   * more garbage collected objects before it reports a batch to the store
+   * listeners. This is also how often an idle garbage collection thread checks
+   * for shutdown.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_GC_BATCH_MS</code> with the default value of 100.
+   */
+  public static int getGCBatchMillis() {
+    return gcBatchMillis;
+  }
+
+  /**
+   * Set the number of milliseconds the garbage collection thread waits to fill
+   * a batch. The time is always at least 1.
+   */
+  public static void setGCBatchMillis(final int millis) {
+    gcBatchMillis = Math.max(millis, InstrumentationConstants.FL_GC_BATCH_MS_MIN);
+  }
+
+  /**
+   * Get the number of milliseconds that field accesses are recorded for at
+   * the start of each sampling period when the collection type is
+   * {@link CollectionType#SAMPLED}.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_SAMPLE_ON_MS</code> with the default value of 10.
+   */
+  public static int getSampleOnMillis() {
+    return sampleOnMillis;
+  }
+
+  /**
+   * Set the number of milliseconds that field accesses are recorded for in
+   * each sampling period. The time is always at least 1.
+   */
+  public static void setSampleOnMillis(final int millis) {
+    sampleOnMillis = Math.max(millis, InstrumentationConstants.FL_SAMPLE_ON_MS_MIN);
+  }
+
+  /**
+   * Get the length of a sampling period in milliseconds when the collection
+   * type is {@link CollectionType#SAMPLED}.
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_SAMPLE_PERIOD_MS</code> with the default value of 100.
+   */
+  public static int getSamplePeriodMillis() {
+    return samplePeriodMillis;
+  }
+
+  /**
+   * Set the length of a sampling period in milliseconds. The time is always
+   * at least 1.
+   */
+  public static void setSamplePeriodMillis(final int millis) {
+    samplePeriodMillis = Math.max(millis, InstrumentationConstants.FL_SAMPLE_PERIOD_MS_MIN);
+  }
+
+  /**
+   * Checks if field accesses are only recorded for part of each sampling
+   * period.
+   */
+  public static boolean isSampling() {
+    return collectionType.isSampled() && sampleOnMillis < samplePeriodMillis;
+  }
+
+  /**
+   * Get the fraction of the run during which field accesses are recorded. This
+   * is 1.0 unless {@link #isSampling()}.
+   */
+  public static double getSamplingRate() {
+    return isSampling() ? (double) sampleOnMillis / samplePeriodMillis : 1.0;
+  }
+
   public static boolean isPostmortemMode() {
     return isPostmortemMode;
   }
@@ -577,6 +784,45 @@ public class StoreConfiguration {
     StoreConfiguration.isPostmortemMode = isPostmortemMode;
   }
 
+  /**
+   * Are data races checked by happens-before while the program runs?
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_RACES</code> with the default value of <code>false</code>.
+   */
+  public static boolean checkRaces() {
+    return checkRaces;
+  }
+
+  /**
+   * Set whether data races are checked while the program runs. This only has
+   * an effect before the store starts.
+   */
+  public static void setCheckRaces(final boolean flag) {
+    checkRaces = flag;
+  }
+
+  /**
+   * Are field accesses recorded as primitive records in per-thread slabs
+   * rather than as one event object per access?
+   *
+   * <p>
+   * This value is initialized from the Java system property
+   * <code>FL_EVENT_SLABS</code> with the default value of <code>false</code>.
+   */
+  public static boolean useEventSlabs() {
+    return useEventSlabs;
+  }
+
+  /**
+   * Set whether field accesses are recorded in slabs. This only affects
+   * threads that have not yet produced an event.
+   */
+  public static void setEventSlabs(final boolean flag) {
+    useEventSlabs = flag;
+  }
+
   public static boolean isAndroid() {
     return isAndroid;
   }
@@ -12,12 +12,32 @@ import com.surelogic._flashlight.common.FieldDef;
 /**
  * The Analysis thread periodically collects events from every program thread
  * and combines them to form a unified view of the current state of the program.
+ * <p>
+ * Each cycle only rechecks the alerts for the fields that were accessed or
+ * garbage collected since the last one, except after the alerts change. The
+ * time between cycles adapts to how much each cycle drains: busy programs are
+ * drained more often, so that the state each thread holds stays small, and
+ * idle ones less often.
  * 
  * @author nathan
  * 
  */
 final class Analysis extends Thread {
   private static final long PERIOD = 1000L;
+  private static final long MIN_PERIOD = 250L;
+  private static final long MAX_PERIOD = 8000L;
+
+  /*
+   * The number of field entries drained in one cycle above which the period
+   * is shortened, and below which it is lengthened.
+   */
+  private static final int BUSY_DRAIN = 50000;
+  private static final int IDLE_DRAIN = 1000;
+
+  /**
+   * The fraction of the time, as one in this many, that cycles may take.
+   */
+  private static final int COST_SHARE = 10;
 
   private final MonitorStore store;
   private final RunConf conf;
@@ -32,12 +52,32 @@ final class Analysis extends Thread {
   private Set<FieldDef> sharedFieldViolations;
   private Set<FieldDef> lockSetViolations;
 
+  /**
+   * Whether the next cycle must check every alert, not just the ones for the
+   * fields touched since the last cycle.
+   */
+  private boolean fullCheck = true;
+
+  /**
+   * Whether it has been logged that lock sets are no longer interned.
+   */
+  private boolean loggedFullLockSets;
+
+  /*
+   * Metrics, written by the cycles.
+   */
+  private volatile long period = PERIOD;
+  private long cycles;
+  private long totalCycleNanos;
+  private long lastCycleNanos;
+  private int lastDrained;
+
   Analysis(final MonitorStore store, final RunConf conf) {
     super("flashlight-analysis");
     this.conf = conf;
     this.store = store;
     shared = new SharedFields();
-    master = new MasterLockSet(conf.getFieldDefs(), shared);
+    master = new MasterLockSet(conf.getFieldDefs(), shared, store.f_lockSetIds);
     edtViolations = new HashSet<FieldDef>();
     sharedFieldViolations = new HashSet<FieldDef>();
     lockSetViolations = new HashSet<FieldDef>();
@@ -50,9 +90,10 @@ final class Analysis extends Thread {
       final long time = System.currentTimeMillis();
       process();
       final long elapsed = System.currentTimeMillis() - time;
-      if (elapsed < PERIOD) {
+      final long p = period;
+      if (elapsed < p) {
         try {
-          Thread.sleep(PERIOD - elapsed);
+          Thread.sleep(p - elapsed);
         } catch (final InterruptedException e) {
           // Do nothing if we are interrupted
         }
@@ -77,32 +118,84 @@ final class Analysis extends Thread {
   }
 
   public synchronized void process() {
+    final long start = System.nanoTime();
     final Set<Long> edtThreads = new HashSet<Long>();
+    int drained = 0;
     for (final ThreadLocks other : store.f_lockSets) {
       if (other.isEDT()) {
         edtThreads.add(other.getThreadId());
       }
-      master.drain(other);
+      drained += master.drain(other);
     }
-    for (final FieldDef field : alerts.getEDTFields()) {
-      if (!shared.isConfinedTo(field, edtThreads)) {
-        edtViolations.add(field);
+    final LongIntMap touched = master.takeTouchedFields();
+    if (fullCheck) {
+      for (final FieldDef field : alerts.getEDTFields()) {
+        if (!shared.isConfinedTo(field, edtThreads)) {
+          edtViolations.add(field);
+        }
       }
-    }
-    for (final FieldDef field : alerts.getSharedFields()) {
-      if (shared.isShared(field)) {
-        sharedFieldViolations.add(field);
+      for (final FieldDef field : alerts.getSharedFields()) {
+        if (shared.isShared(field)) {
+          sharedFieldViolations.add(field);
+        }
       }
-    }
-    final List<FieldDef> lockSetFields = alerts.getLockSetFields();
-    if (!lockSetFields.isEmpty()) {
-      final LockSetInfo lockSets = getLockSets();
       for (final FieldDef field : alerts.getLockSetFields()) {
-        if (!lockSets.hasLockSet(field)) {
+        if (!master.hasLockSet(field)) {
           lockSetViolations.add(field);
         }
       }
+      fullCheck = false;
+    } else if (!touched.isEmpty()) {
+      /*
+       * Violations are never withdrawn, so only the fields touched since the
+       * last cycle can add to them.
+       */
+      for (final FieldDef field : alerts.getEDTFields()) {
+        if ((touched.get(field.getId(), 0) & MasterLockSet.NOT_EDT) != 0) {
+          edtViolations.add(field);
+        }
+      }
+      for (final FieldDef field : alerts.getSharedFields()) {
+        if ((touched.get(field.getId(), 0) & MasterLockSet.NEWLY_SHARED) != 0) {
+          sharedFieldViolations.add(field);
+        }
+      }
+      for (final FieldDef field : alerts.getLockSetFields()) {
+        if (touched.containsKey(field.getId()) && !master.hasLockSet(field)) {
+          lockSetViolations.add(field);
+        }
+      }
+    }
+    if (!loggedFullLockSets && store.f_lockSetIds.isFull()) {
+      conf.logAProblem("Too many distinct lock sets: new lock sets are treated as empty");
+      loggedFullLockSets = true;
     }
+    recordCycle(System.nanoTime() - start, drained);
+  }
+
+  /**
+   * Records the cost of a cycle, and adapts the period to it.
+   */
+  private void recordCycle(final long nanos, final int drained) {
+    cycles++;
+    totalCycleNanos += nanos;
+    lastCycleNanos = nanos;
+    lastDrained = drained;
+    long p = period;
+    if (drained > BUSY_DRAIN) {
+      p = Math.max(MIN_PERIOD, p / 2);
+    } else if (drained < IDLE_DRAIN) {
+      p = Math.min(MAX_PERIOD, p * 2);
+    }
+    period = Math.min(MAX_PERIOD, Math.max(p, nanos * COST_SHARE / 1000000L));
+  }
+
+  /**
+   * Describes how often the analysis runs and what each cycle costs.
+   */
+  public synchronized String getStatistics() {
+    return String.format("analysis: %d cycle(s) : period %d ms : last cycle %d us for %d field entries : %d us average%n",
+        cycles, period, lastCycleNanos / 1000, lastDrained, cycles == 0 ? 0 : totalCycleNanos / cycles / 1000);
   }
 
   public synchronized AlertSpec getAlertSpec() {
@@ -130,7 +223,7 @@ final class Analysis extends Thread {
 
   @Override
   public synchronized String toString() {
-    return new FullInfo(getAlerts(), master.getLockSetInfo(), getShared(), getDeadlocks()).toString();
+    return new FullInfo(getAlerts(), master.getLockSetInfo(), getShared(), getDeadlocks()).toString() + getStatistics();
   }
 
   synchronized void setAlertSpec(final AlertSpec spec) {
@@ -142,6 +235,7 @@ final class Analysis extends Thread {
     edtViolations = new HashSet<FieldDef>();
     sharedFieldViolations = new HashSet<FieldDef>();
     lockSetViolations = new HashSet<FieldDef>();
+    fullCheck = true;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import com.surelogic._flashlight.RunConf;
+import com.surelogic._flashlight.SiteTable;
+import com.surelogic._flashlight.common.HappensBeforeConfig;
+import com.surelogic._flashlight.common.HappensBeforeConfig.HBType;
+import com.surelogic._flashlight.common.HappensBeforeConfig.HappensBeforeRule;
+
+/**
+ * Works out which part a call plays in a happens-before edge. The
+ * instrumentation only passes the id of the rule that matched a call, and one
+ * id covers every method of a class, some of which are sources and some
+ * targets. The prep tells them apart by looking up the method called at the
+ * site, and so does this class, from the same {@link SiteLines} the depository
+ * reads. Only the sites that call a method named by some rule are kept.
+ * <p>
+ * Lookups never lock, and the answer for each site is remembered.
+ */
+final class HappensBeforeRoles {
+
+  /**
+   * Marks a site that has no rule that applies before the call.
+   */
+  private static final HappensBeforeRule NONE = new HappensBeforeRule("", "java.lang.Object", "none()", HBType.SOURCE, null,
+      false);
+
+  private final Map<String, List<HappensBeforeRule>> f_byId = new HashMap<String, List<HappensBeforeRule>>();
+  /**
+   * Thread and object rules that release when the call begins, by method name.
+   */
+  private final Map<String, List<HappensBeforeRule>> f_beforeByMethod = new HashMap<String, List<HappensBeforeRule>>();
+  private final Set<String> f_methods = new HashSet<String>();
+  private final Map<String, String[]> f_callNames = new HashMap<String, String[]>();
+
+  /**
+   * The name and descriptor of the method called at each interesting site.
+   */
+  private final SiteTable<String[]> f_calls = new SiteTable<String[]>();
+  private final SiteTable<HappensBeforeRule> f_rules = new SiteTable<HappensBeforeRule>();
+  private final SiteTable<HappensBeforeRule> f_before = new SiteTable<HappensBeforeRule>();
+
+  /**
+   * @param config
+   *          the happens-before rules the program was instrumented with, or
+   *          <code>null</code> if they could not be read.
+   */
+  HappensBeforeRoles(final HappensBeforeConfig config) {
+    if (config == null) {
+      return;
+    }
+    addRules(config.getThreads(), true);
+    addRules(config.getObjects(), true);
+    addRules(config.getCollections(), false);
+    addRules(config.getExecutors(), false);
+  }
+
+  private <T extends HappensBeforeRule> void addRules(final Map<String, List<T>> rules, final boolean beforeCall) {
+    for (final List<T> list : rules.values()) {
+      for (final HappensBeforeRule rule : list) {
+        List<HappensBeforeRule> byId = f_byId.get(rule.getId());
+        if (byId == null) {
+          byId = new ArrayList<HappensBeforeRule>();
+          f_byId.put(rule.getId(), byId);
+        }
+        byId.add(rule);
+        f_methods.add(rule.getMethod());
+        /*
+         * The object of a collection or executor rule is an argument, which
+         * the store does not see before the call.
+         */
+        if (beforeCall && !rule.isCallIn() && (rule.getType().isSource() || rule.getType().isFrom())) {
+          List<HappensBeforeRule> byMethod = f_beforeByMethod.get(rule.getMethod());
+          if (byMethod == null) {
+            byMethod = new ArrayList<HappensBeforeRule>();
+            f_beforeByMethod.put(rule.getMethod(), byMethod);
+          }
+          byMethod.add(rule);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the rules and the site lines of the instrumented program.
+   */
+  static HappensBeforeRoles load(final RunConf conf) {
+    HappensBeforeConfig config;
+    try {
+      config = HappensBeforeConfig.loadDefault();
+    } catch (final RuntimeException e) {
+      conf.logAProblem("Could not read the happens-before rules", e);
+      config = null;
+    }
+    final HappensBeforeRoles roles = new HappensBeforeRoles(config);
+    if (config == null) {
+      return roles;
+    }
+    final boolean found = SiteLines.read(conf, new SiteLines.Handler() {
+      @Override
+      public void line(final String line) {
+        roles.readSiteLine(line);
+      }
+    });
+    if (!found) {
+      conf.log("No site information found, so happens-before calls are taken to be both sources and targets.");
+    }
+    return roles;
+  }
+
+  /**
+   * Reads one site line, in the format the depository reads, remembering the
+   * method called if a rule might apply to it.
+   */
+  void readSiteLine(final String line) {
+    final StringTokenizer st = new StringTokenizer(line);
+    if (st.countTokens() < 11) {
+      return;
+    }
+    final long id = Long.parseLong(st.nextToken());
+    for (int i = 0; i < 7; i++) {
+      st.nextToken();
+    }
+    final String methodName = st.nextToken();
+    if (!f_methods.contains(methodName)) {
+      return;
+    }
+    st.nextToken(); // The class the method was called on
+    final String methodDesc = st.nextToken();
+    final String key = methodName + methodDesc;
+    String[] call = f_callNames.get(key);
+    if (call == null) {
+      call = new String[] { methodName, methodDesc };
+      f_callNames.put(key, call);
+    }
+    f_calls.put(id, call);
+  }
+
+  /**
+   * Gets the part a call plays in a happens-before edge.
+   *
+   * @param id
+   *          the id of the rule the call matched.
+   * @param siteId
+   *          the site of the call.
+   * @param unknown
+   *          the answer when the rule cannot be found, or when the method
+   *          called at the site is not known and the methods of the rule play
+   *          different parts.
+   */
+  HBType type(final String id, final long siteId, final HBType unknown) {
+    HappensBeforeRule rule = f_rules.get(siteId);
+    if (rule == null || !rule.getId().equals(id)) {
+      rule = lookup(id, f_calls.get(siteId));
+      if (rule == null) {
+        return unknown;
+      }
+      f_rules.put(siteId, rule);
+    }
+    return rule.getType();
+  }
+
+  private HappensBeforeRule lookup(final String id, final String[] call) {
+    final List<HappensBeforeRule> rules = f_byId.get(id);
+    if (rules == null) {
+      return null;
+    }
+    if (call != null) {
+      for (final HappensBeforeRule rule : rules) {
+        if (matches(rule, call)) {
+          return rule;
+        }
+      }
+    }
+    final HappensBeforeRule first = rules.get(0);
+    for (final HappensBeforeRule rule : rules) {
+      if (rule.getType() != first.getType()) {
+        return null;
+      }
+    }
+    return first;
+  }
+
+  private static boolean matches(final HappensBeforeRule rule, final String[] call) {
+    return rule.getMethod().equals(call[0]) && call[1].startsWith(rule.getPartialMethodDescriptor());
+  }
+
+  /**
+   * Gets the thread or object rule that releases as the call at a site begins.
+   * The rule is found from the class of the first receiver seen at the site.
+   *
+   * @return the rule, or <code>null</code> if no rule applies.
+   */
+  HappensBeforeRule beforeCall(final long siteId, final Object receiver) {
+    final String[] call = f_calls.get(siteId);
+    if (call == null) {
+      return null;
+    }
+    HappensBeforeRule rule = f_before.get(siteId);
+    if (rule == null) {
+      rule = findBeforeCall(call, receiver.getClass());
+      f_before.put(siteId, rule);
+    }
+    return rule == NONE ? null : rule;
+  }
+
+  /**
+   * Checks whether the call at a site already released when it began.
+   */
+  boolean releasedBeforeCall(final long siteId) {
+    final HappensBeforeRule rule = f_before.get(siteId);
+    return rule != null && rule != NONE;
+  }
+
+  private HappensBeforeRule findBeforeCall(final String[] call, final Class<?> receiverClass) {
+    final List<HappensBeforeRule> rules = f_beforeByMethod.get(call[0]);
+    if (rules == null) {
+      return NONE;
+    }
+    final Set<Class<?>> seen = new HashSet<Class<?>>();
+    final LinkedList<Class<?>> queue = new LinkedList<Class<?>>();
+    queue.add(receiverClass);
+    while (!queue.isEmpty()) {
+      final Class<?> c = queue.removeFirst();
+      if (!seen.add(c)) {
+        continue;
+      }
+      for (final HappensBeforeRule rule : rules) {
+        if (rule.getQualifiedClass().equals(c.getName()) && matches(rule, call)) {
+          return rule;
+        }
+      }
+      if (c.getSuperclass() != null) {
+        queue.add(c.getSuperclass());
+      }
+      for (final Class<?> i : c.getInterfaces()) {
+        queue.add(i);
+      }
+    }
+    return NONE;
+  }
+}
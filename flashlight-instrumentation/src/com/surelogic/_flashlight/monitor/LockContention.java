@@ -0,0 +1,554 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.surelogic._flashlight.Histogram;
+import com.surelogic._flashlight.SiteTable;
+
+/**
+ * Profiles lock contention as the program runs: how long threads waited to
+ * acquire each lock and how long they then held it, by lock and by acquisition
+ * site. A lock or site is only profiled once some thread has waited at least
+ * {@link #CONTENDED_NANOS} for it, so locks that are never contended cost no
+ * memory, and at most {@link #MAX_LOCKS} locks are profiled at once.
+ * <p>
+ * Program threads record their own acquisitions without locking, except when
+ * an acquisition was contended. Each thread records into one of
+ * {@link #STRIPES} sets of counters at each lock and site, so threads seldom
+ * write the same counters; the stripes are merged when reporting.
+ */
+final class LockContention {
+
+  /**
+   * A wait at least this long, in nanoseconds, counts as contended. Shorter
+   * waits are mostly the time the store itself takes between the events.
+   */
+  static final long CONTENDED_NANOS = 10000;
+
+  /**
+   * The most locks that are profiled at once.
+   */
+  static final int MAX_LOCKS = 10000;
+
+  /**
+   * The most sites that are remembered for each lock.
+   */
+  static final int SITES_PER_LOCK = 8;
+
+  /**
+   * The number of locks and of sites that are reported.
+   */
+  static final int TOP = 20;
+
+  static final String LOCKS_HEADING = "Contended Locks";
+  static final String SITES_HEADING = "Contended Sites";
+
+  /**
+   * The number of stripes the times at a lock or site are split into.
+   */
+  static final int STRIPES = 8;
+
+  /**
+   * The number of buckets in a histogram of times in nanoseconds. Times of
+   * 2<sup>39</sup> ns, about nine minutes, or more share the last bucket.
+   */
+  static final int TIME_BUCKETS = 41;
+
+  static Histogram times(final String name) {
+    return new Histogram(name, "ns", TIME_BUCKETS);
+  }
+
+  /**
+   * The wait and hold times recorded by some of the threads.
+   */
+  static final class Stripe {
+    final Histogram waits = times("wait");
+    final Histogram holds = times("hold");
+  }
+
+  /**
+   * The wait and hold times at one lock or one site. Stripes are made as
+   * threads first record into them.
+   */
+  static class Stats {
+    /**
+     * The id of the lock or site.
+     */
+    final long id;
+    private final AtomicReferenceArray<Stripe> f_stripes = new AtomicReferenceArray<Stripe>(STRIPES);
+    final AtomicLong contended = new AtomicLong();
+
+    Stats(final long id) {
+      this.id = id;
+    }
+
+    private Stripe stripe(final int stripe) {
+      Stripe s = f_stripes.get(stripe);
+      if (s == null) {
+        f_stripes.compareAndSet(stripe, null, new Stripe());
+        s = f_stripes.get(stripe);
+      }
+      return s;
+    }
+
+    void recordWait(final int stripe, final long nanos) {
+      stripe(stripe).waits.recordConcurrently(nanos);
+      if (nanos >= CONTENDED_NANOS) {
+        contended.incrementAndGet();
+      }
+    }
+
+    void recordHold(final int stripe, final long nanos) {
+      stripe(stripe).holds.recordConcurrently(nanos);
+    }
+
+    /**
+     * Gets the wait times recorded so far.
+     */
+    Histogram waits() {
+      final Histogram waits = times("wait");
+      for (int i = 0; i < STRIPES; i++) {
+        final Stripe s = f_stripes.get(i);
+        if (s != null) {
+          waits.add(s.waits);
+        }
+      }
+      return waits;
+    }
+
+    /**
+     * Gets the hold times recorded so far.
+     */
+    Histogram holds() {
+      final Histogram holds = times("hold");
+      for (int i = 0; i < STRIPES; i++) {
+        final Stripe s = f_stripes.get(i);
+        if (s != null) {
+          holds.add(s.holds);
+        }
+      }
+      return holds;
+    }
+
+    /**
+     * Gets the total time waited so far.
+     */
+    long getWaitTotal() {
+      long total = 0;
+      for (int i = 0; i < STRIPES; i++) {
+        final Stripe s = f_stripes.get(i);
+        if (s != null) {
+          total += s.waits.getTotal();
+        }
+      }
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      final Histogram waits = waits();
+      return contended.get() + " of " + waits.getCount() + " acquisitions contended; wait " + describe(waits) + "; hold "
+          + describe(holds());
+    }
+  }
+
+  /**
+   * Formats a time in the largest unit that keeps it at least one.
+   */
+  static String format(final long nanos) {
+    if (nanos < 1000L) {
+      return nanos + " ns";
+    } else if (nanos < 1000000L) {
+      return String.format("%.1f us", nanos / 1e3);
+    } else if (nanos < 1000000000L) {
+      return String.format("%.1f ms", nanos / 1e6);
+    } else {
+      return String.format("%.2f s", nanos / 1e9);
+    }
+  }
+
+  static String describe(final Histogram times) {
+    return "total " + format(times.getTotal()) + ", median " + format(times.percentile(0.5)) + ", 99% "
+        + format(times.percentile(0.99)) + ", max " + format(times.getMax());
+  }
+
+  /**
+   * The wait and hold times at one lock, and the sites where it was most waited
+   * for. Once every slot is full, a new site takes the slot of the least
+   * waited for site, along with its wait time, so sites that are waited at a
+   * lot are kept.
+   */
+  static final class LockStats extends Stats {
+    private final long[] f_sites = new long[SITES_PER_LOCK];
+    private final long[] f_siteWaits = new long[SITES_PER_LOCK];
+    private int f_siteCount;
+
+    LockStats(final long lockId) {
+      super(lockId);
+    }
+
+    synchronized void recordSite(final long siteId, final long nanos) {
+      int least = 0;
+      for (int i = 0; i < f_siteCount; i++) {
+        if (f_sites[i] == siteId) {
+          f_siteWaits[i] += nanos;
+          return;
+        }
+        if (f_siteWaits[i] < f_siteWaits[least]) {
+          least = i;
+        }
+      }
+      if (f_siteCount < SITES_PER_LOCK) {
+        f_sites[f_siteCount] = siteId;
+        f_siteWaits[f_siteCount++] = nanos;
+      } else {
+        f_sites[least] = siteId;
+        f_siteWaits[least] += nanos;
+      }
+    }
+
+    /**
+     * Gets the sites, most waited for first, as pairs of site and total wait.
+     */
+    synchronized long[][] sites() {
+      final long[][] result = new long[f_siteCount][];
+      for (int i = 0; i < f_siteCount; i++) {
+        result[i] = new long[] { f_sites[i], f_siteWaits[i] };
+      }
+      Arrays.sort(result, new Comparator<long[]>() {
+        @Override
+        public int compare(final long[] o1, final long[] o2) {
+          return o1[1] < o2[1] ? 1 : o1[1] == o2[1] ? 0 : -1;
+        }
+      });
+      return result;
+    }
+  }
+
+  /**
+   * The locks a thread holds, innermost last, with when each was acquired and
+   * where to record its hold time. A reentrant acquisition has nowhere to
+   * record, as the hold time belongs to the outermost one.
+   */
+  static final class Held {
+    final int stripe;
+    boolean waiting;
+    long waitStart;
+    int depth;
+    long[] locks = new long[8];
+    long[] since = new long[8];
+    long[] heldFor = new long[8];
+    Stats[] lockStats = new Stats[8];
+    Stats[] siteStats = new Stats[8];
+
+    Held(final int stripe) {
+      this.stripe = stripe;
+    }
+
+    boolean holds(final long lockId) {
+      for (int i = 0; i < depth; i++) {
+        if (locks[i] == lockId) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void push(final long lockId, final long now, final Stats lock, final Stats site) {
+      if (depth == locks.length) {
+        final int size = depth * 2;
+        locks = Arrays.copyOf(locks, size);
+        since = Arrays.copyOf(since, size);
+        heldFor = Arrays.copyOf(heldFor, size);
+        lockStats = Arrays.copyOf(lockStats, size);
+        siteStats = Arrays.copyOf(siteStats, size);
+      }
+      locks[depth] = lockId;
+      since[depth] = now;
+      heldFor[depth] = 0;
+      lockStats[depth] = lock;
+      siteStats[depth] = site;
+      depth++;
+    }
+
+    void remove(final int index) {
+      final int moved = depth - index - 1;
+      System.arraycopy(locks, index + 1, locks, index, moved);
+      System.arraycopy(since, index + 1, since, index, moved);
+      System.arraycopy(heldFor, index + 1, heldFor, index, moved);
+      System.arraycopy(lockStats, index + 1, lockStats, index, moved);
+      System.arraycopy(siteStats, index + 1, siteStats, index, moved);
+      depth--;
+      lockStats[depth] = null;
+      siteStats[depth] = null;
+    }
+
+    /**
+     * Gets the outermost acquisition of a lock, or -1 if it is not held.
+     */
+    int outermost(final long lockId) {
+      for (int i = 0; i < depth; i++) {
+        if (locks[i] == lockId) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private final ConcurrentMap<Long, LockStats> f_locks = new ConcurrentHashMap<Long, LockStats>();
+  private final AtomicInteger f_lockCount = new AtomicInteger();
+  private final AtomicLong f_untracked = new AtomicLong();
+  private final SiteTable<Stats> f_sites = new SiteTable<Stats>();
+  /**
+   * The sites that are profiled. Protected by the lock on {@link #f_sites}.
+   */
+  private final List<Stats> f_siteStats = new ArrayList<Stats>();
+  private final AtomicInteger f_threadCount = new AtomicInteger();
+  private final ThreadLocal<Held> tl_held = new ThreadLocal<Held>() {
+    @Override
+    protected Held initialValue() {
+      return new Held(f_threadCount.getAndIncrement() & STRIPES - 1);
+    }
+  };
+
+  /**
+   * Records that this thread is about to acquire a lock.
+   */
+  void beforeAcquire() {
+    final Held held = tl_held.get();
+    held.waiting = true;
+    held.waitStart = System.nanoTime();
+  }
+
+  /**
+   * Records that this thread has acquired a lock, or failed to.
+   *
+   * @param lockId
+   *          the id of the lock.
+   * @param siteId
+   *          the site of the acquisition.
+   * @param gotTheLock
+   *          whether the lock was acquired.
+   */
+  void afterAcquire(final long lockId, final long siteId, final boolean gotTheLock) {
+    final Held held = tl_held.get();
+    final long now = System.nanoTime();
+    // The wait is unknown if the start of the acquisition was not seen
+    final long wait = held.waiting ? now - held.waitStart : 0;
+    held.waiting = false;
+    if (held.holds(lockId)) {
+      if (gotTheLock) {
+        held.push(lockId, now, null, null);
+      }
+      return;
+    }
+    LockStats lock = f_locks.get(lockId);
+    Stats site = f_sites.get(siteId);
+    if (wait >= CONTENDED_NANOS) {
+      if (lock == null) {
+        lock = lockStats(lockId);
+      }
+      if (site == null) {
+        site = siteStats(siteId);
+      }
+      if (lock != null) {
+        lock.recordSite(siteId, wait);
+      }
+    }
+    if (lock != null) {
+      lock.recordWait(held.stripe, wait);
+    }
+    if (site != null) {
+      site.recordWait(held.stripe, wait);
+    }
+    if (gotTheLock) {
+      held.push(lockId, now, lock, site);
+    }
+  }
+
+  /**
+   * Records that this thread has released a lock.
+   */
+  void release(final long lockId) {
+    final Held held = tl_held.get();
+    for (int i = held.depth - 1; i >= 0; i--) {
+      if (held.locks[i] == lockId) {
+        final Stats lock = held.lockStats[i];
+        final Stats site = held.siteStats[i];
+        if (lock != null || site != null) {
+          final long hold = held.heldFor[i] + System.nanoTime() - held.since[i];
+          if (lock != null) {
+            lock.recordHold(held.stripe, hold);
+          }
+          if (site != null) {
+            site.recordHold(held.stripe, hold);
+          }
+        }
+        held.remove(i);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Records that this thread is about to wait on, or has finished waiting on,
+   * an intrinsic lock. The lock is not held while waiting, so that time is left
+   * out of the hold time.
+   */
+  void waitOn(final boolean before, final long lockId) {
+    final Held held = tl_held.get();
+    final int i = held.outermost(lockId);
+    if (i < 0) {
+      return;
+    }
+    final long now = System.nanoTime();
+    if (before) {
+      held.heldFor[i] += now - held.since[i];
+    }
+    held.since[i] = now;
+  }
+
+  private LockStats lockStats(final long lockId) {
+    if (f_lockCount.incrementAndGet() > MAX_LOCKS) {
+      f_lockCount.decrementAndGet();
+      f_untracked.incrementAndGet();
+      return null;
+    }
+    final LockStats stats = new LockStats(lockId);
+    final LockStats old = f_locks.putIfAbsent(lockId, stats);
+    if (old != null) {
+      f_lockCount.decrementAndGet();
+      return old;
+    }
+    return stats;
+  }
+
+  private Stats siteStats(final long siteId) {
+    if (!SiteTable.holds(siteId)) {
+      return null;
+    }
+    synchronized (f_sites) {
+      Stats stats = f_sites.get(siteId);
+      if (stats == null) {
+        stats = new Stats(siteId);
+        f_sites.put(siteId, stats);
+        f_siteStats.add(stats);
+      }
+      return stats;
+    }
+  }
+
+  /**
+   * Forgets a lock that has been garbage collected.
+   */
+  void gc(final long id) {
+    if (f_locks.remove(id) != null) {
+      f_lockCount.decrementAndGet();
+    }
+  }
+
+  LockStats getLock(final long lockId) {
+    return f_locks.get(lockId);
+  }
+
+  Stats getSite(final long siteId) {
+    return f_sites.get(siteId);
+  }
+
+  /**
+   * Sorts stats by the total time waited, longest first, as of when the sort
+   * begins.
+   */
+  private static <T extends Stats> void sortByWait(final List<T> stats) {
+    final Map<Stats, Long> waits = new HashMap<Stats, Long>();
+    for (final Stats s : stats) {
+      waits.put(s, s.getWaitTotal());
+    }
+    Collections.sort(stats, new Comparator<Stats>() {
+      @Override
+      public int compare(final Stats o1, final Stats o2) {
+        final long w1 = waits.get(o1);
+        final long w2 = waits.get(o2);
+        return w1 < w2 ? 1 : w1 == w2 ? 0 : -1;
+      }
+    });
+  }
+
+  /**
+   * Lists the locks that were waited for longest in total, each followed by the
+   * sites where it was waited for, indented by a tab, and then the sites that
+   * were waited at longest in total.
+   *
+   * @param lockNames
+   *          the names of locks, by id.
+   * @param siteLines
+   *          names the sites.
+   */
+  String report(final Map<Long, String> lockNames, final SiteLines siteLines) {
+    final List<LockStats> locks = new ArrayList<LockStats>(f_locks.values());
+    sortByWait(locks);
+    if (locks.size() > TOP) {
+      locks.subList(TOP, locks.size()).clear();
+    }
+    final List<long[][]> lockSites = new ArrayList<long[][]>();
+    final Set<Long> siteIds = new HashSet<Long>();
+    for (final LockStats lock : locks) {
+      final long[][] sites = lock.sites();
+      lockSites.add(sites);
+      for (final long[] site : sites) {
+        siteIds.add(site[0]);
+      }
+    }
+    final List<Stats> sites;
+    synchronized (f_sites) {
+      sites = new ArrayList<Stats>(f_siteStats);
+    }
+    sortByWait(sites);
+    if (sites.size() > TOP) {
+      sites.subList(TOP, sites.size()).clear();
+    }
+    for (final Stats site : sites) {
+      siteIds.add(site.id);
+    }
+    final Map<Long, String> siteNames = siteLines.names(siteIds);
+
+    final StringBuilder b = new StringBuilder();
+    b.append(LOCKS_HEADING);
+    final long untracked = f_untracked.get();
+    if (untracked > 0) {
+      b.append(" (").append(untracked).append(" contended acquisitions of other locks were not profiled)");
+    }
+    b.append('\n');
+    for (int i = 0; i < locks.size(); i++) {
+      final LockStats lock = locks.get(i);
+      String name = lockNames.get(lock.id);
+      if (name == null) {
+        name = "lock-" + lock.id;
+      }
+      b.append(name).append(": ").append(lock).append('\n');
+      for (final long[] site : lockSites.get(i)) {
+        b.append('\t').append(siteNames.get(site[0])).append(": waited ").append(format(site[1]))
+            .append('\n');
+      }
+    }
+    b.append(SITES_HEADING).append('\n');
+    for (final Stats site : sites) {
+      b.append(siteNames.get(site.id)).append(": ").append(site).append('\n');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,178 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.Arrays;
+
+/**
+ * A map from <tt>long</tt> keys to <tt>int</tt> values that does not box
+ * either. The table is open addressed with linear probing, and removal shifts
+ * later entries back rather than leaving tombstones.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class LongIntMap {
+
+  private static final int MIN_CAPACITY = 4;
+
+  /*
+   * A key of zero marks an empty slot, so the entry for zero, if any, is kept
+   * aside.
+   */
+  private long[] f_keys;
+  private int[] f_values;
+  private int f_size;
+  private boolean f_hasZero;
+  private int f_zeroValue;
+
+  LongIntMap() {
+    f_keys = new long[MIN_CAPACITY];
+    f_values = new int[MIN_CAPACITY];
+  }
+
+  static int hash(final long key) {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ h >>> 32);
+  }
+
+  private int slot(final long key) {
+    final int mask = f_keys.length - 1;
+    int i = hash(key) & mask;
+    while (f_keys[i] != 0 && f_keys[i] != key) {
+      i = i + 1 & mask;
+    }
+    return i;
+  }
+
+  int size() {
+    return f_size + (f_hasZero ? 1 : 0);
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  boolean containsKey(final long key) {
+    if (key == 0) {
+      return f_hasZero;
+    }
+    return f_keys[slot(key)] != 0;
+  }
+
+  /**
+   * Gets the value for a key.
+   *
+   * @param key
+   *          the key.
+   * @param missing
+   *          the value to return if the key is not in the map.
+   */
+  int get(final long key, final int missing) {
+    if (key == 0) {
+      return f_hasZero ? f_zeroValue : missing;
+    }
+    final int i = slot(key);
+    return f_keys[i] == 0 ? missing : f_values[i];
+  }
+
+  void put(final long key, final int value) {
+    if (key == 0) {
+      f_hasZero = true;
+      f_zeroValue = value;
+      return;
+    }
+    final int i = slot(key);
+    if (f_keys[i] == 0) {
+      if ((f_size + 1) * 4 > f_keys.length * 3) {
+        grow();
+        put(key, value);
+        return;
+      }
+      f_keys[i] = key;
+      f_size++;
+    }
+    f_values[i] = value;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @return <code>true</code> if the key was in the map.
+   */
+  boolean remove(final long key) {
+    if (key == 0) {
+      final boolean had = f_hasZero;
+      f_hasZero = false;
+      return had;
+    }
+    final int mask = f_keys.length - 1;
+    int i = slot(key);
+    if (f_keys[i] == 0) {
+      return false;
+    }
+    f_size--;
+    // Shift back entries that probed past the removed one
+    for (int j = i + 1 & mask; f_keys[j] != 0; j = j + 1 & mask) {
+      final int home = hash(f_keys[j]) & mask;
+      if ((j - home & mask) >= (j - i & mask)) {
+        f_keys[i] = f_keys[j];
+        f_values[i] = f_values[j];
+        i = j;
+      }
+    }
+    f_keys[i] = 0;
+    return true;
+  }
+
+  /**
+   * Gets the keys, in no particular order.
+   */
+  long[] keys() {
+    final long[] keys = new long[size()];
+    int k = 0;
+    if (f_hasZero) {
+      keys[k++] = 0;
+    }
+    for (final long key : f_keys) {
+      if (key != 0) {
+        keys[k++] = key;
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Gets the values, in no particular order.
+   */
+  int[] values() {
+    final int[] values = new int[size()];
+    int k = 0;
+    if (f_hasZero) {
+      values[k++] = f_zeroValue;
+    }
+    for (int i = 0; i < f_keys.length; i++) {
+      if (f_keys[i] != 0) {
+        values[k++] = f_values[i];
+      }
+    }
+    return values;
+  }
+
+  void clear() {
+    Arrays.fill(f_keys, 0);
+    f_size = 0;
+    f_hasZero = false;
+  }
+
+  private void grow() {
+    final long[] keys = f_keys;
+    final int[] values = f_values;
+    f_keys = new long[keys.length * 2];
+    f_values = new int[keys.length * 2];
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        final int j = slot(keys[i]);
+        f_keys[j] = keys[i];
+        f_values[j] = values[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.Arrays;
+
+/**
+ * A map from <tt>long</tt> keys to objects that does not box its keys. The
+ * table is open addressed with linear probing, like {@link LongIntMap}.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @param <V>
+ *          the type of the values, which may not be <code>null</code>.
+ */
+final class LongObjectMap<V> {
+
+  private static final int MIN_CAPACITY = 4;
+
+  private long[] f_keys;
+  private Object[] f_values;
+  private int f_size;
+  private V f_zeroValue;
+
+  LongObjectMap() {
+    f_keys = new long[MIN_CAPACITY];
+    f_values = new Object[MIN_CAPACITY];
+  }
+
+  private int slot(final long key) {
+    final int mask = f_keys.length - 1;
+    int i = LongIntMap.hash(key) & mask;
+    while (f_keys[i] != 0 && f_keys[i] != key) {
+      i = i + 1 & mask;
+    }
+    return i;
+  }
+
+  int size() {
+    return f_size + (f_zeroValue == null ? 0 : 1);
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Gets the value for a key, or <code>null</code> if it is not in the map.
+   */
+  @SuppressWarnings("unchecked")
+  V get(final long key) {
+    if (key == 0) {
+      return f_zeroValue;
+    }
+    return (V) f_values[slot(key)];
+  }
+
+  void put(final long key, final V value) {
+    if (key == 0) {
+      f_zeroValue = value;
+      return;
+    }
+    final int i = slot(key);
+    if (f_keys[i] == 0) {
+      if ((f_size + 1) * 4 > f_keys.length * 3) {
+        grow();
+        put(key, value);
+        return;
+      }
+      f_keys[i] = key;
+      f_size++;
+    }
+    f_values[i] = value;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @return the value the key had, or <code>null</code> if it was not in the
+   *         map.
+   */
+  @SuppressWarnings("unchecked")
+  V remove(final long key) {
+    if (key == 0) {
+      final V value = f_zeroValue;
+      f_zeroValue = null;
+      return value;
+    }
+    final int mask = f_keys.length - 1;
+    int i = slot(key);
+    if (f_keys[i] == 0) {
+      return null;
+    }
+    final V value = (V) f_values[i];
+    f_size--;
+    // Shift back entries that probed past the removed one
+    for (int j = i + 1 & mask; f_keys[j] != 0; j = j + 1 & mask) {
+      final int home = LongIntMap.hash(f_keys[j]) & mask;
+      if ((j - home & mask) >= (j - i & mask)) {
+        f_keys[i] = f_keys[j];
+        f_values[i] = f_values[j];
+        i = j;
+      }
+    }
+    f_keys[i] = 0;
+    f_values[i] = null;
+    return value;
+  }
+
+  /**
+   * Gets the keys, in no particular order.
+   */
+  long[] keys() {
+    final long[] keys = new long[size()];
+    int k = 0;
+    if (f_zeroValue != null) {
+      keys[k++] = 0;
+    }
+    for (final long key : f_keys) {
+      if (key != 0) {
+        keys[k++] = key;
+      }
+    }
+    return keys;
+  }
+
+  void clear() {
+    Arrays.fill(f_keys, 0);
+    Arrays.fill(f_values, null);
+    f_size = 0;
+    f_zeroValue = null;
+  }
+
+  private void grow() {
+    final long[] keys = f_keys;
+    final Object[] values = f_values;
+    f_keys = new long[keys.length * 2];
+    f_values = new Object[keys.length * 2];
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        final int j = slot(keys[i]);
+        f_keys[j] = keys[i];
+        f_values[j] = values[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.surelogic._flashlight.SiteTable;
+
+/**
+ * Hash-conses small sets of ids, such as the locks a thread holds or the
+ * threads that have accessed a field. Each distinct set is stored once, as a
+ * sorted array, and named by an <tt>int</tt>, so that code that tracks a set
+ * per field keeps one <tt>int</tt> per field, and two sets are equal exactly
+ * when their ids are. Sets are never freed; programs hold few distinct lock
+ * sets compared to the number of fields they access. Once the table of sets
+ * is full, new sets are no longer interned and stand for the empty set, see
+ * {@link #intern(long[])}.
+ * <p>
+ * Looking up a set by id never locks. Interning and intersecting lock this
+ * object, so threads that change sets often should go through a {@link Cache}.
+ */
+final class LongSets {
+
+  /**
+   * The id of the empty set.
+   */
+  static final int EMPTY = 0;
+
+  private static final int NONE = -1;
+
+  /**
+   * The number of intersections remembered, past which they are forgotten.
+   */
+  static final int MAX_INTERSECTIONS = 1 << 16;
+
+  /**
+   * A set, as a key for {@link LongSets#f_ids}.
+   */
+  private static final class Key {
+    final long[] f_ids;
+    final int f_hash;
+
+    Key(final long[] ids) {
+      f_ids = ids;
+      f_hash = Arrays.hashCode(ids);
+    }
+
+    @Override
+    public int hashCode() {
+      return f_hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof Key && Arrays.equals(f_ids, ((Key) o).f_ids);
+    }
+  }
+
+  private final SiteTable<long[]> f_sets = new SiteTable<long[]>();
+  private final Map<Key, Integer> f_ids = new HashMap<Key, Integer>();
+  /**
+   * Intersections of two sets, keyed by the pair of their ids, smaller first.
+   */
+  private final LongIntMap f_intersections = new LongIntMap();
+  private final int f_maxSets;
+  private volatile boolean f_full;
+
+  LongSets() {
+    this(SiteTable.MAX_SITES);
+  }
+
+  /**
+   * @param maxSets
+   *          the number of sets, at most {@link SiteTable#MAX_SITES}, past
+   *          which new sets are not interned.
+   */
+  LongSets(final int maxSets) {
+    f_maxSets = maxSets;
+    f_sets.put(EMPTY, new long[0]);
+    f_ids.put(new Key(new long[0]), EMPTY);
+  }
+
+  /**
+   * Gets the members of a set, in increasing order. The array must not be
+   * changed.
+   */
+  long[] get(final int set) {
+    return f_sets.get(set);
+  }
+
+  /**
+   * Gets the number of distinct sets seen so far.
+   */
+  synchronized int size() {
+    return f_ids.size();
+  }
+
+  /**
+   * Checks if sets have stopped being interned because there were too many.
+   */
+  boolean isFull() {
+    return f_full;
+  }
+
+  /**
+   * Gets the id of a set. Once the table of sets is full, a set that is not
+   * already known gets the id of the empty set. For lock sets this means the
+   * fields accessed while holding it look unprotected, which can only add
+   * violations.
+   *
+   * @param ids
+   *          the members of the set, in increasing order without duplicates.
+   *          The array is kept, so it must not be changed.
+   */
+  synchronized int intern(final long[] ids) {
+    final Key key = new Key(ids);
+    final Integer known = f_ids.get(key);
+    if (known != null) {
+      return known;
+    }
+    final int set = f_ids.size();
+    if (set >= f_maxSets) {
+      f_full = true;
+      return EMPTY;
+    }
+    f_sets.put(set, ids);
+    f_ids.put(key, set);
+    return set;
+  }
+
+  /**
+   * Gets the set with one more member.
+   */
+  int with(final int set, final long id) {
+    final long[] ids = get(set);
+    int i = Arrays.binarySearch(ids, id);
+    if (i >= 0) {
+      return set;
+    }
+    i = -i - 1;
+    final long[] result = new long[ids.length + 1];
+    System.arraycopy(ids, 0, result, 0, i);
+    result[i] = id;
+    System.arraycopy(ids, i, result, i + 1, ids.length - i);
+    return intern(result);
+  }
+
+  /**
+   * Gets the set with one member fewer.
+   */
+  int without(final int set, final long id) {
+    final long[] ids = get(set);
+    final int i = Arrays.binarySearch(ids, id);
+    if (i < 0) {
+      return set;
+    }
+    final long[] result = new long[ids.length - 1];
+    System.arraycopy(ids, 0, result, 0, i);
+    System.arraycopy(ids, i + 1, result, i, result.length - i);
+    return intern(result);
+  }
+
+  /**
+   * Gets the intersection of two sets.
+   */
+  int intersect(final int a, final int b) {
+    if (a == b || b == EMPTY) {
+      return b;
+    }
+    if (a == EMPTY) {
+      return a;
+    }
+    final long pair = a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    synchronized (this) {
+      final int known = f_intersections.get(pair, NONE);
+      if (known != NONE) {
+        return known;
+      }
+    }
+    final long[] as = get(a);
+    final long[] bs = get(b);
+    long[] result = new long[Math.min(as.length, bs.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < as.length && j < bs.length;) {
+      if (as[i] < bs[j]) {
+        i++;
+      } else if (as[i] > bs[j]) {
+        j++;
+      } else {
+        result[n++] = as[i];
+        i++;
+        j++;
+      }
+    }
+    result = Arrays.copyOf(result, n);
+    final int set = intern(result);
+    synchronized (this) {
+      if (f_intersections.size() >= MAX_INTERSECTIONS) {
+        f_intersections.clear();
+      }
+      f_intersections.put(pair, set);
+    }
+    return set;
+  }
+
+  /**
+   * Checks if every member of one set is in another.
+   */
+  boolean containsAll(final int set, final int subset) {
+    return intersect(set, subset) == subset;
+  }
+
+  /**
+   * Copies a set into a set of boxed ids, for reporting.
+   */
+  Set<Long> toSet(final int set) {
+    final long[] ids = get(set);
+    final Set<Long> result = new HashSet<Long>(ids.length * 2);
+    for (final long id : ids) {
+      result.add(id);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the id of a set of boxed ids.
+   */
+  int intern(final Set<Long> ids) {
+    final long[] result = new long[ids.size()];
+    int i = 0;
+    for (final long id : ids) {
+      result[i++] = id;
+    }
+    Arrays.sort(result);
+    return intern(result);
+  }
+
+  /**
+   * Remembers the results of recent operations on the sets of a
+   * {@link LongSets}, so that a thread repeating the same operations does not
+   * lock the shared sets. Each result is kept in a slot chosen by the
+   * operation, and replaced by the next operation that needs the slot.
+   * <p>
+   * Instances are not thread safe.
+   */
+  static final class Cache {
+    private static final int SLOTS = 64;
+    private static final int WITH = 0;
+    private static final int WITHOUT = 1;
+    private static final int INTERSECT = 2;
+
+    private final LongSets f_sets;
+    private final int[] f_op = new int[SLOTS];
+    private final int[] f_set = new int[SLOTS];
+    private final long[] f_arg = new long[SLOTS];
+    private final int[] f_result = new int[SLOTS];
+
+    Cache(final LongSets sets) {
+      f_sets = sets;
+      Arrays.fill(f_op, NONE);
+    }
+
+    LongSets getSets() {
+      return f_sets;
+    }
+
+    private int slot(final int op, final int set, final long arg) {
+      return LongIntMap.hash(arg * 31 + set * 3 + op) & SLOTS - 1;
+    }
+
+    int with(final int set, final long id) {
+      final int i = slot(WITH, set, id);
+      if (f_op[i] == WITH && f_set[i] == set && f_arg[i] == id) {
+        return f_result[i];
+      }
+      return remember(i, WITH, set, id, f_sets.with(set, id));
+    }
+
+    int without(final int set, final long id) {
+      final int i = slot(WITHOUT, set, id);
+      if (f_op[i] == WITHOUT && f_set[i] == set && f_arg[i] == id) {
+        return f_result[i];
+      }
+      return remember(i, WITHOUT, set, id, f_sets.without(set, id));
+    }
+
+    int intersect(final int a, final int b) {
+      if (a == b || a == EMPTY || b == EMPTY) {
+        return a == EMPTY ? a : b;
+      }
+      final int i = slot(INTERSECT, a, b);
+      if (f_op[i] == INTERSECT && f_set[i] == a && f_arg[i] == b) {
+        return f_result[i];
+      }
+      return remember(i, INTERSECT, a, b, f_sets.intersect(a, b));
+    }
+
+    private int remember(final int i, final int op, final int set, final long arg, final int result) {
+      f_op[i] = op;
+      f_set[i] = set;
+      f_arg[i] = arg;
+      f_result[i] = result;
+      return result;
+    }
+  }
+}
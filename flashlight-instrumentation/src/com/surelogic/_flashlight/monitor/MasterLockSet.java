@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.surelogic._flashlight.common.FieldDef;
 import com.surelogic._flashlight.common.FieldDefs;
 import com.surelogic._flashlight.monitor.ThreadLocks.LockStack;
 
@@ -19,8 +20,12 @@ import com.surelogic._flashlight.monitor.ThreadLocks.LockStack;
  * 
  */
 public class MasterLockSet {
-  private final Map<Long, Set<Long>> staticLockSets;
-  private final Map<Long, Map<Long, Set<Long>>> lockSets;
+  /*
+   * Lock set ids from sets, keyed by field, and by receiver and then field.
+   */
+  private final LongSets sets;
+  private final LongIntMap staticLockSets;
+  private final LongObjectMap<LongIntMap> lockSets;
   private final FieldDefs defs;
   private final SharedFields shared;
   private final Graph graph;
@@ -31,14 +36,44 @@ public class MasterLockSet {
   private final Set<Long> lockSetFields;
   private final Set<Long> noLockSetFields;
 
-  MasterLockSet(final FieldDefs defs, final SharedFields sf) {
-    lockSets = new HashMap<Long, Map<Long, Set<Long>>>();
-    staticLockSets = new HashMap<Long, Set<Long>>();
+  /**
+   * Flags for the fields touched since {@link #takeTouchedFields()} was last
+   * called.
+   */
+  static final int TOUCHED = 1;
+  static final int NOT_EDT = 2;
+  static final int NEWLY_SHARED = 4;
+  private LongIntMap touched;
+
+  MasterLockSet(final FieldDefs defs, final SharedFields sf, final LongSets lockSetIds) {
+    sets = lockSetIds;
+    lockSets = new LongObjectMap<LongIntMap>();
+    staticLockSets = new LongIntMap();
     this.shared = sf;
     this.defs = defs;
     graph = new Graph();
     lockSetFields = new HashSet<Long>();
     noLockSetFields = new HashSet<Long>();
+    touched = new LongIntMap();
+  }
+
+  private void touch(final long fieldId, final int flags) {
+    touched.put(fieldId, touched.get(fieldId, 0) | flags);
+  }
+
+  /**
+   * Gets the fields that have been accessed by a thread, or purged, since this
+   * was last called, and starts a new set.
+   * 
+   * @return a map from each field to its {@link #TOUCHED}, {@link #NOT_EDT},
+   *         and {@link #NEWLY_SHARED} flags.
+   */
+  synchronized LongIntMap takeTouchedFields() {
+    try {
+      return touched;
+    } finally {
+      touched = new LongIntMap();
+    }
   }
 
   /**
@@ -47,62 +82,51 @@ public class MasterLockSet {
    * state, although the locks currently held is kept.
    * 
    * @param other
+   * @return the number of field entries drained.
    */
-  synchronized void drain(final ThreadLocks other) {
-    Map<Long, Set<Long>> otherStaticLockSets;
-    Map<Long, Map<Long, Set<Long>>> otherLockSets;
-    Set<LockStack> otherStacks;
-    Set<Long> otherSharedStatics;
-    Map<Long, Set<Long>> otherShared;
-    long threadId;
-    synchronized (other) {
-      otherStaticLockSets = other.clearStaticLockSets();
-      otherLockSets = other.clearLockSets();
-      otherStacks = other.clearLockStacks();
-      otherSharedStatics = other.clearSharedStatics();
-      otherShared = other.clearShared();
-      threadId = other.getThreadId();
-    }
-    for (final long fieldId : otherSharedStatics) {
-      shared.sharedField(fieldId, threadId);
+  synchronized int drain(final ThreadLocks other) {
+    final ThreadLocks.Buffer buffer = other.swap();
+    final LongIntMap otherStaticLockSets = buffer.staticLockSets;
+    final LongObjectMap<LongIntMap> otherLockSets = buffer.lockSets;
+    final Set<LockStack> otherStacks = buffer.stacks;
+    final long threadId = other.getThreadId();
+    final int flags = other.isEDT() ? TOUCHED : TOUCHED | NOT_EDT;
+    int drained = otherStaticLockSets.size();
+    for (final long fieldId : otherStaticLockSets.keys()) {
+      touch(fieldId, shared.sharedField(fieldId, threadId) ? flags | NEWLY_SHARED : flags);
     }
-    for (final Entry<Long, Set<Long>> e : otherShared.entrySet()) {
-      final long receiverId = e.getKey();
-      for (final long fieldId : e.getValue()) {
-        shared.sharedField(receiverId, fieldId, threadId);
+    merge(staticLockSets, otherStaticLockSets);
+    for (final long receiverId : otherLockSets.keys()) {
+      final LongIntMap otherFields = otherLockSets.get(receiverId);
+      drained += otherFields.size();
+      for (final long fieldId : otherFields.keys()) {
+        touch(fieldId, shared.sharedField(receiverId, fieldId, threadId) ? flags | NEWLY_SHARED : flags);
       }
-    }
-    for (final Entry<Long, Set<Long>> e : otherStaticLockSets.entrySet()) {
-      final long fieldId = e.getKey();
-      final Set<Long> otherLocks = e.getValue();
-      final Set<Long> locks = staticLockSets.get(fieldId);
-      if (locks == null) {
-        staticLockSets.put(fieldId, otherLocks);
-      } else {
-        locks.retainAll(otherLocks);
-      }
-    }
-    for (final Entry<Long, Map<Long, Set<Long>>> e : otherLockSets.entrySet()) {
-      final long receiverId = e.getKey();
-      Map<Long, Set<Long>> receiverMap = lockSets.get(receiverId);
+      LongIntMap receiverMap = lockSets.get(receiverId);
       if (receiverMap == null) {
-        receiverMap = new HashMap<Long, Set<Long>>();
+        receiverMap = new LongIntMap();
         lockSets.put(receiverId, receiverMap);
       }
-      for (final Entry<Long, Set<Long>> e1 : e.getValue().entrySet()) {
-        final long fieldId = e1.getKey();
-        final Set<Long> otherLocks = e1.getValue();
-        final Set<Long> locks = receiverMap.get(fieldId);
-        if (locks == null) {
-          receiverMap.put(fieldId, otherLocks);
-        } else {
-          locks.retainAll(otherLocks);
-        }
-      }
+      merge(receiverMap, otherFields);
     }
     for (final LockStack stack : otherStacks) {
       graph.add(stack);
     }
+    return drained;
+  }
+
+  /**
+   * Narrows the lock sets of fields to the lock sets a thread saw for them.
+   */
+  private void merge(final LongIntMap fieldLockSets, final LongIntMap otherFieldLockSets) {
+    for (final long fieldId : otherFieldLockSets.keys()) {
+      final int otherLocks = otherFieldLockSets.get(fieldId, ThreadLocks.NO_LOCK_SET);
+      if (otherLocks == ThreadLocks.NO_LOCK_SET) {
+        continue;
+      }
+      final int locks = fieldLockSets.get(fieldId, ThreadLocks.NO_LOCK_SET);
+      fieldLockSets.put(fieldId, locks == ThreadLocks.NO_LOCK_SET ? otherLocks : sets.intersect(locks, otherLocks));
+    }
   }
 
   static class Graph {
@@ -178,20 +202,18 @@ public class MasterLockSet {
   }
 
   /**
-   * Purge the given receiver from this lock set analysis and return the
-   * results. This method should be called when an object is garbage collected.
+   * Purge the given receiver from this lock set analysis. This method should be
+   * called when an object is garbage collected.
    * 
    * @param receiverId
-   * @return a map of lock sets keyed by field id
    */
-  synchronized Map<Long, Set<Long>> purge(final long receiverId) {
-    final Map<Long, Set<Long>> fields = lockSets.get(receiverId);
-    lockSets.remove(receiverId);
+  synchronized void purge(final long receiverId) {
+    final LongIntMap fields = lockSets.remove(receiverId);
     if (fields != null) {
-      for (final Entry<Long, Set<Long>> e : fields.entrySet()) {
-        final long fieldId = e.getKey();
+      for (final long fieldId : fields.keys()) {
+        touch(fieldId, TOUCHED);
         if (shared.isShared(receiverId, fieldId)) {
-          if (e.getValue().isEmpty()) {
+          if (fields.get(fieldId, LongSets.EMPTY) == LongSets.EMPTY) {
             noLockSetFields.add(fieldId);
           } else {
             lockSetFields.add(fieldId);
@@ -200,7 +222,43 @@ public class MasterLockSet {
       }
     }
     graph.purge(receiverId);
-    return fields;
+  }
+
+  /**
+   * Whether or not the given field has always been observed to have a lock
+   * set. This gives the same answer as
+   * {@link LockSetInfo#hasLockSet(FieldDef)} on the result of
+   * {@link #getLockSetInfo()}, without copying the lock sets of every field.
+   * 
+   * @param field
+   * @return whether the field always has a lock set, or <code>true</code> if it
+   *         has never been observed.
+   */
+  synchronized boolean hasLockSet(final FieldDef field) {
+    final long fieldId = field.getId();
+    if (field.isStatic()) {
+      if (!staticLockSets.containsKey(fieldId) || !shared.isShared(fieldId)) {
+        return true;
+      }
+      return staticLockSets.get(fieldId, LongSets.EMPTY) != LongSets.EMPTY;
+    }
+    boolean observed = false;
+    boolean hasLockSet = true;
+    final LongObjectMap<long[]> receivers = shared.sharedFieldsByField.get(fieldId);
+    if (receivers != null) {
+      for (final long receiverId : receivers.keys()) {
+        final LongIntMap fields = lockSets.get(receiverId);
+        if (fields != null && fields.containsKey(fieldId) && shared.isShared(receiverId, fieldId)) {
+          observed = true;
+          hasLockSet &= fields.get(fieldId, LongSets.EMPTY) != LongSets.EMPTY;
+        }
+      }
+    }
+    if (!observed) {
+      // We return false if we have not found any lock sets
+      hasLockSet = lockSetFields.contains(fieldId);
+    }
+    return hasLockSet && !noLockSetFields.contains(fieldId);
   }
 
   Set<LockStack> getLockOrders() {
@@ -219,26 +277,24 @@ public class MasterLockSet {
    */
   LockSetInfo getLockSetInfo() {
     final Map<Long, Set<Long>> statics = new HashMap<Long, Set<Long>>(staticLockSets.size());
-    for (final Entry<Long, Set<Long>> e : staticLockSets.entrySet()) {
-      if (shared.isShared(e.getKey())) {
-        statics.put(e.getKey(), new HashSet<Long>(e.getValue()));
+    for (final long fieldId : staticLockSets.keys()) {
+      if (shared.isShared(fieldId)) {
+        statics.put(fieldId, sets.toSet(staticLockSets.get(fieldId, LongSets.EMPTY)));
       }
     }
     // We reverse the lock set map here, as querying by field is generally
     // what we want
     final Map<Long, Map<Long, Set<Long>>> instances = new HashMap<Long, Map<Long, Set<Long>>>(lockSets.size());
-    for (final Entry<Long, Map<Long, Set<Long>>> e : lockSets.entrySet()) {
-      final long receiver = e.getKey();
-      final Map<Long, Set<Long>> recMap = e.getValue();
-      for (final Entry<Long, Set<Long>> e1 : recMap.entrySet()) {
-        final long field = e1.getKey();
+    for (final long receiver : lockSets.keys()) {
+      final LongIntMap recMap = lockSets.get(receiver);
+      for (final long field : recMap.keys()) {
         if (shared.isShared(receiver, field)) {
           Map<Long, Set<Long>> fieldMap = instances.get(field);
           if (fieldMap == null) {
             fieldMap = new HashMap<Long, Set<Long>>();
             instances.put(field, fieldMap);
           }
-          fieldMap.put(receiver, new HashSet<Long>(e1.getValue()));
+          fieldMap.put(receiver, sets.toSet(recMap.get(field, LongSets.EMPTY)));
         }
       }
     }
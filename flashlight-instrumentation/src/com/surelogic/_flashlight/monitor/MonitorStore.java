@@ -46,6 +46,9 @@ public final class MonitorStore implements StoreListener {
     return f_rwLocks;
   }
 
+  final LockContention f_contention = new LockContention();
+  private SiteLines f_siteLines = new SiteLines(null);
+
   /**
    * This thread-local (tl) flag is used to ensure that we to not, within a
    * thread, reenter the store. This situation can occur if we call methods on
@@ -68,6 +71,11 @@ public final class MonitorStore implements StoreListener {
   volatile MonitorSpec f_spec;
 
   private final ThreadLocal<ThreadLocks> tl_lockSet;
+  /**
+   * The lock sets held by program threads, shared by every thread and by each
+   * analysis in turn.
+   */
+  final LongSets f_lockSetIds = new LongSets();
   final CopyOnWriteArrayList<ThreadLocks> f_lockSets;
 
   CopyOnWriteArrayList<ThreadLocks> threadLocks() {
@@ -161,7 +169,7 @@ public final class MonitorStore implements StoreListener {
       protected ThreadLocks initialValue() {
         final ThreadPhantomReference thread = tl_withinStore.get().thread;
         final boolean isEDT = thread.getName().startsWith("AWT-EventQueue");
-        final ThreadLocks ls = new ThreadLocks(thread.getName(), thread.getId(), isEDT, f_rwLocks);
+        final ThreadLocks ls = new ThreadLocks(thread.getName(), thread.getId(), isEDT, f_rwLocks, f_lockSetIds);
         f_lockSets.add(ls);
         return ls;
       }
@@ -175,6 +183,7 @@ public final class MonitorStore implements StoreListener {
   public void init(final RunConf conf) {
     f_spec = new MonitorSpec(System.getProperty("com.surelogic.fieldSpec", ""), conf.getFieldDefs());
     f_conf = conf;
+    f_siteLines = new SiteLines(conf);
 
     // Start up looking at no fields.
     reviseSpec(f_spec);
@@ -419,7 +428,7 @@ public final class MonitorStore implements StoreListener {
    */
   @Override
   public void beforeIntrinsicLockAcquisition(final Object lockObject, final boolean lockIsThis, final long siteId) {
-    // Do nothing
+    f_contention.beforeAcquire();
   }
 
   /**
@@ -442,6 +451,7 @@ public final class MonitorStore implements StoreListener {
       }
       f_lockNames.put(lockId, lockObject.getClass().getName() + '-' + lockId);
     }
+    f_contention.afterAcquire(lockId, siteId, true);
     tl_lockSet.get().enterLock(lockId);
   }
 
@@ -470,7 +480,7 @@ public final class MonitorStore implements StoreListener {
    */
   @Override
   public void intrinsicLockWait(final boolean before, final Object lockObject, final boolean lockIsThis, final long siteId) {
-    // Do nothing
+    f_contention.waitOn(before, Phantom.of(lockObject).getId());
   }
 
   /**
@@ -487,6 +497,7 @@ public final class MonitorStore implements StoreListener {
   @Override
   public void afterIntrinsicLockRelease(final Object lockObject, final boolean lockIsThis, final long siteId) {
     final IdPhantomReference lockPhantom = Phantom.of(lockObject);
+    f_contention.release(lockPhantom.getId());
     tl_lockSet.get().leaveLock(lockPhantom.getId());
   }
 
@@ -503,7 +514,7 @@ public final class MonitorStore implements StoreListener {
    */
   @Override
   public void beforeUtilConcurrentLockAcquisitionAttempt(final Object lockObject, final long siteId) {
-    // Do nothing
+    f_contention.beforeAcquire();
   }
 
   /**
@@ -526,13 +537,16 @@ public final class MonitorStore implements StoreListener {
   @Override
   public void afterUtilConcurrentLockAcquisitionAttempt(final boolean gotTheLock, final Object lockObject, final long siteId) {
     if (lockObject instanceof Lock) {
+      final ObjectPhantomReference lockPhantom = Phantom.ofObject(lockObject);
+      final long lockId = lockPhantom.getId();
       if (gotTheLock) {
-        final ObjectPhantomReference lockPhantom = Phantom.ofObject(lockObject);
-        final long lockId = lockPhantom.getId();
         if (!f_lockNames.containsKey(lockId)) {
           f_lockNames.put(lockId, lockObject.getClass().getName() + lockId);
         }
+        f_contention.afterAcquire(lockId, siteId, true);
         tl_lockSet.get().enterLock(lockId);
+      } else {
+        f_contention.afterAcquire(lockId, siteId, false);
       }
     } else {
       final String fmt = "lock object must be a java.util.concurrent.locks.Lock...instrumentation bug detected by LockSetStore.afterUtilConcurrentLockAcquisitionAttempt(%s, lockObject=%s, location=%s)";
@@ -563,6 +577,7 @@ public final class MonitorStore implements StoreListener {
       if (releasedTheLock) {
         final ObjectPhantomReference lockPhantom = Phantom.ofObject(lockObject);
         final long id = lockPhantom.getId();
+        f_contention.release(id);
         tl_lockSet.get().leaveLock(id);
       }
     } else {
@@ -611,6 +626,7 @@ public final class MonitorStore implements StoreListener {
     for (IdPhantomReference ref : references) {
       f_lockNames.remove(ref);
       long id = ref.getId();
+      f_contention.gc(id);
       final ReadWriteLockIds ids = f_rwLocks.get(ref.getId());
       if (ids != null) {
         f_rwLocks.remove(id);
@@ -710,6 +726,24 @@ public final class MonitorStore implements StoreListener {
 
   }
 
+  class ContentionCommand implements ConsoleCommand {
+    private static final String CONTENTION = "contention";
+
+    @Override
+    public String getDescription() {
+      return CONTENTION + " - display the most contended locks and the sites they were waited for at";
+    }
+
+    @Override
+    public String handle(final String command) {
+      if (CONTENTION.equalsIgnoreCase(command)) {
+        return f_contention.report(f_lockNames, f_siteLines);
+      }
+      return null;
+    }
+
+  }
+
   class SharedCommand implements ConsoleCommand {
     private static final String SHARED = "shared";
 
@@ -745,14 +779,16 @@ public final class MonitorStore implements StoreListener {
     public String handle(final String command) {
       if (PROPS.equalsIgnoreCase(command)) {
         AlertSpec aSpec;
+        String statistics;
         f_analysisLock.lock();
         try {
           aSpec = f_activeAnalysis.getAlertSpec();
+          statistics = f_activeAnalysis.getStatistics();
         } finally {
           f_analysisLock.unlock();
         }
-        return String.format("%s=%s\n%s=%s\n%s=%s\n%s=%s\n", FIELD_SPEC, f_spec.getFieldSpec(), EDT_FIELDS, aSpec.getEDTSpec(),
-            LOCKSET_FIELDS, aSpec.getLockSetSpec(), SHARED_FIELDS, aSpec.getSharedSpec());
+        return String.format("%s=%s\n%s=%s\n%s=%s\n%s=%s\n%s", FIELD_SPEC, f_spec.getFieldSpec(), EDT_FIELDS, aSpec.getEDTSpec(),
+            LOCKSET_FIELDS, aSpec.getLockSetSpec(), SHARED_FIELDS, aSpec.getSharedSpec(), statistics);
       }
       return null;
     }
@@ -832,7 +868,8 @@ public final class MonitorStore implements StoreListener {
   public Collection<? extends ConsoleCommand> getCommands() {
     return Arrays
         .asList(new ConsoleCommand[] { new ListCommand(), new AlertsCommand(), new DeadlocksCommand(), new LockSetsCommand(),
-            new RaceConditionsCommand(), new SharedCommand(), new SetCommand(), new PropsCommand(), new DescribeCommand() });
+            new RaceConditionsCommand(), new ContentionCommand(), new SharedCommand(), new SetCommand(), new PropsCommand(),
+            new DescribeCommand() });
   }
 
   @Override
@@ -0,0 +1,774 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.surelogic._flashlight.ClassPhantomReference;
+import com.surelogic._flashlight.ConsoleCommand;
+import com.surelogic._flashlight.IdPhantomReference;
+import com.surelogic._flashlight.Phantom;
+import com.surelogic._flashlight.RunConf;
+import com.surelogic._flashlight.SiteTable;
+import com.surelogic._flashlight.StoreListener;
+import com.surelogic._flashlight.ThreadPhantomReference;
+import com.surelogic._flashlight.common.FieldDef;
+import com.surelogic._flashlight.common.FieldDefs;
+import com.surelogic._flashlight.common.HappensBeforeConfig.HBType;
+import com.surelogic._flashlight.common.HappensBeforeConfig.HappensBeforeRule;
+
+/**
+ * Finds data races while the program runs, without writing a trace. Each
+ * thread keeps a vector clock, and each lock, volatile field and
+ * happens-before object keeps the clock of the threads that last released
+ * it. Each field keeps the epoch of its last write and of its last read, or a
+ * vector clock of reads once reads are shared, as in FastTrack. An access that
+ * is not ordered after a conflicting earlier access is a race, which is logged
+ * the first time it is seen and listed by the <code>hbRaces</code> command.
+ * <p>
+ * The store is told of a lock release after the lock is free, so another
+ * thread may take the lock first. A lock therefore remembers the threads
+ * holding it, each with a copy of its clock as it took the lock, and a thread
+ * that takes the lock learns the copied clock of any holder that has not yet
+ * reported its release. What such a holder learned while holding the lock is
+ * lost, and accesses it made after ticking its clock while holding the lock,
+ * by releasing another lock or writing a volatile field, may be flagged
+ * falsely. Thread starts and object sources are
+ * released as the call begins, when the rewriter reports calls before they
+ * happen; other sources are released when the call returns, so an access
+ * racing with that report may be flagged falsely. Accesses to static fields
+ * while their class is initialized are not checked, as the class
+ * initialization lock is not seen.
+ */
+public final class RaceStore implements StoreListener {
+
+  /**
+   * The read epoch of a field whose reads are kept in a vector clock.
+   */
+  private static final long SHARED_READS = -1;
+
+  private RunConf f_conf;
+  private final SiteTable<FieldDef> f_fields = new SiteTable<FieldDef>();
+  private HappensBeforeRoles f_roles;
+
+  private final AtomicInteger f_threadCount = new AtomicInteger();
+  private final SiteTable<String> f_threadNames = new SiteTable<String>();
+  private final ThreadLocal<ThreadClock> tl_clock;
+  private final ConcurrentMap<Long, ThreadClock> f_threads = new ConcurrentHashMap<Long, ThreadClock>();
+  /**
+   * The clocks of started threads that have not yet reached the store.
+   */
+  private final ConcurrentMap<Long, VectorClock> f_forks = new ConcurrentHashMap<Long, VectorClock>();
+  private final ConcurrentMap<Long, LockClock> f_locks = new ConcurrentHashMap<Long, LockClock>();
+  private final ConcurrentMap<Long, VectorClock> f_objects = new ConcurrentHashMap<Long, VectorClock>();
+  private final ConcurrentMap<Long, ObjectShadow> f_shadows = new ConcurrentHashMap<Long, ObjectShadow>();
+  private final SiteTable<FieldShadow> f_statics = new SiteTable<FieldShadow>();
+  private final ConcurrentMap<Race, Race> f_races = new ConcurrentHashMap<Race, Race>();
+  private final AtomicLong f_lateForks = new AtomicLong();
+
+  /**
+   * A program thread and its vector clock. The clock is changed only by its
+   * thread, and read by others only when they join the thread.
+   */
+  static final class ThreadClock {
+    final int id;
+    final VectorClock clock;
+    /**
+     * How many times the thread held the lock it is waiting on.
+     */
+    int waitDepth;
+
+    ThreadClock(final int id, final VectorClock clock) {
+      this.id = id;
+      this.clock = clock;
+      clock.set(id, clock.get(id) + 1);
+    }
+
+    long epoch() {
+      return VectorClock.epoch(id, clock.get(id));
+    }
+
+    void tick() {
+      clock.set(id, clock.get(id) + 1);
+    }
+  }
+
+  /**
+   * The clock of a lock, and the threads that hold it. The read and write locks
+   * of a {@link ReadWriteLock} share one. The clocks of the holders are copied
+   * by the holders as they take the lock, so that no thread reads the clock of
+   * another.
+   */
+  static final class LockClock {
+    final VectorClock clock = new VectorClock();
+    long readLock;
+    ThreadClock[] holders = new ThreadClock[2];
+    VectorClock[] clocks = new VectorClock[2];
+    int[] depths = new int[2];
+    boolean[] shared = new boolean[2];
+    int count;
+
+    int indexOf(final ThreadClock t) {
+      for (int i = 0; i < count; i++) {
+        if (holders[i] == t) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Records a holder. Only the holder's own thread may call this, as it copies
+     * the holder's clock.
+     */
+    void add(final ThreadClock t, final boolean isShared, final int depth) {
+      if (count == holders.length) {
+        holders = Arrays.copyOf(holders, count * 2);
+        clocks = Arrays.copyOf(clocks, count * 2);
+        depths = Arrays.copyOf(depths, count * 2);
+        shared = Arrays.copyOf(shared, count * 2);
+      }
+      holders[count] = t;
+      if (clocks[count] == null) {
+        clocks[count] = new VectorClock(t.clock);
+      } else {
+        clocks[count].copy(t.clock);
+      }
+      depths[count] = depth;
+      shared[count] = isShared;
+      count++;
+    }
+
+    void remove(final int i) {
+      count--;
+      holders[i] = holders[count];
+      final VectorClock removed = clocks[i];
+      clocks[i] = clocks[count];
+      clocks[count] = removed;
+      depths[i] = depths[count];
+      shared[i] = shared[count];
+      holders[count] = null;
+    }
+  }
+
+  /**
+   * The accesses to one field of one object, or to one static field.
+   */
+  static final class FieldShadow {
+    long write;
+    long writeSite;
+    long read;
+    long readSite;
+    VectorClock reads;
+    /**
+     * The clock of the last writers of a volatile field.
+     */
+    VectorClock sync;
+  }
+
+  /**
+   * The fields of one object, guarded by the object.
+   */
+  static final class ObjectShadow {
+    final LongObjectMap<FieldShadow> fields = new LongObjectMap<FieldShadow>();
+
+    FieldShadow get(final long fieldId) {
+      FieldShadow f = fields.get(fieldId);
+      if (f == null) {
+        f = new FieldShadow();
+        fields.put(fieldId, f);
+      }
+      return f;
+    }
+  }
+
+  enum Kind {
+    WRITE_WRITE("write", "write"), WRITE_READ("write", "read"), READ_WRITE("read", "write");
+
+    final String first;
+    final String second;
+
+    Kind(final String first, final String second) {
+      this.first = first;
+      this.second = second;
+    }
+  }
+
+  /**
+   * A race between accesses at two sites. Races are told apart by field and
+   * sites, not by object.
+   */
+  static final class Race {
+    final Kind kind;
+    final long field;
+    final long firstSite;
+    final long secondSite;
+    final String firstThread;
+    final String secondThread;
+    final long receiver;
+    final AtomicLong count = new AtomicLong();
+
+    Race(final Kind kind, final long field, final long firstSite, final long secondSite, final String firstThread,
+        final String secondThread, final long receiver) {
+      this.kind = kind;
+      this.field = field;
+      this.firstSite = firstSite;
+      this.secondSite = secondSite;
+      this.firstThread = firstThread;
+      this.secondThread = secondThread;
+      this.receiver = receiver;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (field * 31 + firstSite * 17 + secondSite) * 3 + kind.ordinal();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Race)) {
+        return false;
+      }
+      final Race r = (Race) o;
+      return kind == r.kind && field == r.field && firstSite == r.firstSite && secondSite == r.secondSite;
+    }
+  }
+
+  public RaceStore() {
+    tl_clock = new ThreadLocal<ThreadClock>() {
+      @Override
+      protected ThreadClock initialValue() {
+        final ThreadPhantomReference thread = Phantom.ofThread(Thread.currentThread());
+        final int id = f_threadCount.getAndIncrement();
+        f_threadNames.put(id, thread.getName());
+        final VectorClock fork = f_forks.remove(thread.getId());
+        final ThreadClock clock = new ThreadClock(id, fork == null ? new VectorClock() : fork);
+        f_threads.put(thread.getId(), clock);
+        return clock;
+      }
+    };
+  }
+
+  @Override
+  public void init(final RunConf conf) {
+    f_conf = conf;
+    init(conf.getFieldDefs(), HappensBeforeRoles.load(conf));
+  }
+
+  void init(final FieldDefs defs, final HappensBeforeRoles roles) {
+    for (final FieldDef def : defs.values()) {
+      f_fields.put(def.getId(), def);
+    }
+    f_roles = roles;
+  }
+
+  @Override
+  public void instanceFieldAccess(final boolean read, final Object receiver, final int fieldID, final long siteId,
+      final ClassPhantomReference dcPhantom, final Class<?> declaringClass) {
+    final FieldDef def = f_fields.get(fieldID);
+    if (def != null && def.isFinal()) {
+      return;
+    }
+    final ThreadClock t = tl_clock.get();
+    final long receiverId = Phantom.ofObject(receiver).getId();
+    ObjectShadow shadow = f_shadows.get(receiverId);
+    if (shadow == null) {
+      final ObjectShadow created = new ObjectShadow();
+      shadow = f_shadows.putIfAbsent(receiverId, created);
+      if (shadow == null) {
+        shadow = created;
+      }
+    }
+    synchronized (shadow) {
+      final FieldShadow f = shadow.get(fieldID);
+      if (def != null && def.isVolatile()) {
+        volatileAccess(t, f, read);
+      } else {
+        access(t, f, read, fieldID, receiverId, siteId);
+      }
+    }
+  }
+
+  @Override
+  public void staticFieldAccess(final boolean read, final int fieldID, final long siteId, final ClassPhantomReference dcPhantom,
+      final Class<?> declaringClass) {
+    final FieldDef def = f_fields.get(fieldID);
+    if (def != null && def.isFinal() || dcPhantom != null && dcPhantom.isUnderConstruction()) {
+      return;
+    }
+    final FieldShadow f = staticShadow(fieldID);
+    if (f == null) {
+      return;
+    }
+    final ThreadClock t = tl_clock.get();
+    synchronized (f) {
+      if (def != null && def.isVolatile()) {
+        volatileAccess(t, f, read);
+      } else {
+        access(t, f, read, fieldID, 0, siteId);
+      }
+    }
+  }
+
+  /**
+   * Gets the shadow of a static field, or {@code null} if the field id is too
+   * large to be held in {@link #f_statics}. Field ids are handed out densely
+   * from zero, like site ids.
+   */
+  private FieldShadow staticShadow(final int fieldId) {
+    FieldShadow f = f_statics.get(fieldId);
+    if (f == null && SiteTable.holds(fieldId)) {
+      synchronized (f_statics) {
+        f = f_statics.get(fieldId);
+        if (f == null) {
+          f = new FieldShadow();
+          f_statics.put(fieldId, f);
+        }
+      }
+    }
+    return f;
+  }
+
+  /**
+   * A volatile write releases, and a volatile read acquires. The store hears
+   * of a write before it happens, and of a read after.
+   */
+  private static void volatileAccess(final ThreadClock t, final FieldShadow f, final boolean read) {
+    if (read) {
+      if (f.sync != null) {
+        t.clock.join(f.sync);
+      }
+    } else {
+      if (f.sync == null) {
+        f.sync = new VectorClock();
+      }
+      f.sync.join(t.clock);
+      t.tick();
+    }
+  }
+
+  /**
+   * Checks an access against the earlier accesses to a field, and records it.
+   * The caller holds the lock that guards the field's shadow.
+   */
+  private void access(final ThreadClock t, final FieldShadow f, final boolean read, final long field, final long receiver,
+      final long siteId) {
+    final VectorClock clock = t.clock;
+    final long now = t.epoch();
+    if (read) {
+      if (f.read == now || f.reads != null && f.reads.get(t.id) == VectorClock.clock(now)) {
+        return;
+      }
+      if (!clock.covers(f.write)) {
+        report(Kind.WRITE_READ, field, receiver, VectorClock.thread(f.write), f.writeSite, t, siteId);
+      }
+      if (f.reads != null) {
+        f.reads.set(t.id, VectorClock.clock(now));
+      } else if (clock.covers(f.read)) {
+        f.read = now;
+      } else {
+        f.reads = new VectorClock();
+        f.reads.set(VectorClock.thread(f.read), VectorClock.clock(f.read));
+        f.reads.set(t.id, VectorClock.clock(now));
+        f.read = SHARED_READS;
+      }
+      f.readSite = siteId;
+    } else {
+      if (f.write == now) {
+        return;
+      }
+      if (!clock.covers(f.write)) {
+        report(Kind.WRITE_WRITE, field, receiver, VectorClock.thread(f.write), f.writeSite, t, siteId);
+      }
+      if (f.reads != null) {
+        for (int u = 0; u < f.reads.length(); u++) {
+          if (f.reads.get(u) > clock.get(u)) {
+            report(Kind.READ_WRITE, field, receiver, u, f.readSite, t, siteId);
+            break;
+          }
+        }
+        f.reads = null;
+        f.read = 0;
+      } else if (!clock.covers(f.read)) {
+        report(Kind.READ_WRITE, field, receiver, VectorClock.thread(f.read), f.readSite, t, siteId);
+      }
+      f.write = now;
+      f.writeSite = siteId;
+    }
+  }
+
+  private void report(final Kind kind, final long field, final long receiver, final int firstThread, final long firstSite,
+      final ThreadClock second, final long secondSite) {
+    final Race race = new Race(kind, field, firstSite, secondSite, f_threadNames.get(firstThread), f_threadNames.get(second.id),
+        receiver);
+    Race known = f_races.putIfAbsent(race, race);
+    if (known == null) {
+      known = race;
+      if (f_conf != null) {
+        f_conf.log(describe(race));
+      }
+    }
+    known.count.incrementAndGet();
+  }
+
+  private String describe(final Race race) {
+    final FieldDef def = f_fields.get(race.field);
+    final String name = def == null ? "field " + race.field : def.getQualifiedFieldName();
+    final StringBuilder b = new StringBuilder();
+    b.append("Data race on ").append(name);
+    if (race.receiver != 0) {
+      b.append(" of object ").append(race.receiver);
+    }
+    b.append(": ").append(race.kind.first).append(" in ").append(race.firstThread).append(" at site ").append(race.firstSite);
+    b.append(", ").append(race.kind.second).append(" in ").append(race.secondThread).append(" at site ")
+        .append(race.secondSite);
+    return b.toString();
+  }
+
+  /**
+   * Gets the races seen so far.
+   */
+  Collection<Race> getRaces() {
+    return f_races.keySet();
+  }
+
+  /*
+   * Locks
+   */
+
+  private LockClock lockClock(final long lockId) {
+    LockClock lock = f_locks.get(lockId);
+    if (lock == null) {
+      final LockClock created = new LockClock();
+      lock = f_locks.putIfAbsent(lockId, created);
+      if (lock == null) {
+        lock = created;
+      }
+    }
+    return lock;
+  }
+
+  private void acquire(final long lockId, final int depth) {
+    final ThreadClock t = tl_clock.get();
+    final LockClock lock = lockClock(lockId);
+    synchronized (lock) {
+      final int i = lock.indexOf(t);
+      if (i >= 0) {
+        lock.depths[i] += depth;
+        return;
+      }
+      final boolean shared = lock.readLock == lockId;
+      /*
+       * A holder other than a fellow reader has let go of the lock, but not
+       * yet reported its release.
+       */
+      for (int j = 0; j < lock.count; j++) {
+        if (!shared || !lock.shared[j]) {
+          t.clock.join(lock.clocks[j]);
+        }
+      }
+      t.clock.join(lock.clock);
+      lock.add(t, shared, depth);
+    }
+  }
+
+  /**
+   * @return how many times the thread held the lock.
+   */
+  private int release(final long lockId, final boolean fully) {
+    final ThreadClock t = tl_clock.get();
+    final LockClock lock = lockClock(lockId);
+    int depth = 1;
+    synchronized (lock) {
+      final int i = lock.indexOf(t);
+      if (i >= 0) {
+        depth = lock.depths[i];
+        if (!fully && depth > 1) {
+          lock.depths[i]--;
+          return depth;
+        }
+        lock.remove(i);
+      }
+      lock.clock.join(t.clock);
+      t.tick();
+    }
+    return depth;
+  }
+
+  @Override
+  public void beforeIntrinsicLockAcquisition(final Object lockObject, final boolean lockIsThis, final long siteId) {
+    // Do nothing
+  }
+
+  @Override
+  public void afterIntrinsicLockAcquisition(final Object lockObject, final boolean lockIsThis, final long siteId) {
+    acquire(Phantom.of(lockObject).getId(), 1);
+  }
+
+  @Override
+  public void intrinsicLockWait(final boolean before, final Object lockObject, final boolean lockIsThis, final long siteId) {
+    final long lockId = Phantom.of(lockObject).getId();
+    if (before) {
+      tl_clock.get().waitDepth = release(lockId, true);
+    } else {
+      acquire(lockId, tl_clock.get().waitDepth);
+    }
+  }
+
+  @Override
+  public void afterIntrinsicLockRelease(final Object lockObject, final boolean lockIsThis, final long siteId) {
+    release(Phantom.of(lockObject).getId(), false);
+  }
+
+  @Override
+  public void beforeUtilConcurrentLockAcquisitionAttempt(final Object lockObject, final long siteId) {
+    // Do nothing
+  }
+
+  @Override
+  public void afterUtilConcurrentLockAcquisitionAttempt(final boolean gotTheLock, final Object lockObject, final long siteId) {
+    if (gotTheLock) {
+      acquire(Phantom.ofObject(lockObject).getId(), 1);
+    }
+  }
+
+  @Override
+  public void afterUtilConcurrentLockReleaseAttempt(final boolean releasedTheLock, final Object lockObject, final long siteId) {
+    if (releasedTheLock) {
+      release(Phantom.ofObject(lockObject).getId(), false);
+    }
+  }
+
+  /*
+   * Happens-before edges
+   */
+
+  private void source(final ThreadClock t, final Object object) {
+    final long id = Phantom.of(object).getId();
+    VectorClock sync = f_objects.get(id);
+    if (sync == null) {
+      final VectorClock created = new VectorClock();
+      sync = f_objects.putIfAbsent(id, created);
+      if (sync == null) {
+        sync = created;
+      }
+    }
+    synchronized (sync) {
+      sync.join(t.clock);
+    }
+    t.tick();
+  }
+
+  private void target(final ThreadClock t, final Object object) {
+    final VectorClock sync = f_objects.get(Phantom.of(object).getId());
+    if (sync != null) {
+      synchronized (sync) {
+        t.clock.join(sync);
+      }
+    }
+  }
+
+  private void fork(final ThreadClock t, final Thread callee) {
+    final long id = Phantom.ofThread(callee).getId();
+    if (f_threads.containsKey(id)) {
+      f_lateForks.incrementAndGet();
+      return;
+    }
+    final VectorClock fork = new VectorClock(t.clock);
+    final VectorClock earlier = f_forks.putIfAbsent(id, fork);
+    if (earlier != null) {
+      synchronized (earlier) {
+        earlier.join(fork);
+      }
+    }
+    t.tick();
+  }
+
+  private void joinThread(final ThreadClock t, final Thread callee) {
+    final ThreadClock other = f_threads.get(Phantom.ofThread(callee).getId());
+    if (other != null && other != t) {
+      t.clock.join(other.clock);
+    }
+  }
+
+  @Override
+  public void methodCall(final boolean before, final Object receiver, final long siteId) {
+    if (receiver == null || !before) {
+      return;
+    }
+    if (receiver instanceof ReadWriteLock) {
+      final ReadWriteLock rwl = (ReadWriteLock) receiver;
+      final long readLock = Phantom.ofObject(rwl.readLock()).getId();
+      if (!f_locks.containsKey(readLock)) {
+        final LockClock lock = lockClock(Phantom.ofObject(rwl.writeLock()).getId());
+        synchronized (lock) {
+          lock.readLock = readLock;
+        }
+        f_locks.putIfAbsent(readLock, lock);
+      }
+    }
+    final HappensBeforeRule rule = f_roles.beforeCall(siteId, receiver);
+    if (rule != null) {
+      if (rule.getType().isFrom()) {
+        if (receiver instanceof Thread) {
+          fork(tl_clock.get(), (Thread) receiver);
+        }
+      } else {
+        source(tl_clock.get(), receiver);
+      }
+    }
+  }
+
+  @Override
+  public void happensBeforeThread(final String id, final Thread callee, final long siteId, final String typeName,
+      final long nanoTime) {
+    final ThreadClock t = tl_clock.get();
+    final HBType type = f_roles.type(id, siteId, HBType.FROMANDTO);
+    if (type.isFrom() && !f_roles.releasedBeforeCall(siteId)) {
+      fork(t, callee);
+    }
+    if (type.isTo()) {
+      joinThread(t, callee);
+    }
+  }
+
+  @Override
+  public void happensBeforeObject(final String id, final Object object, final long siteId, final String typeName,
+      final long nanoTime) {
+    edge(id, object, siteId);
+  }
+
+  @Override
+  public void happensBeforeCollection(final String id, final Object collection, final Object item, final long siteId,
+      final String typeName, final long nanoTime) {
+    if (item != null) {
+      edge(id, item, siteId);
+    }
+  }
+
+  @Override
+  public void happensBeforeExecutor(final String id, final Object object, final long siteId, final String typeName,
+      final long nanoTime) {
+    edge(id, object, siteId);
+  }
+
+  /**
+   * A call that is both a target and a source acquires first, as the source
+   * would otherwise have been released already when the call began.
+   */
+  private void edge(final String id, final Object object, final long siteId) {
+    final ThreadClock t = tl_clock.get();
+    final HBType type = f_roles.type(id, siteId, HBType.SOURCEANDTARGET);
+    if (type.isTarget()) {
+      target(t, object);
+    }
+    if (type.isSource() && !f_roles.releasedBeforeCall(siteId)) {
+      source(t, object);
+    }
+  }
+
+  @Override
+  public void indirectAccess(final Object receiver, final long siteId) {
+    // Do nothing
+  }
+
+  @Override
+  public void arrayAccess(final boolean read, final Object receiver, final int index, final long siteId) {
+    // Do nothing
+  }
+
+  @Override
+  public void classInit(final boolean before, final Class<?> clazz) {
+    // Do nothing
+  }
+
+  @Override
+  public void constructorCall(final boolean before, final long siteId) {
+    // Do nothing
+  }
+
+  @Override
+  public void constructorExecution(final boolean before, final Object receiver, final long siteId) {
+    // Do nothing
+  }
+
+  @Override
+  public void methodExecution(final boolean before, final long siteid) {
+    // Do nothing
+  }
+
+  @Override
+  public void instanceFieldInit(final Object receiver, final int fieldId, final Object value) {
+    // Do nothing
+  }
+
+  @Override
+  public void staticFieldInit(final int fieldId, final Object value) {
+    // Do nothing
+  }
+
+  @Override
+  public void shutdown() {
+    if (f_conf != null) {
+      f_conf.log(f_races.size() + " distinct data races were seen.");
+    }
+  }
+
+  @Override
+  public void garbageCollect(final List<? extends IdPhantomReference> references) {
+    for (final IdPhantomReference ref : references) {
+      final Long id = ref.getId();
+      f_shadows.remove(id);
+      f_objects.remove(id);
+      f_locks.remove(id);
+      f_threads.remove(id);
+      f_forks.remove(id);
+    }
+  }
+
+  @Override
+  public Collection<? extends ConsoleCommand> getCommands() {
+    return Collections.singletonList(new RacesCommand());
+  }
+
+  class RacesCommand implements ConsoleCommand {
+    private static final String RACES = "hbRaces";
+
+    @Override
+    public String getDescription() {
+      return RACES + " - display the data races seen so far, checked by happens-before";
+    }
+
+    @Override
+    public String handle(final String command) {
+      if (RACES.equalsIgnoreCase(command)) {
+        final List<Race> races = new ArrayList<Race>(f_races.keySet());
+        Collections.sort(races, new Comparator<Race>() {
+          @Override
+          public int compare(final Race o1, final Race o2) {
+            final long c1 = o1.count.get();
+            final long c2 = o2.count.get();
+            return c1 > c2 ? -1 : c1 < c2 ? 1 : 0;
+          }
+        });
+        final StringBuilder b = new StringBuilder();
+        for (final Race race : races) {
+          b.append(describe(race)).append(" (").append(race.count.get()).append(" times)\n");
+        }
+        b.append(races.size()).append(" races in ").append(f_threadCount.get()).append(" threads; ");
+        b.append(f_shadows.size()).append(" objects checked; ");
+        b.append(f_lateForks.get()).append(" thread starts seen after the thread ran");
+        return b.toString();
+      }
+      return null;
+    }
+  }
+}
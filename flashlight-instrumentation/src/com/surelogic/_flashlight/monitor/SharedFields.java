@@ -1,31 +1,57 @@
 package com.surelogic._flashlight.monitor;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 import com.surelogic._flashlight.common.FieldDef;
 
 /**
- * Keeps track of what fields are currently shared by what threads.
+ * Keeps track of what fields are currently shared by what threads. The
+ * threads that have accessed a field are kept as a sorted array of thread ids.
+ * Few threads access most fields, so the arrays are small, and an array is
+ * replaced rather than changed when a thread is added, so the two maps share
+ * them.
  * 
  * @author nathan
  * 
  */
 public class SharedFields {
 
-  final Map<Long, Set<Long>> sharedStatics;
+  private static final long[] NO_THREADS = new long[0];
 
-  final Map<Long, Map<Long, Set<Long>>> sharedFieldsByReceiver;
+  final LongObjectMap<long[]> sharedStatics;
 
-  final Map<Long, Map<Long, Set<Long>>> sharedFieldsByField;
+  final LongObjectMap<LongObjectMap<long[]>> sharedFieldsByReceiver;
+
+  final LongObjectMap<LongObjectMap<long[]>> sharedFieldsByField;
 
   SharedFields() {
-    this.sharedStatics = new HashMap<Long, Set<Long>>();
-    this.sharedFieldsByReceiver = new HashMap<Long, Map<Long, Set<Long>>>();
-    this.sharedFieldsByField = new HashMap<Long, Map<Long, Set<Long>>>();
+    this.sharedStatics = new LongObjectMap<long[]>();
+    this.sharedFieldsByReceiver = new LongObjectMap<LongObjectMap<long[]>>();
+    this.sharedFieldsByField = new LongObjectMap<LongObjectMap<long[]>>();
+  }
+
+  /**
+   * Gets the threads with one more thread, or the same array if the thread is
+   * already in it.
+   */
+  private static long[] with(final long[] threads, final long threadId) {
+    int i = Arrays.binarySearch(threads, threadId);
+    if (i >= 0) {
+      return threads;
+    }
+    i = -i - 1;
+    final long[] result = new long[threads.length + 1];
+    System.arraycopy(threads, 0, result, 0, i);
+    result[i] = threadId;
+    System.arraycopy(threads, i, result, i + 1, threads.length - i);
+    return result;
+  }
+
+  private static long[] threads(final LongObjectMap<long[]> map, final long key) {
+    final long[] threads = map.get(key);
+    return threads == null ? NO_THREADS : threads;
   }
 
   /**
@@ -33,14 +59,15 @@ public class SharedFields {
    * 
    * @param fieldId
    * @param threadId
+   * @return <code>true</code> if this made the field shared.
    */
-  void sharedField(final long fieldId, final long threadId) {
-    Set<Long> set = sharedStatics.get(fieldId);
-    if (set == null) {
-      set = new HashSet<Long>();
-      sharedStatics.put(fieldId, set);
+  boolean sharedField(final long fieldId, final long threadId) {
+    final long[] set = threads(sharedStatics, fieldId);
+    final long[] threads = with(set, threadId);
+    if (threads != set) {
+      sharedStatics.put(fieldId, threads);
     }
-    set.add(threadId);
+    return !isShared(set) && isShared(threads);
   }
 
   /**
@@ -48,25 +75,30 @@ public class SharedFields {
    * 
    * @param fieldId
    * @param threadId
+   * @return <code>true</code> if this made the field of the receiver shared.
    */
-  void sharedField(final long receiverId, final long fieldId, final long threadId) {
-    Map<Long, Set<Long>> shared = sharedFieldsByReceiver.get(receiverId);
+  boolean sharedField(final long receiverId, final long fieldId, final long threadId) {
+    LongObjectMap<long[]> shared = sharedFieldsByReceiver.get(receiverId);
     if (shared == null) {
-      shared = new HashMap<Long, Set<Long>>();
+      shared = new LongObjectMap<long[]>();
       sharedFieldsByReceiver.put(receiverId, shared);
     }
-    Set<Long> set = shared.get(fieldId);
-    if (set == null) {
-      set = new HashSet<Long>();
-      shared.put(fieldId, set);
-      Map<Long, Set<Long>> receiverMap = sharedFieldsByField.get(fieldId);
+    final long[] set = threads(shared, fieldId);
+    final long[] threads = with(set, threadId);
+    if (threads != set) {
+      shared.put(fieldId, threads);
+      LongObjectMap<long[]> receiverMap = sharedFieldsByField.get(fieldId);
       if (receiverMap == null) {
-        receiverMap = new HashMap<Long, Set<Long>>();
+        receiverMap = new LongObjectMap<long[]>();
         sharedFieldsByField.put(fieldId, receiverMap);
       }
-      receiverMap.put(receiverId, set);
+      receiverMap.put(receiverId, threads);
     }
-    set.add(threadId);
+    return !isShared(set) && isShared(threads);
+  }
+
+  private static boolean isShared(final long[] threads) {
+    return threads.length > 1;
   }
 
   /**
@@ -79,10 +111,10 @@ public class SharedFields {
     if (field.isStatic()) {
       return isShared(field.getId());
     } else {
-      final Map<Long, Set<Long>> map = sharedFieldsByField.get(field.getId());
+      final LongObjectMap<long[]> map = sharedFieldsByField.get(field.getId());
       if (map != null) {
-        for (final Set<Long> set : map.values()) {
-          if (set.size() > 1) {
+        for (final long receiverId : map.keys()) {
+          if (isShared(map.get(receiverId))) {
             return true;
           }
         }
@@ -92,21 +124,22 @@ public class SharedFields {
   }
 
   boolean isShared(final long fieldId) {
-    final Set<Long> set = sharedStatics.get(fieldId);
-    if (set == null || set.size() <= 1) {
-      return false;
-    }
-    return true;
+    return isShared(threads(sharedStatics, fieldId));
   }
 
   boolean isShared(final long receiverId, final long fieldId) {
-    final Map<Long, Set<Long>> shared = sharedFieldsByReceiver.get(receiverId);
+    final LongObjectMap<long[]> shared = sharedFieldsByReceiver.get(receiverId);
     if (shared == null) {
       return false;
     }
-    final Set<Long> set = shared.get(fieldId);
-    if (set == null || set.size() <= 1) {
-      return false;
+    return isShared(threads(shared, fieldId));
+  }
+
+  private static boolean isConfinedTo(final long[] threads, final Set<Long> allowedThreads) {
+    for (final long threadId : threads) {
+      if (!allowedThreads.contains(threadId)) {
+        return false;
+      }
     }
     return true;
   }
@@ -121,16 +154,12 @@ public class SharedFields {
    */
   boolean isConfinedTo(final FieldDef field, final Set<Long> allowedThreads) {
     if (field.isStatic()) {
-      final Set<Long> set = sharedStatics.get(field.getId());
-      if (set != null) {
-        return allowedThreads.containsAll(set);
-      }
-      return true;
+      return isConfinedTo(threads(sharedStatics, field.getId()), allowedThreads);
     } else {
-      final Map<Long, Set<Long>> map = sharedFieldsByField.get(field.getId());
+      final LongObjectMap<long[]> map = sharedFieldsByField.get(field.getId());
       if (map != null) {
-        for (final Set<Long> set : map.values()) {
-          if (!allowedThreads.containsAll(set)) {
+        for (final long receiverId : map.keys()) {
+          if (!isConfinedTo(map.get(receiverId), allowedThreads)) {
             return false;
           }
         }
@@ -146,9 +175,9 @@ public class SharedFields {
    * @param receiverId
    */
   void remove(final long receiverId) {
-    final Map<Long, Set<Long>> remove = sharedFieldsByReceiver.remove(receiverId);
+    final LongObjectMap<long[]> remove = sharedFieldsByReceiver.remove(receiverId);
     if (remove != null) {
-      for (final long fieldId : remove.keySet()) {
+      for (final long fieldId : remove.keys()) {
         sharedFieldsByField.get(fieldId).remove(receiverId);
       }
     }
@@ -160,22 +189,7 @@ public class SharedFields {
    * @return
    */
   Set<Long> calculateSharedFields() {
-    final Set<Long> set = new HashSet<Long>();
-    for (final Entry<Long, Set<Long>> e : sharedStatics.entrySet()) {
-      final long fieldId = e.getKey();
-      if (e.getValue().size() > 1) {
-        set.add(fieldId);
-      }
-    }
-    for (final Entry<Long, Map<Long, Set<Long>>> e : sharedFieldsByReceiver.entrySet()) {
-      for (final Entry<Long, Set<Long>> e1 : e.getValue().entrySet()) {
-        final long fieldId = e1.getKey();
-        if (e1.getValue().size() > 1) {
-          set.add(fieldId);
-        }
-      }
-    }
-    return set;
+    return calculateFields(true);
   }
 
   /**
@@ -184,17 +198,20 @@ public class SharedFields {
    * @return
    */
   Set<Long> calculateUnsharedFields() {
+    return calculateFields(false);
+  }
+
+  private Set<Long> calculateFields(final boolean isShared) {
     final Set<Long> set = new HashSet<Long>();
-    for (final Entry<Long, Set<Long>> e : sharedStatics.entrySet()) {
-      final long fieldId = e.getKey();
-      if (e.getValue().size() <= 1) {
+    for (final long fieldId : sharedStatics.keys()) {
+      if (isShared(threads(sharedStatics, fieldId)) == isShared) {
         set.add(fieldId);
       }
     }
-    for (final Entry<Long, Map<Long, Set<Long>>> e : sharedFieldsByReceiver.entrySet()) {
-      for (final Entry<Long, Set<Long>> e1 : e.getValue().entrySet()) {
-        final long fieldId = e1.getKey();
-        if (e1.getValue().size() <= 1) {
+    for (final long receiverId : sharedFieldsByReceiver.keys()) {
+      final LongObjectMap<long[]> fields = sharedFieldsByReceiver.get(receiverId);
+      for (final long fieldId : fields.keys()) {
+        if (isShared(threads(fields, fieldId)) == isShared) {
           set.add(fieldId);
         }
       }
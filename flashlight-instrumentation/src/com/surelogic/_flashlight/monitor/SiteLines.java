@@ -0,0 +1,142 @@
+package com.surelogic._flashlight.monitor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+
+import com.surelogic._flashlight.RunConf;
+import com.surelogic._flashlight.SitesConf;
+import com.surelogic._flashlight.StoreConfiguration;
+
+/**
+ * Reads the site lines of the instrumented program from the same places the
+ * depository does: the generated {@link SitesConf} class, or else the sites
+ * file. Also names sites for display, reading the lines again only when a site
+ * has not been looked for before. The lines do not change while the program
+ * runs, so a site that is not found is remembered by its id.
+ */
+final class SiteLines {
+
+  interface Handler {
+    void line(String line);
+  }
+
+  private final RunConf f_conf;
+  private final ConcurrentMap<Long, String> f_names = new ConcurrentHashMap<Long, String>();
+
+  /**
+   * @param conf
+   *          the run, or <code>null</code> if sites are only known by id.
+   */
+  SiteLines(final RunConf conf) {
+    f_conf = conf;
+  }
+
+  /**
+   * Passes each site line to a handler.
+   *
+   * @return <code>false</code> if no site lines could be found.
+   */
+  static boolean read(final RunConf conf, final Handler handler) {
+    String lines;
+    try {
+      lines = SitesConf.getSiteLines();
+    } catch (final NoClassDefFoundError e) {
+      lines = null;
+    }
+    if (lines != null) {
+      final StringTokenizer tok = new StringTokenizer(lines, "\n");
+      while (tok.hasMoreTokens()) {
+        handler.line(tok.nextToken());
+      }
+      return true;
+    }
+    final String name = StoreConfiguration.getSitesFile();
+    final File f = name == null ? null : new File(name);
+    if (f == null || !f.isFile()) {
+      return false;
+    }
+    try {
+      final Reader r;
+      if (f.getName().endsWith(".gz")) {
+        r = new InputStreamReader(new GZIPInputStream(new FileInputStream(f)));
+      } else {
+        r = new FileReader(f);
+      }
+      final BufferedReader br = new BufferedReader(r);
+      try {
+        String line;
+        while ((line = br.readLine()) != null) {
+          handler.line(line);
+        }
+      } finally {
+        br.close();
+      }
+    } catch (final IOException e) {
+      conf.logAProblem("Couldn't read site file " + f.getName(), e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Gets the names of some sites, as the class, member, file and line of each.
+   * A site that cannot be found is named by its id.
+   */
+  Map<Long, String> names(final Set<Long> sites) {
+    final Map<Long, String> result = new HashMap<Long, String>();
+    boolean missing = false;
+    for (final Long site : sites) {
+      final String name = f_names.get(site);
+      if (name == null) {
+        missing = true;
+      } else {
+        result.put(site, name);
+      }
+    }
+    if (missing && f_conf != null) {
+      read(f_conf, new Handler() {
+        @Override
+        public void line(final String line) {
+          final StringTokenizer st = new StringTokenizer(line);
+          if (st.countTokens() < 8) {
+            return;
+          }
+          final Long id = Long.valueOf(st.nextToken());
+          if (!sites.contains(id) || result.containsKey(id)) {
+            return;
+          }
+          final String file = st.nextToken();
+          final String qname = st.nextToken();
+          st.nextToken(); // Is the class an interface
+          final String member = st.nextToken();
+          st.nextToken(); // The member's descriptor
+          st.nextToken(); // The member's modifiers
+          final String lineNo = st.nextToken();
+          final String name = qname + '.' + member + '(' + file + ':' + lineNo + ')';
+          f_names.put(id, name);
+          result.put(id, name);
+        }
+      });
+    }
+    for (final Long site : sites) {
+      if (!result.containsKey(site)) {
+        final String name = "site " + site;
+        f_names.put(site, name);
+        result.put(site, name);
+      }
+    }
+    return result;
+  }
+}
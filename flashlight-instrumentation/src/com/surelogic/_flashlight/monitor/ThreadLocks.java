@@ -1,66 +1,131 @@
 package com.surelogic._flashlight.monitor;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
+/**
+ * The lock sets, lock orders, and field accesses of one thread since they were
+ * last drained by {@link MasterLockSet#drain(ThreadLocks)}.
+ * <p>
+ * Lock sets are ids from a {@link LongSets} shared by every thread. Each field
+ * the thread has accessed maps to the intersection of the lock sets held over
+ * its accesses, or to {@link #NO_LOCK_SET} if it was only accessed while its
+ * object was under construction.
+ * <p>
+ * Only the thread itself calls {@link #field(long, long, boolean)},
+ * {@link #field(long, boolean)}, {@link #enterLock(long)}, and
+ * {@link #leaveLock(long)}, and they do not lock. They record into a
+ * {@link Buffer} that the analysis thread takes with {@link #swap()}, leaving
+ * an empty one in its place. The thread marks the buffer busy while it records
+ * into it, and the analysis waits for the mark to clear before reading a
+ * buffer it took, so it never reads one that is being written.
+ */
 final class ThreadLocks {
 
+  /**
+   * The lock set of a field that was only accessed while under construction.
+   */
+  static final int NO_LOCK_SET = -1;
+
+  /**
+   * What a thread recorded in one epoch, between two swaps.
+   */
+  static final class Buffer {
+    final LongIntMap staticLockSets = new LongIntMap();
+    final LongObjectMap<LongIntMap> lockSets = new LongObjectMap<LongIntMap>();
+    final Set<LockStack> stacks = new HashSet<LockStack>();
+
+    /**
+     * Set by the thread while it records into this buffer.
+     */
+    volatile boolean busy;
+  }
+
   private final ConcurrentMap<Long, ReadWriteLockIds> rwLocks;
 
-  private final HashSet<Long> locks;
+  /*
+   * The live state of the thread, only used by the thread.
+   */
+  private final LongSets.Cache sets;
+  /**
+   * The locks currently held.
+   */
+  private int locks;
+  private LockStack stack;
+
   private final String thread;
   private final long threadId;
   private final boolean isEDT;
-  private Map<Long, Set<Long>> staticLockSets;
-  private Map<Long, Map<Long, Set<Long>>> lockSets;
-  private Set<LockStack> stacks;
-  private Set<Long> sharedStatics;
-  private Map<Long, Set<Long>> shared;
-  private LockStack stack;
+
+  private volatile Buffer current;
 
   ThreadLocks(final String threadName, final long threadId, final boolean isEDT,
-      final ConcurrentMap<Long, ReadWriteLockIds> rwLocks) {
+      final ConcurrentMap<Long, ReadWriteLockIds> rwLocks, final LongSets lockSetIds) {
     thread = threadName;
     this.threadId = threadId;
-    locks = new HashSet<Long>();
-    lockSets = new HashMap<Long, Map<Long, Set<Long>>>();
-    staticLockSets = new HashMap<Long, Set<Long>>();
+    sets = new LongSets.Cache(lockSetIds);
+    locks = LongSets.EMPTY;
     stack = new LockStack();
-    stacks = new HashSet<LockStack>();
-    sharedStatics = new HashSet<Long>();
-    shared = new HashMap<Long, Set<Long>>();
+    current = new Buffer();
     this.rwLocks = rwLocks;
     this.isEDT = isEDT;
   }
 
+  /**
+   * Marks the current buffer busy and returns it. The caller must clear the
+   * mark when it is done with the buffer.
+   */
+  private Buffer acquire() {
+    Buffer b = current;
+    for (;;) {
+      b.busy = true;
+      final Buffer now = current;
+      if (now == b) {
+        return b;
+      }
+      // Swapped before we marked it, so the analysis may already be reading it
+      b.busy = false;
+      b = now;
+    }
+  }
+
+  /**
+   * Narrows the lock set recorded for a field to the locks currently held.
+   */
+  private void field(final LongIntMap fieldLockSets, final long fieldId, final boolean underConstruction) {
+    final int lockSet = fieldLockSets.get(fieldId, NO_LOCK_SET);
+    if (underConstruction) {
+      if (lockSet == NO_LOCK_SET) {
+        fieldLockSets.put(fieldId, NO_LOCK_SET);
+      }
+    } else if (lockSet == NO_LOCK_SET) {
+      fieldLockSets.put(fieldId, locks);
+    } else {
+      final int narrowed = sets.intersect(lockSet, locks);
+      if (narrowed != lockSet) {
+        fieldLockSets.put(fieldId, narrowed);
+      }
+    }
+  }
+
   /**
    * This method should be called whenever a field access is made.
    * 
    * @param fieldId
    * @param receiverId
    */
-  synchronized void field(final long fieldId, final long receiverId, final boolean underConstruction) {
-    Set<Long> set = shared.get(receiverId);
-    if (set == null) {
-      set = new HashSet<Long>();
-      shared.put(receiverId, set);
-    }
-    set.add(fieldId);
-    if (!underConstruction) {
-      Map<Long, Set<Long>> receiverMap = lockSets.get(receiverId);
+  void field(final long fieldId, final long receiverId, final boolean underConstruction) {
+    final Buffer b = acquire();
+    try {
+      LongIntMap receiverMap = b.lockSets.get(receiverId);
       if (receiverMap == null) {
-        receiverMap = new HashMap<Long, Set<Long>>();
-        lockSets.put(receiverId, receiverMap);
-      }
-      final Set<Long> lockSet = receiverMap.get(fieldId);
-      if (lockSet == null) {
-        receiverMap.put(fieldId, new HashSet<Long>(locks));
-      } else {
-        lockSet.retainAll(locks);
+        receiverMap = new LongIntMap();
+        b.lockSets.put(receiverId, receiverMap);
       }
+      field(receiverMap, fieldId, underConstruction);
+    } finally {
+      b.busy = false;
     }
   }
 
@@ -69,15 +134,12 @@ final class ThreadLocks {
    * 
    * @param fieldId
    */
-  synchronized void field(final long fieldId, final boolean underConstruction) {
-    sharedStatics.add(fieldId);
-    if (!underConstruction) {
-      final Set<Long> lockSet = staticLockSets.get(fieldId);
-      if (lockSet == null) {
-        staticLockSets.put(fieldId, new HashSet<Long>(locks));
-      } else {
-        lockSet.retainAll(locks);
-      }
+  void field(final long fieldId, final boolean underConstruction) {
+    final Buffer b = acquire();
+    try {
+      field(b.staticLockSets, fieldId, underConstruction);
+    } finally {
+      b.busy = false;
     }
   }
 
@@ -86,12 +148,17 @@ final class ThreadLocks {
    * 
    * @param lock
    */
-  synchronized void enterLock(long lock) {
+  void enterLock(long lock) {
     final ReadWriteLockIds rw = rwLocks.get(lock);
     lock = rw == null ? lock : rw.getId();
-    locks.add(lock);
+    locks = sets.with(locks, lock);
     stack = stack.acquire(lock);
-    stacks.add(stack);
+    final Buffer b = acquire();
+    try {
+      b.stacks.add(stack);
+    } finally {
+      b.busy = false;
+    }
   }
 
   /**
@@ -99,14 +166,19 @@ final class ThreadLocks {
    * 
    * @param lock
    */
-  synchronized void leaveLock(long lock) {
+  void leaveLock(long lock) {
     final ReadWriteLockIds rw = rwLocks.get(lock);
     lock = rw == null ? lock : rw.getId();
     stack = stack.release(lock);
     if (stack.count(lock) == 0) {
-      locks.remove(lock);
+      locks = sets.without(locks, lock);
+    }
+    final Buffer b = acquire();
+    try {
+      b.stacks.add(stack);
+    } finally {
+      b.busy = false;
     }
-    stacks.add(stack);
   }
 
   String getThread() {
@@ -122,53 +194,18 @@ final class ThreadLocks {
   }
 
   /**
-   * Clears and returns the currently accumulated lock set information
-   * 
-   * @return
-   */
-  Map<Long, Set<Long>> clearStaticLockSets() {
-    try {
-      return staticLockSets;
-    } finally {
-      staticLockSets = new HashMap<Long, Set<Long>>();
-    }
-  }
-
-  /**
-   * Clears and returns the currently accumulated lock set information
+   * Takes what the thread has recorded since the last swap, and gives it an
+   * empty buffer. This is only called by the analysis thread.
    * 
-   * @return
+   * @return the buffer, which the thread no longer writes to.
    */
-  Map<Long, Map<Long, Set<Long>>> clearLockSets() {
-    try {
-      return lockSets;
-    } finally {
-      lockSets = new HashMap<Long, Map<Long, Set<Long>>>();
-    }
-  }
-
-  Set<LockStack> clearLockStacks() {
-    try {
-      return stacks;
-    } finally {
-      stacks = new HashSet<LockStack>();
-    }
-  }
-
-  Set<Long> clearSharedStatics() {
-    try {
-      return sharedStatics;
-    } finally {
-      sharedStatics = new HashSet<Long>();
-    }
-  }
-
-  Map<Long, Set<Long>> clearShared() {
-    try {
-      return shared;
-    } finally {
-      shared = new HashMap<Long, Set<Long>>();
+  Buffer swap() {
+    final Buffer b = current;
+    current = new Buffer();
+    while (b.busy) {
+      Thread.yield();
     }
+    return b;
   }
 
   static class LockStack {
@@ -0,0 +1,99 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.Arrays;
+
+/**
+ * A vector clock, indexed by the small ids that {@link RaceStore} gives each
+ * thread it sees. Entries past the end of the array are zero.
+ * <p>
+ * An <i>epoch</i> is a single entry of a vector clock, a thread id and that
+ * thread's clock, packed into a <tt>long</tt>. The epoch zero is before every
+ * other epoch, because every thread's clock starts at one.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class VectorClock {
+
+  private int[] f_clocks;
+
+  VectorClock() {
+    f_clocks = new int[4];
+  }
+
+  VectorClock(final VectorClock other) {
+    f_clocks = other.f_clocks.clone();
+  }
+
+  static long epoch(final int thread, final int clock) {
+    return (long) thread << 32 | clock & 0xFFFFFFFFL;
+  }
+
+  static int thread(final long epoch) {
+    return (int) (epoch >>> 32);
+  }
+
+  static int clock(final long epoch) {
+    return (int) epoch;
+  }
+
+  int get(final int thread) {
+    return thread < f_clocks.length ? f_clocks[thread] : 0;
+  }
+
+  void set(final int thread, final int clock) {
+    if (thread >= f_clocks.length) {
+      f_clocks = Arrays.copyOf(f_clocks, Math.max(thread + 1, f_clocks.length * 2));
+    }
+    f_clocks[thread] = clock;
+  }
+
+  /**
+   * Checks whether the given epoch happens before, or is, this clock's view of
+   * its thread.
+   */
+  boolean covers(final long epoch) {
+    return clock(epoch) <= get(thread(epoch));
+  }
+
+  /**
+   * Makes this clock a copy of another, reusing its array when it is large
+   * enough.
+   */
+  void copy(final VectorClock other) {
+    final int[] theirs = other.f_clocks;
+    if (theirs.length > f_clocks.length) {
+      f_clocks = theirs.clone();
+    } else {
+      System.arraycopy(theirs, 0, f_clocks, 0, theirs.length);
+      Arrays.fill(f_clocks, theirs.length, f_clocks.length, 0);
+    }
+  }
+
+  /**
+   * Raises each entry of this clock to at least the matching entry of another.
+   */
+  void join(final VectorClock other) {
+    final int[] theirs = other.f_clocks;
+    if (theirs.length > f_clocks.length) {
+      f_clocks = Arrays.copyOf(f_clocks, theirs.length);
+    }
+    final int[] mine = f_clocks;
+    for (int i = 0; i < theirs.length; i++) {
+      if (theirs[i] > mine[i]) {
+        mine[i] = theirs[i];
+      }
+    }
+  }
+
+  /**
+   * Gets the number of entries that may be non-zero.
+   */
+  int length() {
+    return f_clocks.length;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(f_clocks);
+  }
+}
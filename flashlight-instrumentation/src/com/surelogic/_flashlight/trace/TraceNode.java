@@ -6,6 +6,8 @@ import static com.surelogic._flashlight.common.AttributeType.TRACE;
 
 import java.io.PrintWriter;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import com.surelogic._flashlight.AbstractCallLocation;
 import com.surelogic._flashlight.Entities;
@@ -13,6 +15,17 @@ import com.surelogic._flashlight.EventVisitor;
 import com.surelogic._flashlight.PostMortemStore;
 import com.surelogic._flashlight.PostMortemStore.State;
 
+/**
+ * A node of the calling-context tree. Looking up or adding a child never locks.
+ * The children of a node are a list, linked through {@link #sibling}, that only
+ * grows at its head, by a compare-and-set of {@link #child}. A thread that
+ * loses the race to add a child only has to look through the children added
+ * since it last read the head, so no site is ever added twice.
+ * <p>
+ * A node with many children also keeps an index of them, a small table from
+ * site to child. The index may lose entries to collisions and races, so a miss
+ * falls back to the list.
+ */
 public class TraceNode extends AbstractCallLocation {
 
   private static final long NONE_ID = 0;
@@ -23,17 +36,31 @@ public class TraceNode extends AbstractCallLocation {
     return ID_SEQUENCE.incrementAndGet();
   }
 
+  /**
+   * The number of children a node has before it is given an index.
+   */
+  static final int INDEX_THRESHOLD = 8;
+
+  private static final AtomicReferenceFieldUpdater<TraceNode, TraceNode> CHILD = AtomicReferenceFieldUpdater.newUpdater(
+      TraceNode.class, TraceNode.class, "child");
+
   private final TraceNode parent;
   private final long id;
   private final TraceNode sibling;
-  private TraceNode child;
+  /**
+   * The number of nodes in the list starting at this one, i.e., one more than
+   * the number of older siblings.
+   */
+  private final int listSize;
+  private volatile TraceNode child;
+  /**
+   * Created and replaced by larger tables as children are added; the slots are
+   * written without locking.
+   */
+  private volatile AtomicReferenceArray<TraceNode> index;
 
   private TraceNode(TraceNode parent, long siteId) {
-    super(siteId);
-    this.parent = parent;
-    child = null;
-    sibling = null;
-    id = nextId();
+    this(parent, null, siteId);
   }
 
   private TraceNode(TraceNode parent, TraceNode sibling, long siteId) {
@@ -41,6 +68,7 @@ public class TraceNode extends AbstractCallLocation {
     this.parent = parent;
     child = null;
     this.sibling = sibling;
+    listSize = sibling == null ? 1 : sibling.listSize + 1;
     id = nextId();
   }
 
@@ -55,56 +83,96 @@ public class TraceNode extends AbstractCallLocation {
   }
 
   /**
-   * Return a TraceNode with no parent, also add it to the queue associated with
-   * State
+   * Push a trace node onto the current node and return the new node. Also add
+   * it to the queue associated with State.
    * 
    * @param s
    * @param siteId
    * @return
    */
-  static TraceNode newTraceNode(State s, long siteId) {
-    TraceNode n = newTraceNode(siteId);
-    PostMortemStore.putInQueue(s, n);
-    return n;
+  TraceNode pushTraceNode(State s, long siteId) {
+    return getOrAddChild(s, siteId);
   }
 
   /**
-   * Push a trace node onto the current node and return the new node. Also add
-   * it to the queue associated with State.
+   * Push a trace node onto the current node and return it.
+   * 
+   * @param siteId
+   * @return
+   */
+  TraceNode pushTraceNode(long siteId) {
+    return getOrAddChild(null, siteId);
+  }
+
+  /**
+   * Gets the child for a site, adding it if there is none.
    * 
    * @param s
+   *          the state to queue a new child on, or <code>null</code> to not
+   *          queue it.
    * @param siteId
    * @return
    */
-  TraceNode pushTraceNode(State s, long siteId) {
-    synchronized (this) {
-      for (TraceNode node = child; node != null; node = node.sibling) {
-        if (node.getSiteId() == siteId) {
-          return node;
+  private TraceNode getOrAddChild(State s, long siteId) {
+    final AtomicReferenceArray<TraceNode> idx = index;
+    if (idx != null) {
+      final TraceNode node = idx.get(slot(idx, siteId));
+      if (node != null && node.getSiteId() == siteId) {
+        return node;
+      }
+    }
+    TraceNode head = child;
+    TraceNode node = find(head, null, siteId);
+    while (node == null) {
+      final TraceNode added = new TraceNode(this, head, siteId);
+      if (CHILD.compareAndSet(this, head, added)) {
+        if (s != null) {
+          PostMortemStore.putInQueue(s, added);
         }
+        node = added;
+      } else {
+        final TraceNode seen = head;
+        head = child;
+        node = find(head, seen, siteId);
       }
-      child = new TraceNode(this, child, siteId);
     }
-    PostMortemStore.putInQueue(s, child);
-    return child;
+    index(node);
+    return node;
   }
 
   /**
-   * Push a trace node onto the current node and return it.
-   * 
-   * @param siteId
-   * @return
+   * Looks for a site in the list of children from one node up to, but not
+   * including, another.
    */
-  synchronized TraceNode pushTraceNode(long siteId) {
-    TraceNode c = child;
-    while (c != null) {
-      if (c.getSiteId() == siteId) {
-        return c;
+  private static TraceNode find(TraceNode from, TraceNode to, long siteId) {
+    for (TraceNode node = from; node != to; node = node.sibling) {
+      if (node.getSiteId() == siteId) {
+        return node;
       }
-      c = c.sibling;
     }
-    child = new TraceNode(this, child, siteId);
-    return child;
+    return null;
+  }
+
+  /**
+   * Records a child in the index, once the node has enough children to need
+   * one.
+   */
+  private void index(TraceNode node) {
+    final int size = child.listSize;
+    if (size <= INDEX_THRESHOLD) {
+      return;
+    }
+    AtomicReferenceArray<TraceNode> idx = index;
+    if (idx == null || idx.length() < size) {
+      idx = new AtomicReferenceArray<TraceNode>(Integer.highestOneBit(size) * 4);
+      index = idx;
+    }
+    idx.lazySet(slot(idx, node.getSiteId()), node);
+  }
+
+  private static int slot(AtomicReferenceArray<TraceNode> idx, long siteId) {
+    final long h = siteId * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & idx.length() - 1;
   }
 
   public TraceNode getParent() {
@@ -141,20 +209,16 @@ public class TraceNode extends AbstractCallLocation {
       writer.print('\t');
     }
     writer.println(toString());
-    synchronized (this) {
-      for (TraceNode node = child; node != null; node = node.sibling) {
-        num += node.printNodeTree(depth + 1, writer);
-      }
+    for (TraceNode node = child; node != null; node = node.sibling) {
+      num += node.printNodeTree(depth + 1, writer);
     }
     return num;
   }
 
   public int getNodeCount() {
     int count = 1;
-    synchronized (this) {
-      for (TraceNode node = child; node != null; node = node.sibling) {
-        count += node.getNodeCount();
-      }
+    for (TraceNode node = child; node != null; node = node.sibling) {
+      count += node.getNodeCount();
     }
     return count;
   }
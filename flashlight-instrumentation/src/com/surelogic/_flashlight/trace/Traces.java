@@ -5,12 +5,19 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.surelogic._flashlight.PostMortemStore;
 import com.surelogic._flashlight.PostMortemStore.State;
+import com.surelogic._flashlight.SiteTable;
 
 public class Traces {
 
   static final ConcurrentHashMap<Long, TraceNode> roots = new ConcurrentHashMap<Long, TraceNode>(500);
 
+  /**
+   * The same root trace nodes as {@link #roots}, looked up without locking.
+   */
+  static final SiteTable<TraceNode> rootsBySite = new SiteTable<TraceNode>();
+
   private Traces() {
     // no instances (only call static methods)
   }
@@ -23,6 +30,26 @@ public class Traces {
 
     private TraceNode current;
 
+    /*
+     * The child last looked up by this header, so that a thread that calls
+     * the same method over and over from one context does not search the
+     * children of a node shared with other threads.
+     */
+    private TraceNode memoParent;
+    private long memoSiteId;
+    private TraceNode memoChild;
+
+    private TraceNode getChild(State s, long siteId) {
+      if (current == memoParent && siteId == memoSiteId) {
+        return memoChild;
+      }
+      final TraceNode c = current.pushTraceNode(s, siteId);
+      memoParent = current;
+      memoSiteId = siteId;
+      memoChild = c;
+      return c;
+    }
+
     /**
      * Return a TraceNode that is a child of the current TraceNode, with the
      * given site. Do not change the current trace node.
@@ -33,17 +60,9 @@ public class Traces {
      */
     public TraceNode getCurrentNode(State s, long siteId) {
       if (current == null) {
-        TraceNode root;
-        synchronized (roots) {
-          root = roots.get(siteId);
-          if (root == null) {
-            root = TraceNode.newTraceNode(s, siteId);
-            roots.put(siteId, root);
-          }
-          return root;
-        }
+        return getRoot(s, siteId);
       } else {
-        return current.pushTraceNode(s, siteId);
+        return getChild(s, siteId);
       }
     }
 
@@ -61,17 +80,9 @@ public class Traces {
      */
     public TraceNode pushTraceNode(State s, final long siteId) {
       if (current == null) {
-        TraceNode root;
-        synchronized (roots) {
-          root = roots.get(siteId);
-          if (root == null) {
-            root = TraceNode.newTraceNode(s, siteId);
-            roots.put(siteId, root);
-          }
-        }
-        current = root;
+        current = getRoot(s, siteId);
       } else {
-        current = current.pushTraceNode(s, siteId);
+        current = getChild(s, siteId);
       }
       return current;
     }
@@ -81,6 +92,29 @@ public class Traces {
     }
   }
 
+  /**
+   * Gets the root trace node for the given site, creating it if it does not
+   * exist yet. Only the first lookup of a site, and lookups of sites past
+   * {@link SiteTable#MAX_SITES}, go to {@link #roots}, and neither locks.
+   */
+  static TraceNode getRoot(State s, long siteId) {
+    TraceNode root = rootsBySite.get(siteId);
+    if (root != null) {
+      return root;
+    }
+    root = roots.get(siteId);
+    if (root == null) {
+      final TraceNode created = TraceNode.newTraceNode(siteId);
+      root = roots.putIfAbsent(siteId, created);
+      if (root == null) {
+        PostMortemStore.putInQueue(s, created);
+        root = created;
+      }
+    }
+    rootsBySite.put(siteId, root);
+    return root;
+  }
+
   /**
    * A debugging method,
    */
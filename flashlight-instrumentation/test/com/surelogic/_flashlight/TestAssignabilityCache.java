@@ -0,0 +1,34 @@
+package com.surelogic._flashlight;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+
+public class TestAssignabilityCache extends TestCase {
+
+  public void testAnswersAndCounts() throws ClassNotFoundException {
+    AssignabilityCache c = new AssignabilityCache();
+    assertTrue(c.isAssignable(1, "java.util.List", ArrayList.class));
+    assertTrue(c.isAssignable(1, "java.util.List", ArrayList.class));
+    assertTrue(c.isAssignable(1, "java.util.List", LinkedList.class));
+    assertFalse(c.isAssignable(1, "java.util.List", String.class));
+    assertFalse(c.isAssignable(2, "java.util.RandomAccess", LinkedList.class));
+    assertFalse(c.isAssignable(2, "java.util.RandomAccess", LinkedList.class));
+    assertTrue(c.isAssignable(2, "java.util.RandomAccess", ArrayList.class));
+    // Sites past the table are not cached, but still answered
+    assertTrue(c.isAssignable(SiteTable.MAX_SITES, "java.util.List", ArrayList.class));
+    assertTrue(c.isAssignable(SiteTable.MAX_SITES, "java.util.List", ArrayList.class));
+    assertEquals("happens-before type checks: 2 hit(s) : 7 miss(es)", c.getStatistics());
+  }
+
+  public void testUnknownType() {
+    AssignabilityCache c = new AssignabilityCache();
+    try {
+      c.isAssignable(1, "com.example.DoesNotExist", Object.class);
+      fail();
+    } catch (ClassNotFoundException e) {
+      // Expected
+    }
+  }
+}
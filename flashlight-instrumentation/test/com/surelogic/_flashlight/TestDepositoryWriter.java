@@ -0,0 +1,92 @@
+package com.surelogic._flashlight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestDepositoryWriter extends TestCase {
+
+  /**
+   * A writer that does not need the store to be initialized.
+   */
+  private static DepositoryWriter start(final int poolSize) {
+    final DepositoryWriter writer = new DepositoryWriter(poolSize) {
+      @Override
+      public void run() {
+        drain();
+      }
+    };
+    writer.start();
+    return writer;
+  }
+
+  public void testOrderAndClose() throws IOException {
+    final DepositoryWriter writer = start(2);
+    final byte[] expected = new byte[5 * DepositoryWriter.BUFFER_SIZE + 17];
+    new Random(7).nextBytes(expected);
+    final ByteArrayOutputStream first = new ByteArrayOutputStream();
+    final ByteArrayOutputStream second = new ByteArrayOutputStream();
+    final OutputStream a = writer.open(first);
+    final OutputStream b = writer.open(second);
+    for (int i = 0; i < expected.length; i += 1000) {
+      final int n = Math.min(1000, expected.length - i);
+      a.write(expected, i, n);
+      b.write(expected[i]);
+      writer.endBatch();
+    }
+    a.close();
+    // Closing waits until everything handed off has been written
+    assertTrue(Arrays.equals(expected, first.toByteArray()));
+    b.flush();
+    writer.finish();
+    assertEquals(expected.length + (expected.length + 999) / 1000, writer.getBytesWritten());
+    assertEquals((expected.length + 999) / 1000, second.size());
+  }
+
+  public void testFailureIsReported() {
+    final DepositoryWriter writer = start(4);
+    final OutputStream s = writer.open(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("disk full");
+      }
+    });
+    try {
+      s.write(new byte[3 * DepositoryWriter.BUFFER_SIZE]);
+      s.close();
+      fail("close should report the failure");
+    } catch (final IOException e) {
+      assertEquals("disk full", e.getMessage());
+    } finally {
+      writer.finish();
+    }
+  }
+
+  public void testUncheckedFailureIsReported() throws IOException {
+    final DepositoryWriter writer = start(4);
+    final OutputStream bad = writer.open(new OutputStream() {
+      @Override
+      public void write(int b) {
+        throw new IllegalStateException("broken");
+      }
+    });
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OutputStream good = writer.open(out);
+    try {
+      bad.write(1);
+      bad.close();
+      fail("close should report the failure");
+    } catch (final IOException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    // The writer is still running
+    good.write(2);
+    good.close();
+    assertEquals(1, out.size());
+    writer.finish();
+  }
+}
@@ -0,0 +1,146 @@
+package com.surelogic._flashlight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import junit.framework.TestCase;
+
+import com.surelogic._flashlight.common.RawQueuePolicy;
+
+public class TestEventRingBuffer extends TestCase {
+
+  private static final int EVENTS = 200000;
+
+  private static final class Numbered extends Event {
+    final int n;
+
+    Numbered(final int n) {
+      this.n = n;
+    }
+
+    @Override
+    void accept(final EventVisitor v) {
+      // nothing to visit
+    }
+  }
+
+  public void testDrainEmpty() {
+    final EventRingBuffer b = new EventRingBuffer(16, RawQueuePolicy.BLOCK);
+    final List<Event> l = new ArrayList<Event>();
+    assertEquals(0, b.drainTo(l));
+    assertTrue(l.isEmpty());
+  }
+
+  public void testDropWhenFull() {
+    final EventRingBuffer b = new EventRingBuffer(10, RawQueuePolicy.DROP);
+    for (int i = 0; i < 20; i++) {
+      b.put(new Numbered(i), true);
+    }
+    final List<Event> l = new ArrayList<Event>();
+    assertEquals(16, b.drainTo(l));
+    assertEquals(4, b.getDroppedCount());
+    for (int i = 0; i < l.size(); i++) {
+      assertEquals(i, ((Numbered) l.get(i)).n);
+    }
+  }
+
+  public void testHighWaterWakesConsumer() throws InterruptedException {
+    final EventRingBuffer b = new EventRingBuffer(16, RawQueuePolicy.BLOCK);
+    assertEquals(12, b.getHighWater());
+    for (int i = 0; i < 11; i++) {
+      b.put(new Numbered(i), false);
+    }
+    b.setConsumer(Thread.currentThread());
+    final Thread producer = new Thread() {
+      @Override
+      public void run() {
+        b.put(new Numbered(11), false);
+      }
+    };
+    final long start = System.nanoTime();
+    producer.start();
+    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(10));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    producer.join();
+    assertEquals(12, b.drainTo(new ArrayList<Event>()));
+  }
+
+  public void testFieldAccessRecords() {
+    final EventRingBuffer b = new EventRingBuffer(16, RawQueuePolicy.BLOCK, 7);
+    b.put(new Numbered(0), false);
+    b.putFieldAccess(FieldAccessSlab.INSTANCE | FieldAccessSlab.WRITE, 100, 3, 42, 9);
+    b.putFieldAccess(FieldAccessSlab.UNDER_CONSTRUCTION, 200, 4, 0, 9);
+    b.put(new Numbered(1), false);
+    final List<Event> l = new ArrayList<Event>();
+    assertEquals(4, b.drainTo(l));
+    assertEquals(3, l.size());
+    assertEquals(0, ((Numbered) l.get(0)).n);
+    assertEquals(1, ((Numbered) l.get(2)).n);
+
+    final FieldAccessSlab slab = (FieldAccessSlab) l.get(1);
+    assertEquals(7, slab.getThreadId());
+    assertEquals(2, slab.size());
+    assertTrue(slab.isWrite(0));
+    assertTrue(slab.hasReceiver(0));
+    assertFalse(slab.isUnderConstruction(0));
+    assertEquals(100, slab.getNanoTime(0));
+    assertEquals(3, slab.getFieldId(0));
+    assertEquals(42, slab.getReceiverId(0));
+    assertEquals(9, slab.getTraceId(0));
+    assertFalse(slab.isWrite(1));
+    assertFalse(slab.hasReceiver(1));
+    assertTrue(slab.isUnderConstruction(1));
+
+    final FieldAccessSlab later = slab.splitAfter(150);
+    assertEquals(1, slab.size());
+    assertEquals(1, later.size());
+    assertEquals(200, later.getNanoTime(0));
+    assertNull(slab.splitAfter(150));
+    slab.release();
+    later.release();
+  }
+
+  public void testBlockInOrder() throws InterruptedException {
+    checkInOrder(RawQueuePolicy.BLOCK);
+  }
+
+  public void testSpinThenParkInOrder() throws InterruptedException {
+    checkInOrder(RawQueuePolicy.SPIN_THEN_PARK);
+  }
+
+  public void testDropKeepsUndroppable() throws InterruptedException {
+    checkInOrder(RawQueuePolicy.DROP);
+  }
+
+  /**
+   * Produces events faster than they are consumed, so the producer is
+   * regularly stopped by a full buffer, and checks that every event arrives
+   * once and in order.
+   */
+  private void checkInOrder(final RawQueuePolicy policy) throws InterruptedException {
+    final EventRingBuffer b = new EventRingBuffer(16, policy);
+    final Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < EVENTS; i++) {
+          b.put(new Numbered(i), false);
+        }
+      }
+    };
+    producer.start();
+    final List<Event> l = new ArrayList<Event>();
+    int expected = 0;
+    while (expected < EVENTS) {
+      l.clear();
+      b.drainTo(l);
+      for (final Event e : l) {
+        assertEquals(expected++, ((Numbered) e).n);
+      }
+    }
+    producer.join();
+    assertEquals(0, b.drainTo(l));
+    assertEquals(0, b.getDroppedCount());
+  }
+}
@@ -0,0 +1,61 @@
+package com.surelogic._flashlight;
+
+import junit.framework.TestCase;
+
+public class TestHistogram extends TestCase {
+
+  public void testTimes() {
+    Histogram h = new Histogram("wait", "ns", 41);
+    assertEquals(0, h.percentile(0.5));
+    for (int i = 0; i < 99; i++) {
+      h.record(100);
+    }
+    h.recordConcurrently(5000000);
+    assertEquals(100, h.getCount());
+    assertEquals(99 * 100 + 5000000, h.getTotal());
+    assertEquals(5000000, h.getMax());
+    assertEquals(127, h.percentile(0.5));
+    assertEquals(127, h.percentile(0.99));
+    assertEquals(5000000, h.percentile(1.0));
+    h.record(-1);
+    h.record(Long.MAX_VALUE);
+    assertEquals(102, h.getCount());
+    assertEquals(40, h.bucket(Long.MAX_VALUE));
+    // The last bucket holds everything from 2^39
+    assertEquals(39, h.bucket((1L << 39) - 1));
+    assertEquals(40, h.bucket(1L << 39));
+    assertEquals(Long.MAX_VALUE, h.percentile(1.0));
+    assertTrue(h.toString(), h.toString().endsWith("\n  " + (1L << 39) + " or more ns: 1"));
+  }
+
+  public void testAllBuckets() {
+    Histogram h = new Histogram("depth", "event(s)");
+    assertEquals(Histogram.MAX_BUCKETS, h.getBuckets());
+    h.record(0);
+    h.record(1);
+    h.record(6);
+    h.record(Long.MAX_VALUE);
+    assertEquals(63, h.bucket(Long.MAX_VALUE));
+    assertEquals("depth (4 samples)\n  0 event(s): 1\n  1 event(s): 1\n  4-7 event(s): 1\n  " + (1L << 62) + "-"
+        + Long.MAX_VALUE + " event(s): 1", h.toString());
+  }
+
+  public void testAdd() {
+    Histogram a = new Histogram("a", "ns", 10);
+    Histogram b = new Histogram("b", "ns", 10);
+    a.record(3);
+    b.recordConcurrently(3);
+    b.recordConcurrently(1000);
+    a.add(b);
+    assertEquals(3, a.getCount());
+    assertEquals(1006, a.getTotal());
+    assertEquals(1000, a.getMax());
+    assertEquals(2, b.getCount());
+    try {
+      a.add(new Histogram("c", "ns"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
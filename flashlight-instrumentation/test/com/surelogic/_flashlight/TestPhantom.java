@@ -62,6 +62,28 @@ public class TestPhantom extends TestCase {
     assertTrue(goneList.contains(pr2));
   }
 
+  public void testBatchedDrain() throws InterruptedException {
+    List<Object> objects = new LinkedList<Object>();
+    List<IdPhantomReference> refs = new LinkedList<IdPhantomReference>();
+    for (int i = 0; i < 10; i++) {
+      Object o = new Object();
+      objects.add(o);
+      refs.add(Phantom.of(o));
+    }
+    objects = null;
+    gc();
+    List<IdPhantomReference> goneList = new LinkedList<IdPhantomReference>();
+    assertEquals(4, Phantom.drainTo(goneList, 4, 100));
+    assertEquals(6, Phantom.drainTo(goneList, 100, 100));
+    assertTrue(goneList.containsAll(refs));
+    /*
+     * Nothing left, so this waits out the timeout.
+     */
+    final long start = System.nanoTime();
+    assertEquals(0, Phantom.drainTo(goneList, 100, 50));
+    assertTrue(System.nanoTime() - start >= 40000000L);
+  }
+
   /**
    * Runs the garbage collector and sleeps for a bit. This is a bit of a hack to
    * test the use of {@link PhantomReference}s within our code.
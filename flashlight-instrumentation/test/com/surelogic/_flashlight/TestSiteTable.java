@@ -0,0 +1,44 @@
+package com.surelogic._flashlight;
+
+import junit.framework.TestCase;
+
+public class TestSiteTable extends TestCase {
+
+  public void testGetAndPut() {
+    SiteTable<String> t = new SiteTable<String>();
+    assertNull(t.get(0));
+    assertNull(t.get(-1));
+    assertNull(t.get(1L << 40));
+    t.put(3, "three");
+    assertEquals("three", t.get(3));
+    t.put(3, "drei");
+    assertEquals("drei", t.get(3));
+    t.put(-1, "none");
+    assertNull(t.get(-1));
+    t.put(SiteTable.MAX_SITES, "none");
+    assertNull(t.get(SiteTable.MAX_SITES));
+  }
+
+  public void testHolds() {
+    assertTrue(SiteTable.holds(0));
+    assertTrue(SiteTable.holds(SiteTable.MAX_SITES - 1));
+    assertFalse(SiteTable.holds(SiteTable.MAX_SITES));
+    assertFalse(SiteTable.holds(-1));
+  }
+
+  public void testGrow() {
+    SiteTable<Long> t = new SiteTable<Long>();
+    for (long i = 0; i < 5000; i += 7) {
+      t.put(i, i);
+    }
+    t.put(100000, 100000L);
+    for (long i = 0; i < 5000; i++) {
+      if (i % 7 == 0) {
+        assertEquals(Long.valueOf(i), t.get(i));
+      } else {
+        assertNull(t.get(i));
+      }
+    }
+    assertEquals(Long.valueOf(100000), t.get(100000));
+  }
+}
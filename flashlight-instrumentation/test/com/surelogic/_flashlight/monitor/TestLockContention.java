@@ -0,0 +1,120 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+public class TestLockContention extends TestCase {
+
+  private final LockContention f_contention = new LockContention();
+
+  public void testStripes() {
+    LockContention.Stats stats = new LockContention.Stats(1);
+    long total = 0;
+    for (int stripe = 0; stripe < LockContention.STRIPES; stripe++) {
+      stats.recordWait(stripe, 100 * (stripe + 1));
+      stats.recordHold(stripe, 5);
+      total += 100 * (stripe + 1);
+    }
+    stats.recordWait(0, LockContention.CONTENDED_NANOS);
+    assertEquals(LockContention.STRIPES + 1, stats.waits().getCount());
+    assertEquals(LockContention.CONTENDED_NANOS, stats.waits().getMax());
+    assertEquals(total + LockContention.CONTENDED_NANOS, stats.getWaitTotal());
+    assertEquals(stats.getWaitTotal(), stats.waits().getTotal());
+    assertEquals(LockContention.STRIPES, stats.holds().getCount());
+    assertEquals(1, stats.contended.get());
+    assertTrue(stats.toString(), stats.toString().startsWith("1 of " + (LockContention.STRIPES + 1) + " acquisitions contended; wait total "));
+  }
+
+  public void testUncontendedLocksAreNotProfiled() {
+    // Without the start of the acquisition there is no wait
+    f_contention.afterAcquire(1, 10, true);
+    f_contention.release(1);
+    assertNull(f_contention.getLock(1));
+    assertNull(f_contention.getSite(10));
+  }
+
+  public void testContendedLock() throws InterruptedException {
+    final CountDownLatch waiting = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        f_contention.beforeAcquire();
+        waiting.countDown();
+        try {
+          released.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        f_contention.afterAcquire(1, 11, true);
+        f_contention.release(1);
+      }
+    };
+    f_contention.afterAcquire(1, 10, true);
+    waiter.start();
+    waiting.await();
+    Thread.sleep(5);
+    f_contention.release(1);
+    released.countDown();
+    waiter.join();
+
+    LockContention.LockStats lock = f_contention.getLock(1);
+    assertNotNull(lock);
+    assertEquals(1, lock.contended.get());
+    assertEquals(1, lock.waits().getCount());
+    assertTrue(lock.waits().getMax() >= 5000000);
+    assertEquals(1, lock.holds().getCount());
+    assertEquals(1, lock.sites().length);
+    assertEquals(11, lock.sites()[0][0]);
+    assertNull(f_contention.getSite(10));
+    assertEquals(1, f_contention.getSite(11).holds().getCount());
+
+    String report = f_contention.report(Collections.singletonMap(1L, "Lock-1"), new SiteLines(null));
+    assertTrue(report, report.startsWith(LockContention.LOCKS_HEADING + "\nLock-1: 1 of 1 acquisitions contended"));
+    assertTrue(report, report.contains("\n\tsite 11: waited "));
+    assertTrue(report, report.contains(LockContention.SITES_HEADING + "\nsite 11: "));
+
+    // Later acquisitions are profiled even when not contended
+    f_contention.afterAcquire(1, 12, true);
+    f_contention.release(1);
+    assertEquals(2, lock.waits().getCount());
+    assertEquals(1, lock.contended.get());
+
+    f_contention.gc(1);
+    assertNull(f_contention.getLock(1));
+  }
+
+  public void testReentrantAndWait() throws InterruptedException {
+    f_contention.beforeAcquire();
+    Thread.sleep(2);
+    f_contention.afterAcquire(1, 10, true);
+    f_contention.beforeAcquire();
+    f_contention.afterAcquire(1, 10, true);
+    f_contention.waitOn(true, 1);
+    Thread.sleep(20);
+    f_contention.waitOn(false, 1);
+    f_contention.release(1);
+    LockContention.Stats site = f_contention.getSite(10);
+    assertEquals(1, site.waits().getCount());
+    assertEquals(0, site.holds().getCount());
+    f_contention.release(1);
+    assertEquals(1, site.holds().getCount());
+    assertTrue(site.holds().getMax() < 20000000);
+  }
+
+  public void testSitesPerLockAreBounded() {
+    LockContention.LockStats lock = new LockContention.LockStats(1);
+    for (int i = 0; i < LockContention.SITES_PER_LOCK; i++) {
+      lock.recordSite(i, 100 + 2 * i);
+    }
+    lock.recordSite(100, 1);
+    long[][] sites = lock.sites();
+    assertEquals(LockContention.SITES_PER_LOCK, sites.length);
+    // The new site took the place of the least waited for one
+    assertEquals(100, sites[sites.length - 1][0]);
+    assertEquals(101, sites[sites.length - 1][1]);
+    assertEquals(LockContention.SITES_PER_LOCK - 1, sites[0][0]);
+  }
+}
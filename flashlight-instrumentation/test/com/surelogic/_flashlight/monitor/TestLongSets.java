@@ -0,0 +1,139 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestLongSets extends TestCase {
+
+  public void testInterning() {
+    LongSets sets = new LongSets();
+    LongSets.Cache cache = new LongSets.Cache(sets);
+    assertEquals(0, sets.get(LongSets.EMPTY).length);
+    int a = cache.with(cache.with(LongSets.EMPTY, 7), 3);
+    int b = cache.with(cache.with(LongSets.EMPTY, 3), 7);
+    assertEquals(a, b);
+    assertTrue(Arrays.equals(new long[] { 3, 7 }, sets.get(a)));
+    assertEquals(a, cache.with(a, 7));
+    int c = cache.with(cache.with(LongSets.EMPTY, 7), 9);
+    int seven = cache.without(c, 9);
+    assertEquals(seven, cache.intersect(a, c));
+    assertEquals(seven, sets.intersect(c, a));
+    assertEquals(LongSets.EMPTY, cache.intersect(LongSets.EMPTY, c));
+    assertEquals(LongSets.EMPTY, cache.without(seven, 7));
+    assertTrue(sets.containsAll(c, seven));
+    assertFalse(sets.containsAll(c, a));
+    assertEquals(a, sets.intern(new HashSet<Long>(Arrays.asList(7L, 3L))));
+    assertEquals(new HashSet<Long>(Arrays.asList(7L, 9L)), sets.toSet(c));
+  }
+
+  public void testIntersections() {
+    Random r = new Random(3);
+    LongSets sets = new LongSets();
+    LongSets.Cache cache = new LongSets.Cache(sets);
+    for (int i = 0; i < 2000; i++) {
+      Set<Long> x = randomSet(r);
+      Set<Long> y = randomSet(r);
+      Set<Long> both = new HashSet<Long>(x);
+      both.retainAll(y);
+      int xs = sets.intern(x);
+      int ys = sets.intern(y);
+      assertEquals(both, sets.toSet(cache.intersect(xs, ys)));
+      assertEquals(sets.intern(both), cache.intersect(ys, xs));
+    }
+    // Ten values have 1024 subsets
+    assertTrue(sets.size() <= 1024);
+  }
+
+  public void testFull() {
+    LongSets sets = new LongSets(3);
+    int a = sets.with(LongSets.EMPTY, 1);
+    int b = sets.with(a, 2);
+    assertFalse(sets.isFull());
+    // The fourth set is not interned
+    assertEquals(LongSets.EMPTY, sets.with(b, 3));
+    assertTrue(sets.isFull());
+    assertEquals(3, sets.size());
+    assertEquals(LongSets.EMPTY, sets.with(LongSets.EMPTY, 2));
+    assertEquals(b, sets.with(a, 2));
+    assertEquals(a, sets.without(b, 2));
+    assertEquals(a, sets.intersect(a, b));
+  }
+
+  public void testManyIntersections() {
+    LongSets sets = new LongSets();
+    int[] singles = new int[400];
+    for (int i = 0; i < singles.length; i++) {
+      singles[i] = sets.with(sets.with(LongSets.EMPTY, 0), i + 1);
+    }
+    // 400 * 399 / 2 pairs is more than the intersections remembered
+    assertTrue(singles.length * (singles.length - 1) / 2 > LongSets.MAX_INTERSECTIONS);
+    int zero = sets.with(LongSets.EMPTY, 0);
+    for (int i = 0; i < singles.length; i++) {
+      for (int j = i + 1; j < singles.length; j++) {
+        assertEquals(zero, sets.intersect(singles[i], singles[j]));
+      }
+    }
+  }
+
+  private static Set<Long> randomSet(Random r) {
+    Set<Long> set = new HashSet<Long>();
+    for (long id = 0; id < 10; id++) {
+      if (r.nextBoolean()) {
+        set.add(id * 1000);
+      }
+    }
+    return set;
+  }
+
+  public void testLongIntMap() {
+    Random r = new Random(5);
+    LongIntMap map = new LongIntMap();
+    Map<Long, Integer> expected = new HashMap<Long, Integer>();
+    for (int i = 0; i < 100000; i++) {
+      long key = r.nextInt(500) - 10;
+      if (r.nextInt(3) == 0) {
+        assertEquals(expected.remove(key) != null, map.remove(key));
+      } else {
+        map.put(key, i);
+        expected.put(key, i);
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    for (long key = -10; key < 490; key++) {
+      Integer value = expected.get(key);
+      assertEquals(value != null, map.containsKey(key));
+      assertEquals(value == null ? -1 : value.intValue(), map.get(key, -1));
+    }
+    long[] keys = map.keys();
+    Arrays.sort(keys);
+    assertEquals(expected.size(), keys.length);
+    for (long key : keys) {
+      assertTrue(expected.containsKey(key));
+    }
+  }
+
+  public void testLongObjectMap() {
+    Random r = new Random(9);
+    LongObjectMap<String> map = new LongObjectMap<String>();
+    Map<Long, String> expected = new HashMap<Long, String>();
+    for (int i = 0; i < 100000; i++) {
+      long key = r.nextInt(500) - 10;
+      if (r.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), map.remove(key));
+      } else {
+        map.put(key, "v" + i);
+        expected.put(key, "v" + i);
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    for (long key = -10; key < 490; key++) {
+      assertEquals(expected.get(key), map.get(key));
+    }
+  }
+}
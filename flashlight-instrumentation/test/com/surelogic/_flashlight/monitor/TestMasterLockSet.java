@@ -0,0 +1,115 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import com.surelogic._flashlight.common.FieldDef;
+import com.surelogic._flashlight.common.FieldDefs;
+
+public class TestMasterLockSet extends TestCase {
+
+  public void testSharedFields() {
+    FieldDefs defs = new FieldDefs("1 C a 0\n4 C d 8\n");
+    FieldDef instance = defs.get(1L);
+    FieldDef statik = defs.get(4L);
+    SharedFields shared = new SharedFields();
+    assertFalse(shared.sharedField(4, 100));
+    assertFalse(shared.sharedField(4, 100));
+    assertTrue(shared.isConfinedTo(statik, Collections.singleton(100L)));
+    assertTrue(shared.sharedField(4, 101));
+    assertFalse(shared.sharedField(4, 102));
+    assertTrue(shared.isShared(statik));
+    assertFalse(shared.isConfinedTo(statik, Collections.singleton(100L)));
+    assertTrue(shared.isConfinedTo(statik, new HashSet<Long>(Arrays.asList(100L, 101L, 102L))));
+
+    assertFalse(shared.sharedField(7, 1, 100));
+    assertFalse(shared.sharedField(8, 1, 101));
+    assertFalse(shared.isShared(instance));
+    assertTrue(shared.isConfinedTo(instance, new HashSet<Long>(Arrays.asList(100L, 101L))));
+    assertTrue(shared.sharedField(8, 1, 100));
+    assertTrue(shared.isShared(8, 1));
+    assertTrue(shared.isShared(instance));
+    assertEquals(new HashSet<Long>(Arrays.asList(1L, 4L)), shared.calculateSharedFields());
+    shared.remove(8);
+    assertFalse(shared.isShared(instance));
+    assertTrue(shared.isConfinedTo(instance, Collections.singleton(100L)));
+  }
+
+  /**
+   * Drains random activity from a few threads, and checks that the answers
+   * computed from the touched fields match the ones computed from scratch.
+   */
+  public void testIncrementalChecks() {
+    Random r = new Random(17);
+    // Fields 1 to 3 are instance fields, 4 and 5 static
+    FieldDefs defs = new FieldDefs("1 C a 0\n2 C b 0\n3 C c 0\n4 C d 8\n5 C e 8\n");
+    SharedFields shared = new SharedFields();
+    LongSets lockSetIds = new LongSets();
+    MasterLockSet master = new MasterLockSet(defs, shared, lockSetIds);
+    List<ThreadLocks> threads = new ArrayList<ThreadLocks>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new ThreadLocks("t" + t, 100 + t, t == 0, new ConcurrentHashMap<Long, ReadWriteLockIds>(), lockSetIds));
+    }
+    List<List<Long>> held = new ArrayList<List<Long>>();
+    for (int t = 0; t < threads.size(); t++) {
+      held.add(new ArrayList<Long>());
+    }
+    boolean[] everShared = new boolean[6];
+    boolean[] notEDT = new boolean[6];
+    for (int round = 0; round < 200; round++) {
+      for (int i = 0; i < 50; i++) {
+        int t = r.nextInt(threads.size());
+        ThreadLocks tl = threads.get(t);
+        List<Long> locks = held.get(t);
+        int choice = r.nextInt(4);
+        if (choice == 0) {
+          long lock = 1000 + r.nextInt(3);
+          tl.enterLock(lock);
+          locks.add(lock);
+        } else if (choice == 1 && !locks.isEmpty()) {
+          tl.leaveLock(locks.remove(locks.size() - 1));
+        } else {
+          long field = 1 + r.nextInt(5);
+          if (field >= 4) {
+            tl.field(field, false);
+          } else {
+            tl.field(field, 1 + r.nextInt(4), r.nextInt(10) == 0);
+          }
+          notEDT[(int) field] |= t != 0;
+        }
+      }
+      for (ThreadLocks tl : threads) {
+        master.drain(tl);
+      }
+      if (r.nextInt(10) == 0) {
+        long receiver = 1 + r.nextInt(4);
+        master.purge(receiver);
+        shared.remove(receiver);
+      }
+      LongIntMap touched = master.takeTouchedFields();
+      LockSetInfo info = master.getLockSetInfo();
+      for (FieldDef field : defs.values()) {
+        int id = (int) field.getId();
+        int flags = touched.get(id, 0);
+        assertEquals(info.hasLockSet(field), master.hasLockSet(field));
+        // Each receiver of an instance field may become shared
+        if ((flags & MasterLockSet.NEWLY_SHARED) != 0) {
+          everShared[id] = true;
+        }
+        if (shared.isShared(field)) {
+          assertTrue(everShared[id]);
+        }
+        if ((flags & MasterLockSet.NOT_EDT) != 0) {
+          assertTrue(notEDT[id]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,272 @@
+package com.surelogic._flashlight.monitor;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import junit.framework.TestCase;
+
+import com.surelogic._flashlight.common.FieldDefs;
+import com.surelogic._flashlight.common.HappensBeforeConfig;
+
+public class TestRaceStore extends TestCase {
+
+  private static final String CONFIG = "<happens-before>"
+      + "<thread type=\"java.lang.Thread\" id=\"Thread start\"><method decl=\"start()\" hb=\"from\" /></thread>"
+      + "<thread type=\"java.lang.Thread\" id=\"Thread join\"><method decl=\"join()\" hb=\"to\" /></thread>"
+      + "<object type=\"java.util.concurrent.CountDownLatch\" id=\"latch\">"
+      + "<method decl=\"countDown()\" hb=\"source\" /><method decl=\"await()\" hb=\"target\" /></object>"
+      + "</happens-before>";
+
+  private static final long COUNT_DOWN_SITE = 5;
+  private static final long AWAIT_SITE = 6;
+  private static final long START_SITE = 7;
+
+  // Field 1 is plain, field 2 volatile
+  private final FieldDefs f_defs = new FieldDefs("1 C a 0\n2 C v 40\n");
+  private RaceStore f_store;
+
+  @Override
+  protected void setUp() throws Exception {
+    HappensBeforeConfig config = new HappensBeforeConfig().parse(new ByteArrayInputStream(CONFIG.getBytes("UTF-8")));
+    HappensBeforeRoles roles = new HappensBeforeRoles(config);
+    roles.readSiteLine(COUNT_DOWN_SITE + " T.java T false run ()V 1 10 countDown java/util/concurrent/CountDownLatch ()V 1");
+    roles.readSiteLine(AWAIT_SITE + " T.java T false run ()V 1 11 await java/util/concurrent/CountDownLatch ()V 1");
+    roles.readSiteLine(START_SITE + " T.java T false run ()V 1 12 start java/lang/Thread ()V 1");
+    f_store = new RaceStore();
+    f_store.init(f_defs, roles);
+  }
+
+  /**
+   * Runs some code in a thread the store does not see start or end.
+   */
+  private static void runAlone(final Runnable r) throws InterruptedException {
+    Thread t = new Thread(r);
+    t.start();
+    t.join();
+  }
+
+  private void write(final Object o, final long site) {
+    f_store.instanceFieldAccess(false, o, 1, site, null, null);
+  }
+
+  private void read(final Object o, final long site) {
+    f_store.instanceFieldAccess(true, o, 1, site, null, null);
+  }
+
+  public void testUnorderedWrites() throws InterruptedException {
+    final Object o = new Object();
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 100);
+      }
+    });
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 101);
+        read(o, 102);
+      }
+    });
+    assertEquals(1, f_store.getRaces().size());
+    RaceStore.Race race = f_store.getRaces().iterator().next();
+    assertEquals(RaceStore.Kind.WRITE_WRITE, race.kind);
+    assertEquals(100, race.firstSite);
+    assertEquals(101, race.secondSite);
+  }
+
+  public void testSharedReadsThenWrite() throws InterruptedException {
+    final Object o = new Object();
+    for (int i = 0; i < 2; i++) {
+      final int site = 200 + i;
+      runAlone(new Runnable() {
+        @Override
+        public void run() {
+          read(o, site);
+        }
+      });
+    }
+    assertTrue(f_store.getRaces().isEmpty());
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 210);
+      }
+    });
+    assertEquals(1, f_store.getRaces().size());
+    assertEquals(RaceStore.Kind.READ_WRITE, f_store.getRaces().iterator().next().kind);
+  }
+
+  public void testStaticFields() throws InterruptedException {
+    final Object lock = new Object();
+    for (int i = 0; i < 2; i++) {
+      final int site = 250 + i;
+      runAlone(new Runnable() {
+        @Override
+        public void run() {
+          f_store.afterIntrinsicLockAcquisition(lock, false, 1);
+          f_store.staticFieldAccess(false, 1, site, null, null);
+          f_store.afterIntrinsicLockRelease(lock, false, 1);
+          // The volatile field is never racy
+          f_store.staticFieldAccess(false, 2, site, null, null);
+        }
+      });
+    }
+    assertTrue(f_store.getRaces().isEmpty());
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        f_store.staticFieldAccess(true, 1, 260, null, null);
+      }
+    });
+    assertEquals(1, f_store.getRaces().size());
+    RaceStore.Race race = f_store.getRaces().iterator().next();
+    assertEquals(RaceStore.Kind.WRITE_READ, race.kind);
+    assertEquals(0, race.receiver);
+    assertEquals(251, race.firstSite);
+  }
+
+  public void testLockOrdersAccesses() throws InterruptedException {
+    final Object o = new Object();
+    final Object lock = new Object();
+    for (int i = 0; i < 3; i++) {
+      runAlone(new Runnable() {
+        @Override
+        public void run() {
+          f_store.afterIntrinsicLockAcquisition(lock, false, 1);
+          read(o, 300);
+          write(o, 301);
+          f_store.afterIntrinsicLockRelease(lock, false, 1);
+        }
+      });
+    }
+    assertTrue(f_store.getRaces().isEmpty());
+  }
+
+  /**
+   * The second thread takes the lock before the first reports its release.
+   */
+  public void testLockTakenBeforeReleaseReported() throws InterruptedException {
+    final Object o = new Object();
+    final ReentrantLock lock = new ReentrantLock();
+    final CountDownLatch released = new CountDownLatch(1);
+    final CountDownLatch taken = new CountDownLatch(1);
+    Thread first = new Thread() {
+      @Override
+      public void run() {
+        lock.lock();
+        f_store.afterUtilConcurrentLockAcquisitionAttempt(true, lock, 1);
+        write(o, 400);
+        lock.unlock();
+        released.countDown();
+        try {
+          taken.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        f_store.afterUtilConcurrentLockReleaseAttempt(true, lock, 1);
+      }
+    };
+    first.start();
+    released.await();
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        lock.lock();
+        f_store.afterUtilConcurrentLockAcquisitionAttempt(true, lock, 2);
+        write(o, 401);
+        lock.unlock();
+        f_store.afterUtilConcurrentLockReleaseAttempt(true, lock, 2);
+      }
+    });
+    taken.countDown();
+    first.join();
+    assertTrue(f_store.getRaces().isEmpty());
+  }
+
+  public void testVolatilePublishes() throws InterruptedException {
+    final Object o = new Object();
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 500);
+        f_store.instanceFieldAccess(false, o, 2, 501, null, null);
+      }
+    });
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        f_store.instanceFieldAccess(true, o, 2, 502, null, null);
+        read(o, 503);
+      }
+    });
+    assertTrue(f_store.getRaces().isEmpty());
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 504);
+      }
+    });
+    // Races with both the first write and the read
+    assertEquals(2, f_store.getRaces().size());
+  }
+
+  public void testObjectSourceAndTarget() throws InterruptedException {
+    final Object o = new Object();
+    final CountDownLatch latch = new CountDownLatch(1);
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 600);
+        f_store.happensBeforeObject("latch", latch, COUNT_DOWN_SITE, null, 0);
+      }
+    });
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        // The store hears of await once it returns
+        f_store.happensBeforeObject("latch", latch, AWAIT_SITE, null, 0);
+        write(o, 601);
+      }
+    });
+    assertTrue(f_store.getRaces().isEmpty());
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        // countDown is not a target
+        f_store.happensBeforeObject("latch", latch, COUNT_DOWN_SITE, null, 0);
+        write(o, 602);
+      }
+    });
+    assertEquals(1, f_store.getRaces().size());
+  }
+
+  public void testStartAndJoin() throws InterruptedException {
+    final Object o = new Object();
+    final Thread child = new Thread() {
+      @Override
+      public void run() {
+        write(o, 701);
+      }
+    };
+    runAlone(new Runnable() {
+      @Override
+      public void run() {
+        write(o, 700);
+        // The rewriter reports the call to start before it is made
+        f_store.methodCall(true, child, START_SITE);
+        child.start();
+        f_store.happensBeforeThread("Thread start", child, START_SITE, null, 0);
+        try {
+          child.join();
+        } catch (InterruptedException e) {
+          return;
+        }
+        f_store.happensBeforeThread("Thread join", child, 8, null, 0);
+        write(o, 702);
+      }
+    });
+    assertTrue(f_store.getRaces().isEmpty());
+  }
+}
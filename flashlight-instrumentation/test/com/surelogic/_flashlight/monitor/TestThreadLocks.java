@@ -0,0 +1,57 @@
+package com.surelogic._flashlight.monitor;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+public class TestThreadLocks extends TestCase {
+
+  /**
+   * One thread records accesses to distinct objects while another swaps its
+   * buffers. Every access must be drained exactly once, with the lock set it
+   * was recorded with.
+   */
+  public void testSwapWhileRecording() throws InterruptedException {
+    final int accesses = 500000;
+    final LongSets lockSetIds = new LongSets();
+    final ThreadLocks tl = new ThreadLocks("writer", 1, false, new ConcurrentHashMap<Long, ReadWriteLockIds>(), lockSetIds);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (long receiver = 1; receiver <= accesses; receiver++) {
+          boolean locked = receiver % 2 == 0;
+          if (locked) {
+            tl.enterLock(7);
+          }
+          tl.field(1, receiver, false);
+          if (locked) {
+            tl.leaveLock(7);
+          }
+        }
+      }
+    };
+    writer.start();
+    int lockSet = lockSetIds.with(LongSets.EMPTY, 7);
+    boolean[] seen = new boolean[accesses + 1];
+    int count = 0;
+    int swaps = 0;
+    boolean last = false;
+    while (!last) {
+      // Take one more buffer after the writer is done
+      last = !writer.isAlive();
+      ThreadLocks.Buffer b = tl.swap();
+      swaps++;
+      for (long receiver : b.lockSets.keys()) {
+        assertFalse(seen[(int) receiver]);
+        seen[(int) receiver] = true;
+        count++;
+        int expected = receiver % 2 == 0 ? lockSet : LongSets.EMPTY;
+        assertEquals(expected, b.lockSets.get(receiver).get(1, ThreadLocks.NO_LOCK_SET));
+      }
+      assertTrue(count <= accesses);
+    }
+    writer.join();
+    assertEquals(accesses, count);
+    assertTrue(swaps > 1);
+  }
+}
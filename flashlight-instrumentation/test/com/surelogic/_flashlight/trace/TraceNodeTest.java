@@ -2,6 +2,10 @@ package com.surelogic._flashlight.trace;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -63,6 +67,59 @@ public class TraceNodeTest extends TestCase {
     System.out.printf("Elapsed trace reuse time: %dms", System.currentTimeMillis() - time);
   }
 
+  /**
+   * Many threads push random paths, some through nodes with enough children to
+   * be indexed, at once. Every thread must see the same node for a path, and
+   * no site may be added to a node twice.
+   */
+  public void testConcurrentPush() throws Throwable {
+    final int threads = 16, paths = 20000, depth = 4;
+    final TraceNode root = TraceNode.newTraceNode(0);
+    final ConcurrentHashMap<String, TraceNode> seen = new ConcurrentHashMap<String, TraceNode>();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threadList = new ArrayList<Thread>(threads);
+    for (int i = 0; i < threads; i++) {
+      final long seed = i;
+      threadList.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            Random r = new Random(seed);
+            for (int p = 0; p < paths; p++) {
+              TraceNode node = root;
+              StringBuilder path = new StringBuilder();
+              for (int d = 0; d < depth; d++) {
+                // Wide at the top, so the root is indexed
+                int site = r.nextInt(d == 0 ? 200 : 3);
+                path.append(site).append('/');
+                node = node.pushTraceNode(site);
+                TraceNode first = seen.putIfAbsent(path.toString(), node);
+                if (first != null && first != node) {
+                  throw new AssertionError("Two nodes for " + path);
+                }
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+    for (Thread t : threadList) {
+      t.start();
+    }
+    start.countDown();
+    for (Thread t : threadList) {
+      t.join();
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    assertEquals(seen.size() + 1, root.getNodeCount());
+  }
+
   public void testNodeCounts() {
     for (int depth = 1; depth < 8; depth++) {
       for (int branchFactor = 0; branchFactor <= 2; branchFactor++) {